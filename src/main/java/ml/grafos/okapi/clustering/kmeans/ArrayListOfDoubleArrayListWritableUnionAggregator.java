@@ -0,0 +1,24 @@
+package ml.grafos.okapi.clustering.kmeans;
+
+import ml.grafos.okapi.common.data.ArrayListOfDoubleArrayListWritable;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+
+/**
+ * Collects all the aggregated points in a list.
+ * Used for the candidate centers of the k-means|| initialization.
+ */
+public class ArrayListOfDoubleArrayListWritableUnionAggregator extends 
+	BasicAggregator<ArrayListOfDoubleArrayListWritable> {
+
+	@Override
+	public void aggregate(ArrayListOfDoubleArrayListWritable other) {
+		getAggregatedValue().addAll(other);
+	}
+
+	@Override
+	public ArrayListOfDoubleArrayListWritable createInitialValue() {
+		return new ArrayListOfDoubleArrayListWritable();
+	}
+
+}
@@ -0,0 +1,37 @@
+package ml.grafos.okapi.clustering.kmeans;
+
+import ml.grafos.okapi.common.data.DoubleArrayWritable;
+
+import org.apache.giraph.aggregators.BasicAggregator;
+
+/**
+ * Element-wise sum of arrays of doubles.
+ * The first aggregated array sets the size of the aggregated value.
+ */
+public class DoubleArraySumAggregator extends BasicAggregator<DoubleArrayWritable> {
+
+	@Override
+	public void aggregate(DoubleArrayWritable other) {
+		double[] aggrValue = getAggregatedValue().get();
+		double[] otherValue = other.get();
+		if ( aggrValue.length == 0 ) {
+			// first-time creation
+			getAggregatedValue().set(otherValue.clone());
+		}
+		else if ( aggrValue.length != otherValue.length ) {
+			throw new IndexOutOfBoundsException("The value to be aggregated " +
+					"must have the same size as the aggregator value");
+		}
+		else {
+			for ( int i = 0; i < otherValue.length; i ++ ) {
+				aggrValue[i] += otherValue[i];
+			}
+		}
+	}
+
+	@Override
+	public DoubleArrayWritable createInitialValue() {
+		return new DoubleArrayWritable();
+	}
+	
+}
@@ -1,19 +1,29 @@
 package ml.grafos.okapi.clustering.kmeans;
 
 import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
 
 import ml.grafos.okapi.common.data.ArrayListOfDoubleArrayListWritable;
 import ml.grafos.okapi.common.data.DoubleArrayListWritable;
+import ml.grafos.okapi.common.data.DoubleArrayWritable;
 
-import org.apache.giraph.aggregators.IntSumAggregator;
+import org.apache.giraph.aggregators.BooleanOverwriteAggregator;
+import org.apache.giraph.aggregators.DoubleOverwriteAggregator;
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.aggregators.IntOverwriteAggregator;
+import org.apache.giraph.aggregators.LongSumAggregator;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.BooleanWritable;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
-import org.python.modules.math;
+
+import com.google.common.collect.Lists;
 
 /**
  * 
@@ -21,13 +31,36 @@ import org.python.modules.math;
  * The input consists of data points with a <code>pointID</code> and a vector of coordinates.
  * 
  * The algorithm is iterative and works as follows.
- * In the initialization phase, <code>k</code> clusters are chosen from the input points at random.
+ * In the initialization phase, <code>k</code> clusters are chosen from the input points at random,
+ * or with the k-means|| (scalable k-means++) seeding if {@link #INITIALIZATION} is set to
+ * <code>kmeans||</code>.
  * 
  * In each iteration:
  * 1. each data point is assigned to the cluster center which is closest to it, by means of euclidean distance
  * 2. new cluster centers are recomputed, by calculating the arithmetic mean of the assigned points
  * 
- * Convergence is reached when the positions of the cluster centers do not change.
+ * Convergence is reached when the cluster centers move less than {@link #MOVEMENT_THRESHOLD}
+ * in total, or when the fraction of points that changed cluster is not above
+ * {@link #CHANGED_THRESHOLD}, which is 0 by default.
+ * Only the points that changed cluster send their coordinates to the master, which
+ * subtracts them from the sums of the old center and adds them to the sums of the new one.
+ *
+ * In mini-batch mode ({@link #MINI_BATCH_FRACTION} below 1) only a random fraction of the points
+ * is assigned and contributes to the centers in each iteration, and every center moves towards
+ * the mean of its new points with a rate that decreases with the number of points it has seen.
+ * All the points are assigned once more after convergence. Since the centers keep moving
+ * slightly with every mini-batch, these runs usually stop after {@link #MAX_ITERATIONS}.
+ *
+ * In accelerated mode ({@link #ACCELERATED}) each point keeps an upper bound on its distance
+ * from its center and a lower bound on its distance from any other center. The master sends
+ * how far each center moved and half the distance from each center to the closest other center,
+ * and a point only computes distances when the triangle inequality cannot prove that its
+ * center is still the closest one. The assignments are the same as without bounds.
+ * The number of distance computations and of skipped ones are reported as counters.
+ *
+ * k-means||: Bahmani et al., Scalable K-Means++, VLDB 2012.
+ * Mini-batch: Sculley, Web-Scale K-Means Clustering, WWW 2010.
+ * Bounds: Hamerly, Making k-means even faster, SDM 2010.
  *
  * http://en.wikipedia.org/wiki/K-means_clustering
  * 
@@ -35,17 +68,30 @@ import org.python.modules.math;
 public class KMeansClustering {
 
   /**
-   * The prefix for the cluster center aggregators, used to store the cluster centers coordinates.
-   * Each of them aggregates the vector coordinates of points assigned to the cluster center,
-   * in order to compute the means as the coordinates of the new cluster centers.
+   * The cluster centers coordinates, set by the master in every iteration.
+   * The <code>d</code> coordinates of center <code>i</code> start at
+   * position <code>i * d</code> of a single array.
+   */
+  public static final String CENTERS = "kmeans.centers";
+
+  /**
+   * The sums of the coordinates of the points assigned to each cluster center,
+   * followed by their number, in order to compute the means as the coordinates
+   * of the new cluster centers. The <code>d + 1</code> values of center
+   * <code>i</code> start at position <code>i * (d + 1)</code> of a single array.
    */
-  public static final String CENTER_AGGR_PREFIX = "center.aggr.prefix";
+  public static final String CENTER_SUMS = "kmeans.center.sums";
 
   /**
-   * The prefix for the aggregators used to store the number of points 
-   * assigned to each cluster center
+   * Set by the master in the first iteration, when every point adds its
+   * coordinates to the sums of its center. In the next iterations only the
+   * points that changed center update the sums, except in mini-batch mode.
    */
-  public static final String ASSIGNED_POINTS_PREFIX = "assigned.points.prefix";
+  public static final String RESET_SUMS = "kmeans.reset.sums";
+  /** Number of points that changed cluster in the last iteration */
+  public static final String CHANGED_ASSIGNMENTS = "kmeans.changed.assignments";
+  /** Sum of the absolute changes of the center coordinates in the last iteration, set by the master */
+  public static final String CENTER_MOVEMENT = "kmeans.center.movement";
   
   /** The initial centers aggregator*/
   public static final String INITIAL_CENTERS = "kmeans.initial.centers";
@@ -54,6 +100,14 @@ public class KMeansClustering {
   public static final String MAX_ITERATIONS = "kmeans.iterations";
   /** Default value for iterations */
   public static final int ITERATIONS_DEFAULT = 100;
+  /** Fraction of points that may still change cluster when the computation halts */
+  public static final String CHANGED_THRESHOLD = "kmeans.changed.threshold";
+  /** Halt when no point changes cluster by default */
+  public static final float CHANGED_THRESHOLD_DEFAULT = 0f;
+  /** Total movement of the centers below which the computation halts */
+  public static final String MOVEMENT_THRESHOLD = "kmeans.movement.threshold";
+  /** Default movement threshold */
+  public static final float MOVEMENT_THRESHOLD_DEFAULT = 0.001f;
   /** Number of cluster centers */
   public static final String CLUSTER_CENTERS_COUNT = "kmeans.cluster.centers.count";
   /** Default number of cluster centers */
@@ -66,6 +120,97 @@ public class KMeansClustering {
   public static final String PRINT_FINAL_CENTERS = "kmeans.print.final.centers";
   /** False by default **/
   public static final boolean PRINT_FINAL_CENTERS_DEFAULT = false;
+  /** Initialization of the centers, random or kmeans|| */
+  public static final String INITIALIZATION = "kmeans.initialization";
+  /** Random initialization by default */
+  public static final String INITIALIZATION_DEFAULT = "random";
+  /** Number of sampling rounds of the k-means|| initialization */
+  public static final String SEEDING_ROUNDS = "kmeans.seeding.rounds";
+  /** Default number of sampling rounds */
+  public static final int SEEDING_ROUNDS_DEFAULT = 5;
+  /** Expected number of points sampled in each round of k-means||, as a multiple of k */
+  public static final String OVERSAMPLING = "kmeans.seeding.oversampling";
+  /** Default oversampling factor */
+  public static final float OVERSAMPLING_DEFAULT = 2f;
+  /** Fraction of the points sampled in each iteration, 1 to use all the points */
+  public static final String MINI_BATCH_FRACTION = "kmeans.minibatch.fraction";
+  /** All the points are used by default */
+  public static final float MINI_BATCH_FRACTION_DEFAULT = 1f;
+
+  /** Parameter that enables the assignment with distance bounds, not with mini-batches */
+  public static final String ACCELERATED = "kmeans.accelerated";
+  /** Disabled by default */
+  public static final boolean ACCELERATED_DEFAULT = false;
+
+  /** Counter group for the KMeans counters */
+  public static final String COUNTER_GROUP = "KMeans";
+  /** Counter of the distances computed when assigning the points */
+  public static final String DISTANCES_COUNTER = "Distance computations";
+  /** Counter of the distances the bounds allowed to skip */
+  public static final String SKIPPED_DISTANCES_COUNTER = "Skipped distance computations";
+
+  /**
+   * How far each center moved in the last iteration, followed by half the
+   * distance from each center to the closest other center. Set by the master
+   * in accelerated mode, and empty in the first iteration.
+   */
+  public static final String CENTER_BOUNDS = "kmeans.center.bounds";
+
+  /** The points sampled by k-means|| in a superstep */
+  public static final String SEEDING_SAMPLE = "kmeans.seeding.sample";
+  /** The candidate centers added by k-means|| in the last round */
+  public static final String SEEDING_CANDIDATES = "kmeans.seeding.candidates";
+  /** The number of candidate centers before the last round */
+  public static final String SEEDING_OFFSET = "kmeans.seeding.offset";
+  /** Sum of the squared distances of the points from the candidate centers */
+  public static final String SEEDING_COST = "kmeans.seeding.cost";
+  /** Number of points closest to each candidate center */
+  public static final String SEEDING_WEIGHTS = "kmeans.seeding.weights";
+  /** Set by the master for the last assignment of all the points in mini-batch mode */
+  public static final String FINAL_ASSIGNMENT = "kmeans.final.assignment";
+  /** Expected number of points sampled to choose the first candidate center */
+  private static final double FIRST_CANDIDATE_SAMPLE = 20;
+
+  /**
+   * Calculates the squared Euclidean distance between a point and a point
+   * stored in a larger array. Points are only compared by their distances,
+   * so the square root is never needed.
+   * 
+   * @param point
+   * @param points
+   * @param offset the position of the second point in points
+   * @return the squared distance
+   */
+  static double squaredDistance(double[] point, double[] points, int offset) {
+	double distance = 0.0;
+	for ( int i = 0; i < point.length; i++ ) {
+		double diff = point[i] - points[offset + i];
+		distance += diff * diff;
+	}
+	return distance;
+  }
+
+  /**
+   * @return the coordinates of the point, boxed
+   */
+  static DoubleArrayListWritable toList(double[] point) {
+	DoubleArrayListWritable list = new DoubleArrayListWritable();
+	for ( int i = 0; i < point.length; i++ ) {
+		list.add(new DoubleWritable(point[i]));
+	}
+	return list;
+  }
+
+  /**
+   * @return the coordinates of the point, unboxed
+   */
+  static double[] toArray(DoubleArrayListWritable list) {
+	double[] point = new double[list.size()];
+	for ( int i = 0; i < point.length; i++ ) {
+		point[i] = list.get(i).get();
+	}
+	return point;
+  }
 
   public static class RandomCentersInitialization extends BasicComputation<
   LongWritable, KMeansVertexValue, NullWritable, NullWritable> {
@@ -75,85 +220,306 @@ public class KMeansClustering {
 			Vertex<LongWritable, KMeansVertexValue, NullWritable> vertex,
 			Iterable<NullWritable> messages) throws IOException {
 		ArrayListOfDoubleArrayListWritable value = new ArrayListOfDoubleArrayListWritable();
-		value.add(vertex.getValue().getPointCoordinates());
+		value.add(toList(vertex.getValue().getPointCoordinates()));
 		aggregate(INITIAL_CENTERS, value);
 		}
   }
   
+  /**
+   * Sampling step of the k-means|| initialization. In the first superstep
+   * each point samples itself with a probability that gives a few points,
+   * among which the master chooses the first candidate center. In the
+   * following rounds each point samples itself with probability
+   * l * d^2 / phi, where d is its distance from the closest candidate,
+   * phi the sum of these squared distances over all the points and l the
+   * expected size of the sample.
+   */
+  public static class KMeansParallelSampling extends BasicComputation<
+  LongWritable, KMeansVertexValue, NullWritable, NullWritable> {
+	private Random random;
+	private double factor;
+
+	@Override
+	public void preSuperstep() {
+		random = new Random();
+		if ( getSuperstep() == 0 ) {
+			factor = FIRST_CANDIDATE_SAMPLE / getTotalNumVertices();
+		}
+		else {
+			int clustersCount = getContext().getConfiguration().getInt(
+					CLUSTER_CENTERS_COUNT, CLUSTER_CENTERS_COUNT_DEFAULT);
+			float oversampling = getContext().getConfiguration().getFloat(
+					OVERSAMPLING, OVERSAMPLING_DEFAULT);
+			DoubleWritable cost = getAggregatedValue(SEEDING_COST);
+			factor = oversampling * clustersCount / cost.get();
+		}
+	}
+
+	@Override
+	public void compute(
+			Vertex<LongWritable, KMeansVertexValue, NullWritable> vertex,
+			Iterable<NullWritable> messages) throws IOException {
+		double probability = factor;
+		if ( getSuperstep() > 0 ) {
+			probability *= vertex.getValue().getDistance();
+		}
+		if ( random.nextDouble() < probability ) {
+			ArrayListOfDoubleArrayListWritable sample = new ArrayListOfDoubleArrayListWritable();
+			sample.add(toList(vertex.getValue().getPointCoordinates()));
+			aggregate(SEEDING_SAMPLE, sample);
+		}
+	}
+  }
+
+  /**
+   * Distance step of the k-means|| initialization. Each point updates its
+   * squared distance from the closest candidate center with the candidates
+   * added in the last round, and keeps the index of that candidate as its
+   * cluster id. The sum of the distances and the number of points closest
+   * to each candidate are accumulated per thread and aggregated once.
+   */
+  public static class KMeansParallelDistances extends BasicComputation<
+  LongWritable, KMeansVertexValue, NullWritable, NullWritable> {
+	/** The new candidates, one after the other */
+	private double[] candidates;
+	private int offset;
+	private double cost;
+	private double[] weights;
+
+	@Override
+	public void preSuperstep() {
+		candidates = this.<DoubleArrayWritable>getAggregatedValue(SEEDING_CANDIDATES).get();
+		offset = this.<IntWritable>getAggregatedValue(SEEDING_OFFSET).get();
+		cost = 0;
+		weights = null;
+	}
+
+	@Override
+	public void compute(
+			Vertex<LongWritable, KMeansVertexValue, NullWritable> vertex,
+			Iterable<NullWritable> messages) throws IOException {
+		KMeansVertexValue value = vertex.getValue();
+		double[] point = value.getPointCoordinates();
+		int newCandidates = candidates.length / point.length;
+		if ( weights == null ) {
+			weights = new double[offset + newCandidates];
+		}
+		double minDistance = offset == 0 ? Double.POSITIVE_INFINITY : value.getDistance();
+		int closest = value.getClusterId().get();
+		for ( int i = 0; i < newCandidates; i++ ) {
+			double distance = squaredDistance(point, candidates, i * point.length);
+			if ( distance < minDistance ) {
+				minDistance = distance;
+				closest = offset + i;
+			}
+		}
+		value.setDistance(minDistance);
+		value.getClusterId().set(closest);
+		cost += minDistance;
+		weights[closest]++;
+	}
+
+	@Override
+	public void postSuperstep() {
+		aggregate(SEEDING_COST, new DoubleWritable(cost));
+		if ( weights != null ) {
+			aggregate(SEEDING_WEIGHTS, new DoubleArrayWritable(weights));
+		}
+	}
+  }
+
   public static class KMeansClusteringComputation extends BasicComputation
   			<LongWritable, KMeansVertexValue, NullWritable, NullWritable> {
 	  private int clustersCount;
+	  private float miniBatchFraction;
+	  private Random random;
+	  /** The cluster centers, one after the other */
+	  private double[] centers;
+	  /** Sums and counts of the points assigned by this thread */
+	  private double[] sums;
+	  /** Whether every point adds itself to the sums, or only the points that changed center */
+	  private boolean addAll;
+	  private boolean resetSums;
+	  private long changedAssignments;
+	  private boolean accelerated;
+	  /** How far each center moved, empty in the first iteration */
+	  private double[] drift;
+	  /** Half the distance from each center to the closest other center */
+	  private double[] halfDistances;
+	  private int maxDriftIndex;
+	  private double maxDrift;
+	  private double secondMaxDrift;
+	  private long distances;
+	  private long skippedDistances;
 	  
 	@Override
 	public void preSuperstep() {
 		clustersCount = getContext().getConfiguration()
 				  .getInt(CLUSTER_CENTERS_COUNT, CLUSTER_CENTERS_COUNT_DEFAULT);
+		miniBatchFraction = getContext().getConfiguration()
+				  .getFloat(MINI_BATCH_FRACTION, MINI_BATCH_FRACTION_DEFAULT);
+		resetSums = this.<BooleanWritable>getAggregatedValue(RESET_SUMS).get();
+		// the mini-batch updates need the sums of all the points in the batch
+		addAll = resetSums || miniBatchFraction < 1;
+		changedAssignments = 0;
+		if ( miniBatchFraction < 1 && 
+				this.<BooleanWritable>getAggregatedValue(FINAL_ASSIGNMENT).get() ) {
+			miniBatchFraction = 1;
+		}
+		random = new Random();
+		// read the cluster centers coordinates
+		centers = this.<DoubleArrayWritable>getAggregatedValue(CENTERS).get();
+		sums = new double[centers.length + clustersCount];
+		distances = 0;
+		skippedDistances = 0;
+		accelerated = getContext().getConfiguration()
+				  .getBoolean(ACCELERATED, ACCELERATED_DEFAULT);
+		if ( accelerated ) {
+			double[] bounds = this.<DoubleArrayWritable>getAggregatedValue(CENTER_BOUNDS).get();
+			drift = Arrays.copyOfRange(bounds, 0, bounds.length / 2);
+			halfDistances = Arrays.copyOfRange(bounds, bounds.length / 2, bounds.length);
+			// the lower bounds decrease by the largest drift of the other centers
+			maxDrift = 0;
+			secondMaxDrift = 0;
+			maxDriftIndex = -1;
+			for ( int i = 0; i < drift.length; i++ ) {
+				if ( drift[i] > maxDrift ) {
+					secondMaxDrift = maxDrift;
+					maxDrift = drift[i];
+					maxDriftIndex = i;
+				}
+				else if ( drift[i] > secondMaxDrift ) {
+					secondMaxDrift = drift[i];
+				}
+			}
+		}
 	}
 	  
 	@Override
 	public void compute(
 			Vertex<LongWritable, KMeansVertexValue, NullWritable> vertex,
 			Iterable<NullWritable> messages) throws IOException {
+		// the distance from the seeding candidates is no longer needed
+		vertex.getValue().setDistance(0);
+		if ( miniBatchFraction < 1 && random.nextDouble() >= miniBatchFraction ) {
+			// not in this mini-batch, keep the previous assignment
+			return;
+		}
 		KMeansVertexValue currentValue = vertex.getValue();
-		final DoubleArrayListWritable pointCoordinates = currentValue.getPointCoordinates();
-		// read the cluster centers coordinates
-		DoubleArrayListWritable[] clusterCenters = readClusterCenters(CENTER_AGGR_PREFIX);
+		final double[] pointCoordinates = currentValue.getPointCoordinates();
 		// find the closest center
-		final int centerId = findClosestCenter(clusterCenters, currentValue.getPointCoordinates());
-		// aggregate this point's coordinates to the cluster centers aggregator
-		aggregate(CENTER_AGGR_PREFIX + "C_" + centerId, pointCoordinates);
-		// increase the count of assigned points for this cluster center
-		aggregate(ASSIGNED_POINTS_PREFIX + "C_" + centerId, new IntWritable(1));
+		final int centerId = accelerated ? 
+				findClosestCenterWithBounds(currentValue) : findClosestCenter(pointCoordinates);
+		int previousId = currentValue.getClusterId().get();
+		if ( addAll ) {
+			// add this point's coordinates to the sums of the cluster center
+			// and increase the count of its assigned points
+			addToSums(pointCoordinates, centerId, 1);
+		}
+		else if ( centerId != previousId ) {
+			// move this point from the sums of its previous center
+			addToSums(pointCoordinates, centerId, 1);
+			addToSums(pointCoordinates, previousId, -1);
+		}
+		if ( resetSums || centerId != previousId ) {
+			changedAssignments++;
+		}
 		// set the cluster id in the vertex value
-		vertex.getValue().setClusterId(new IntWritable(centerId));
+		currentValue.getClusterId().set(centerId);
 	}
 
-	private DoubleArrayListWritable[] readClusterCenters(String prefix) {
-		DoubleArrayListWritable centers [] = new DoubleArrayListWritable[clustersCount];
-		for ( int i = 0; i < clustersCount; i++ ) {
-			centers[i] = getAggregatedValue(prefix + "C_" + i);
+	private void addToSums(double[] pointCoordinates, int centerId, int sign) {
+		int dimensions = pointCoordinates.length;
+		int base = centerId * (dimensions + 1);
+		for ( int i = 0; i < dimensions; i++ ) {
+			sums[base + i] += sign * pointCoordinates[i];
 		}
-		return centers;
+		sums[base + dimensions] += sign;
+	}
+
+	@Override
+	public void postSuperstep() {
+		// one aggregation per thread for all the centers
+		aggregate(CENTER_SUMS, new DoubleArrayWritable(sums));
+		aggregate(CHANGED_ASSIGNMENTS, new LongWritable(changedAssignments));
+		getContext().getCounter(COUNTER_GROUP, DISTANCES_COUNTER)
+				.increment(distances);
+		getContext().getCounter(COUNTER_GROUP, SKIPPED_DISTANCES_COUNTER)
+				.increment(skippedDistances);
 	}
 
 	/**
-	 * finds the closest center to the given point
-	 * by minimizing the Euclidean distance
+	 * finds the closest center to the given point, skipping the distance
+	 * computations when the bounds show that the point cannot have moved
+	 * to another center, and updates the bounds of the point
 	 * 
-	 * @param clusterCenters
 	 * @param value
-	 * @return the index of the cluster center in the clusterCenters vector
+	 * @return the index of the cluster center
 	 */
-	private int findClosestCenter(DoubleArrayListWritable[] clusterCenters,
-			DoubleArrayListWritable value) {
+	private int findClosestCenterWithBounds(KMeansVertexValue value) {
+		double[] point = value.getPointCoordinates();
+		int assigned = value.getClusterId().get();
+		if ( drift.length > 0 ) {
+			double upper = value.getUpperBound() + drift[assigned];
+			double lower = value.getLowerBound() - 
+					(assigned == maxDriftIndex ? secondMaxDrift : maxDrift);
+			double threshold = Math.max(lower, halfDistances[assigned]);
+			value.setLowerBound(lower);
+			if ( upper <= threshold ) {
+				value.setUpperBound(upper);
+				skippedDistances += clustersCount;
+				return assigned;
+			}
+			// tighten the upper bound and try again
+			upper = Math.sqrt(squaredDistance(point, centers, assigned * point.length));
+			value.setUpperBound(upper);
+			distances++;
+			if ( upper <= threshold ) {
+				skippedDistances += clustersCount - 1;
+				return assigned;
+			}
+		}
 		double minDistance = Double.MAX_VALUE;
+		double secondDistance = Double.MAX_VALUE;
 		double distanceFromI;
 		int clusterIndex = 0;
-		for ( int i = 0; i < clusterCenters.length; i++ ) {
-			distanceFromI = euclideanDistance(clusterCenters[i], value, 
-					clusterCenters[i].size()); 
+		for ( int i = 0; i < clustersCount; i++ ) {
+			distanceFromI = squaredDistance(point, centers, i * point.length); 
 			if ( distanceFromI < minDistance ) {
+				secondDistance = minDistance;
 				minDistance = distanceFromI;
 				clusterIndex = i;
 			}
+			else if ( distanceFromI < secondDistance ) {
+				secondDistance = distanceFromI;
+			}
 		}
+		distances += clustersCount;
+		value.setUpperBound(Math.sqrt(minDistance));
+		value.setLowerBound(Math.sqrt(secondDistance));
 		return clusterIndex;
 	}
 
 	/**
-	 * Calculates the Euclidean distance between two vectors of doubles
+	 * finds the closest center to the given point
+	 * by minimizing the squared Euclidean distance
 	 * 
-	 * @param v1
-	 * @param v2
-	 * @param dim 
-	 * @return
+	 * @param point
+	 * @return the index of the cluster center
 	 */
-	private double euclideanDistance(DoubleArrayListWritable v1, DoubleArrayListWritable v2, int dim) {
-		double distance = 0.0;
-		for ( int i = 0; i < dim; i++ ) {
-			distance += math.pow(v1.get(i).get() - v2.get(i).get(), 2);
+	private int findClosestCenter(double[] point) {
+		distances += clustersCount;
+		double minDistance = Double.MAX_VALUE;
+		double distanceFromI;
+		int clusterIndex = 0;
+		for ( int i = 0; i < clustersCount; i++ ) {
+			distanceFromI = squaredDistance(point, centers, i * point.length); 
+			if ( distanceFromI < minDistance ) {
+				minDistance = distanceFromI;
+				clusterIndex = i;
+			}
 		}
-		return math.sqrt(distance);
+		return clusterIndex;
 	}
   }
 
@@ -163,51 +529,132 @@ public class KMeansClustering {
    */
   public static class KMeansMasterCompute extends DefaultMasterCompute {
 	  private int maxIterations;
-	  private DoubleArrayListWritable[] currentClusterCenters;
+	  private float changedThreshold;
+	  private float movementThreshold;
+	  private double[][] currentClusterCenters;
+	  /** Sums and counts of the points of each center, updated with the changes of every iteration */
+	  private double[] clusterSums;
 	  private int clustersCount;
 	  private int dimensions;
+	  /** Number of supersteps before the first iteration */
+	  private int initializationSteps;
+	  /** Whether the centers are seeded with k-means|| */
+	  private boolean parallelSeeding;
+	  /** Candidate centers chosen by k-means|| */
+	  private List<double[]> candidates;
+	  private boolean miniBatch;
+	  /** Number of points that contributed to each center in mini-batch mode */
+	  private long[] seenPoints;
+	  private boolean finalAssignment;
+	  private boolean accelerated;
+	  private Random random = new Random();
 	    
     @Override
     public final void initialize() throws InstantiationException,
         IllegalAccessException {
     	maxIterations = getContext().getConfiguration().getInt(MAX_ITERATIONS, 
     			ITERATIONS_DEFAULT);
+    	changedThreshold = getContext().getConfiguration().getFloat(CHANGED_THRESHOLD, 
+    			CHANGED_THRESHOLD_DEFAULT);
+    	movementThreshold = getContext().getConfiguration().getFloat(MOVEMENT_THRESHOLD, 
+    			MOVEMENT_THRESHOLD_DEFAULT);
     	clustersCount = getContext().getConfiguration().getInt(CLUSTER_CENTERS_COUNT, 
     			CLUSTER_CENTERS_COUNT_DEFAULT);
     	dimensions = getContext().getConfiguration().getInt(DIMENSIONS, 0);
-    	currentClusterCenters = new DoubleArrayListWritable[clustersCount];
+    	String initialization = getContext().getConfiguration().get(INITIALIZATION, 
+    			INITIALIZATION_DEFAULT);
+    	if ( initialization.equals("kmeans||") ) {
+    		parallelSeeding = true;
+    		int rounds = getContext().getConfiguration().getInt(SEEDING_ROUNDS, 
+    				SEEDING_ROUNDS_DEFAULT);
+    		// a sampling and a distance superstep per round, after the first candidate 
+    		initializationSteps = 2 * rounds + 2;
+    		candidates = Lists.newArrayList();
+    		registerAggregator(SEEDING_SAMPLE, ArrayListOfDoubleArrayListWritableUnionAggregator.class);
+    		registerAggregator(SEEDING_CANDIDATES, DoubleArraySumAggregator.class);
+    		registerAggregator(SEEDING_OFFSET, IntOverwriteAggregator.class);
+    		registerAggregator(SEEDING_COST, DoubleSumAggregator.class);
+    		registerAggregator(SEEDING_WEIGHTS, DoubleArraySumAggregator.class);
+    	}
+    	else if ( initialization.equals("random") ) {
+    		initializationSteps = 1;
+    	}
+    	else {
+    		throw new IllegalArgumentException("Unknown initialization " + initialization);
+    	}
+    	miniBatch = getContext().getConfiguration().getFloat(MINI_BATCH_FRACTION, 
+    			MINI_BATCH_FRACTION_DEFAULT) < 1;
+    	if ( miniBatch ) {
+    		seenPoints = new long[clustersCount];
+    		registerAggregator(FINAL_ASSIGNMENT, BooleanOverwriteAggregator.class);
+    	}
+    	accelerated = getContext().getConfiguration().getBoolean(ACCELERATED, 
+    			ACCELERATED_DEFAULT);
+    	if ( accelerated ) {
+    		if ( miniBatch ) {
+    			// the bounds of the points outside a mini-batch would not be updated
+    			throw new IllegalArgumentException(ACCELERATED + " cannot be used with mini-batches");
+    		}
+    		registerAggregator(CENTER_BOUNDS, DoubleArraySumAggregator.class);
+    	}
     	// register initial centers aggregator
     	registerAggregator(INITIAL_CENTERS, ArrayListOfDoubleArrayListWritableAggregator.class);
-    	// register aggregators, one per center for the coordinates and
-    	// one per center for counts of assigned elements
-    	for ( int i = 0; i < clustersCount; i++ ) {
-    		registerAggregator(CENTER_AGGR_PREFIX + "C_" + i, DoubleArrayListWritableAggregator.class);
-    		registerAggregator(ASSIGNED_POINTS_PREFIX + "C_" + i, IntSumAggregator.class);
-    	}
+    	// register the aggregators for the centers and for the sums and
+    	// counts of the assigned points
+    	registerAggregator(CENTERS, DoubleArraySumAggregator.class);
+    	registerAggregator(CENTER_SUMS, DoubleArraySumAggregator.class);
+    	registerAggregator(RESET_SUMS, BooleanOverwriteAggregator.class);
+    	// register the convergence aggregators
+    	registerAggregator(CHANGED_ASSIGNMENTS, LongSumAggregator.class);
+    	registerAggregator(CENTER_MOVEMENT, DoubleOverwriteAggregator.class);
     }
     
     @Override
     public final void compute() {
 	    long superstep = getSuperstep();
-	    if ( superstep == 0 ) {
-	    	setComputation(RandomCentersInitialization.class);
+	    if ( superstep < initializationSteps ) {
+	    	if ( parallelSeeding ) {
+	    		seed(superstep);
+	    	}
+	    	else {
+	    		setComputation(RandomCentersInitialization.class);
+	    	}
 	    }
 	    else {
 	    	setComputation(KMeansClusteringComputation.class);
+	    	// the first iteration is 1
+	    	long iteration = superstep - initializationSteps + 1;
 	    
-		    if ( superstep == 1 ) {
-		    	// initialize the centers aggregators
-		    	ArrayListOfDoubleArrayListWritable initialCenters = getAggregatedValue(INITIAL_CENTERS);
-		    	for ( int i = 0; i < clustersCount; i++ ) {
-		    		setAggregatedValue(CENTER_AGGR_PREFIX + "C_" + i, initialCenters.get(i));
-		    		currentClusterCenters[i] = initialCenters.get(i);
+		    if ( iteration == 1 ) {
+		    	// initialize the centers aggregator
+		    	currentClusterCenters = getInitialCenters();
+		    	dimensions = currentClusterCenters[0].length;
+		    	setCenters(currentClusterCenters);
+		    	setAggregatedValue(RESET_SUMS, new BooleanWritable(true));
+		    }
+		    else if ( finalAssignment ) {
+		    	// all the points have been assigned to the final centers
+		    	if ( getContext().getConfiguration().getBoolean(PRINT_FINAL_CENTERS, PRINT_FINAL_CENTERS_DEFAULT) ) {
+		    		printFinalCentersCoordinates();
 		    	}
+		    	haltComputation();
 		    }
 		    else {
 			    // compute the new centers positions
-		    	DoubleArrayListWritable[] newClusters = computeClusterCenters();		
+		    	double[][] newClusters = computeClusterCenters();		
 			     //check for convergence
-			    if ( (superstep > maxIterations) || (clusterPositionsDiff(currentClusterCenters, newClusters)) ) {
+		    	long changed = this.<LongWritable>getAggregatedValue(CHANGED_ASSIGNMENTS).get();
+		    	double movement = centerMovement(currentClusterCenters, newClusters);
+		    	setAggregatedValue(CENTER_MOVEMENT, new DoubleWritable(movement));
+			    if ( (iteration > maxIterations) || (movement <= movementThreshold) || 
+			    		(changed <= changedThreshold * getTotalNumVertices()) ) {
+			    	if ( miniBatch ) {
+			    		// assign all the points to the final centers
+			    		finalAssignment = true;
+			    		setAggregatedValue(FINAL_ASSIGNMENT, new BooleanWritable(true));
+			    		setCenters(currentClusterCenters);
+			    		return;
+			    	}
 			    	
 			    	// if enabled, print the final centers coordinates
 			    	if ( getContext().getConfiguration().getBoolean(PRINT_FINAL_CENTERS, PRINT_FINAL_CENTERS_DEFAULT) ) {
@@ -217,9 +664,10 @@ public class KMeansClustering {
 			  	  	haltComputation();
 			    }
 			    else {
-			  	  	// update the aggregators with the new cluster centers
-			  	  	for ( int i = 0; i < clustersCount; i ++ ) {
-			  	  		setAggregatedValue(CENTER_AGGR_PREFIX + "C_" + i, newClusters[i]);
+			  	  	// update the aggregator with the new cluster centers
+			  	  	setCenters(newClusters);
+			  	  	if ( accelerated ) {
+			  	  		setCenterBounds(currentClusterCenters, newClusters);
 			  	  	}
 			  	  	currentClusterCenters = newClusters;
 			    } 
@@ -227,44 +675,191 @@ public class KMeansClustering {
 	    }
     }
 
-	private DoubleArrayListWritable[] computeClusterCenters() {
-		DoubleArrayListWritable[] newClusterCenters = new DoubleArrayListWritable[clustersCount];
-		DoubleArrayListWritable clusterCoordinates;
-		IntWritable assignedPoints;
+    /**
+     * @return the initial cluster centers, chosen by k-means|| or at random
+     */
+    protected double[][] getInitialCenters() {
+    	if ( parallelSeeding ) {
+    		return chooseCenters();
+    	}
+    	ArrayListOfDoubleArrayListWritable initialCenters = getAggregatedValue(INITIAL_CENTERS);
+    	double[][] centers = new double[clustersCount][];
+    	for ( int i = 0; i < clustersCount; i++ ) {
+    		centers[i] = toArray(initialCenters.get(i));
+    	}
+    	return centers;
+    }
+
+    /**
+     * Sends the cluster centers to the workers, one after the other in a single array
+     */
+    private void setCenters(double[][] centers) {
+    	double[] flat = new double[clustersCount * dimensions];
+    	for ( int i = 0; i < clustersCount; i++ ) {
+    		System.arraycopy(centers[i], 0, flat, i * dimensions, dimensions);
+    	}
+    	setAggregatedValue(CENTERS, new DoubleArrayWritable(flat));
+    }
+
+    /**
+     * Sends how far each center moved and half the distance from each
+     * center to the closest other one, for the bounds of the points
+     */
+    private void setCenterBounds(double[][] oldCenters, double[][] newCenters) {
+    	double[] bounds = new double[2 * clustersCount];
+    	for ( int i = 0; i < clustersCount; i++ ) {
+    		bounds[i] = Math.sqrt(squaredDistance(oldCenters[i], newCenters[i], 0));
+    		double minDistance = Double.MAX_VALUE;
+    		for ( int j = 0; j < clustersCount; j++ ) {
+    			if ( j != i ) {
+    				minDistance = Math.min(minDistance, squaredDistance(newCenters[i], newCenters[j], 0));
+    			}
+    		}
+    		bounds[clustersCount + i] = Math.sqrt(minDistance) / 2;
+    	}
+    	setAggregatedValue(CENTER_BOUNDS, new DoubleArrayWritable(bounds));
+    }
+
+    /**
+     * Runs a superstep of the k-means|| initialization: the points are
+     * sampled in even supersteps, and compute their distance from the
+     * candidates sampled in the previous superstep in odd ones.
+     */
+    private void seed(long superstep) {
+    	if ( superstep % 2 == 0 ) {
+    		setComputation(KMeansParallelSampling.class);
+    		return;
+    	}
+    	ArrayListOfDoubleArrayListWritable sample = getAggregatedValue(SEEDING_SAMPLE);
+    	List<double[]> newCandidates = Lists.newArrayList();
+    	if ( superstep == 1 ) {
+    		if ( sample.isEmpty() ) {
+    			throw new IllegalStateException("No points to cluster");
+    		}
+    		newCandidates.add(toArray(sample.get(random.nextInt(sample.size()))));
+    	}
+    	else {
+    		for ( DoubleArrayListWritable point : sample ) {
+    			newCandidates.add(toArray(point));
+    		}
+    	}
+    	int d = newCandidates.isEmpty() ? 0 : newCandidates.get(0).length;
+    	double[] flat = new double[newCandidates.size() * d];
+    	for ( int i = 0; i < newCandidates.size(); i++ ) {
+    		System.arraycopy(newCandidates.get(i), 0, flat, i * d, d);
+    	}
+    	setAggregatedValue(SEEDING_OFFSET, new IntWritable(candidates.size()));
+    	setAggregatedValue(SEEDING_CANDIDATES, new DoubleArrayWritable(flat));
+    	candidates.addAll(newCandidates);
+    	setComputation(KMeansParallelDistances.class);
+    }
+
+    /**
+     * Chooses the initial centers among the k-means|| candidates with
+     * k-means++, weighting each candidate by the number of points closest
+     * to it.
+     */
+    private double[][] chooseCenters() {
+    	double[] weights = this.<DoubleArrayWritable>getAggregatedValue(SEEDING_WEIGHTS).get();
+    	int n = candidates.size();
+    	double[] distances = new double[n];
+    	Arrays.fill(distances, Double.POSITIVE_INFINITY);
+    	double[][] centers = new double[clustersCount][];
+    	int next = pick(weights, null);
+    	for ( int c = 0; c < clustersCount; c++ ) {
+    		double[] center = candidates.get(next);
+    		centers[c] = center.clone();
+    		for ( int i = 0; i < n; i++ ) {
+    			distances[i] = Math.min(distances[i], squaredDistance(candidates.get(i), center, 0));
+    		}
+    		next = pick(weights, distances);
+    	}
+    	return centers;
+    }
+
+    /**
+     * @return a random candidate, with probability proportional to its
+     *         weight times its squared distance from the chosen centers
+     */
+    private int pick(double[] weights, double[] distances) {
+    	int n = candidates.size();
+    	double total = 0;
+    	for ( int i = 0; i < n; i++ ) {
+    		total += weights[i] * (distances == null ? 1 : distances[i]);
+    	}
+    	if ( total == 0 ) {
+    		// fewer distinct candidates than centers
+    		return random.nextInt(n);
+    	}
+    	double target = random.nextDouble() * total;
+    	for ( int i = 0; i < n; i++ ) {
+    		target -= weights[i] * (distances == null ? 1 : distances[i]);
+    		if ( target < 0 ) {
+    			return i;
+    		}
+    	}
+    	return n - 1;
+    }
+
+	private double[][] computeClusterCenters() {
+		double[][] newClusterCenters = new double[clustersCount][];
+		double[] sums = this.<DoubleArrayWritable>getAggregatedValue(CENTER_SUMS).get();
+		if ( !miniBatch ) {
+			// the workers only send the changes after the first iteration
+			if ( clusterSums == null || clusterSums.length == 0 ) {
+				clusterSums = sums.clone();
+			}
+			else {
+				for ( int i = 0; i < sums.length; i++ ) {
+					clusterSums[i] += sums[i];
+				}
+			}
+			sums = clusterSums;
+		}
 		for ( int i = 0; i < clustersCount; i++ ) {
-			clusterCoordinates = getAggregatedValue(CENTER_AGGR_PREFIX + "C_" + i);
-			assignedPoints = getAggregatedValue(ASSIGNED_POINTS_PREFIX + "C_" + i);
-			for ( int j = 0; j < clusterCoordinates.size(); j++ ) {
-				clusterCoordinates.set(j, new DoubleWritable(
-						clusterCoordinates.get(j).get() / assignedPoints.get()));
+			int base = i * (dimensions + 1);
+			long assignedPoints = sums.length == 0 ? 0 : (long) sums[base + dimensions];
+			if ( assignedPoints == 0 ) {
+				// no points, the center does not move
+				newClusterCenters[i] = currentClusterCenters[i];
+				continue;
+			}
+			// in mini-batch mode, the previous center counts as the points it has seen
+			long previousPoints = miniBatch ? seenPoints[i] : 0;
+			long totalPoints = previousPoints + assignedPoints;
+			newClusterCenters[i] = new double[dimensions];
+			for ( int j = 0; j < dimensions; j++ ) {
+				newClusterCenters[i][j] = (previousPoints * currentClusterCenters[i][j] + 
+						sums[base + j]) / totalPoints;
+			}
+			if ( miniBatch ) {
+				seenPoints[i] = totalPoints;
 			}
-			newClusterCenters[i] = clusterCoordinates;
 		}
 		return newClusterCenters;
 	}
 
-	private boolean clusterPositionsDiff(
-			DoubleArrayListWritable[] currentClusterCenters,
-			DoubleArrayListWritable[] newClusters) {
-		final double E = 0.001f;
+	/**
+	 * @return the sum of the absolute changes of the center coordinates
+	 */
+	private double centerMovement(
+			double[][] currentClusterCenters,
+			double[][] newClusters) {
 		double diff = 0;
 		for ( int i = 0; i < clustersCount; i ++ ) {
 			for ( int j = 0; j < dimensions; j ++ ) {
-				diff += Math.abs(currentClusterCenters[i].get(j).get() - newClusters[i].get(j).get());
+				diff += Math.abs(currentClusterCenters[i][j] - newClusters[i][j]);
 			}
 		}
-		if ( diff > E )
-			return false;
-		else
-			return true;
+		return diff;
 	}
 	
 	private void printFinalCentersCoordinates() {
 		System.out.println("Centers Coordinates: ");
     	for (int i = 0; i < clustersCount; i ++ ) {
     		System.out.print("cluster id " + i + ": ");
-    		for ( int j = 0; j < currentClusterCenters[i].size(); j ++ ) {
-    			System.out.print(currentClusterCenters[i].get(j) + " ");
+    		for ( int j = 0; j < currentClusterCenters[i].length; j ++ ) {
+    			System.out.print(currentClusterCenters[i][j] + " ");
     		}
     		System.out.println();
     	}		
@@ -2,10 +2,8 @@ package ml.grafos.okapi.clustering.kmeans;
 
 import java.io.IOException;
 import java.util.regex.Pattern;
-import ml.grafos.okapi.common.data.DoubleArrayListWritable;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.io.formats.TextVertexInputFormat;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
@@ -56,10 +54,10 @@ public class KMeansTextInputFormat extends
 		@Override
 		protected KMeansVertexValue getValue(String[] line)
 				throws IOException {
-			DoubleArrayListWritable coordinates = new DoubleArrayListWritable();
 			String[] tokens = COORD_SEPARATOR.split(coordinatesString);
+			double[] coordinates = new double[tokens.length];
 			for ( int i = 0; i < tokens.length; i++ ) {
-				coordinates.add(new DoubleWritable(Double.parseDouble(tokens[i])));
+				coordinates[i] = Double.parseDouble(tokens[i]);
 			}
 			IntWritable clusterId = new IntWritable();
 			return new KMeansVertexValue(coordinates, clusterId);
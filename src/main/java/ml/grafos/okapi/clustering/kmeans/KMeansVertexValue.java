@@ -4,32 +4,43 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
-import ml.grafos.okapi.common.data.DoubleArrayListWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.Writable;
 
 /** 
  * The type of the vertex value in K-means
- * It stores the coordinates of the point
+ * It stores the coordinates of the point, as primitive doubles,
  * and the currently assigned cluster id
+ * During the k-means|| initialization, it also stores the squared
+ * distance from the closest candidate center
+ * In accelerated mode, it also stores an upper bound on the distance from
+ * the assigned center and a lower bound on the distance from any other center
+ * The distance and the bounds are only serialized when they are set
  *
  */
 public class KMeansVertexValue implements Writable {
-	private final DoubleArrayListWritable pointCoordinates;
+	/** Flag of the serialized value followed by the distance */
+	private static final byte HAS_DISTANCE = 1;
+	/** Flag of the serialized value followed by the bounds */
+	private static final byte HAS_BOUNDS = 2;
+	private double[] pointCoordinates;
 	private IntWritable clusterId;
+	private double distance;
+	private double upperBound;
+	private double lowerBound;
 	
-	public KMeansVertexValue(DoubleArrayListWritable coordinates,
+	public KMeansVertexValue(double[] coordinates,
 			IntWritable id) {
 		this.pointCoordinates = coordinates;
 		this.clusterId = id;
 	}
 
 	public KMeansVertexValue() {
-		this.pointCoordinates = new DoubleArrayListWritable();
+		this.pointCoordinates = new double[0];
 		this.clusterId = new IntWritable();
 	}
 
-	public DoubleArrayListWritable getPointCoordinates() {
+	public double[] getPointCoordinates() {
 		return this.pointCoordinates;
 	}
 	
@@ -41,16 +52,75 @@ public class KMeansVertexValue implements Writable {
 		this.clusterId = id;
 	}
 	
+	public double getDistance() {
+		return this.distance;
+	}
+	
+	public void setDistance(double distance) {
+		this.distance = distance;
+	}
+	
+	public double getUpperBound() {
+		return this.upperBound;
+	}
+	
+	public void setUpperBound(double upperBound) {
+		this.upperBound = upperBound;
+	}
+	
+	public double getLowerBound() {
+		return this.lowerBound;
+	}
+	
+	public void setLowerBound(double lowerBound) {
+		this.lowerBound = lowerBound;
+	}
+	
 	@Override
 	public void readFields(DataInput in) throws IOException {
-		pointCoordinates.readFields(in);
-		clusterId.readFields(in);		
+		int dimensions = in.readInt();
+		if ( pointCoordinates.length != dimensions ) {
+			pointCoordinates = new double[dimensions];
+		}
+		for ( int i = 0; i < dimensions; i++ ) {
+			pointCoordinates[i] = in.readDouble();
+		}
+		clusterId.readFields(in);
+		byte flags = in.readByte();
+		distance = (flags & HAS_DISTANCE) != 0 ? in.readDouble() : 0;
+		if ( (flags & HAS_BOUNDS) != 0 ) {
+			upperBound = in.readDouble();
+			lowerBound = in.readDouble();
+		}
+		else {
+			upperBound = 0;
+			lowerBound = 0;
+		}
 	}
 
 	@Override
 	public void write(DataOutput out) throws IOException {
-		pointCoordinates.write(out);
-		clusterId.write(out);		
+		out.writeInt(pointCoordinates.length);
+		for ( int i = 0; i < pointCoordinates.length; i++ ) {
+			out.writeDouble(pointCoordinates[i]);
+		}
+		clusterId.write(out);
+		boolean hasBounds = upperBound != 0 || lowerBound != 0;
+		byte flags = 0;
+		if ( distance != 0 ) {
+			flags |= HAS_DISTANCE;
+		}
+		if ( hasBounds ) {
+			flags |= HAS_BOUNDS;
+		}
+		out.writeByte(flags);
+		if ( distance != 0 ) {
+			out.writeDouble(distance);
+		}
+		if ( hasBounds ) {
+			out.writeDouble(upperBound);
+			out.writeDouble(lowerBound);
+		}
 	}
 
 }
@@ -0,0 +1,310 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.computation;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import ml.grafos.okapi.common.data.CompressedLongArrayWritable;
+import ml.grafos.okapi.common.data.LongArrayWritable;
+import ml.grafos.okapi.utils.SortedLongArrays;
+
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Hub-aware replacement for {@link SendFriends}.
+ *
+ * Algorithms that need the common neighbors of every edge, such as the
+ * clustering coefficient or the Jaccard and Adamic-Adar similarities, let
+ * every vertex send its neighbor list along all its edges. A vertex with
+ * degree d then sends d lists of size d, which does not scale for hubs.
+ *
+ * With this strategy, a vertex whose degree is above the
+ * hub.degree.threshold parameter does not send its list. It only tells its
+ * neighbors that it is a hub. For every edge s-&gt;r where s is a hub, the
+ * endpoint with the smaller degree does the work:
+ * <ul>
+ * <li>If r has the smaller degree, it sends its own list to s as a query.
+ * s intersects it with its neighbors and replies with the common ones.</li>
+ * <li>Otherwise, r asks s to send its list, as in the normal case.</li>
+ * </ul>
+ * Either way, the size of every list sent over an edge is the minimum of the
+ * degrees of its endpoints, and r ends up with the common neighbors of s and
+ * r exactly as if s had sent its list. Vertices below the threshold send
+ * their list as before.
+ *
+ * The exchange takes {@link #NEIGHBORHOOD_SUPERSTEPS} supersteps: one with
+ * {@link SendFriendsOrHub} and the rest with a subclass of
+ * {@link IntersectFriends}, which hands the common neighbors of every edge to
+ * the algorithm.
+ */
+public class HubAwareFriends {
+
+  /**
+   * Degree above which a vertex does not send its neighbor list. A negative
+   * value disables the hub-aware strategy.
+   */
+  public static final String HUB_DEGREE_THRESHOLD = "hub.degree.threshold";
+
+  /** By default the hub-aware strategy is disabled */
+  public static final int HUB_DEGREE_THRESHOLD_DEFAULT = -1;
+
+  /** Number of supersteps needed to exchange the neighborhoods */
+  public static final int NEIGHBORHOOD_SUPERSTEPS = 4;
+
+  /**
+   * Whether the hub-aware strategy is enabled in the given configuration.
+   *
+   * @param conf Configuration
+   * @return True if a hub degree threshold is set
+   */
+  public static boolean isEnabled(Configuration conf) {
+    return conf.getInt(HUB_DEGREE_THRESHOLD,
+        HUB_DEGREE_THRESHOLD_DEFAULT) >= 0;
+  }
+
+  /**
+   * Defines the total order used to decide which endpoint of an edge sends
+   * its list: by degree, then by id.
+   *
+   * @return True if vertex 1 comes before vertex 2
+   */
+  static boolean precedes(int degree1, long id1, int degree2, long id2) {
+    return degree1 < degree2 || (degree1 == degree2 && id1 < id2);
+  }
+
+  /**
+   * First step of the neighborhood exchange. Vertices below the threshold
+   * send their sorted neighbor list to all their neighbors, hubs only send
+   * their degree.
+   *
+   * @param <V> Vertex value
+   * @param <E> Edge value
+   * @param <M1> Incoming message, to follow any previous computation
+   */
+  public abstract static class SendFriendsOrHub<V extends Writable,
+    E extends Writable, M1 extends Writable>
+    extends AbstractComputation<LongWritable, V, E, M1, FriendsMessage> {
+
+    private int threshold;
+    private final FriendsMessage msg = new FriendsMessage();
+
+    @Override
+    public void preSuperstep() {
+      threshold = getConf().getInt(HUB_DEGREE_THRESHOLD,
+          HUB_DEGREE_THRESHOLD_DEFAULT);
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, V, E> vertex,
+        Iterable<M1> messages) throws IOException {
+      int degree = vertex.getNumEdges();
+      if (threshold >= 0 && degree > threshold) {
+        msg.set(FriendsMessage.HUB, vertex.getId().get(), degree, null, 0);
+      } else {
+        msg.set(FriendsMessage.LIST, vertex.getId().get(), degree,
+            SortedLongArrays.sortedTargetIds(vertex), degree);
+      }
+      sendMessageToAllEdges(vertex, msg);
+    }
+  }
+
+  /**
+   * Remaining steps of the neighborhood exchange. Answers hub notifications,
+   * queries and list requests, and calls
+   * {@link #processCommonFriends(Vertex, long, int, long[], int[], int)} once
+   * for every in-edge of the vertex.
+   *
+   * @param <V> Vertex value
+   * @param <E> Edge value
+   */
+  public abstract static class IntersectFriends<V extends Writable,
+    E extends Writable>
+    extends BasicComputation<LongWritable, V, E, FriendsMessage> {
+
+    private final FriendsMessage reply = new FriendsMessage();
+    private int[] positions = new int[0];
+    private long[] common = new long[0];
+
+    /**
+     * Called with the neighbors that the vertex has in common with the source
+     * of one of its in-edges.
+     *
+     * @param vertex The vertex
+     * @param sourceId Id of the in-neighbor
+     * @param sourceDegree Degree of the in-neighbor
+     * @param ids Sorted neighbor ids of the vertex
+     * @param positions Positions in ids of the common neighbors
+     * @param numCommon Number of common neighbors
+     */
+    protected abstract void processCommonFriends(
+        Vertex<LongWritable, V, E> vertex, long sourceId, int sourceDegree,
+        long[] ids, int[] positions, int numCommon) throws IOException;
+
+    /**
+     * Whether the vertex should vote to halt after processing its messages.
+     * Return false if the algorithm needs another superstep after the
+     * exchange, for all vertices.
+     *
+     * @return True by default
+     */
+    protected boolean haltWhenDone() {
+      return true;
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, V, E> vertex,
+        Iterable<FriendsMessage> messages) throws IOException {
+      long id = vertex.getId().get();
+      int degree = vertex.getNumEdges();
+      long[] ids = null;
+      if (positions.length < degree) {
+        positions = new int[degree];
+        common = new long[degree];
+      }
+
+      for (FriendsMessage msg : messages) {
+        if (ids == null) {
+          ids = SortedLongArrays.sortedTargetIds(vertex);
+        }
+        switch (msg.getType()) {
+        case FriendsMessage.LIST:
+        case FriendsMessage.REPLY:
+          int numCommon = SortedLongArrays.intersect(msg.getIds().getArray(),
+              msg.getIds().size(), ids, degree, positions);
+          processCommonFriends(vertex, msg.getSourceId(), msg.getDegree(),
+              ids, positions, numCommon);
+          break;
+        case FriendsMessage.HUB:
+          if (precedes(degree, id, msg.getDegree(), msg.getSourceId())) {
+            reply.set(FriendsMessage.QUERY, id, degree, ids, degree);
+          } else {
+            reply.set(FriendsMessage.PULL, id, degree, null, 0);
+          }
+          sendMessage(new LongWritable(msg.getSourceId()), reply);
+          break;
+        case FriendsMessage.QUERY:
+          int n = SortedLongArrays.intersect(msg.getIds().getArray(),
+              msg.getIds().size(), ids, degree, positions);
+          for (int i = 0; i < n; i++) {
+            common[i] = ids[positions[i]];
+          }
+          reply.set(FriendsMessage.REPLY, id, degree, common, n);
+          sendMessage(new LongWritable(msg.getSourceId()), reply);
+          break;
+        case FriendsMessage.PULL:
+          reply.set(FriendsMessage.LIST, id, degree, ids, degree);
+          sendMessage(new LongWritable(msg.getSourceId()), reply);
+          break;
+        default:
+          throw new IllegalStateException("Unknown message type " +
+              msg.getType());
+        }
+      }
+      if (haltWhenDone()) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  /**
+   * Message exchanged during the neighborhood exchange. Depending on its
+   * type, it carries the sorted neighbor list of the source, a query list,
+   * the common neighbors found by a hub, or nothing but the degree of the
+   * source. All lists are sorted, so they are sent gap-encoded.
+   */
+  public static class FriendsMessage implements Writable {
+
+    /** Sorted neighbor list of the source */
+    public static final byte LIST = 0;
+    /** The source is a hub and did not send its list */
+    public static final byte HUB = 1;
+    /** Neighbor list sent to a hub to be intersected */
+    public static final byte QUERY = 2;
+    /** Request to send the neighbor list */
+    public static final byte PULL = 3;
+    /** Common neighbors found by a hub */
+    public static final byte REPLY = 4;
+
+    private byte type;
+    private long sourceId;
+    private int degree;
+    private final LongArrayWritable ids = new CompressedLongArrayWritable();
+
+    public FriendsMessage() {
+    }
+
+    /**
+     * Sets all fields. The ids are wrapped, not copied, and may be null if
+     * the type carries no ids.
+     */
+    public void set(byte type, long sourceId, int degree, long[] ids,
+        int size) {
+      this.type = type;
+      this.sourceId = sourceId;
+      this.degree = degree;
+      this.ids.set(ids == null ? this.ids.getArray() : ids, size);
+    }
+
+    public byte getType() {
+      return type;
+    }
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    public int getDegree() {
+      return degree;
+    }
+
+    public LongArrayWritable getIds() {
+      return ids;
+    }
+
+    private boolean hasIds() {
+      return type == LIST || type == QUERY || type == REPLY;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      type = in.readByte();
+      sourceId = in.readLong();
+      degree = in.readInt();
+      if (hasIds()) {
+        ids.readFields(in);
+      } else {
+        ids.set(ids.getArray(), 0);
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeByte(type);
+      out.writeLong(sourceId);
+      out.writeInt(degree);
+      if (hasIds()) {
+        ids.write(out);
+      }
+    }
+  }
+}
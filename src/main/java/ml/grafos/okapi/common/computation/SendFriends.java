@@ -36,6 +36,9 @@ import org.apache.hadoop.io.WritableUtils;
  * Such algorithms can re-use this computation class. They only need to extend
  * it and specify the parameter types.
  * 
+ * On graphs with high-degree vertices, see {@link HubAwareFriends} for a
+ * strategy that avoids broadcasting the neighbor lists of hubs.
+ * 
  * @author dl
  *
  * @param <I>
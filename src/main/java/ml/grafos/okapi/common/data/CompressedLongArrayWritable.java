@@ -0,0 +1,122 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+/**
+ * A sorted list of primitive longs, such as a list of neighbor ids, that is
+ * serialized compactly. The first element is written as a zig-zag varint and
+ * every following element as the varint of its gap to the previous one, so
+ * dense id ranges take one or two bytes per element instead of eight.
+ *
+ * The elements must be sorted in ascending order when the list is written.
+ */
+public class CompressedLongArrayWritable extends LongArrayWritable {
+
+  /** Default constructor for reflection */
+  public CompressedLongArrayWritable() {
+    super();
+  }
+
+  /**
+   * Wraps the first size elements of the given sorted array, without copying
+   * them.
+   *
+   * @param array Sorted elements
+   * @param size Number of valid elements
+   */
+  public CompressedLongArrayWritable(long[] array, int size) {
+    super(array, size);
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    int size = size();
+    long[] array = getArray();
+    writeUnsignedVarLong(out, size);
+    if (size == 0) {
+      return;
+    }
+    long previous = array[0];
+    writeUnsignedVarLong(out, (previous << 1) ^ (previous >> 63));
+    for (int i = 1; i < size; i++) {
+      if (array[i] < previous) {
+        throw new IllegalStateException("write: Elements are not sorted");
+      }
+      // The difference may not fit in a signed long, but it is always a
+      // valid unsigned one.
+      writeUnsignedVarLong(out, array[i] - previous);
+      previous = array[i];
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int size = (int) readUnsignedVarLong(in);
+    ensureCapacity(size);
+    long[] array = getArray();
+    if (size > 0) {
+      long first = readUnsignedVarLong(in);
+      array[0] = (first >>> 1) ^ -(first & 1);
+      for (int i = 1; i < size; i++) {
+        array[i] = array[i - 1] + readUnsignedVarLong(in);
+      }
+    }
+    setSize(size);
+  }
+
+  /**
+   * Writes a long as an unsigned varint: 7 bits per byte, lowest bits first,
+   * with the high bit of every byte but the last set.
+   *
+   * @param out Output
+   * @param value Value, interpreted as unsigned
+   * @throws IOException
+   */
+  public static void writeUnsignedVarLong(DataOutput out, long value)
+      throws IOException {
+    while ((value & ~0x7FL) != 0) {
+      out.writeByte((int) ((value & 0x7F) | 0x80));
+      value >>>= 7;
+    }
+    out.writeByte((int) value);
+  }
+
+  /**
+   * Reads a long written by {@link #writeUnsignedVarLong(DataOutput, long)}.
+   *
+   * @param in Input
+   * @return Value
+   * @throws IOException
+   */
+  public static long readUnsignedVarLong(DataInput in) throws IOException {
+    long value = 0;
+    int shift = 0;
+    byte b;
+    do {
+      if (shift > 63) {
+        throw new IOException("readUnsignedVarLong: Malformed varint");
+      }
+      b = in.readByte();
+      value |= (long) (b & 0x7F) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+    return value;
+  }
+}
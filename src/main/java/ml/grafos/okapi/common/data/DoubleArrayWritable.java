@@ -0,0 +1,92 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.Writable;
+
+/**
+ * An array of primitive doubles. Unlike {@link DoubleArrayListWritable}, it
+ * does not box its elements and reuses its array when it is deserialized into
+ * an array of the same length.
+ */
+public class DoubleArrayWritable implements Writable {
+
+  /** Empty array shared by all new instances */
+  private static final double[] EMPTY = new double[0];
+
+  /** Elements */
+  private double[] array;
+
+  /** Default constructor for reflection */
+  public DoubleArrayWritable() {
+    array = EMPTY;
+  }
+
+  /**
+   * Wraps the given array, without copying it.
+   *
+   * @param array Elements
+   */
+  public DoubleArrayWritable(double[] array) {
+    this.array = array;
+  }
+
+  /**
+   * Wraps the given array, without copying it.
+   *
+   * @param array Elements
+   */
+  public void set(double[] array) {
+    this.array = array;
+  }
+
+  public double[] get() {
+    return array;
+  }
+
+  public int size() {
+    return array.length;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(array.length);
+    for (int i = 0; i < array.length; i++) {
+      out.writeDouble(array[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = in.readInt();
+    if (array.length != n) {
+      array = new double[n];
+    }
+    for (int i = 0; i < n; i++) {
+      array[i] = in.readDouble();
+    }
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(array);
+  }
+}
@@ -15,6 +15,9 @@
  */
 package ml.grafos.okapi.common.data;
 
+import java.io.DataInput;
+import java.io.IOException;
+
 import org.apache.giraph.utils.ArrayListWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.WritableComparable;
@@ -32,6 +35,20 @@ public class LongArrayListWritable
     setClass(LongWritable.class);
   }
 
+  /**
+   * Same as the parent implementation, but creates the elements directly
+   * instead of through reflection.
+   */
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    clear();
+    int numValues = in.readInt();
+    ensureCapacity(numValues);
+    for (int i = 0; i < numValues; i++) {
+      add(new LongWritable(in.readLong()));
+    }
+  }
+
   /**
    * public int compareTo(MessageWrapper wrapper) { if (this == wrapper )
    * return 0;
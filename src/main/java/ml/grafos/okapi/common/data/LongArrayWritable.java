@@ -0,0 +1,139 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * A list of primitive longs. Unlike {@link LongArrayListWritable}, it does not
+ * box its elements and reuses its array when it is deserialized, so a single
+ * instance can be read over and over again without allocating.
+ *
+ * Only the first {@link #size()} elements of the array returned by
+ * {@link #getArray()} are valid.
+ */
+public class LongArrayWritable
+  implements WritableComparable<LongArrayWritable> {
+
+  /** Empty array shared by all new instances */
+  private static final long[] EMPTY = new long[0];
+
+  /** Elements */
+  private long[] array;
+  /** Number of valid elements */
+  private int size;
+
+  /** Default constructor for reflection */
+  public LongArrayWritable() {
+    array = EMPTY;
+  }
+
+  /**
+   * Wraps the first size elements of the given array, without copying them.
+   *
+   * @param array Elements
+   * @param size Number of valid elements
+   */
+  public LongArrayWritable(long[] array, int size) {
+    set(array, size);
+  }
+
+  /**
+   * Wraps the first size elements of the given array, without copying them.
+   *
+   * @param array Elements
+   * @param size Number of valid elements
+   */
+  public void set(long[] array, int size) {
+    this.array = array;
+    this.size = size;
+  }
+
+  public long[] getArray() {
+    return array;
+  }
+
+  public int size() {
+    return size;
+  }
+
+  public long get(int i) {
+    return array[i];
+  }
+
+  /**
+   * Makes sure the array can hold at least the given number of elements.
+   * The current elements are not preserved.
+   *
+   * @param capacity Required capacity
+   */
+  protected void ensureCapacity(int capacity) {
+    if (array.length < capacity) {
+      array = new long[capacity];
+    }
+  }
+
+  /**
+   * Sets the number of valid elements, for subclasses that fill the array
+   * themselves.
+   *
+   * @param size Number of valid elements
+   */
+  protected void setSize(int size) {
+    this.size = size;
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeLong(array[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int n = in.readInt();
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      array[i] = in.readLong();
+    }
+    size = n;
+  }
+
+  @Override
+  public int compareTo(LongArrayWritable other) {
+    if (size != other.size) {
+      return size < other.size ? -1 : 1;
+    }
+    for (int i = 0; i < size; i++) {
+      if (array[i] != other.array[i]) {
+        return array[i] < other.array[i] ? -1 : 1;
+      }
+    }
+    return 0;
+  }
+
+  @Override
+  public String toString() {
+    return Arrays.toString(Arrays.copyOf(array, size));
+  }
+}
@@ -86,15 +86,41 @@ public abstract class MessageWrapper<
   public abstract Class<M> getMessageClass();
 
   /**
-   * Read Fields.
+   * Creates the source id instance that readFields() deserializes into.
+   * Subclasses can override this to avoid reflection.
+   *
+   * @return New source id
+   */
+  protected I createVertexId() {
+    return (I) ReflectionUtils.newInstance(getVertexIdClass(), conf);
+  }
+
+  /**
+   * Creates the message instance that readFields() deserializes into.
+   * Subclasses can override this to avoid reflection.
+   *
+   * @return New message
+   */
+  protected M createMessage() {
+    return (M) ReflectionUtils.newInstance(getMessageClass(), conf);
+  }
+
+  /**
+   * Read Fields. The source id and message already held by the wrapper are
+   * reused, so their readFields() must overwrite their whole state, and
+   * references to them must not be kept across calls.
    *
    * @param input Input to be read.
    * @throws IOException for IO.
    */
   public void readFields(final DataInput input) throws IOException {
-    sourceId = (I) ReflectionUtils.newInstance(getVertexIdClass(), conf);
+    if (sourceId == null) {
+      sourceId = createVertexId();
+    }
     sourceId.readFields(input);
-    message = (M) ReflectionUtils.newInstance(getMessageClass(), conf);
+    if (message == null) {
+      message = createMessage();
+    }
     message.readFields(input);
   }
 
@@ -0,0 +1,336 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.graph;
+
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import org.apache.giraph.edge.ConfigurableOutEdges;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.MutableEdge;
+import org.apache.giraph.edge.MutableOutEdges;
+import org.apache.giraph.edge.OutEdges;
+import org.apache.giraph.edge.StrictRandomAccessOutEdges;
+import org.apache.giraph.utils.EdgeIterables;
+import org.apache.giraph.utils.Trimmable;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * {@link OutEdges} implementation with long ids and double values, backed by
+ * two primitive arrays sorted by target id.
+ *
+ * Compared to {@link org.apache.giraph.edge.HashMapEdges}, it stores no
+ * objects per edge, looks up edge values with a binary search, and gives
+ * direct access to the sorted array of target ids, so that neighborhoods can
+ * be intersected with a merge. Parallel edges are not allowed: the value of
+ * the last one added is kept.
+ *
+ * Edges are appended unsorted and the arrays are sorted lazily on the first
+ * access, so loading a vertex costs O(d log d).
+ */
+public class SortedLongDoubleArrayEdges
+  extends ConfigurableOutEdges<LongWritable, DoubleWritable>
+  implements StrictRandomAccessOutEdges<LongWritable, DoubleWritable>,
+  MutableOutEdges<LongWritable, DoubleWritable>, Trimmable {
+
+  /** Target vertex ids. */
+  private long[] ids;
+  /** Edge values, parallel to the ids. */
+  private double[] values;
+  /** Number of edges. */
+  private int size;
+  /** Whether the arrays are sorted and free of parallel edges. */
+  private boolean sorted;
+
+  @Override
+  public void initialize(Iterable<Edge<LongWritable, DoubleWritable>> edges) {
+    EdgeIterables.initialize(this, edges);
+  }
+
+  @Override
+  public void initialize(int capacity) {
+    ids = new long[capacity];
+    values = new double[capacity];
+    size = 0;
+    sorted = true;
+  }
+
+  @Override
+  public void initialize() {
+    initialize(10);
+  }
+
+  @Override
+  public void add(Edge<LongWritable, DoubleWritable> edge) {
+    if (size == ids.length) {
+      int capacity = Math.max(10, ids.length + (ids.length >> 1));
+      ids = Arrays.copyOf(ids, capacity);
+      values = Arrays.copyOf(values, capacity);
+    }
+    ids[size] = edge.getTargetVertexId().get();
+    values[size] = edge.getValue().get();
+    if (size > 0 && sorted && ids[size - 1] >= ids[size]) {
+      sorted = false;
+    }
+    size++;
+  }
+
+  @Override
+  public void remove(LongWritable targetVertexId) {
+    int pos = indexOf(targetVertexId.get());
+    if (pos >= 0) {
+      System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+      System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+      size--;
+    }
+  }
+
+  @Override
+  public DoubleWritable getEdgeValue(LongWritable targetVertexId) {
+    int pos = indexOf(targetVertexId.get());
+    return pos < 0 ? null : new DoubleWritable(values[pos]);
+  }
+
+  @Override
+  public void setEdgeValue(LongWritable targetVertexId,
+      DoubleWritable edgeValue) {
+    int pos = indexOf(targetVertexId.get());
+    if (pos >= 0) {
+      values[pos] = edgeValue.get();
+    }
+  }
+
+  @Override
+  public int size() {
+    ensureSorted();
+    return size;
+  }
+
+  /**
+   * Returns the position of the given target id, or a negative value if
+   * there is no edge to it.
+   *
+   * @param targetVertexId Target vertex id
+   * @return Position in the sorted arrays
+   */
+  public int indexOf(long targetVertexId) {
+    ensureSorted();
+    return Arrays.binarySearch(ids, 0, size, targetVertexId);
+  }
+
+  /**
+   * Returns the internal array of target ids, sorted in ascending order. Only
+   * the first {@link #size()} elements are valid, and the array must not be
+   * modified.
+   *
+   * @return Sorted target ids
+   */
+  public long[] getSortedTargetIds() {
+    ensureSorted();
+    return ids;
+  }
+
+  /**
+   * Returns the value of the edge at the given position of the sorted array.
+   *
+   * @param pos Position
+   * @return Edge value
+   */
+  public double getValueAt(int pos) {
+    ensureSorted();
+    return values[pos];
+  }
+
+  /**
+   * Sets the value of the edge at the given position of the sorted array.
+   *
+   * @param pos Position
+   * @param value Edge value
+   */
+  public void setValueAt(int pos, double value) {
+    ensureSorted();
+    values[pos] = value;
+  }
+
+  /**
+   * Sorts the edges by target id and drops parallel edges, keeping the value
+   * of the one added last.
+   */
+  private void ensureSorted() {
+    if (sorted) {
+      return;
+    }
+    // The sort is not stable, so the insertion order breaks the ties.
+    final int[] order = new int[size];
+    for (int i = 0; i < size; i++) {
+      order[i] = i;
+    }
+    it.unimi.dsi.fastutil.Arrays.quickSort(0, size,
+        new AbstractIntComparator() {
+          @Override
+          public int compare(int a, int b) {
+            if (ids[a] != ids[b]) {
+              return ids[a] < ids[b] ? -1 : 1;
+            }
+            return order[a] < order[b] ? -1 : (order[a] == order[b] ? 0 : 1);
+          }
+        },
+        new Swapper() {
+          @Override
+          public void swap(int a, int b) {
+            long id = ids[a];
+            ids[a] = ids[b];
+            ids[b] = id;
+            double value = values[a];
+            values[a] = values[b];
+            values[b] = value;
+            int index = order[a];
+            order[a] = order[b];
+            order[b] = index;
+          }
+        });
+    int unique = 0;
+    for (int i = 0; i < size; i++) {
+      if (unique > 0 && ids[unique - 1] == ids[i]) {
+        values[unique - 1] = values[i];
+      } else {
+        ids[unique] = ids[i];
+        values[unique] = values[i];
+        unique++;
+      }
+    }
+    size = unique;
+    sorted = true;
+  }
+
+  @Override
+  public void trim() {
+    ensureSorted();
+    if (ids.length > size) {
+      ids = Arrays.copyOf(ids, size);
+      values = Arrays.copyOf(values, size);
+    }
+  }
+
+  @SuppressWarnings("unchecked")
+  @Override
+  public Iterator<Edge<LongWritable, DoubleWritable>> iterator() {
+    // The downcast is fine because the representative edge is mutable, but we
+    // only expose the mutation functionality when appropriate.
+    return (Iterator) mutableIterator();
+  }
+
+  @Override
+  public Iterator<MutableEdge<LongWritable, DoubleWritable>> mutableIterator() {
+    ensureSorted();
+    return new Iterator<MutableEdge<LongWritable, DoubleWritable>>() {
+      /** Position of the next edge. */
+      private int pos = 0;
+      /** Representative edge object. */
+      private final ArrayMutableEdge representativeEdge =
+          new ArrayMutableEdge();
+
+      @Override
+      public boolean hasNext() {
+        return pos < size;
+      }
+
+      @Override
+      public MutableEdge<LongWritable, DoubleWritable> next() {
+        if (!hasNext()) {
+          throw new NoSuchElementException();
+        }
+        representativeEdge.setPosition(pos++);
+        return representativeEdge;
+      }
+
+      @Override
+      public void remove() {
+        if (pos == 0) {
+          throw new IllegalStateException();
+        }
+        pos--;
+        System.arraycopy(ids, pos + 1, ids, pos, size - pos - 1);
+        System.arraycopy(values, pos + 1, values, pos, size - pos - 1);
+        size--;
+      }
+    };
+  }
+
+  /**
+   * Edge that reads from and writes to a position of the arrays.
+   */
+  private class ArrayMutableEdge
+    implements MutableEdge<LongWritable, DoubleWritable> {
+    /** Position of the edge. */
+    private int pos;
+    /** Reusable target id. */
+    private final LongWritable id = new LongWritable();
+    /** Reusable value. */
+    private final DoubleWritable value = new DoubleWritable();
+
+    void setPosition(int pos) {
+      this.pos = pos;
+      id.set(ids[pos]);
+      value.set(values[pos]);
+    }
+
+    @Override
+    public LongWritable getTargetVertexId() {
+      return id;
+    }
+
+    @Override
+    public DoubleWritable getValue() {
+      return value;
+    }
+
+    @Override
+    public void setValue(DoubleWritable value) {
+      values[pos] = value.get();
+      this.value.set(value.get());
+    }
+  }
+
+  @Override
+  public void write(DataOutput out) throws IOException {
+    ensureSorted();
+    out.writeInt(size);
+    for (int i = 0; i < size; i++) {
+      out.writeLong(ids[i]);
+      out.writeDouble(values[i]);
+    }
+  }
+
+  @Override
+  public void readFields(DataInput in) throws IOException {
+    int numEdges = in.readInt();
+    initialize(numEdges);
+    for (int i = 0; i < numEdges; i++) {
+      ids[i] = in.readLong();
+      values[i] = in.readDouble();
+    }
+    size = numEdges;
+  }
+}
@@ -18,6 +18,8 @@ package ml.grafos.okapi.graphs;
 import java.io.IOException;
 import java.util.HashSet;
 
+import ml.grafos.okapi.common.computation.HubAwareFriends;
+import ml.grafos.okapi.common.computation.HubAwareFriends.FriendsMessage;
 import ml.grafos.okapi.common.computation.SendFriends;
 import ml.grafos.okapi.common.data.LongArrayListWritable;
 import ml.grafos.okapi.common.data.MessageWrapper;
@@ -80,6 +82,12 @@ import org.apache.hadoop.io.NullWritable;
  * </p>
  * 
  * <p>
+ * On graphs with hubs, set hub.degree.threshold to the degree above which a
+ * vertex should not broadcast its neighbor list, and start the computation
+ * with the HubAwareSendFriendsList class; see {@link HubAwareFriends}.
+ * </p>
+ * 
+ * <p>
  * http://en.wikipedia.org/wiki/Clustering_coefficient
  * </p>
  * 
@@ -144,6 +152,57 @@ public class ClusteringCoefficient {
     }
   }
 
+  public static class HubAwareSendFriendsList extends HubAwareFriends.
+    SendFriendsOrHub<DoubleWritable, NullWritable, FriendsMessage> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, NullWritable> vertex,
+        Iterable<FriendsMessage> messages) throws IOException {
+      vertex.setValue(new DoubleWritable(0));
+      super.compute(vertex, messages);
+    }
+  }
+
+  /**
+   * Counts the triangles of a vertex during the hub-aware neighborhood
+   * exchange. The count is kept in the vertex value until
+   * {@link ComputeClusteringCoefficient} turns it into the coefficient.
+   */
+  public static class HubAwareCountTriangles extends HubAwareFriends.
+    IntersectFriends<DoubleWritable, NullWritable> {
+
+    @Override
+    protected void processCommonFriends(
+        Vertex<LongWritable, DoubleWritable, NullWritable> vertex,
+        long sourceId, int sourceDegree, long[] ids, int[] positions,
+        int numCommon) {
+      vertex.getValue().set(vertex.getValue().get() + numCommon);
+    }
+
+    @Override
+    protected boolean haltWhenDone() {
+      return false;
+    }
+  }
+
+  public static class ComputeClusteringCoefficient extends BasicComputation<
+  LongWritable, DoubleWritable, NullWritable, FriendsMessage> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, NullWritable> vertex,
+        Iterable<FriendsMessage> messages) throws IOException {
+      int edges = vertex.getNumEdges();
+      double triangles = vertex.getValue().get();
+      DoubleWritable clCoefficient = new DoubleWritable(
+          triangles / ((double)edges*(edges-1)));
+      aggregate(CL_COEFFICIENT_AGGREGATOR, clCoefficient);
+      vertex.setValue(clCoefficient);
+      vertex.voteToHalt();
+    }
+  }
+
   public static class LongIdFriendsList extends MessageWrapper<LongWritable, 
   LongArrayListWritable> { 
 
@@ -156,6 +215,16 @@ public class ClusteringCoefficient {
     public Class<LongArrayListWritable> getMessageClass() {
       return LongArrayListWritable.class;
     }
+
+    @Override
+    protected LongWritable createVertexId() {
+      return new LongWritable();
+    }
+
+    @Override
+    protected LongArrayListWritable createMessage() {
+      return new LongArrayListWritable();
+    }
   }
 
 
@@ -175,12 +244,22 @@ public class ClusteringCoefficient {
     @Override
     public final void compute() {
       long superstep = getSuperstep();
-      if (superstep == 0) {
+      long lastSuperstep = 1;
+      if (HubAwareFriends.isEnabled(getConf())) {
+        lastSuperstep = HubAwareFriends.NEIGHBORHOOD_SUPERSTEPS;
+        if (superstep == 0) {
+          setComputation(HubAwareSendFriendsList.class);
+        } else if (superstep < lastSuperstep) {
+          setComputation(HubAwareCountTriangles.class);
+        } else {
+          setComputation(ComputeClusteringCoefficient.class);
+        }
+      } else if (superstep == 0) {
         setComputation(SendFriendsList.class);
       } else {
         setComputation(ClusteringCoefficientComputation.class);
       }
-      if (superstep == 2) {
+      if (superstep == lastSuperstep + 1) {
         double partialSum = ((DoubleWritable)getAggregatedValue(
             CL_COEFFICIENT_AGGREGATOR)).get();
         double globalCoefficient = partialSum/(double)getTotalNumVertices();
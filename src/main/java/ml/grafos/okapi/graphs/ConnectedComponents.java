@@ -38,6 +38,10 @@ import org.apache.hadoop.io.NullWritable;
  * "PEGASUS: Mining Peta-Scale Graphs", 2010
  *
  * http://www.cs.cmu.edu/~ukang/papers/PegasusKAIS.pdf
+ *
+ * For graphs with a large diameter, {@link ShortcuttingConnectedComponents}
+ * computes the same labels with pointer jumping and needs far fewer
+ * supersteps.
  */
 public class ConnectedComponents extends BasicComputation<LongWritable,
     LongWritable, NullWritable, LongWritable> {
@@ -0,0 +1,238 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.giraph.aggregators.DoubleSumAggregator;
+import org.apache.giraph.combiner.DoubleSumMessageCombiner;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.log4j.Logger;
+
+/**
+ * <p>
+ * Delta-based PageRank. Instead of sending its whole rank in every superstep
+ * like {@link SimplePageRank}, every vertex accumulates the rank it has not
+ * propagated yet (its residual) and only pushes it to its neighbors when it
+ * exceeds a small threshold. As the computation converges, fewer and fewer
+ * vertices have enough residual to push, so the number of messages drops
+ * sharply in the later supersteps.
+ * </p>
+ * <p>
+ * The residual of dangling vertices, i.e. vertices without out-edges, is
+ * collected through an aggregator and redistributed uniformly to all vertices
+ * in the next superstep. The ranks therefore sum up to 1. Dangling vertices
+ * must be part of the input graph: vertices that are only created when they
+ * receive their first message miss the initial rank.
+ * </p>
+ * <p>
+ * The master halts the computation when the total residual still in the
+ * system (pushed or not) falls below the tolerance, or when the maximum
+ * number of supersteps is reached. The threshold of every vertex is half the
+ * tolerance divided by the number of vertices, so the residual kept locally
+ * can never prevent the computation from halting.
+ * </p>
+ * <p>
+ * You can run this algorithm by executing the command:
+ * </p>
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.DeltaPageRank\$DeltaPageRankComputation  \
+ *   -mc  ml.grafos.okapi.graphs.DeltaPageRank\$MasterCompute  \
+ *   -eif ml.grafos.okapi.io.formats.LongFloatTextEdgeInputFormat  \
+ *   -eip $INPUT_EDGES \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS \
+ *   -ca pagerank.delta.tolerance=0.00001
+ * </pre>
+ */
+public class DeltaPageRank {
+
+  /** Property name for the damping factor */
+  public static final String DAMPING_FACTOR = "pagerank.delta.damping.factor";
+  /** Default damping factor */
+  public static final float DAMPING_FACTOR_DEFAULT = 0.85f;
+
+  /** Property name for the total residual below which the computation halts */
+  public static final String TOLERANCE = "pagerank.delta.tolerance";
+  /** Default tolerance */
+  public static final float TOLERANCE_DEFAULT = 1e-5f;
+
+  /** Property name for the maximum number of supersteps */
+  public static final String MAX_SUPERSTEPS = "pagerank.delta.max.supersteps";
+  /** Default maximum number of supersteps */
+  public static final int MAX_SUPERSTEPS_DEFAULT = 100;
+
+  /** Aggregator holding the total residual left after a superstep */
+  public static final String AGGREGATOR_RESIDUAL = "pagerank.delta.residual";
+  /** Aggregator holding the rank pushed by dangling vertices */
+  public static final String AGGREGATOR_DANGLING = "pagerank.delta.dangling";
+
+  /**
+   * Adds the received rank to the residual of the vertex and pushes the
+   * residual to the neighbors once it exceeds the threshold.
+   */
+  public static class DeltaPageRankComputation extends BasicComputation<
+  LongWritable, RankValue, FloatWritable, DoubleWritable> {
+
+    /** Damping factor */
+    private double dampingFactor;
+    /** Residual a vertex may keep without pushing it */
+    private double threshold;
+    /** Dangling rank received by every vertex in this superstep */
+    private double danglingShare;
+    /** Reusable message */
+    private final DoubleWritable message = new DoubleWritable();
+
+    @Override
+    public void preSuperstep() {
+      dampingFactor = getConf().getFloat(DAMPING_FACTOR,
+          DAMPING_FACTOR_DEFAULT);
+      double tolerance = getConf().getFloat(TOLERANCE, TOLERANCE_DEFAULT);
+      threshold = tolerance / (2.0 * getTotalNumVertices());
+      if (getSuperstep() == 0) {
+        danglingShare = 0;
+      } else {
+        danglingShare = ((DoubleWritable) getAggregatedValue(
+            AGGREGATOR_DANGLING)).get() / getTotalNumVertices();
+      }
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, RankValue, FloatWritable> vertex,
+        Iterable<DoubleWritable> messages) throws IOException {
+      RankValue value = vertex.getValue();
+      double residual;
+      if (getSuperstep() == 0) {
+        value.setRank(0);
+        residual = (1 - dampingFactor) / getTotalNumVertices();
+      } else {
+        residual = value.getResidual() + danglingShare;
+        for (DoubleWritable delta : messages) {
+          residual += delta.get();
+        }
+      }
+
+      if (residual > threshold) {
+        value.setRank(value.getRank() + residual);
+        double pushed = dampingFactor * residual;
+        if (vertex.getNumEdges() > 0) {
+          message.set(pushed / vertex.getNumEdges());
+          sendMessageToAllEdges(vertex, message);
+        } else {
+          aggregate(AGGREGATOR_DANGLING, new DoubleWritable(pushed));
+        }
+        aggregate(AGGREGATOR_RESIDUAL, new DoubleWritable(pushed));
+        residual = 0;
+      } else {
+        aggregate(AGGREGATOR_RESIDUAL, new DoubleWritable(residual));
+      }
+      value.setResidual(residual);
+    }
+  }
+
+  /**
+   * Sets the sum combiner and halts the computation once the total residual
+   * falls below the tolerance.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+
+    /** Logger */
+    private static final Logger LOG = Logger.getLogger(MasterCompute.class);
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(AGGREGATOR_RESIDUAL, DoubleSumAggregator.class);
+      registerAggregator(AGGREGATOR_DANGLING, DoubleSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      setMessageCombiner(DoubleSumMessageCombiner.class);
+      if (getSuperstep() == 0) {
+        return;
+      }
+      double residual = ((DoubleWritable) getAggregatedValue(
+          AGGREGATOR_RESIDUAL)).get();
+      if (LOG.isInfoEnabled()) {
+        LOG.info("Superstep " + getSuperstep() + ": residual " + residual);
+      }
+      if (residual < getConf().getFloat(TOLERANCE, TOLERANCE_DEFAULT) ||
+          getSuperstep() >= getConf().getInt(MAX_SUPERSTEPS,
+              MAX_SUPERSTEPS_DEFAULT)) {
+        haltComputation();
+      }
+    }
+  }
+
+  /**
+   * The value of a vertex: the rank accumulated so far and the residual that
+   * has not been pushed to the neighbors yet.
+   */
+  public static class RankValue implements Writable {
+    /** Accumulated rank */
+    private double rank;
+    /** Rank received but not pushed yet */
+    private double residual;
+
+    public RankValue() {
+    }
+
+    public double getRank() {
+      return rank;
+    }
+
+    public void setRank(double rank) {
+      this.rank = rank;
+    }
+
+    public double getResidual() {
+      return residual;
+    }
+
+    public void setResidual(double residual) {
+      this.residual = residual;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      rank = in.readDouble();
+      residual = in.readDouble();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeDouble(rank);
+      out.writeDouble(residual);
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(rank);
+    }
+  }
+}
@@ -15,10 +15,14 @@
  */
 package ml.grafos.okapi.graphs;
 
+import java.io.DataInput;
+import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.HashSet;
 import java.util.Iterator;
 
+import org.apache.giraph.edge.Edge;
 import org.apache.giraph.edge.MutableEdge;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
@@ -26,6 +30,7 @@ import org.apache.giraph.graph.VertexChanges;
 import org.apache.giraph.graph.VertexResolver;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
 
 /**
  * <p>
@@ -42,6 +47,11 @@ import org.apache.hadoop.io.NullWritable;
  * the result in an empty graph.
  * </p>
  * <p>
+ * The {@link CoreDecompositionComputation} instead computes the core number of
+ * every vertex, that is, the largest <i>k</i> for which the vertex belongs to
+ * the k-core, without removing anything from the graph.
+ * </p>
+ * <p>
  * http://en.wikipedia.org/wiki/Degeneracy_(graph_theory)
  * </p>
  * @author dl
@@ -106,4 +116,185 @@ public class KCore {
     }
     
   }
+
+  /**
+   * <p>
+   * Computes the core number of every vertex in a single job, following the
+   * distributed algorithm of Montresor et al., "Distributed k-Core
+   * Decomposition", 2011.
+   * </p>
+   * <p>
+   * Every vertex starts with its degree as an estimate of its core number and
+   * keeps the latest estimate of every neighbor. The new estimate of a vertex
+   * is the largest <i>k</i> such that at least <i>k</i> neighbors have an
+   * estimate of at least <i>k</i> (an h-index). Estimates only decrease, and a
+   * vertex sends its estimate to its neighbors only when it changes. The
+   * computation ends when no estimate changes, and the graph is never
+   * mutated.
+   * </p>
+   * <p>
+   * The input graph must be undirected.
+   * </p>
+   */
+  public static class CoreDecompositionComputation extends BasicComputation<
+  LongWritable, CoreValue, NullWritable, CoreMessage> {
+
+    private final CoreMessage message = new CoreMessage();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, CoreValue, NullWritable> vertex,
+        Iterable<CoreMessage> messages) throws IOException {
+      CoreValue value = vertex.getValue();
+
+      if (getSuperstep() == 0) {
+        value.initialize(vertex);
+        sendCore(vertex);
+      } else {
+        for (CoreMessage msg : messages) {
+          value.updateEstimate(msg.getSourceId(), msg.getCore());
+        }
+        if (value.refineCore()) {
+          sendCore(vertex);
+        }
+      }
+      vertex.voteToHalt();
+    }
+
+    private void sendCore(Vertex<LongWritable, CoreValue, NullWritable> vertex) {
+      message.set(vertex.getId().get(), vertex.getValue().getCore());
+      sendMessageToAllEdges(vertex, message);
+    }
+  }
+
+  /**
+   * The state of a vertex in the core decomposition: its current core number
+   * estimate and the latest estimates of its neighbors, kept in primitive
+   * arrays sorted by neighbor id.
+   */
+  public static class CoreValue implements Writable {
+    private int core;
+    private long[] neighbors = new long[0];
+    private int[] estimates = new int[0];
+
+    public CoreValue() {
+    }
+
+    public int getCore() {
+      return core;
+    }
+
+    /**
+     * Sets the initial estimate of the vertex to its degree. The estimates of
+     * the neighbors are unknown, so they are set to the maximum value.
+     */
+    void initialize(Vertex<LongWritable, CoreValue, NullWritable> vertex) {
+      neighbors = new long[vertex.getNumEdges()];
+      int i = 0;
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        neighbors[i++] = edge.getTargetVertexId().get();
+      }
+      Arrays.sort(neighbors);
+      estimates = new int[neighbors.length];
+      Arrays.fill(estimates, Integer.MAX_VALUE);
+      core = neighbors.length;
+    }
+
+    /**
+     * Records the estimate received from a neighbor.
+     */
+    void updateEstimate(long neighbor, int estimate) {
+      int pos = Arrays.binarySearch(neighbors, neighbor);
+      if (pos >= 0 && estimate < estimates[pos]) {
+        estimates[pos] = estimate;
+      }
+    }
+
+    /**
+     * Recomputes the estimate from the estimates of the neighbors.
+     *
+     * @return true if the estimate decreased
+     */
+    boolean refineCore() {
+      // count[k] holds the number of neighbors with estimate min(k, core)
+      int[] count = new int[core + 1];
+      for (int estimate : estimates) {
+        count[Math.min(estimate, core)]++;
+      }
+      int newCore = core;
+      int atLeast = count[core];
+      while (newCore > 0 && atLeast < newCore) {
+        newCore--;
+        atLeast += count[newCore];
+      }
+      if (newCore < core) {
+        core = newCore;
+        return true;
+      }
+      return false;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      core = in.readInt();
+      int size = in.readInt();
+      neighbors = new long[size];
+      estimates = new int[size];
+      for (int i = 0; i < size; i++) {
+        neighbors[i] = in.readLong();
+        estimates[i] = in.readInt();
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(core);
+      out.writeInt(neighbors.length);
+      for (int i = 0; i < neighbors.length; i++) {
+        out.writeLong(neighbors[i]);
+        out.writeInt(estimates[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(core);
+    }
+  }
+
+  /**
+   * The core number estimate of a vertex, sent to its neighbors.
+   */
+  public static class CoreMessage implements Writable {
+    private long sourceId;
+    private int core;
+
+    public CoreMessage() {
+    }
+
+    public void set(long sourceId, int core) {
+      this.sourceId = sourceId;
+      this.core = core;
+    }
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    public int getCore() {
+      return core;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      sourceId = in.readLong();
+      core = in.readInt();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(sourceId);
+      out.writeInt(core);
+    }
+  }
 }
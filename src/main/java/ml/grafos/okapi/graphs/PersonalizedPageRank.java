@@ -0,0 +1,447 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import ml.grafos.okapi.common.Parameters;
+
+import org.apache.giraph.combiner.MessageCombiner;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * <p>
+ * Monte Carlo personalized PageRank for many seeds at once.
+ * </p>
+ * <p>
+ * Every seed vertex starts R random walks. In every superstep a walk stops
+ * with the reset probability, and otherwise moves to a uniformly chosen
+ * out-neighbor. Walks are never sent one by one: the walks that move from a
+ * vertex to the same neighbor are batched into a single message holding
+ * (seed, count) pairs, and the {@link WalkMessageCombiner} merges the batches
+ * that different vertices send to the same target. The number of messages is
+ * therefore bounded by the number of edges, no matter how many walks are
+ * running.
+ * </p>
+ * <p>
+ * Every vertex counts the visits of the walks of each seed. The personalized
+ * PageRank of vertex v with respect to seed s is estimated as
+ * <code>alpha * visits(s, v) / R</code>, where alpha is the reset
+ * probability. To keep the memory footprint bounded when there are millions
+ * of seeds, a vertex keeps at most 2K counters and drops the smallest ones
+ * when it exceeds this bound. The output of every vertex is the list of the
+ * top K seeds by visit count, in the form <code>seed:visits</code>.
+ * </p>
+ * <p>
+ * The seeds are selected in the same way as in
+ * {@link MultipleSourceShortestPaths}: either a random fraction of the
+ * vertices, or a list of vertex ids separated by ':'. If neither is
+ * specified, every vertex is a seed.
+ * </p>
+ * <p>
+ * You can run this algorithm by executing the command:
+ * </p>
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.PersonalizedPageRank\$PersonalizedPageRankComputation \
+ *   -mc  ml.grafos.okapi.graphs.PersonalizedPageRank\$MasterCompute  \
+ *   -eif ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat  \
+ *   -eip $INPUT_EDGES \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS \
+ *   -ca ppr.walks=100 \
+ *   -ca ppr.top.k=10
+ * </pre>
+ */
+public class PersonalizedPageRank {
+
+  /** Number of walks started by every seed. */
+  public static final String WALKS = "ppr.walks";
+  /** Default number of walks per seed. */
+  public static final int WALKS_DEFAULT = 100;
+
+  /** Probability that a walk stops at every step. */
+  public static final String RESET_PROBABILITY = "ppr.reset.probability";
+  /** Default reset probability. */
+  public static final float RESET_PROBABILITY_DEFAULT = 0.15f;
+
+  /** Maximum number of steps of a walk. */
+  public static final String MAX_WALK_LENGTH = "ppr.max.walk.length";
+  /** Default maximum number of steps of a walk. */
+  public static final int MAX_WALK_LENGTH_DEFAULT = 10;
+
+  /** Number of seeds kept in the output of every vertex. */
+  public static final String TOP_K = "ppr.top.k";
+  /** Default number of seeds kept in the output of every vertex. */
+  public static final int TOP_K_DEFAULT = 10;
+
+  /** Fraction of vertices to select as seeds. */
+  public static final String SOURCES_FRACTION = "ppr.sources.fraction";
+  /** Default value for fraction of vertices to be selected as seeds. */
+  public static final float SOURCES_FRACTION_DEFAULT = -1f;
+
+  /** List of vertex ids to select as seeds. */
+  public static final String SOURCES_LIST = "ppr.sources.list";
+  /** Default list of seeds; empty means that every vertex is a seed. */
+  public static final String SOURCES_LIST_DEFAULT = "";
+
+  private static final Pattern SEPARATOR = Pattern.compile("[:]");
+
+  /**
+   * Starts the walks at the seeds, counts the visits and forwards the walks
+   * that continue, batched per neighbor.
+   */
+  public static class PersonalizedPageRankComputation extends BasicComputation<
+  LongWritable, VisitCounts, NullWritable, WalkMessage> {
+
+    private int walks;
+    private float resetProbability;
+    private int maxWalkLength;
+    private int topK;
+    private Random random;
+    /** Seeds given explicitly, sorted, or null. */
+    private long[] sources;
+
+    @Override
+    public void preSuperstep() {
+      walks = getConf().getInt(WALKS, WALKS_DEFAULT);
+      resetProbability = getConf().getFloat(RESET_PROBABILITY,
+          RESET_PROBABILITY_DEFAULT);
+      maxWalkLength = getConf().getInt(MAX_WALK_LENGTH,
+          MAX_WALK_LENGTH_DEFAULT);
+      topK = getConf().getInt(TOP_K, TOP_K_DEFAULT);
+      if (Parameters.RANDOM_SEED.get(getConf()) > 0) {
+        random = new Random(
+            Parameters.RANDOM_SEED.get(getConf()) + getSuperstep());
+      } else {
+        random = new Random();
+      }
+      String list = getConf().get(SOURCES_LIST, SOURCES_LIST_DEFAULT).trim();
+      if (list.isEmpty()) {
+        sources = null;
+      } else {
+        String[] ids = SEPARATOR.split(list);
+        sources = new long[ids.length];
+        for (int i = 0; i < ids.length; i++) {
+          sources[i] = Long.parseLong(ids[i]);
+        }
+        Arrays.sort(sources);
+      }
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, VisitCounts, NullWritable> vertex,
+        Iterable<WalkMessage> messages) throws IOException {
+      VisitCounts counts = vertex.getValue();
+      WalkMessage arrived = new WalkMessage();
+
+      if (getSuperstep() == 0) {
+        if (isSource(vertex.getId().get())) {
+          arrived.add(vertex.getId().get(), walks);
+        }
+      } else {
+        for (WalkMessage message : messages) {
+          arrived.addAll(message);
+        }
+      }
+
+      if (!arrived.isEmpty()) {
+        counts.addAll(arrived, topK);
+        if (getSuperstep() < maxWalkLength && vertex.getNumEdges() > 0) {
+          forward(vertex, arrived);
+        }
+      }
+      vertex.voteToHalt();
+    }
+
+    /**
+     * Returns true if the vertex with the given id is a seed.
+     */
+    private boolean isSource(long id) {
+      float fraction = getConf().getFloat(SOURCES_FRACTION,
+          SOURCES_FRACTION_DEFAULT);
+      if (fraction > 0) {
+        return random.nextFloat() < fraction;
+      }
+      return sources == null || Arrays.binarySearch(sources, id) >= 0;
+    }
+
+    /**
+     * Moves every walk that does not stop to a random neighbor and sends one
+     * batch per neighbor that receives walks.
+     */
+    private void forward(Vertex<LongWritable, VisitCounts, NullWritable> vertex,
+        WalkMessage arrived) {
+      long[] neighbors = new long[vertex.getNumEdges()];
+      int i = 0;
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        neighbors[i++] = edge.getTargetVertexId().get();
+      }
+
+      Int2ObjectOpenHashMap<WalkMessage> batches =
+          new Int2ObjectOpenHashMap<WalkMessage>();
+      ObjectIterator<Long2IntMap.Entry> it = arrived.iterator();
+      while (it.hasNext()) {
+        Long2IntMap.Entry entry = it.next();
+        long seed = entry.getLongKey();
+        for (int walk = 0; walk < entry.getIntValue(); walk++) {
+          if (random.nextFloat() < resetProbability) {
+            continue;
+          }
+          int target = random.nextInt(neighbors.length);
+          WalkMessage batch = batches.get(target);
+          if (batch == null) {
+            batch = new WalkMessage();
+            batches.put(target, batch);
+          }
+          batch.add(seed, 1);
+        }
+      }
+
+      LongWritable targetId = new LongWritable();
+      for (Int2ObjectMap.Entry<WalkMessage> batch :
+        batches.int2ObjectEntrySet()) {
+        targetId.set(neighbors[batch.getIntKey()]);
+        sendMessage(targetId, batch.getValue());
+      }
+    }
+  }
+
+  /**
+   * Sets the combiner that merges the walk batches sent to the same vertex.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+
+    @Override
+    public void compute() {
+      setMessageCombiner(WalkMessageCombiner.class);
+    }
+  }
+
+  /**
+   * Merges walk batches by adding the counts of the same seed.
+   */
+  public static class WalkMessageCombiner
+  extends MessageCombiner<LongWritable, WalkMessage> {
+
+    @Override
+    public void combine(LongWritable vertexIndex, WalkMessage originalMessage,
+        WalkMessage messageToCombine) {
+      originalMessage.addAll(messageToCombine);
+    }
+
+    @Override
+    public WalkMessage createInitialMessage() {
+      return new WalkMessage();
+    }
+  }
+
+  /**
+   * A batch of walks, stored as the number of walks of every seed.
+   */
+  public static class WalkMessage implements Writable {
+    private final Long2IntOpenHashMap walks = new Long2IntOpenHashMap();
+
+    public WalkMessage() {
+    }
+
+    /**
+     * Adds the given number of walks of a seed to this batch.
+     */
+    public void add(long seed, int count) {
+      walks.addTo(seed, count);
+    }
+
+    /**
+     * Adds all the walks of another batch to this batch.
+     */
+    public void addAll(WalkMessage other) {
+      ObjectIterator<Long2IntMap.Entry> it = other.iterator();
+      while (it.hasNext()) {
+        Long2IntMap.Entry entry = it.next();
+        walks.addTo(entry.getLongKey(), entry.getIntValue());
+      }
+    }
+
+    /**
+     * Returns the number of walks of the given seed in this batch.
+     */
+    public int get(long seed) {
+      return walks.get(seed);
+    }
+
+    public boolean isEmpty() {
+      return walks.isEmpty();
+    }
+
+    ObjectIterator<Long2IntMap.Entry> iterator() {
+      return walks.long2IntEntrySet().fastIterator();
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      walks.clear();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        walks.put(in.readLong(), in.readInt());
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(walks.size());
+      ObjectIterator<Long2IntMap.Entry> it = iterator();
+      while (it.hasNext()) {
+        Long2IntMap.Entry entry = it.next();
+        out.writeLong(entry.getLongKey());
+        out.writeInt(entry.getIntValue());
+      }
+    }
+  }
+
+  /**
+   * The value of a vertex: the number of visits of the walks of every seed,
+   * bounded to the seeds with the most visits.
+   */
+  public static class VisitCounts implements Writable {
+    private final Long2IntOpenHashMap visits = new Long2IntOpenHashMap();
+    /** Number of seeds printed, set by the computation. */
+    private int topK = TOP_K_DEFAULT;
+
+    public VisitCounts() {
+    }
+
+    /**
+     * Returns the number of visits of the walks of the given seed.
+     */
+    public int get(long seed) {
+      return visits.get(seed);
+    }
+
+    public int size() {
+      return visits.size();
+    }
+
+    /**
+     * Counts the visits of a batch of walks. If the number of counters
+     * exceeds 2K, only the K largest are kept.
+     */
+    void addAll(WalkMessage arrived, int topK) {
+      this.topK = topK;
+      ObjectIterator<Long2IntMap.Entry> it = arrived.iterator();
+      while (it.hasNext()) {
+        Long2IntMap.Entry entry = it.next();
+        visits.addTo(entry.getLongKey(), entry.getIntValue());
+      }
+      if (visits.size() > 2 * topK) {
+        prune(topK);
+      }
+    }
+
+    /**
+     * Keeps only the k seeds with the most visits.
+     */
+    private void prune(int k) {
+      long[] seeds = sortedSeeds();
+      for (int i = k; i < seeds.length; i++) {
+        visits.remove(seeds[i]);
+      }
+    }
+
+    /**
+     * Returns the seeds sorted by decreasing number of visits, breaking ties
+     * by seed id.
+     */
+    private long[] sortedSeeds() {
+      long[] seeds = visits.keySet().toLongArray();
+      Long[] boxed = new Long[seeds.length];
+      for (int i = 0; i < seeds.length; i++) {
+        boxed[i] = seeds[i];
+      }
+      Arrays.sort(boxed, new Comparator<Long>() {
+        @Override
+        public int compare(Long a, Long b) {
+          int countA = visits.get(a.longValue());
+          int countB = visits.get(b.longValue());
+          if (countA != countB) {
+            return countA > countB ? -1 : 1;
+          }
+          return a.compareTo(b);
+        }
+      });
+      for (int i = 0; i < seeds.length; i++) {
+        seeds[i] = boxed[i];
+      }
+      return seeds;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      visits.clear();
+      topK = in.readInt();
+      int size = in.readInt();
+      for (int i = 0; i < size; i++) {
+        visits.put(in.readLong(), in.readInt());
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(topK);
+      out.writeInt(visits.size());
+      ObjectIterator<Long2IntMap.Entry> it =
+          visits.long2IntEntrySet().fastIterator();
+      while (it.hasNext()) {
+        Long2IntMap.Entry entry = it.next();
+        out.writeLong(entry.getLongKey());
+        out.writeInt(entry.getIntValue());
+      }
+    }
+
+    @Override
+    public String toString() {
+      long[] seeds = sortedSeeds();
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < seeds.length && i < topK; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(seeds[i]).append(':').append(visits.get(seeds[i]));
+      }
+      return sb.toString();
+    }
+  }
+}
@@ -18,12 +18,11 @@ package ml.grafos.okapi.graphs;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Iterator;
-import java.util.TreeSet;
+import java.util.Arrays;
 
-import ml.grafos.okapi.graphs.SemiClustering.SemiClusterTreeSetWritable;
+import ml.grafos.okapi.common.data.CompressedLongArrayWritable;
+import ml.grafos.okapi.graphs.SemiClustering.SemiClusterList;
+import ml.grafos.okapi.graphs.SemiClustering.SemiClusterState;
 
 import org.apache.giraph.Algorithm;
 import org.apache.giraph.edge.Edge;
@@ -31,35 +30,43 @@ import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
-import org.apache.hadoop.io.WritableComparable;
+import org.apache.hadoop.io.Writable;
 
 
 /**
  * Implements the Semi-Clustering algorithm as presented in the Pregel paper
  * from SIGMOD'10.
- * 
- * The input to the algorithm is an undirected weighted graph and the output 
+ *
+ * The input to the algorithm is an undirected weighted graph and the output
  * is a set of clusters with each vertex potentially belonging to multiple
  * clusters.
- * 
+ *
  * A semi-cluster is assigned a score S=(I-f*B)/(V(V-1)/2), where I is the sum
  * of weights of all internal edges, B is the sum of weights of all boundary
  * edges, V is the number of vertices in the semi-cluster, f is a user-specified
- * boundary edge score factor with a value between 0 and 1. 
- * 
- * Each vertex maintains a list containing a maximum number of  semi-clusters, 
+ * boundary edge score factor with a value between 0 and 1.
+ *
+ * Each vertex maintains a list containing a maximum number of  semi-clusters,
  * sorted by score. The lists gets greedily updated in an iterative manner.
- * 
+ *
+ * Every vertex keeps the best semi-clusters it has seen so far, and merges
+ * the clusters it receives into this list. It only sends the list to its
+ * neighbors when it changes, so the memory of a vertex and the size of its
+ * messages are bounded by the maximum number of clusters times the cluster
+ * capacity, whatever its degree. Semi-clusters store their members in a
+ * sorted array and cache a 64-bit signature of them, which makes duplicate
+ * detection cheap.
+ *
  * The algorithm finishes when the semi-cluster lists don't change or after a
  * maximum number of iterations.
- * 
+ *
  */
 @Algorithm(
     name = "Semi Clustering",
     description = "Semi-cluster implementation")
 
 public class SemiClustering extends BasicComputation<LongWritable,
-SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
+SemiClusterState, DoubleWritable, SemiClusterList> {
 
   /** Maximum number of iterations. */
   public static final String ITERATIONS = "iterations";
@@ -77,39 +84,42 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
   public static final String SCORE_FACTOR = "score.factor";
   /** Default value for Boundary Edge Score Factor. */
   public static final float SCORE_FACTOR_DEFAULT = 0.5f;
-  /** Comparator to sort clusters in the list based on their score. */
-  private static final ClusterScoreComparator scoreComparator =
-      new ClusterScoreComparator();
+
+  private int iterations;
+  private int maxClusters;
+  private int clusterCapacity;
+  private double scoreFactor;
+
+  @Override
+  public void preSuperstep() {
+    iterations = getConf().getInt(ITERATIONS, ITERATIONS_DEFAULT);
+    maxClusters = getConf().getInt(MAX_CLUSTERS, MAX_CLUSTERS_DEFAULT);
+    clusterCapacity = getConf().getInt(CLUSTER_CAPACITY,
+        CLUSTER_CAPACITY_DEFAULT);
+    scoreFactor = getConf().getFloat(SCORE_FACTOR, SCORE_FACTOR_DEFAULT);
+  }
 
   /**
    * Compute method.
    * @param messages Messages received
    */
-  public final void compute(Vertex<LongWritable, 
-      SemiClusterTreeSetWritable, DoubleWritable> vertex, 
-      final Iterable<SemiClusterTreeSetWritable> messages) {
-
-    int iterations = getContext().getConfiguration().getInt(
-        ITERATIONS, ITERATIONS_DEFAULT);
-    int maxClusters = getContext().getConfiguration().getInt(
-        MAX_CLUSTERS, MAX_CLUSTERS_DEFAULT);
-    int clusterCapacity = getContext().getConfiguration().getInt(
-        CLUSTER_CAPACITY, CLUSTER_CAPACITY_DEFAULT);
-    double scoreFactor = getContext().getConfiguration().getFloat(
-        SCORE_FACTOR, SCORE_FACTOR_DEFAULT);
+  public final void compute(Vertex<LongWritable,
+      SemiClusterState, DoubleWritable> vertex,
+      final Iterable<SemiClusterList> messages) {
 
     // If this is the first superstep, initialize cluster list with a single
-    // cluster that contains only the current vertex, and send it to all 
+    // cluster that contains only the current vertex, and send it to all
     // neighbors.
     if (getSuperstep() == 0) {
       SemiCluster myCluster = new SemiCluster();
       myCluster.addVertex(vertex, scoreFactor);
 
-      SemiClusterTreeSetWritable clusterList = new SemiClusterTreeSetWritable();
-      clusterList.add(myCluster);
+      SemiClusterState state = new SemiClusterState();
+      state.getClusters().add(myCluster, maxClusters);
+      state.getBestClusters().add(myCluster, maxClusters);
 
-      vertex.setValue(clusterList);
-      sendMessageToAllEdges(vertex, clusterList);
+      vertex.setValue(state);
+      sendMessageToAllEdges(vertex, state.getBestClusters());
       vertex.voteToHalt();
       return;
     }
@@ -119,142 +129,160 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
       return;
     }
 
-    // For every cluster list received from neighbors and for every cluster in 
-    // the list, add current vertex if it doesn't already exist in the cluster
-    // and the cluster is not full.
-    // 
-    // Sort clusters received and newly formed clusters and send the top to all
-    // neighbors
-    // 
-    // Furthermore, update this vertex's list with received and newly formed
-    // clusters the contain this vertex, sort them, and keep the top ones.
-    
-    SemiClusterTreeSetWritable unionedClusterSet = 
-        new SemiClusterTreeSetWritable();
-    vertex.getValue().clear();
-    
-    for (SemiClusterTreeSetWritable clusterSet : messages) {
-      
-      unionedClusterSet.addAll(clusterSet);
-      
-      for (SemiCluster cluster: clusterSet) {
-        boolean contains = cluster.vertices.contains(vertex.getId());
-        if (!contains && cluster.vertices.size() < clusterCapacity) {
+    // For every cluster received from neighbors, add current vertex if it
+    // doesn't already exist in the cluster and the cluster is not full.
+    //
+    // Merge the clusters received and the newly formed ones into the best
+    // clusters seen so far, and send them to all neighbors if they changed.
+    //
+    // Furthermore, merge the received and newly formed clusters that contain
+    // this vertex into this vertex's list.
+    SemiClusterState state = vertex.getValue();
+    SemiClusterList best = state.getBestClusters();
+    SemiClusterList clusters = state.getClusters();
+    long vertexId = vertex.getId().get();
+    boolean changed = false;
+
+    for (SemiClusterList clusterList : messages) {
+      for (int i = 0; i < clusterList.size(); i++) {
+        SemiCluster cluster = clusterList.get(i);
+        changed |= best.add(cluster, maxClusters);
+        if (cluster.contains(vertexId)) {
+          clusters.add(cluster, maxClusters);
+        } else if (cluster.size() < clusterCapacity) {
           SemiCluster newCluster = new SemiCluster(cluster);
           newCluster.addVertex(vertex, scoreFactor);
-          unionedClusterSet.add(newCluster);
-          vertex.getValue().add(newCluster);
-        } else if (contains) {
-          vertex.getValue().add(cluster);
+          changed |= best.add(newCluster, maxClusters);
+          clusters.add(newCluster, maxClusters);
         }
       }
     }
 
-    // If we have more than a maximum number of clusters, then we remove the 
-    // ones with the lowest score.
-    Iterator<SemiCluster> iterator = unionedClusterSet.iterator();
-    while (unionedClusterSet.size()>maxClusters) {
-      iterator.next();
-      iterator.remove();
-    }
-
-    iterator = vertex.getValue().iterator();
-    while(vertex.getValue().size()>maxClusters) {
-      iterator.next();
-      iterator.remove();
+    if (changed) {
+      sendMessageToAllEdges(vertex, best);
     }
-
-    sendMessageToAllEdges(vertex, unionedClusterSet);
     vertex.voteToHalt();
   }
 
-  /** 
-   * Comparator that sorts semi-clusters according to their score.
+  /**
+   * The value of a vertex: the best semi-clusters that contain it, which are
+   * the output of the algorithm, and the best semi-clusters it has seen,
+   * which it sends to its neighbors.
    */
-  private static class ClusterScoreComparator 
-  implements Comparator<SemiCluster> {
+  public static class SemiClusterState implements Writable {
+
+    /** Best clusters containing the vertex */
+    private final SemiClusterList clusters = new SemiClusterList();
+    /** Best clusters seen by the vertex */
+    private final SemiClusterList bestClusters = new SemiClusterList();
+
+    public SemiClusterList getClusters() {
+      return clusters;
+    }
+
+    public SemiClusterList getBestClusters() {
+      return bestClusters;
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      clusters.readFields(input);
+      bestClusters.readFields(input);
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      clusters.write(output);
+      bestClusters.write(output);
+    }
+
     /**
-     * Compare two semi-clusters for order.
-     * @param o1 the first object
-     * @param o2 the second object
+     * Returns a string representation of the clusters containing the vertex.
      *
-     * @return -1 if score for object1 is smaller than score of object2,
-     * 1 if score for object2 is smaller than score of object1
-     * or 0 if both scores are the same
+     * @return String object.
      */
     @Override
-    public int compare(final SemiCluster o1, final SemiCluster o2) {
-      if (o1.score < o2.score) {
-        return -1;
-      } else if (o1.score > o2.score) {
-        return 1;
-      } else {
-        // We add this for consistency with the equals() method.
-        if (!o1.equals(o2)) {
-          return 1;
-        }
-      }
-      return 0;
+    public String toString() {
+      return clusters.toString();
     }
-  } 
+  }
 
   /**
-   * A set of semi-clusters that is writable. We use a TreeSet since we want
-   * the ability to sort semi-clusters.
+   * A list of distinct semi-clusters, sorted by decreasing score.
    */
-  public static class SemiClusterTreeSetWritable extends TreeSet<SemiCluster>
-  implements WritableComparable<SemiClusterTreeSetWritable> {
+  public static class SemiClusterList implements Writable {
 
-    /**
-     * Default Constructor. We ensure that this list always sorts semi-clusters
-     * according to the comparator.
-     */
-    public SemiClusterTreeSetWritable() {
-      super(scoreComparator);
+    /** Clusters, best first */
+    private SemiCluster[] clusters = new SemiCluster[0];
+    /** Number of clusters */
+    private int size;
+
+    public int size() {
+      return size;
+    }
+
+    public SemiCluster get(int i) {
+      return clusters[i];
     }
 
     /**
-     * CompareTo method.
-     * Two lists of semi clusters are the same when:
-     * (i) they have the same number of clusters,
-     * (ii) all their clusters are the same, i.e. contain the same vertices
-     * For each cluster, check if it exists in the other list of semi clusters
-     *
-     * @param other A list with clusters to be compared with the current list
+     * Adds a cluster if it is not in the list yet and the list has less than
+     * maxSize clusters or a worse one, which is then removed.
      *
-     * @return return 0 if two lists are the same
+     * @param cluster Cluster to add
+     * @param maxSize Maximum number of clusters in the list
+     * @return True if the list changed
      */
-    public final int compareTo(final SemiClusterTreeSetWritable other) {
-      if (this.size() < other.size()) {
-        return -1;
+    public boolean add(SemiCluster cluster, int maxSize) {
+      int pos = size;
+      while (pos > 0 && cluster.ranksBefore(clusters[pos - 1])) {
+        pos--;
+      }
+      if (pos >= maxSize) {
+        return false;
+      }
+      // Equal clusters have equal scores, so a duplicate sits right around
+      // the insertion point, among the clusters with the same score.
+      for (int i = pos - 1; i >= 0 && clusters[i].score == cluster.score; i--) {
+        if (clusters[i].equals(cluster)) {
+          return false;
+        }
       }
-      if (this.size() > other.size()) {
-        return 1;
+      for (int i = pos; i < size && clusters[i].score == cluster.score; i++) {
+        if (clusters[i].equals(cluster)) {
+          return false;
+        }
       }
-      Iterator<SemiCluster> iterator1 = this.iterator();
-      Iterator<SemiCluster> iterator2 = other.iterator();
-      while (iterator1.hasNext()) {
-        if (iterator1.next().compareTo(iterator2.next()) != 0) {
-          return -1;
+      if (size < maxSize) {
+        if (clusters.length == size) {
+          clusters = Arrays.copyOf(clusters, Math.max(maxSize, 1));
         }
+        size++;
       }
-      return 0;
+      System.arraycopy(clusters, pos, clusters, pos + 1, size - pos - 1);
+      clusters[pos] = cluster;
+      return true;
     }
 
     /**
-     * Implements the readFields method of the Writable interface.
+     * Implements the readFields method of the Writable interface. The
+     * clusters are read into new objects, so clusters obtained from a
+     * previous call can still be used.
      *
      * @param input Input to be read.
      * @throws IOException for IO.
      */
     @Override
     public final void readFields(final DataInput input) throws IOException {
-      int size = input.readInt();
+      size = input.readInt();
+      if (clusters.length < size) {
+        clusters = new SemiCluster[size];
+      }
       for (int i = 0; i < size; i++) {
-        SemiCluster c = new SemiCluster();
-        c.readFields(input);
-        add(c);
+        clusters[i] = new SemiCluster();
+        clusters[i].readFields(input);
       }
+      Arrays.fill(clusters, size, clusters.length, null);
     }
 
     /**
@@ -265,9 +293,9 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
      */
     @Override
     public final void write(final DataOutput output) throws IOException {
-      output.writeInt(size());
-      for (SemiCluster c : this) {
-        c.write(output);
+      output.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        clusters[i].write(output);
       }
     }
 
@@ -279,8 +307,8 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
     @Override
     public final String toString() {
       StringBuilder builder = new StringBuilder();
-      for (SemiCluster v: this) {
-        builder.append(v.toString() + " ");
+      for (int i = 0; i < size; i++) {
+        builder.append(clusters[i].toString() + " ");
       }
       return builder.toString();
     }
@@ -289,10 +317,12 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
   /**
    * This class represents a semi-cluster.
    */
-  private static class SemiCluster implements WritableComparable<SemiCluster> {
+  public static class SemiCluster implements Writable {
 
-    /** List of vertices  */
-    private HashSet<LongWritable> vertices;
+    /** Sorted ids of the vertices */
+    private long[] vertices;
+    /** Signature of the vertices, to speed up equality checks */
+    private long signature;
     /** Score of current semi cluster. */
     private double score;
     /** Inner Score. */
@@ -302,7 +332,8 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
 
     /** Constructor: Create a new empty Cluster. */
     public SemiCluster() {
-      vertices = new HashSet<LongWritable>();
+      vertices = new long[0];
+      signature = computeSignature(vertices);
       score = 1d;
       innerScore = 0d;
       boundaryScore = 0d;
@@ -314,8 +345,8 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
      * @param cluster cluster object to initialize the new object
      */
     public SemiCluster(final SemiCluster cluster) {
-      vertices = new HashSet<LongWritable>();
-      vertices.addAll(cluster.vertices);
+      vertices = cluster.vertices;
+      signature = cluster.signature;
       score = cluster.score;
       innerScore = cluster.innerScore;
       boundaryScore = cluster.boundaryScore;
@@ -323,75 +354,104 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
 
     /**
      * Adds a vertex to the cluster.
-     * 
+     *
      * Every time a vertex is added we also update the inner and boundary score.
      * Because vertices are only added to a semi-cluster, we can save the inner
      * and boundary scores and update them incrementally.
-     * 
+     *
      * Otherwise, in order to re-compute it from scratch we would need every
      * vertex to send a friends-of-friends list, which is very expensive.
-     * 
+     *
      * @param vertex The new vertex to be added into the cluster
      * @param scoreFactor Boundary Edge Score Factor
      */
     public final void addVertex(
-        final Vertex<LongWritable, ? , DoubleWritable> vertex, 
+        final Vertex<LongWritable, ? , DoubleWritable> vertex,
         final double scoreFactor) {
       long vertexId = vertex.getId().get();
-
-      if (vertices.add(new LongWritable(vertexId))) {
-        if (size() == 1) {
-          for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
+      int pos = Arrays.binarySearch(vertices, vertexId);
+      if (pos >= 0) {
+        return;
+      }
+      // The member array may be shared with the cluster this one was copied
+      // from, so it is never modified in place.
+      pos = -pos - 1;
+      long[] newVertices = new long[vertices.length + 1];
+      System.arraycopy(vertices, 0, newVertices, 0, pos);
+      newVertices[pos] = vertexId;
+      System.arraycopy(vertices, pos, newVertices, pos + 1,
+          vertices.length - pos);
+      vertices = newVertices;
+      signature = computeSignature(vertices);
+
+      if (size() == 1) {
+        for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
+          boundaryScore += edge.getValue().get();
+        }
+        score = 0.0;
+      } else {
+        for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
+          if (contains(edge.getTargetVertexId().get())) {
+            innerScore += edge.getValue().get();
+            boundaryScore -= edge.getValue().get();
+          } else {
             boundaryScore += edge.getValue().get();
           }
-          score = 0.0;
-        } else {
-          for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
-            if (vertices.contains(edge.getTargetVertexId())) {
-              innerScore += edge.getValue().get();
-              boundaryScore -= edge.getValue().get();
-            } else {
-              boundaryScore += edge.getValue().get();
-            }
-          }
-          score =  (innerScore-scoreFactor*boundaryScore)/(size()*(size()-1)/2);
         }
+        score =  (innerScore-scoreFactor*boundaryScore)/(size()*(size()-1)/2);
       }
     }
 
     /**
-     * Returns size of semi cluster list.
+     * Returns the number of vertices in the semi cluster.
      *
-     * @return Number of semi clusters in the list
+     * @return Number of vertices
      */
     public final int size() {
-      return vertices.size();
+      return vertices.length;
     }
 
-    /** 
-     * Two semi clusters are the same when:
-     * (i) they have the same number of vertices,
-     * (ii) all their vertices are the same
+    /**
+     * Checks whether a vertex belongs to the semi cluster.
      *
-     * @param other Cluster to be compared with current cluster
+     * @param vertexId Id of the vertex
+     * @return True if the vertex is a member
+     */
+    public final boolean contains(long vertexId) {
+      return Arrays.binarySearch(vertices, vertexId) >= 0;
+    }
+
+    public double getScore() {
+      return score;
+    }
+
+    /**
+     * Orders clusters by decreasing score, and then by signature so that the
+     * order is deterministic.
      *
-     * @return 0 if two clusters are the same
+     * @param other Cluster to be compared with current cluster
+     * @return True if this cluster comes first
      */
-    @Override
-    public final int compareTo(final SemiCluster other) {
-      if (other == null) {
-        return 1;
-      }
-      if (this.size() < other.size()) {
-        return -1;
+    final boolean ranksBefore(final SemiCluster other) {
+      if (score != other.score) {
+        return score > other.score;
       }
-      if (this.size() > other.size()) {
-        return 1;
-      }
-      if (other.vertices.containsAll(vertices)) {
-        return 0;
+      return signature < other.signature;
+    }
+
+    /**
+     * Computes a 64-bit hash of the sorted vertex ids.
+     *
+     * @param vertices Sorted ids
+     * @return Signature
+     */
+    private static long computeSignature(long[] vertices) {
+      long h = vertices.length;
+      for (long v : vertices) {
+        h = (h ^ v) * 0x9E3779B97F4A7C15L;
+        h ^= h >>> 31;
       }
-      return -1;
+      return h;
     }
 
     /**
@@ -401,17 +461,11 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
      */
     @Override
     public final int hashCode() {
-      final int prime = 31;
-      int result = 1;
-      result = prime * result;
-      if (vertices != null) {
-        result += vertices.hashCode();
-      }
-      return result;
+      return (int) (signature ^ (signature >>> 32));
     }
 
     /**
-     * Equals method.
+     * Two semi clusters are equal when they contain the same vertices.
      *
      * @param obj Object to compare if it is equal with.
      * @return boolean result.
@@ -428,14 +482,8 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
         return false;
       }
       SemiCluster other = (SemiCluster) obj;
-      if (vertices == null) {
-        if (other.vertices != null) {
-          return false;
-        }
-      } else if (!vertices.equals(other.vertices)) {
-        return false;
-      }
-      return true;
+      return signature == other.signature &&
+          Arrays.equals(vertices, other.vertices);
     }
 
     /**
@@ -447,8 +495,8 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
     public final String toString() {
       StringBuilder builder = new StringBuilder();
       builder.append("[ ");
-      for (LongWritable v: this.vertices) {
-        builder.append(v.toString());
+      for (long v: this.vertices) {
+        builder.append(v);
         builder.append(" ");
       }
       builder.append(" | " + score + ", " + innerScore + ", "
@@ -464,13 +512,10 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
      */
     @Override
     public final void readFields(final DataInput input) throws IOException {
-      vertices = new HashSet<LongWritable>();
-      int size = input.readInt();
-      for (int i = 0; i < size; i++) {
-        LongWritable e = new LongWritable();
-        e.readFields(input);
-        vertices.add(e);
-      }
+      CompressedLongArrayWritable members = new CompressedLongArrayWritable();
+      members.readFields(input);
+      vertices = members.getArray();
+      signature = computeSignature(vertices);
       score = input.readDouble();
       innerScore = input.readDouble();
       boundaryScore = input.readDouble();
@@ -484,13 +529,10 @@ SemiClusterTreeSetWritable, DoubleWritable, SemiClusterTreeSetWritable> {
      */
     @Override
     public final void write(final DataOutput output) throws IOException {
-      output.writeInt(size());
-      for (LongWritable vertex: vertices) {
-        vertex.write(output);
-      }
+      new CompressedLongArrayWritable(vertices, vertices.length).write(output);
       output.writeDouble(score);
       output.writeDouble(innerScore);
       output.writeDouble(boundaryScore);
     }
   }
-}
\ No newline at end of file
+}
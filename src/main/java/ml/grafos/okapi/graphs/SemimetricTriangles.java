@@ -19,6 +19,10 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
@@ -49,6 +53,14 @@ import org.apache.hadoop.io.WritableComparable;
  *   -ca giraph.outEdgesClass=org.apache.giraph.edge.HashMapEdges
  *  </pre>
  * 
+ * Setting semimetric.pruning.enabled to true runs a variant that skips most
+ * of the wedges on weighted graphs. Since an edge is only semi-metric if it
+ * is the heaviest edge of a triangle, a vertex A only has to send the wedge
+ * B-A-C to B if W_AB+W_AC is smaller than the largest weight incident to both
+ * B and C. Vertices first exchange their largest incident weight. Then every
+ * vertex sorts its neighbors by edge weight and walks the pairs in increasing
+ * order of W_AB+W_AC, stopping as soon as the sum cannot be beaten. The
+ * wedges that go to the same neighbor are packed into a single message.
  * 
  * @author dl
  */
@@ -61,6 +73,22 @@ public class SemimetricTriangles  {
   /** Default value for removing semi-metric edges in the output graph. */
   public static final boolean REMOVE_EDGES_ENABLED_DEFAULT = true;
 
+  /** Indicates whether wedges that cannot contain a semi-metric edge are 
+   * pruned. */
+  public static final String PRUNING_ENABLED = "semimetric.pruning.enabled";
+
+  /** By default, all wedges are forwarded. */
+  public static final boolean PRUNING_ENABLED_DEFAULT = false;
+
+  /** Counter group for the pruning statistics */
+  public static final String COUNTER_GROUP = "Semimetric";
+
+  /** Number of wedges sent */
+  public static final String WEDGES_SENT_COUNTER = "Wedges sent";
+
+  /** Number of wedges pruned */
+  public static final String WEDGES_PRUNED_COUNTER = "Wedges pruned";
+
 
   /**
    * This class implements the first stage, which propagates the ID of a vertex
@@ -214,6 +242,180 @@ public static class FindSemimetricEdges extends AbstractComputation<LongWritable
     }
   }
 
+  /**
+   * First phase of the pruning variant. Every vertex sends the largest weight
+   * of its edges to all its neighbors.
+   */
+  public static class SendMaxWeight extends AbstractComputation<LongWritable,
+  Writable, DoubleWritable, Writable, NeighborWeight> {
+
+    private final NeighborWeight msg = new NeighborWeight();
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, DoubleWritable> vertex,
+        Iterable<Writable> messages) throws IOException {
+      if (vertex.getNumEdges() > 0) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (Edge<LongWritable, DoubleWritable> edge: vertex.getEdges()) {
+          max = Math.max(max, edge.getValue().get());
+        }
+        msg.set(vertex.getId().get(), max);
+        sendMessageToAllEdges(vertex, msg);
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Second phase of the pruning variant. A vertex A sorts its neighbors by
+   * edge weight and, for every neighbor B, sends to B the neighbors C for 
+   * which W_AB+W_AC is smaller than the largest weights incident to B and C,
+   * together with W_AB+W_AC.
+   */
+  public static class ForwardPrunedWedges extends AbstractComputation<
+  LongWritable, Writable, DoubleWritable, NeighborWeight, Wedges> {
+
+    private final LongWritable key = new LongWritable();
+    private final LongWritable target = new LongWritable();
+    private final Wedges wedges = new Wedges();
+    private long wedgesSent;
+    private long wedgesPruned;
+
+    /** Neighbor ids, weights of the edges to them and their largest weight */
+    private long[] ids = new long[0];
+    private double[] weights = new double[0];
+    private double[] maxWeights = new double[0];
+
+    /** Sorts the neighbors by increasing edge weight */
+    private final AbstractIntComparator byWeight = new AbstractIntComparator() {
+      @Override
+      public int compare(int i, int j) {
+        return Double.compare(weights[i], weights[j]);
+      }
+    };
+
+    private final Swapper swapper = new Swapper() {
+      @Override
+      public void swap(int i, int j) {
+        long id = ids[i];
+        ids[i] = ids[j];
+        ids[j] = id;
+        double w = weights[i];
+        weights[i] = weights[j];
+        weights[j] = w;
+        w = maxWeights[i];
+        maxWeights[i] = maxWeights[j];
+        maxWeights[j] = w;
+      }
+    };
+
+    @Override
+    public void preSuperstep() {
+      wedgesSent = 0;
+      wedgesPruned = 0;
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, DoubleWritable> vertex,
+        Iterable<NeighborWeight> messages) throws IOException {
+      int degree = vertex.getNumEdges();
+      if (ids.length < degree) {
+        ids = new long[degree];
+        weights = new double[degree];
+        maxWeights = new double[degree];
+      }
+
+      int n = 0;
+      double bound = Double.NEGATIVE_INFINITY;
+      for (NeighborWeight msg : messages) {
+        key.set(msg.getId());
+        DoubleWritable weight = vertex.getEdgeValue(key);
+        if (weight == null || n == degree) {
+          // Only edges present in both directions can close a triangle.
+          continue;
+        }
+        ids[n] = msg.getId();
+        weights[n] = weight.get();
+        maxWeights[n] = msg.getWeight();
+        bound = Math.max(bound, msg.getWeight());
+        n++;
+      }
+      Arrays.quickSort(0, n, byWeight, swapper);
+
+      long sent = 0;
+      for (int i = 0; i < n - 1; i++) {
+        // Every remaining pair sums to at least twice this weight.
+        if (weights[i] + weights[i + 1] >= bound) {
+          break;
+        }
+        wedges.clear();
+        for (int j = i + 1; j < n; j++) {
+          double sum = weights[i] + weights[j];
+          if (sum >= maxWeights[i]) {
+            break;
+          }
+          if (sum < maxWeights[j]) {
+            wedges.add(ids[j], sum);
+          }
+        }
+        if (wedges.size() > 0) {
+          target.set(ids[i]);
+          sendMessage(target, wedges);
+          sent += wedges.size();
+        }
+      }
+      wedgesSent += sent;
+      wedgesPruned += (long) n * (n - 1) / 2 - sent;
+      vertex.voteToHalt();
+    }
+
+    @Override
+    public void postSuperstep() {
+      getContext().getCounter(COUNTER_GROUP, WEDGES_SENT_COUNTER)
+          .increment(wedgesSent);
+      getContext().getCounter(COUNTER_GROUP, WEDGES_PRUNED_COUNTER)
+          .increment(wedgesPruned);
+    }
+  }
+
+  /**
+   * Third phase of the pruning variant. A vertex B that receives the wedge
+   * B-A-C checks whether the edge B-C is heavier than W_AB+W_AC, in which case
+   * it is semi-metric.
+   */
+  @SuppressWarnings("rawtypes")
+  public static class FindPrunedSemimetricEdges extends AbstractComputation<
+  LongWritable, Writable, DoubleWritable, Wedges, WritableComparable> {
+
+    private boolean removeEdgesEnabled;
+    private final LongWritable key = new LongWritable();
+
+    @Override
+    public void preSuperstep() {
+      removeEdgesEnabled = getContext().getConfiguration().getBoolean(
+          REMOVE_EDGES_ENABLED, REMOVE_EDGES_ENABLED_DEFAULT);
+    }
+
+    @Override
+    public void compute(Vertex<LongWritable, Writable, DoubleWritable> vertex,
+        Iterable<Wedges> messages) throws IOException {
+      for (Wedges msg : messages) {
+        for (int i = 0; i < msg.size(); i++) {
+          key.set(msg.getId(i));
+          DoubleWritable weight = vertex.getEdgeValue(key);
+          if (weight != null && weight.get() > msg.getSum(i) &&
+              removeEdgesEnabled) {
+            // The mutation requests keep the ids, so they cannot be reused.
+            LongWritable id = new LongWritable(msg.getId(i));
+            removeEdgesRequest(vertex.getId(), id);
+            removeEdgesRequest(id, vertex.getId());
+          }
+        }
+      }
+      // NOTE: As in FindSemimetricEdges, vertices do not halt here.
+    }
+  }
+
   /**
    * Represents an undirected edge with a symmetric weight.
    * @author dl
@@ -256,6 +458,90 @@ public static class FindSemimetricEdges extends AbstractComputation<LongWritable
     }
   }
   
+  /**
+   * The id of a vertex and the largest weight of its edges.
+   */
+  public static class NeighborWeight implements Writable {
+    private long id;
+    private double weight;
+
+    public NeighborWeight() {}
+
+    public void set(long id, double weight) {
+      this.id = id;
+      this.weight = weight;
+    }
+
+    public long getId() { return id; }
+    public double getWeight() { return weight; }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      id = input.readLong();
+      weight = input.readDouble();
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeLong(id);
+      output.writeDouble(weight);
+    }
+  }
+
+  /**
+   * The wedges sent to a vertex B by a common neighbor A: the ids of the other
+   * endpoints C and the sums W_AB+W_AC.
+   */
+  public static class Wedges implements Writable {
+    private long[] ids = new long[0];
+    private double[] sums = new double[0];
+    private int size;
+
+    public Wedges() {}
+
+    public void clear() {
+      size = 0;
+    }
+
+    public void add(long id, double sum) {
+      ensureCapacity(size + 1);
+      ids[size] = id;
+      sums[size] = sum;
+      size++;
+    }
+
+    public int size() { return size; }
+    public long getId(int i) { return ids[i]; }
+    public double getSum(int i) { return sums[i]; }
+
+    private void ensureCapacity(int capacity) {
+      if (ids.length < capacity) {
+        int newLength = Math.max(capacity, 2 * ids.length);
+        ids = java.util.Arrays.copyOf(ids, newLength);
+        sums = java.util.Arrays.copyOf(sums, newLength);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      size = input.readInt();
+      ensureCapacity(size);
+      for (int i = 0; i < size; i++) {
+        ids[i] = input.readLong();
+        sums[i] = input.readDouble();
+      }
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        output.writeLong(ids[i]);
+        output.writeDouble(sums[i]);
+      }
+    }
+  }
+  
   /**
    * Use this MasterCompute implementation to find the semi-metric edges.
    * 
@@ -270,7 +556,22 @@ public static class FindSemimetricEdges extends AbstractComputation<LongWritable
           REMOVE_EDGES_ENABLED, REMOVE_EDGES_ENABLED_DEFAULT);
 
       long superstep = getSuperstep();  
-      if (superstep==0) {
+      if (getConf().getBoolean(PRUNING_ENABLED, PRUNING_ENABLED_DEFAULT) &&
+          superstep < 3) {
+        if (superstep==0) {
+          setComputation(SendMaxWeight.class);
+          setIncomingMessage(LongWritable.class);
+          setOutgoingMessage(NeighborWeight.class);
+        } else if (superstep==1) {
+          setComputation(ForwardPrunedWedges.class);
+          setIncomingMessage(NeighborWeight.class);
+          setOutgoingMessage(Wedges.class);
+        } else {
+          setComputation(FindPrunedSemimetricEdges.class);
+          setIncomingMessage(Wedges.class);
+          setOutgoingMessage(LongWritable.class);
+        }
+      } else if (superstep==0) {
         setComputation(PropagateId.class);
         setIncomingMessage(LongWritable.class);
         setOutgoingMessage(LongWritable.class);
@@ -0,0 +1,409 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.combiner.MessageCombiner;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.BasicComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableComparable;
+
+/**
+ * <p>
+ * Connected components with pointer jumping (shortcutting), in the spirit of
+ * the Shiloach-Vishkin algorithm. Every vertex ends up with the smallest
+ * vertex id in its component, exactly like {@link ConnectedComponents}, but
+ * long paths are collapsed by pointer jumping instead of being walked one
+ * edge per superstep.
+ * </p>
+ * <p>
+ * The value of every vertex is a pointer (label) to a vertex with a smaller or
+ * equal id in the same component, so the labels form a forest. The
+ * computation alternates between two phases coordinated by the
+ * {@link MasterCompute}:
+ * </p>
+ * <ul>
+ * <li><b>Shortcutting:</b> every vertex asks its parent for the parent's label
+ * and replaces its own label with it. Each round halves the depth of the
+ * trees, so after a logarithmic number of rounds every tree is a star. The
+ * phase ends when no vertex sends a request anymore.</li>
+ * <li><b>Hooking:</b> vertices whose label changed since the last hooking
+ * phase send it to their neighbors. A vertex that receives a smaller label
+ * adopts it and also hooks its old root to it, so that the whole star
+ * follows in the next shortcutting phase.</li>
+ * </ul>
+ * <p>
+ * The computation halts when a hooking phase does not change any label. All
+ * label messages are combined with a {@link MinimumLongMessageCombiner}.
+ * </p>
+ * <p>
+ * You can run this algorithm by executing the command:
+ * </p>
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.ShortcuttingConnectedComponents\$Initialize  \
+ *   -mc  ml.grafos.okapi.graphs.ShortcuttingConnectedComponents\$MasterCompute  \
+ *   -eif ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat  \
+ *   -eip $INPUT_EDGES \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS
+ * </pre>
+ * <p>
+ * The input graph must be undirected, i.e. every edge must exist in both
+ * directions.
+ * </p>
+ */
+public class ShortcuttingConnectedComponents {
+
+  /** Aggregator counting the labels that changed in a superstep. */
+  public static final String AGGREGATOR_CHANGES = "cc.changes";
+
+  /** Aggregator counting the parent requests sent in a superstep. */
+  public static final String AGGREGATOR_REQUESTS = "cc.requests";
+
+  /** Constant used to increase the aggregators. */
+  private static final LongWritable ONE = new LongWritable(1);
+
+  /**
+   * Base class of all the phases of the algorithm. It provides the common
+   * operation of asking the parent of a vertex for its label.
+   */
+  public abstract static class ComponentComputation extends BasicComputation<
+  LongWritable, ComponentValue, NullWritable, LongWritable> {
+
+    /** Reusable message object. */
+    protected final LongWritable message = new LongWritable();
+
+    /**
+     * Asks the parent of this vertex for its label, unless this vertex is the
+     * root of its tree or it already knows that its parent is a root.
+     *
+     * @param vertex The vertex
+     */
+    protected void requestParentLabel(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex) {
+      ComponentValue value = vertex.getValue();
+      if (value.getComponent() == vertex.getId().get()) {
+        value.setStable(true);
+      }
+      if (!value.isStable()) {
+        message.set(vertex.getId().get());
+        sendMessage(new LongWritable(value.getComponent()), message);
+        aggregate(AGGREGATOR_REQUESTS, ONE);
+      }
+    }
+
+    /**
+     * Lowers the label of a vertex.
+     *
+     * @param vertex The vertex
+     * @param component The new label
+     */
+    protected void changeComponent(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        long component) {
+      vertex.getValue().setComponent(component);
+      vertex.getValue().setChanged(true);
+      vertex.getValue().setStable(false);
+      aggregate(AGGREGATOR_CHANGES, ONE);
+    }
+  }
+
+  /**
+   * Points every vertex to its smallest neighbor (or itself), and starts the
+   * first shortcutting phase.
+   */
+  public static class Initialize extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      long component = vertex.getId().get();
+      for (Edge<LongWritable, NullWritable> edge : vertex.getEdges()) {
+        long neighbor = edge.getTargetVertexId().get();
+        if (neighbor < component) {
+          component = neighbor;
+        }
+      }
+      ComponentValue value = vertex.getValue();
+      value.setComponent(component);
+      value.setChanged(true);
+      value.setStable(false);
+      requestParentLabel(vertex);
+    }
+  }
+
+  /**
+   * Answers the label requests received from the children of a vertex.
+   */
+  public static class ReplyToRequests extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      message.set(vertex.getValue().getComponent());
+      for (LongWritable child : messages) {
+        sendMessage(child, message);
+      }
+    }
+  }
+
+  /**
+   * Replaces the label of a vertex with the label of its parent. If the label
+   * of the parent is the same, the parent is a root and the vertex stops
+   * asking until the next hooking phase.
+   */
+  public static class ApplyReplies extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      for (LongWritable grandParent : messages) {
+        if (grandParent.get() < vertex.getValue().getComponent()) {
+          changeComponent(vertex, grandParent.get());
+        } else {
+          vertex.getValue().setStable(true);
+        }
+      }
+      requestParentLabel(vertex);
+    }
+  }
+
+  /**
+   * Sends the label of every vertex that changed since the last hooking phase
+   * to all its neighbors.
+   */
+  public static class PropagateComponents extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      ComponentValue value = vertex.getValue();
+      if (value.isChanged()) {
+        message.set(value.getComponent());
+        sendMessageToAllEdges(vertex, message);
+        value.setChanged(false);
+      }
+      // The stars may get hooked to other stars during this phase, so every
+      // vertex must check its parent again.
+      value.setStable(false);
+    }
+  }
+
+  /**
+   * Adopts the smallest label received from a neighbor and hooks the old root
+   * of the vertex to it.
+   */
+  public static class HookComponents extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      long oldComponent = vertex.getValue().getComponent();
+      long component = oldComponent;
+      for (LongWritable candidate : messages) {
+        if (candidate.get() < component) {
+          component = candidate.get();
+        }
+      }
+      if (component < oldComponent) {
+        changeComponent(vertex, component);
+        if (oldComponent != vertex.getId().get()) {
+          message.set(component);
+          sendMessage(new LongWritable(oldComponent), message);
+        }
+      }
+    }
+  }
+
+  /**
+   * Applies the hooks received by the roots and starts a new shortcutting
+   * phase.
+   */
+  public static class ApplyHooks extends ComponentComputation {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, ComponentValue, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      for (LongWritable candidate : messages) {
+        if (candidate.get() < vertex.getValue().getComponent()) {
+          changeComponent(vertex, candidate.get());
+        }
+      }
+      requestParentLabel(vertex);
+    }
+  }
+
+  /**
+   * Keeps the minimum of the messages sent to a vertex.
+   */
+  @SuppressWarnings("rawtypes")
+  public static class MinimumLongMessageCombiner
+  extends MessageCombiner<WritableComparable, LongWritable> {
+
+    @Override
+    public void combine(WritableComparable vertexIndex,
+        LongWritable originalMessage, LongWritable messageToCombine) {
+      if (originalMessage.get() > messageToCombine.get()) {
+        originalMessage.set(messageToCombine.get());
+      }
+    }
+
+    @Override
+    public LongWritable createInitialMessage() {
+      return new LongWritable(Long.MAX_VALUE);
+    }
+  }
+
+  /**
+   * Coordinates the shortcutting and hooking phases.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+
+    /** The kind of the previous superstep. */
+    private Class<? extends ComponentComputation> lastComputation;
+
+    @Override
+    public void initialize() throws InstantiationException,
+        IllegalAccessException {
+      registerAggregator(AGGREGATOR_CHANGES, LongSumAggregator.class);
+      registerAggregator(AGGREGATOR_REQUESTS, LongSumAggregator.class);
+    }
+
+    @Override
+    public void compute() {
+      if (getSuperstep() == 0) {
+        setPhase(Initialize.class, null);
+        return;
+      }
+      long changes = ((LongWritable) getAggregatedValue(
+          AGGREGATOR_CHANGES)).get();
+      long requests = ((LongWritable) getAggregatedValue(
+          AGGREGATOR_REQUESTS)).get();
+
+      if (lastComputation == ReplyToRequests.class) {
+        setPhase(ApplyReplies.class, null);
+      } else if (lastComputation == PropagateComponents.class) {
+        setPhase(HookComponents.class, MinimumLongMessageCombiner.class);
+      } else if (lastComputation == HookComponents.class) {
+        if (changes == 0) {
+          haltComputation();
+        } else {
+          setPhase(ApplyHooks.class, null);
+        }
+      } else {
+        // The previous superstep sent parent requests. Keep shortcutting until
+        // all trees are stars.
+        if (requests > 0) {
+          setPhase(ReplyToRequests.class, MinimumLongMessageCombiner.class);
+        } else {
+          setPhase(PropagateComponents.class,
+              MinimumLongMessageCombiner.class);
+        }
+      }
+    }
+
+    /**
+     * Sets the computation and the combiner of the messages sent in the next
+     * superstep. Parent requests carry vertex ids and cannot be combined.
+     *
+     * @param computation Computation class
+     * @param combiner Combiner class or null
+     */
+    @SuppressWarnings("rawtypes")
+    private void setPhase(Class<? extends ComponentComputation> computation,
+        Class<? extends MessageCombiner> combiner) {
+      setComputation(computation);
+      setMessageCombiner(combiner);
+      lastComputation = computation;
+    }
+  }
+
+  /**
+   * The value of a vertex: the current component label, whether it changed
+   * since the last hooking phase and whether the parent is known to be a root.
+   */
+  public static class ComponentValue implements Writable {
+    /** Current label, i.e. the parent of this vertex. */
+    private long component;
+    /** True if the label has not been sent to the neighbors yet. */
+    private boolean changed;
+    /** True if the parent is known to be a root. */
+    private boolean stable;
+
+    public ComponentValue() {
+    }
+
+    public long getComponent() {
+      return component;
+    }
+
+    public void setComponent(long component) {
+      this.component = component;
+    }
+
+    public boolean isChanged() {
+      return changed;
+    }
+
+    public void setChanged(boolean changed) {
+      this.changed = changed;
+    }
+
+    public boolean isStable() {
+      return stable;
+    }
+
+    public void setStable(boolean stable) {
+      this.stable = stable;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      component = in.readLong();
+      changed = in.readBoolean();
+      stable = in.readBoolean();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(component);
+      out.writeBoolean(changed);
+      out.writeBoolean(stable);
+    }
+
+    @Override
+    public String toString() {
+      return String.valueOf(component);
+    }
+  }
+}
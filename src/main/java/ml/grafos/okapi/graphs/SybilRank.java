@@ -19,7 +19,9 @@ import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 
+import org.apache.giraph.aggregators.DoubleSumAggregator;
 import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.combiner.DoubleSumMessageCombiner;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
@@ -62,6 +64,25 @@ public class SybilRank {
    * Name of aggregator used to calculate the total number of trusted nodes.
    */
   public static final String AGGREGATOR_NUM_TRUSTED = "AGG_NUM_TRUSTED";
+
+  /**
+   * Property name for the L1 change of the trust below which the power
+   * iterations stop before reaching c*log10(N). A negative value disables the
+   * early termination.
+   */
+  public static final String CONVERGENCE_THRESHOLD =
+      "sybilrank.convergence.threshold";
+
+  /**
+   * By default the early termination is disabled.
+   */
+  public static final float CONVERGENCE_THRESHOLD_DEFAULT = -1f;
+
+  /**
+   * Name of aggregator used to calculate the L1 change of the trust in a
+   * power iteration.
+   */
+  public static final String AGGREGATOR_TRUST_CHANGE = "AGG_TRUST_CHANGE";
   
   public static final LongWritable ONE = new LongWritable(1);
 
@@ -79,10 +100,33 @@ public class SybilRank {
     return degree;
   }
 
+  /**
+   * Distributes the given trust to the neighbors of a vertex proportionally to
+   * the edge weights. Messages are summed by the combiner, so the message
+   * object is reused for all edges.
+   *
+   * @param computation The computation sending the messages
+   * @param vertex The vertex
+   * @param trust The trust to distribute
+   * @param message Reusable message object
+   */
+  private static void distributeTrust(
+      AbstractComputation<LongWritable, VertexValue, DoubleWritable,
+      DoubleWritable, DoubleWritable> computation,
+      Vertex<LongWritable, VertexValue, DoubleWritable> vertex, double trust,
+      DoubleWritable message) {
+    double trustPerWeight = trust/vertex.getValue().getDegree();
+    for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
+      message.set(trustPerWeight*edge.getValue().get());
+      computation.sendMessage(edge.getTargetVertexId(), message);
+    }
+  }
+
   /**
    * This computation class is used to calculate the aggregate number of
    * trusted nodes. This value is necessary to initialize the rank of the nodes
-   * before the power iterations starts.
+   * before the power iterations starts. It also caches the degree of every
+   * vertex.
    * 
    * @author dl
    *
@@ -98,6 +142,8 @@ public class SybilRank {
       if (vertex.getValue().isTrusted()) {
         aggregate(AGGREGATOR_NUM_TRUSTED, ONE);
       }
+      // The edges do not change, so the degree is computed only once.
+      vertex.getValue().setDegree(computeDegree(vertex));
     }
   }
 
@@ -116,28 +162,25 @@ public class SybilRank {
   DoubleWritable, DoubleWritable> {
 
     private double totalTrust; 
+
+    private final DoubleWritable trustMessage = new DoubleWritable();
     
     @Override
     public void compute(
         Vertex<LongWritable, VertexValue, DoubleWritable> vertex,
         Iterable<DoubleWritable> messages) throws IOException {
       
+      double trust = 0.0;
       if (vertex.getValue().isTrusted()) {
-        vertex.getValue().setRank(
-            totalTrust/(double)((LongWritable)getAggregatedValue(
-                AGGREGATOR_NUM_TRUSTED)).get());
-      } else {
-        vertex.getValue().setRank(0.0);
+        trust = totalTrust/(double)((LongWritable)getAggregatedValue(
+            AGGREGATOR_NUM_TRUSTED)).get();
       }
       
-      double degree = computeDegree(vertex);
+      // Like in the power iterations, the rank is normalized by the degree.
+      vertex.getValue().setRank(trust/vertex.getValue().getDegree());
       
       // Distribute rank to edges proportionally to the edge weights
-      for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
-        double distRank = 
-            vertex.getValue().getRank()*(edge.getValue().get()/degree);
-        sendMessage(edge.getTargetVertexId(), new DoubleWritable(distRank));
-      }
+      distributeTrust(this, vertex, trust, trustMessage);
     }
     
     @Override
@@ -163,6 +206,10 @@ public class SybilRank {
   public static class SybilRankComputation
   extends AbstractComputation<LongWritable, VertexValue, DoubleWritable, 
   DoubleWritable, DoubleWritable> {
+
+    private final DoubleWritable trustMessage = new DoubleWritable();
+
+    private final DoubleWritable change = new DoubleWritable();
     
     @Override
     public void compute(
@@ -175,12 +222,15 @@ public class SybilRank {
         newRank += message.get();
       }
       
-      double degree = computeDegree(vertex);
+      double degree = vertex.getValue().getDegree();
       
       // Distribute rank to edges proportionally to the edge weights
-      for (Edge<LongWritable, DoubleWritable> edge : vertex.getEdges()) {
-        double distRank = newRank*(edge.getValue().get()/degree);
-        sendMessage(edge.getTargetVertexId(), new DoubleWritable(distRank));
+      distributeTrust(this, vertex, newRank, trustMessage);
+
+      if (degree > 0) {
+        double oldRank = vertex.getValue().getRank()*degree;
+        change.set(Math.abs(newRank - oldRank));
+        aggregate(AGGREGATOR_TRUST_CHANGE, change);
       }
       
       // The final value of the rank is normalized by the degree of the vertex.
@@ -197,17 +247,25 @@ public class SybilRank {
   public static class SybilRankMasterCompute extends DefaultMasterCompute {
     private int iterationMultiplier;
 
+    private float convergenceThreshold;
+
     @Override
     public void initialize() throws InstantiationException,
     IllegalAccessException {
       
       iterationMultiplier = getContext().getConfiguration().getInt(
           ITERATION_MULTIPLIER, ITERATION_MULTIPLIER_DEFAULT);       
+      convergenceThreshold = getContext().getConfiguration().getFloat(
+          CONVERGENCE_THRESHOLD, CONVERGENCE_THRESHOLD_DEFAULT);
       
       // Register the aggregator that will be used to count the number of 
       // trusted nodes.
       registerPersistentAggregator(AGGREGATOR_NUM_TRUSTED,
           LongSumAggregator.class);
+
+      // Register the aggregator that holds the L1 change of the trust in the
+      // last power iteration.
+      registerAggregator(AGGREGATOR_TRUST_CHANGE, DoubleSumAggregator.class);
     }
 
     @Override
@@ -220,6 +278,8 @@ public class SybilRank {
       } else {
         setComputation(SybilRankComputation.class);
       }
+      // All messages carry trust that the receiver sums up.
+      setMessageCombiner(DoubleSumMessageCombiner.class);
       
       // The number of power iterations we execute is equal to c*log10(N), where
       // N is the number of vertices in the graph and c is the iteration
@@ -231,6 +291,16 @@ public class SybilRank {
         // count those in when deciding to stop. 
         if (superstep >= 2+maxPowerIterations) {
           haltComputation();
+        }
+
+        // Optionally stop earlier, if the last power iteration barely changed
+        // the trust.
+        if (convergenceThreshold > 0 && superstep > 2) {
+          double trustChange = ((DoubleWritable)getAggregatedValue(
+              AGGREGATOR_TRUST_CHANGE)).get();
+          if (trustChange < convergenceThreshold) {
+            haltComputation();
+          }
         }
       }
     }
@@ -251,6 +321,8 @@ public class SybilRank {
     private boolean isTrusted;
     // This holds the current rank of the vertex.
     private double rank;
+    // The sum of the edge weights, cached during the first superstep.
+    private double degree;
 
     public VertexValue() {
       isTrusted = false;
@@ -276,17 +348,27 @@ public class SybilRank {
     public boolean isTrusted() {
       return isTrusted;
     }
+
+    public void setDegree(double degree) {
+      this.degree = degree;
+    }
+
+    public double getDegree() {
+      return degree;
+    }
     
     @Override
     public void readFields(DataInput in) throws IOException {
       rank = in.readDouble();
       isTrusted = in.readBoolean();
+      degree = in.readDouble();
     }
 
     @Override
     public void write(DataOutput out) throws IOException {
       out.writeDouble(rank);
       out.writeBoolean(isTrusted);
+      out.writeDouble(degree);
     }
 
     @Override
@@ -72,7 +72,9 @@ public class MBMMessage implements Writable {
 
     @Override
     public void readFields(DataInput in) throws IOException {
-        vertexID = new LongWritable(in.readLong());
+        if (vertexID == null)
+            vertexID = new LongWritable();
+        vertexID.set(in.readLong());
         state = State.fromValue(in.readByte());
     }
 
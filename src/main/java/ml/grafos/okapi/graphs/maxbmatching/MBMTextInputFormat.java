@@ -3,7 +3,6 @@ package ml.grafos.okapi.graphs.maxbmatching;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.io.formats.AdjacencyListTextVertexInputFormat;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.mapreduce.InputSplit;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
@@ -16,7 +15,7 @@ import org.apache.hadoop.mapreduce.TaskAttemptContext;
  * 
  * E.g., "1 5 2 0.5 3 0.1" creates a vertex with id=1, capacity=5, and two edges to vertices 2 and 3, with weights 0.5 and 0.1, respectively.
  */
-public class MBMTextInputFormat extends AdjacencyListTextVertexInputFormat<LongWritable, IntWritable, MBMEdgeValue> {
+public class MBMTextInputFormat extends AdjacencyListTextVertexInputFormat<LongWritable, MBMVertexValue, MBMEdgeValue> {
 
     @Override
     public AdjacencyListTextVertexReader createVertexReader(InputSplit split, TaskAttemptContext context) {
@@ -36,8 +35,8 @@ public class MBMTextInputFormat extends AdjacencyListTextVertexInputFormat<LongW
         }
 
         @Override
-        public IntWritable decodeValue(String s) {
-            return new IntWritable(Integer.parseInt(s));
+        public MBMVertexValue decodeValue(String s) {
+            return new MBMVertexValue(Integer.parseInt(s));
         }
     }
 }
@@ -5,15 +5,14 @@ import java.io.IOException;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.formats.AdjacencyListTextVertexOutputFormat;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
 
-public class MBMTextOutputFormat extends AdjacencyListTextVertexOutputFormat<LongWritable, IntWritable, MBMEdgeValue> {
+public class MBMTextOutputFormat extends AdjacencyListTextVertexOutputFormat<LongWritable, MBMVertexValue, MBMEdgeValue> {
 
     @Override
-    public AdjacencyListTextVertexOutputFormat<LongWritable, IntWritable, MBMEdgeValue>.AdjacencyListTextVertexWriter createVertexWriter(
+    public AdjacencyListTextVertexOutputFormat<LongWritable, MBMVertexValue, MBMEdgeValue>.AdjacencyListTextVertexWriter createVertexWriter(
             TaskAttemptContext context) {
         return new MBMVertexWriter();
     }
@@ -28,15 +27,17 @@ public class MBMTextOutputFormat extends AdjacencyListTextVertexOutputFormat<Lon
         }
 
         @Override
-        public Text convertVertexToLine(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex) throws IOException {
+        public Text convertVertexToLine(Vertex<LongWritable, MBMVertexValue, MBMEdgeValue> vertex) throws IOException {
             StringBuffer sb = new StringBuffer(vertex.getId().toString());
             sb.append(delimiter);
             sb.append(vertex.getValue());
 
             for (Edge<LongWritable, MBMEdgeValue> edge : vertex.getEdges()) {
+                // only output the edges in the matching, without their state
+                if (!vertex.getValue().isMatched(edge.getTargetVertexId().get()))
+                    continue;
                 sb.append(delimiter).append(edge.getTargetVertexId());
                 sb.append(delimiter).append(edge.getValue().getWeight());
-                // skip the state, which is always INCLUDED
             }
             return new Text(sb.toString());
         }
@@ -0,0 +1,303 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs.maxbmatching;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Vertex value for the b-suitor algorithm in {@link MaxBMatching}.
+ *
+ * Holds the capacity of the vertex, its neighbors sorted once by decreasing edge weight with a cursor to the next one
+ * to propose to, the neighbors it currently proposes to, and its best suitors, i.e., the neighbors whose proposals it
+ * currently holds. Edges with equal weights are ordered by neighbor id, which orders all the edges of the graph
+ * consistently.
+ *
+ * All the state is kept in primitive arrays, so processing a superstep does not allocate memory.
+ */
+public class MBMVertexValue implements Writable {
+    private static final long[] NO_IDS = new long[0];
+    private static final double[] NO_WEIGHTS = new double[0];
+
+    /** Maximum number of edges of the vertex in the matching */
+    private int capacity;
+
+    /** Neighbors sorted by decreasing weight */
+    private long[] targets = NO_IDS;
+    /** Weights of the edges to the sorted neighbors */
+    private double[] weights = NO_WEIGHTS;
+    /** Position of the next neighbor to propose to */
+    private int cursor;
+
+    /** Neighbors the vertex currently proposes to */
+    private long[] proposals = NO_IDS;
+    /** Weights of the proposals */
+    private double[] proposalWeights = NO_WEIGHTS;
+    private int numProposals;
+
+    /** Suitors currently held, best first */
+    private long[] suitors = NO_IDS;
+    /** Weights of the suitors */
+    private double[] suitorWeights = NO_WEIGHTS;
+    private int numSuitors;
+
+    public MBMVertexValue() {
+    }
+
+    public MBMVertexValue(int capacity) {
+        setCapacity(capacity);
+    }
+
+    public int getCapacity() {
+        return capacity;
+    }
+
+    public void setCapacity(int capacity) {
+        if (capacity < 0)
+            throw new IllegalArgumentException("Capacity should never be negative: " + capacity);
+        this.capacity = capacity;
+        proposals = new long[capacity];
+        proposalWeights = new double[capacity];
+        suitors = new long[capacity];
+        suitorWeights = new double[capacity];
+        numProposals = 0;
+        numSuitors = 0;
+    }
+
+    /**
+     * Copies the edges into the sorted neighbor array and resets the cursor.
+     *
+     * @param edges Edges of the vertex
+     * @param numEdges Number of edges
+     */
+    public void initialize(Iterable<Edge<LongWritable, MBMEdgeValue>> edges, int numEdges) {
+        final long[] ids = new long[numEdges];
+        final double[] ws = new double[numEdges];
+        int n = 0;
+        for (Edge<LongWritable, MBMEdgeValue> e : edges) {
+            ids[n] = e.getTargetVertexId().get();
+            ws[n] = e.getValue().getWeight();
+            n++;
+        }
+        Arrays.quickSort(0, n, new AbstractIntComparator() {
+            @Override
+            public int compare(int i, int j) {
+                return ranksBefore(ids[i], ws[i], ids[j], ws[j]) ? -1 : (ranksBefore(ids[j], ws[j], ids[i], ws[i]) ? 1 : 0);
+            }
+        }, new Swapper() {
+            @Override
+            public void swap(int i, int j) {
+                long id = ids[i];
+                ids[i] = ids[j];
+                ids[j] = id;
+                double w = ws[i];
+                ws[i] = ws[j];
+                ws[j] = w;
+            }
+        });
+        targets = ids;
+        weights = ws;
+        cursor = 0;
+    }
+
+    /**
+     * Orders the edges of a vertex: by decreasing weight, then by increasing neighbor id. For edges that share an
+     * endpoint, this is the same as ordering all edges by decreasing weight and then by their endpoint ids.
+     */
+    static boolean ranksBefore(long id1, double weight1, long id2, double weight2) {
+        return weight1 > weight2 || (weight1 == weight2 && id1 < id2);
+    }
+
+    /**
+     * Whether the vertex has room for another proposal and neighbors left to propose to.
+     */
+    public boolean canPropose() {
+        return numProposals < capacity && cursor < targets.length;
+    }
+
+    /**
+     * Records a proposal to the next neighbor in weight order and advances the cursor.
+     *
+     * @return Id of the neighbor to propose to
+     */
+    public long nextProposal() {
+        proposals[numProposals] = targets[cursor];
+        proposalWeights[numProposals] = weights[cursor];
+        numProposals++;
+        return targets[cursor++];
+    }
+
+    /**
+     * Removes a neighbor that rejected the proposal of this vertex. The cursor never moves back: a rejecting neighbor
+     * holds enough suitors better than this vertex, and its suitors only get better.
+     *
+     * @param id Id of the neighbor
+     */
+    public void removeProposal(long id) {
+        for (int i = 0; i < numProposals; i++) {
+            if (proposals[i] == id) {
+                numProposals--;
+                proposals[i] = proposals[numProposals];
+                proposalWeights[i] = proposalWeights[numProposals];
+                return;
+            }
+        }
+    }
+
+    /**
+     * Offers a new suitor. The suitor is kept if the vertex has room for it or if it is better than the worst suitor,
+     * which is then dropped.
+     *
+     * @param id Id of the suitor
+     * @param weight Weight of the edge to the suitor
+     * @param rejected Set to the id of the rejected vertex, if any
+     * @return True if a vertex was rejected, either the new suitor or a dropped one
+     */
+    public boolean offerSuitor(long id, double weight, LongWritable rejected) {
+        if (numSuitors == capacity) {
+            if (capacity == 0 || !ranksBefore(id, weight, suitors[numSuitors - 1], suitorWeights[numSuitors - 1])) {
+                rejected.set(id);
+                return true;
+            }
+            numSuitors--;
+            rejected.set(suitors[numSuitors]);
+            insertSuitor(id, weight);
+            return true;
+        }
+        insertSuitor(id, weight);
+        return false;
+    }
+
+    private void insertSuitor(long id, double weight) {
+        int pos = numSuitors;
+        while (pos > 0 && ranksBefore(id, weight, suitors[pos - 1], suitorWeights[pos - 1])) {
+            suitors[pos] = suitors[pos - 1];
+            suitorWeights[pos] = suitorWeights[pos - 1];
+            pos--;
+        }
+        suitors[pos] = id;
+        suitorWeights[pos] = weight;
+        numSuitors++;
+    }
+
+    private boolean isSuitor(long id) {
+        for (int i = 0; i < numSuitors; i++)
+            if (suitors[i] == id)
+                return true;
+        return false;
+    }
+
+    /**
+     * Whether the edge to a neighbor is in the matching, i.e., the vertex proposes to the neighbor and holds its
+     * proposal.
+     */
+    public boolean isMatched(long id) {
+        for (int i = 0; i < numProposals; i++)
+            if (proposals[i] == id)
+                return isSuitor(id);
+        return false;
+    }
+
+    /**
+     * @return Number of matched edges of the vertex
+     */
+    public int getNumMatched() {
+        int matched = 0;
+        for (int i = 0; i < numProposals; i++)
+            if (isSuitor(proposals[i]))
+                matched++;
+        return matched;
+    }
+
+    /**
+     * @return Total weight of the matched edges of the vertex
+     */
+    public double getMatchedWeight() {
+        double weight = 0;
+        for (int i = 0; i < numProposals; i++)
+            if (isSuitor(proposals[i]))
+                weight += proposalWeights[i];
+        return weight;
+    }
+
+    /**
+     * @return Capacity left after the matched edges
+     */
+    public int getRemainingCapacity() {
+        return capacity - getNumMatched();
+    }
+
+    /**
+     * Prints the remaining capacity, as the vertex value in the output.
+     */
+    @Override
+    public String toString() {
+        return String.valueOf(getRemainingCapacity());
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+        setCapacity(in.readInt());
+        int degree = in.readInt();
+        targets = new long[degree];
+        weights = new double[degree];
+        for (int i = 0; i < degree; i++) {
+            targets[i] = in.readLong();
+            weights[i] = in.readDouble();
+        }
+        cursor = in.readInt();
+        numProposals = in.readInt();
+        for (int i = 0; i < numProposals; i++) {
+            proposals[i] = in.readLong();
+            proposalWeights[i] = in.readDouble();
+        }
+        numSuitors = in.readInt();
+        for (int i = 0; i < numSuitors; i++) {
+            suitors[i] = in.readLong();
+            suitorWeights[i] = in.readDouble();
+        }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+        out.writeInt(capacity);
+        out.writeInt(targets.length);
+        for (int i = 0; i < targets.length; i++) {
+            out.writeLong(targets[i]);
+            out.writeDouble(weights[i]);
+        }
+        out.writeInt(cursor);
+        out.writeInt(numProposals);
+        for (int i = 0; i < numProposals; i++) {
+            out.writeLong(proposals[i]);
+            out.writeDouble(proposalWeights[i]);
+        }
+        out.writeInt(numSuitors);
+        for (int i = 0; i < numSuitors; i++) {
+            out.writeLong(suitors[i]);
+            out.writeDouble(suitorWeights[i]);
+        }
+    }
+}
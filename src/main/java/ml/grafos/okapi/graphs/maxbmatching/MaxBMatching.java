@@ -15,22 +15,16 @@
  */
 package ml.grafos.okapi.graphs.maxbmatching;
 
-import java.util.Comparator;
-import java.util.HashSet;
-import java.util.Map.Entry;
-import java.util.Set;
-
 import ml.grafos.okapi.graphs.maxbmatching.MBMEdgeValue.State;
 
+import org.apache.giraph.aggregators.DoubleSumAggregator;
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
-import org.apache.hadoop.io.IntWritable;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.log4j.Logger;
-import org.python.google.common.collect.Maps;
-
-import com.google.common.collect.MinMaxPriorityQueue;
 
 /**
  * Greedy algorithm for the Maximum B-Matching problem as described in G. De Francisci Morales, A. Gionis, M. Sozio 
@@ -39,121 +33,100 @@ import com.google.common.collect.MinMaxPriorityQueue;
  * Given a weighted undirected graph, with integer capacities assigned to each vertex, the maximum b-matching problem
  * is to select a subgraph of maximum weight  * such that the number of edges incident to each vertex in the subgraph
  * does not exceed its capacity. This is a greedy algorithm that provides a 1/2-approximation guarantee.
+ * 
+ * The matching is computed with the b-suitor algorithm of A. Khan et al. "Efficient Approximation Algorithms for
+ * Weighted b-Matching", SIAM Journal on Scientific Computing, 38(5), 2016, which finds the same matching as the greedy
+ * algorithm. Every vertex sorts its edges by weight once, and proposes to its heaviest neighbors up to its capacity.
+ * A vertex holds the best proposals it receives, up to its capacity, and rejects the others. A rejected vertex
+ * proposes to its next neighbor in weight order, so proposals never need to be repeated. The algorithm terminates when
+ * no vertex has proposals left to make, and the matching consists of the edges proposed by both endpoints.
+ * 
+ * If {@link MasterCompute} is used as the master computation, it logs the total weight of the matching after every
+ * superstep.
  */
-public class MaxBMatching extends BasicComputation<LongWritable, IntWritable, MBMEdgeValue, MBMMessage> {
+public class MaxBMatching extends BasicComputation<LongWritable, MBMVertexValue, MBMEdgeValue, MBMMessage> {
     private static final Logger LOG = Logger.getLogger(MaxBMatching.class);
 
+    /** Aggregator with the total weight of the matching */
+    public static final String AGGREGATOR_MATCHED_WEIGHT = "matched.weight";
+
+    private final LongWritable target = new LongWritable();
+    private final MBMMessage proposeMsg = new MBMMessage(new LongWritable(), State.PROPOSED);
+    private final MBMMessage rejectMsg = new MBMMessage(new LongWritable(), State.REMOVED);
+    private final DoubleWritable weightDelta = new DoubleWritable();
+    private boolean reportWeight;
+
     @Override
-    public void compute(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex, Iterable<MBMMessage> messages) {
-        if (LOG.isDebugEnabled())
-            debug(vertex);
-        if (vertex.getValue().get() < 0)
-            throw new AssertionError("Capacity should never be negative: " + vertex);
-        else if (vertex.getValue().get() == 0) {
-            // vote to halt if capacity reaches zero, tell neighbors to remove edges connecting to this vertex
-            removeVertex(vertex);
-            vertex.voteToHalt();
-            return;
-        } else {
-            if (getSuperstep() > 0) {
-                // accept intersection between proposed and received
-                processUpdates(vertex, messages);
-            }
-            if (vertex.getValue().get() > 0) {
-                // propose edges to neighbors in decreasing order by weight up to capacity
-                sendUpdates(vertex);
-            }
-        }
+    public void preSuperstep() {
+        // the aggregator is registered only if the master computation is used
+        reportWeight = MasterCompute.class.isAssignableFrom(getConf().getMasterComputeClass());
     }
 
-    private void sendUpdates(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex) {
-        final MBMMessage proposeMsg = new MBMMessage(vertex.getId(), State.PROPOSED);
+    @Override
+    public void compute(Vertex<LongWritable, MBMVertexValue, MBMEdgeValue> vertex, Iterable<MBMMessage> messages) {
+        if (LOG.isDebugEnabled())
+            debug(vertex);
+        MBMVertexValue value = vertex.getValue();
+        proposeMsg.getId().set(vertex.getId().get());
+        rejectMsg.getId().set(vertex.getId().get());
 
-        // get top-capacity available edges by weight
-        final int capacity = vertex.getValue().get();
-        MinMaxPriorityQueue<Entry<LongWritable, MBMEdgeValue>> maxHeap = MinMaxPriorityQueue.orderedBy(new Comparator<Entry<LongWritable, MBMEdgeValue>>() {
-            @Override
-            public int compare(Entry<LongWritable, MBMEdgeValue> o1, Entry<LongWritable, MBMEdgeValue> o2) {
-                return -1 * Double.compare(o1.getValue().getWeight(), o2.getValue().getWeight()); // reverse comparator, largest weight first
-            }
-        }).maximumSize(capacity).create();
-        // prepare list of available edges
-        for (Edge<LongWritable, MBMEdgeValue> e : vertex.getEdges()) {
-            if (e.getValue().getState() == State.DEFAULT || e.getValue().getState() == State.PROPOSED) {
-                maxHeap.add(Maps.immutableEntry(e.getTargetVertexId(), e.getValue()));
-            }
+        if (getSuperstep() == 0) {
+            value.initialize(vertex.getEdges(), vertex.getNumEdges());
         }
-
-        if (maxHeap.isEmpty()) {
-            // all remaining edges are INCLUDED, nothing else to do
-            checkSolution(vertex.getEdges());
-            vertex.voteToHalt();
-        } else {
-            // propose up to capacity
-            while (!maxHeap.isEmpty()) {
-                Entry<LongWritable, MBMEdgeValue> entry = maxHeap.removeFirst();
-                vertex.getEdgeValue(entry.getKey()).setState(State.PROPOSED);
-                sendMessage(entry.getKey(), proposeMsg);
-            }
-        }
-    }
-
-    private void processUpdates(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex, Iterable<MBMMessage> messages) throws AssertionError {
-        Set<LongWritable> toRemove = new HashSet<LongWritable>();
-        int numIncluded = 0;
+        double matchedWeight = value.getMatchedWeight();
 
         for (MBMMessage msg : messages) {
-            MBMEdgeValue edgeValue = vertex.getEdgeValue(msg.getId());
-            if (edgeValue == null) {
-                // edge has already been removed, do nothing
-                if (LOG.isDebugEnabled())
-                    LOG.debug(String.format("Superstep %d Vertex %d: message for removed edge from vertex %d", getSuperstep(), vertex.getId().get(), msg
-                            .getId().get()));
+            if (msg.getState() == State.PROPOSED) {
+                // hold the proposal if it is among the best ones, reject the worst
+                MBMEdgeValue edgeValue = vertex.getEdgeValue(msg.getId());
+                double weight = edgeValue == null ? Double.NEGATIVE_INFINITY : edgeValue.getWeight();
+                if (value.offerSuitor(msg.getId().get(), weight, target))
+                    sendMessage(target, rejectMsg);
+            } else if (msg.getState() == State.REMOVED) {
+                // the neighbor holds better proposals, move on
+                value.removeProposal(msg.getId().get());
             } else {
-                if (msg.getState() == State.PROPOSED && edgeValue.getState() == State.PROPOSED) {
-                    edgeValue.setState(State.INCLUDED);
-                    numIncluded++;
-                } else if (msg.getState() == State.REMOVED) {
-                    toRemove.add(msg.getId());
-                }
+                throw new AssertionError("Unexpected message " + msg + " at vertex " + vertex.getId());
             }
         }
-        // update capacity
-        vertex.getValue().set(vertex.getValue().get() - numIncluded);
-        // remove edges locally
-        for (LongWritable e : toRemove)
-            vertex.removeEdges(e);
 
-        if (LOG.isDebugEnabled())
-            LOG.debug(String.format("Superstep %d Vertex %d: included %d edges, removed %d edges", getSuperstep(), vertex.getId().get(), numIncluded,
-                    toRemove.size()));
-    }
-
-    private void removeVertex(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex) {
-        Set<LongWritable> toRemove = new HashSet<LongWritable>();
-        final MBMMessage removeMsg = new MBMMessage(vertex.getId(), State.REMOVED);
-
-        for (Edge<LongWritable, MBMEdgeValue> e : vertex.getEdges()) {
-            MBMEdgeValue edgeState = e.getValue();
-            // remove remaining DEFAULT edges
-            if (edgeState.getState() == State.DEFAULT) {
-                sendMessage(e.getTargetVertexId(), removeMsg);
-                toRemove.add(e.getTargetVertexId());
-            }
+        // propose edges to neighbors in decreasing order by weight up to capacity
+        while (value.canPropose()) {
+            target.set(value.nextProposal());
+            sendMessage(target, proposeMsg);
         }
-        for (LongWritable e : toRemove)
-            vertex.removeEdges(e);
-    }
 
-    private void checkSolution(Iterable<Edge<LongWritable, MBMEdgeValue>> collection) {
-        for (Edge<LongWritable, MBMEdgeValue> e : collection)
-            if (e.getValue().getState() != State.INCLUDED)
-                throw new AssertionError(String.format("All the edges in the matching should be %d, %d was %d", State.INCLUDED, e, e.getValue().getState()));
+        if (reportWeight) {
+            // every matched edge is counted by both endpoints
+            weightDelta.set((value.getMatchedWeight() - matchedWeight) / 2);
+            aggregate(AGGREGATOR_MATCHED_WEIGHT, weightDelta);
+        }
+        vertex.voteToHalt();
     }
 
-    private void debug(Vertex<LongWritable, IntWritable, MBMEdgeValue> vertex) {
+    private void debug(Vertex<LongWritable, MBMVertexValue, MBMEdgeValue> vertex) {
         LOG.debug(vertex);
         for (Edge<LongWritable, MBMEdgeValue> e : vertex.getEdges())
             LOG.debug(String.format("Edge(%d, %s)", e.getTargetVertexId().get(), e.getValue().toString()));
     }
+
+    /**
+     * Registers the aggregator with the weight of the matching and reports it after every superstep.
+     */
+    public static class MasterCompute extends DefaultMasterCompute {
+        private static final Logger LOG = Logger.getLogger(MasterCompute.class);
+
+        @Override
+        public void initialize() throws InstantiationException, IllegalAccessException {
+            registerPersistentAggregator(AGGREGATOR_MATCHED_WEIGHT, DoubleSumAggregator.class);
+        }
+
+        @Override
+        public void compute() {
+            if (getSuperstep() > 0 && LOG.isInfoEnabled()) {
+                double weight = ((DoubleWritable) getAggregatedValue(AGGREGATOR_MATCHED_WEIGHT)).get();
+                LOG.info("Superstep " + (getSuperstep() - 1) + ": matched weight " + weight);
+            }
+        }
+    }
 }
@@ -18,10 +18,18 @@ package ml.grafos.okapi.graphs.similarity;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
+import ml.grafos.okapi.common.computation.HubAwareFriends;
+import ml.grafos.okapi.common.computation.HubAwareFriends.FriendsMessage;
+import ml.grafos.okapi.common.data.CompressedLongArrayWritable;
 import ml.grafos.okapi.common.data.LongArrayListWritable;
+import ml.grafos.okapi.common.data.LongArrayWritable;
+import ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges;
+import ml.grafos.okapi.utils.SortedLongArrays;
 
 import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.master.DefaultMasterCompute;
@@ -60,6 +68,16 @@ import com.google.common.primitives.Longs;
  * 
  * To get the approximate Adamic-Adar similarity 
  * set the adamicadar.approximation.enabled parameter to true.
+ * 
+ * For high-degree vertices, the exact similarity is cheaper to compute on
+ * sorted adjacency arrays: set adamicadar.sorted.enabled to true and use
+ * ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges as the
+ * giraph.outEdgesClass. Vertices then send their neighbors as a sorted
+ * primitive array and intersect the lists with a merge or galloping search
+ * instead of one hash lookup per received id.
+ * 
+ * On graphs with hubs, set hub.degree.threshold to the degree above which a
+ * vertex should not broadcast its neighbor list; see {@link HubAwareFriends}.
  *
  */
 public class AdamicAdar {
@@ -89,6 +107,12 @@ public class AdamicAdar {
   /** Default type of hash function in bloom filter */
   public static final int BLOOM_FILTER_HASH_TYPE_DEFAULT = Hash.MURMUR_HASH;
   
+  /** Enables the exact computation on sorted adjacency arrays */
+  public static final String ADAMICADAR_SORTED = "adamicadar.sorted.enabled";
+
+  /** Default value for the sorted exact computation */
+  public static final boolean ADAMICADAR_SORTED_DEFAULT = false;
+
   /** Enables the conversion to distance conversion */
   public static final String DISTANCE_CONVERSION = 
       "distance.conversion.enabled";
@@ -254,6 +278,222 @@ public class AdamicAdar {
 	}
   }
   
+  /**
+   * Implements the second step of the exact Adamic-Adar similarity on sorted
+   * adjacency arrays. Each vertex broadcasts its own value and the sorted
+   * array of the IDs of all its neighbors.
+   */
+  public static class SendSortedFriendsListAndValue extends AbstractComputation<
+    LongWritable, DoubleWritable, DoubleWritable, LongIdDoubleValueFriendsList,
+    DoubleValueSortedFriendsList> {
+
+    /** Reusable message */
+    private final DoubleValueSortedFriendsList msg =
+        new DoubleValueSortedFriendsList();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<LongIdDoubleValueFriendsList> messages) throws IOException {
+      if (vertex.getNumEdges() > 0) {
+        msg.getVertexValue().set(vertex.getValue().get());
+        msg.getNeighborsList().set(SortedLongArrays.sortedTargetIds(vertex),
+            vertex.getNumEdges());
+        sendMessageToAllEdges(vertex, msg);
+      }
+    }
+  }
+
+  /**
+   * The message sent in the sorted implementation of the exact Adamic-Adar
+   * similarity: the value of the source vertex and the sorted ids of its
+   * neighbors, gap-encoded.
+   */
+  public static class DoubleValueSortedFriendsList implements Writable {
+
+    private final DoubleWritable vertexValue = new DoubleWritable();
+    private final LongArrayWritable neighbors =
+        new CompressedLongArrayWritable();
+
+    public DoubleWritable getVertexValue() {
+      return vertexValue;
+    }
+
+    public LongArrayWritable getNeighborsList() {
+      return neighbors;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      vertexValue.readFields(in);
+      neighbors.readFields(in);
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      vertexValue.write(out);
+      neighbors.write(out);
+    }
+  }
+
+  /**
+   * Computes the exact Adamic-Adar similarity like
+   * {@link AdamicAdarComputation}, but finds the common neighbors by
+   * intersecting the sorted neighbor arrays. The partial sums are accumulated
+   * in an array indexed by the position of the neighbor in the sorted
+   * adjacency of the vertex and written to the edges once all messages have
+   * been processed.
+   */
+  public static class AdamicAdarSortedComputation extends BasicComputation<
+    LongWritable, DoubleWritable, DoubleWritable, DoubleValueSortedFriendsList> {
+
+    boolean conversionEnabled;
+    /** Partial sums, indexed by position in the sorted adjacency */
+    private double[] sums = new double[0];
+    /** Positions of the common neighbors in the sorted adjacency */
+    private int[] positions = new int[0];
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION,
+          DISTANCE_CONVERSION_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<DoubleValueSortedFriendsList> messages) throws IOException {
+      long[] ids = SortedLongArrays.sortedTargetIds(vertex);
+      int numEdges = vertex.getNumEdges();
+      if (sums.length < numEdges) {
+        sums = new double[numEdges];
+        positions = new int[numEdges];
+      } else {
+        Arrays.fill(sums, 0, numEdges, 0.0);
+      }
+      long self = vertex.getId().get();
+
+      for (DoubleValueSortedFriendsList msg : messages) {
+        double partialValue = msg.getVertexValue().get();
+        LongArrayWritable friends = msg.getNeighborsList();
+        int common = SortedLongArrays.intersect(friends.getArray(),
+            friends.size(), ids, numEdges, positions);
+        for (int i = 0; i < common; i++) {
+          if (ids[positions[i]] != self) {
+            sums[positions[i]] += partialValue;
+          }
+        }
+      }
+
+      if (vertex.getEdges() instanceof SortedLongDoubleArrayEdges) {
+        SortedLongDoubleArrayEdges edges =
+            (SortedLongDoubleArrayEdges) vertex.getEdges();
+        for (int i = 0; i < numEdges; i++) {
+          edges.setValueAt(i, edges.getValueAt(i) + sums[i]);
+        }
+      } else {
+        for (int i = 0; i < numEdges; i++) {
+          if (sums[i] != 0) {
+            LongWritable id = new LongWritable(ids[i]);
+            vertex.setEdgeValue(id, new DoubleWritable(
+                vertex.getEdgeValue(id).get() + sums[i]));
+          }
+        }
+      }
+      if (!conversionEnabled) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  public static class ScaleToDistanceSorted extends BasicComputation<
+    LongWritable, DoubleWritable, DoubleWritable, DoubleValueSortedFriendsList> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<DoubleValueSortedFriendsList> messages) throws IOException {
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            new DoubleWritable(e.getValue().get()*(-1.0)));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Second step of the exact Adamic-Adar similarity with the hub-aware
+   * strategy.
+   */
+  public static class SendFriendsListOrHub extends HubAwareFriends.
+    SendFriendsOrHub<DoubleWritable, DoubleWritable,
+    LongIdDoubleValueFriendsList> {
+  }
+
+  /**
+   * Computes the exact Adamic-Adar similarity from the common neighbors found
+   * by the hub-aware neighborhood exchange. The value of the in-neighbor, the
+   * log of its inverse degree, is added to the edges towards every common
+   * neighbor.
+   */
+  public static class AdamicAdarHubAwareComputation extends HubAwareFriends.
+    IntersectFriends<DoubleWritable, DoubleWritable> {
+
+    boolean conversionEnabled;
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION,
+          DISTANCE_CONVERSION_DEFAULT);
+    }
+
+    @Override
+    protected void processCommonFriends(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        long sourceId, int sourceDegree, long[] ids, int[] positions,
+        int numCommon) {
+      double partialValue = Math.log(1.0 / (double) sourceDegree);
+      long self = vertex.getId().get();
+      Object edges = vertex.getEdges();
+      for (int i = 0; i < numCommon; i++) {
+        int pos = positions[i];
+        if (ids[pos] == self) {
+          continue;
+        }
+        if (edges instanceof SortedLongDoubleArrayEdges) {
+          SortedLongDoubleArrayEdges sortedEdges =
+              (SortedLongDoubleArrayEdges) edges;
+          sortedEdges.setValueAt(pos, sortedEdges.getValueAt(pos) +
+              partialValue);
+        } else {
+          LongWritable id = new LongWritable(ids[pos]);
+          vertex.setEdgeValue(id, new DoubleWritable(
+              vertex.getEdgeValue(id).get() + partialValue));
+        }
+      }
+    }
+
+    @Override
+    protected boolean haltWhenDone() {
+      return !conversionEnabled;
+    }
+  }
+
+  public static class ScaleToDistanceHubAware extends BasicComputation<
+    LongWritable, DoubleWritable, DoubleWritable, FriendsMessage> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, DoubleWritable, DoubleWritable> vertex,
+        Iterable<FriendsMessage> messages) throws IOException {
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            new DoubleWritable(e.getValue().get()*(-1.0)));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
   /**
    * This class implements the first computation step in the approximate
    * AdamicAdar similarity algorithm. 
@@ -401,6 +641,8 @@ public class AdamicAdar {
   public static class MasterCompute extends DefaultMasterCompute {
 
     boolean approximationEnabled;
+    boolean sortedEnabled;
+    boolean hubAwareEnabled;
     boolean conversionEnabled;
 
     @Override
@@ -408,6 +650,9 @@ public class AdamicAdar {
         IllegalAccessException {
       approximationEnabled = getConf().getBoolean(
           ADAMICADAR_APPROXIMATION, ADAMICADAR_APPROXIMATION_DEFAULT);
+      sortedEnabled = getConf().getBoolean(ADAMICADAR_SORTED,
+          ADAMICADAR_SORTED_DEFAULT);
+      hubAwareEnabled = HubAwareFriends.isEnabled(getConf());
       conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, DISTANCE_CONVERSION_DEFAULT);
     }
 
@@ -428,6 +673,28 @@ public class AdamicAdar {
 		        		setComputation(ScaleToDistanceBloom.class);
 		        	}
 		        }
+		      } else if (hubAwareEnabled) {
+		        if (superstep == 1) {
+		          setComputation(SendFriendsListOrHub.class);
+		        } else if (superstep <= HubAwareFriends.NEIGHBORHOOD_SUPERSTEPS) {
+		          setComputation(AdamicAdarHubAwareComputation.class);
+		        } else {
+		        	if (conversionEnabled) {
+		        		setComputation(ScaleToDistanceHubAware.class);
+		        	} else {
+		        		haltComputation();
+		        	}
+		        }
+		      } else if (sortedEnabled) {
+		        if (superstep == 1) {
+		          setComputation(SendSortedFriendsListAndValue.class);
+		        } else if (superstep == 2) {
+		          setComputation(AdamicAdarSortedComputation.class);
+		        } else {
+		        	if (conversionEnabled) {
+		        		setComputation(ScaleToDistanceSorted.class);
+		        	}
+		        }
 		      } else {
 		        if (superstep == 1) {
 		          setComputation(SendFriendsListAndValue.class);
@@ -18,10 +18,16 @@ package ml.grafos.okapi.graphs.similarity;
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
+import java.util.Arrays;
 
+import ml.grafos.okapi.common.computation.HubAwareFriends;
+import ml.grafos.okapi.common.computation.HubAwareFriends.FriendsMessage;
 import ml.grafos.okapi.common.computation.SendFriends;
+import ml.grafos.okapi.common.data.CompressedLongArrayWritable;
 import ml.grafos.okapi.common.data.LongArrayListWritable;
+import ml.grafos.okapi.common.data.LongArrayWritable;
 import ml.grafos.okapi.common.data.MessageWrapper;
+import ml.grafos.okapi.utils.SortedLongArrays;
 
 import org.apache.giraph.edge.Edge;
 import org.apache.giraph.graph.BasicComputation;
@@ -30,6 +36,7 @@ import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
 import org.apache.hadoop.util.bloom.BloomFilter;
 import org.apache.hadoop.util.bloom.Key;
 import org.apache.hadoop.util.hash.Hash;
@@ -58,11 +65,32 @@ import com.google.common.primitives.Longs;
  *   
  *   Use -ca distance.conversion.enabled=true to get the Jaccard distance instead.
  *
+ * For high-degree vertices, the exact similarity is cheaper to compute on
+ * sorted adjacency arrays: set jaccard.sorted.enabled to true and use
+ * ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges as the
+ * giraph.outEdgesClass. Vertices then send their neighbors as a sorted
+ * primitive array and intersect the lists with a merge or galloping search
+ * instead of one hash lookup per received id.
+ *
+ * On graphs with hubs, replace the SendFriendsList class with the
+ * SendFriendsListOrHub class and set hub.degree.threshold to the degree above
+ * which a vertex should not broadcast its neighbor list; see
+ * {@link HubAwareFriends}.
+ *
  * 
  * To get the approximate Jaccard similarity, replace the SendFriendsList class
  * in the command with the SendFriendsBloomFilter class and set the 
  * jaccard.approximation.enabled parameter to true.
  * 
+ * To get the MinHash approximation instead, replace the SendFriendsList class
+ * with the SendFriendsMinHash class, set jaccard.approximation.enabled to true
+ * and jaccard.approximation.method to minhash. The number of hash functions
+ * and the number of bits kept per hash value are set with
+ * jaccard.minhash.functions and jaccard.minhash.bits. In this mode the vertex
+ * value is a {@link LongArrayWritable} that holds the packed signature of the
+ * vertex between the first two supersteps, k*b/64 longs per vertex, instead
+ * of computing it a second time.
+ * 
  * 
  * @author dl
  *
@@ -94,6 +122,41 @@ public class Jaccard {
   /** Default type of hash function in bloom filter */
   public static final int BLOOM_FILTER_HASH_TYPE_DEFAULT = Hash.MURMUR_HASH;
   
+  /** Approximation method, either "bloom" or "minhash" */
+  public static final String JACCARD_APPROXIMATION_METHOD =
+      "jaccard.approximation.method";
+
+  /** Bloom filter approximation method */
+  public static final String APPROXIMATION_BLOOM = "bloom";
+
+  /** MinHash approximation method */
+  public static final String APPROXIMATION_MINHASH = "minhash";
+
+  /** Default approximation method */
+  public static final String JACCARD_APPROXIMATION_METHOD_DEFAULT =
+      APPROXIMATION_BLOOM;
+
+  /** Number of hash functions in a MinHash signature */
+  public static final String MINHASH_FUNCTIONS = "jaccard.minhash.functions";
+
+  /** Default number of hash functions in a MinHash signature */
+  public static final int MINHASH_FUNCTIONS_DEFAULT = 64;
+
+  /**
+   * Number of lowest bits kept from every MinHash value. Must divide 64. 
+   * Values smaller than 64 give b-bit MinHash signatures.
+   */
+  public static final String MINHASH_BITS = "jaccard.minhash.bits";
+
+  /** By default the full 64-bit hash values are kept */
+  public static final int MINHASH_BITS_DEFAULT = 64;
+
+  /** Enables the exact computation on sorted adjacency arrays */
+  public static final String JACCARD_SORTED = "jaccard.sorted.enabled";
+
+  /** Default value for the sorted exact computation */
+  public static final boolean JACCARD_SORTED_DEFAULT = false;
+
   /** Enables the conversion to distance conversion */
   public static final String DISTANCE_CONVERSION = 
       "distance.conversion.enabled";
@@ -131,6 +194,16 @@ public class Jaccard {
     public Class<LongArrayListWritable> getMessageClass() {
       return LongArrayListWritable.class;
     }
+
+    @Override
+    protected LongWritable createVertexId() {
+      return new LongWritable();
+    }
+
+    @Override
+    protected LongArrayListWritable createMessage() {
+      return new LongArrayListWritable();
+    }
   }
 
   /**
@@ -201,6 +274,165 @@ public class Jaccard {
 
 
 
+  /**
+   * Implements the first step of the exact Jaccard similarity on sorted
+   * adjacency arrays. Each vertex broadcasts the sorted array of the IDs of
+   * all its neighbors. With {@link
+   * ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges} the array is sent
+   * without being copied.
+   */
+  public static class SendSortedFriendsList extends BasicComputation<
+    LongWritable, NullWritable, DoubleWritable, LongIdSortedFriendsList> {
+
+    /** Reusable message */
+    private final LongIdSortedFriendsList msg = new LongIdSortedFriendsList();
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdSortedFriendsList> messages) throws IOException {
+      msg.setSourceId(vertex.getId());
+      msg.setMessage(new CompressedLongArrayWritable(
+          SortedLongArrays.sortedTargetIds(vertex), vertex.getNumEdges()));
+      sendMessageToAllEdges(vertex, msg);
+    }
+  }
+
+  /**
+   * The message sent in the sorted implementation of the exact Jaccard
+   * similarity: the source vertex id and the sorted ids of its neighbors,
+   * gap-encoded.
+   */
+  public static class LongIdSortedFriendsList extends MessageWrapper<
+    LongWritable, CompressedLongArrayWritable> {
+
+    @Override
+    public Class<LongWritable> getVertexIdClass() {
+      return LongWritable.class;
+    }
+
+    @Override
+    public Class<CompressedLongArrayWritable> getMessageClass() {
+      return CompressedLongArrayWritable.class;
+    }
+
+    @Override
+    protected LongWritable createVertexId() {
+      return new LongWritable();
+    }
+
+    @Override
+    protected CompressedLongArrayWritable createMessage() {
+      return new CompressedLongArrayWritable();
+    }
+  }
+
+  /**
+   * Computes the exact Jaccard similarity like {@link JaccardComputation},
+   * but counts the common neighbors by intersecting the sorted neighbor
+   * arrays.
+   */
+  public static class JaccardSortedComputation extends BasicComputation<
+    LongWritable, NullWritable, DoubleWritable, LongIdSortedFriendsList> {
+
+    boolean conversionEnabled;
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION,
+          DISTANCE_CONVERSION_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdSortedFriendsList> messages) throws IOException {
+      long[] ids = SortedLongArrays.sortedTargetIds(vertex);
+      int numEdges = vertex.getNumEdges();
+      for (LongIdSortedFriendsList msg : messages) {
+        LongArrayWritable friends = msg.getMessage();
+        long commonFriends = SortedLongArrays.intersectionSize(
+            ids, numEdges, friends.getArray(), friends.size());
+        long totalFriends = numEdges + friends.size() - commonFriends;
+        // If the edge to the source does not exist, which is the case in a
+        // directed graph, this call has no effect.
+        vertex.setEdgeValue(msg.getSourceId(), new DoubleWritable(
+            (double)commonFriends/(double)totalFriends));
+      }
+      if (!conversionEnabled) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  public static class ScaleToDistanceSorted extends BasicComputation<
+    LongWritable, NullWritable, DoubleWritable, LongIdSortedFriendsList> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<LongIdSortedFriendsList> messages) throws IOException {
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            covertToDistance(e.getValue()));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * First step of the exact Jaccard similarity with the hub-aware strategy.
+   */
+  public static class SendFriendsListOrHub extends HubAwareFriends.
+    SendFriendsOrHub<NullWritable, DoubleWritable, FriendsMessage> {
+  }
+
+  /**
+   * Computes the exact Jaccard similarity from the common neighbors found by
+   * the hub-aware neighborhood exchange.
+   */
+  public static class JaccardHubAwareComputation extends HubAwareFriends.
+    IntersectFriends<NullWritable, DoubleWritable> {
+
+    boolean conversionEnabled;
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION,
+          DISTANCE_CONVERSION_DEFAULT);
+    }
+
+    @Override
+    protected void processCommonFriends(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        long sourceId, int sourceDegree, long[] ids, int[] positions,
+        int numCommon) {
+      long totalFriends = vertex.getNumEdges() + sourceDegree - numCommon;
+      vertex.setEdgeValue(new LongWritable(sourceId), new DoubleWritable(
+          (double)numCommon/(double)totalFriends));
+    }
+
+    @Override
+    protected boolean haltWhenDone() {
+      return !conversionEnabled;
+    }
+  }
+
+  public static class ScaleToDistanceHubAware extends BasicComputation<
+    LongWritable, NullWritable, DoubleWritable, FriendsMessage> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, NullWritable, DoubleWritable> vertex,
+        Iterable<FriendsMessage> messages) throws IOException {
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            covertToDistance(e.getValue()));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
   /**
    * This class implements the first computation step in the approximate
    * jaccard similarity algorithm. A vertex creates a bloom filter and adds the
@@ -275,6 +507,16 @@ public class Jaccard {
     public Class<BloomFilter> getMessageClass() {
       return BloomFilter.class;
     }
+
+    @Override
+    protected LongWritable createVertexId() {
+      return new LongWritable();
+    }
+
+    @Override
+    protected BloomFilter createMessage() {
+      return new BloomFilter();
+    }
     
     public int getNumElements() {
       return numElements;
@@ -361,6 +603,255 @@ public class Jaccard {
 	}	  
 }
   
+  /**
+   * Returns the minimum value of every hash function over the neighbors of a
+   * vertex.
+   */
+  private static long[] computeMinima(
+      Vertex<LongWritable, ?, DoubleWritable> vertex,
+      int numFunctions) {
+    long[] minima = new long[numFunctions];
+    Arrays.fill(minima, Long.MAX_VALUE);
+    for (Edge<LongWritable, DoubleWritable> e : vertex.getEdges()) {
+      long id = e.getTargetVertexId().get();
+      for (int i = 0; i < numFunctions; i++) {
+        long h = LongIdMinHash.hash(i, id);
+        if (h < minima[i]) {
+          minima[i] = h;
+        }
+      }
+    }
+    return minima;
+  }
+
+  /**
+   * Computes the MinHash signature of the neighborhood of a vertex and
+   * broadcasts it to all its neighbors. The signature has a fixed size, so
+   * the size of the messages does not depend on the degree of the vertex.
+   * The packed signature is also kept in the vertex value until the next
+   * superstep, so that it is computed only once.
+   */
+  public static class SendFriendsMinHash extends BasicComputation<LongWritable,
+    LongArrayWritable, DoubleWritable, LongIdMinHash> {
+
+    int numFunctions;
+    int numBits;
+
+    @Override
+    public void preSuperstep() {
+      numFunctions = getConf().getInt(
+          MINHASH_FUNCTIONS, MINHASH_FUNCTIONS_DEFAULT);
+      numBits = getConf().getInt(MINHASH_BITS, MINHASH_BITS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongArrayWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+
+      LongIdMinHash signature = new LongIdMinHash(vertex.getId().get(),
+          computeMinima(vertex, numFunctions), numBits);
+      vertex.getValue().set(signature.getPacked(),
+          signature.getPacked().length);
+      sendMessageToAllEdges(vertex, signature);
+    }
+  }
+
+  /**
+   * This is the message sent in the MinHash approximation. It carries the
+   * source id and the MinHash signature of the neighborhood of the source,
+   * where only the lowest b bits of every hash value are kept, packed into
+   * longs.
+   */
+  public static class LongIdMinHash implements Writable {
+
+    private long sourceId;
+    private int numFunctions;
+    private int numBits;
+    private long[] packed;
+
+    public LongIdMinHash() {
+    }
+
+    /**
+     * Builds the message from a signature that is already packed.
+     */
+    public LongIdMinHash(long sourceId, int numFunctions, int numBits,
+        long[] packed) {
+      this.sourceId = sourceId;
+      this.numFunctions = numFunctions;
+      this.numBits = numBits;
+      this.packed = packed;
+    }
+
+    /**
+     * Builds the message from the full 64-bit minimum of every hash function.
+     */
+    public LongIdMinHash(long sourceId, long[] minima, int numBits) {
+      if (numBits < 1 || numBits > 64 || 64 % numBits != 0) {
+        throw new IllegalArgumentException("The number of MinHash bits must " +
+            "divide 64, got " + numBits);
+      }
+      this.sourceId = sourceId;
+      this.numFunctions = minima.length;
+      this.numBits = numBits;
+      int perWord = 64 / numBits;
+      packed = new long[(numFunctions + perWord - 1) / perWord];
+      for (int i = 0; i < numFunctions; i++) {
+        packed[i / perWord] |= (minima[i] & mask()) << 
+            ((i % perWord) * numBits);
+      }
+    }
+
+    /**
+     * The i-th hash function, a 64-bit mix of the vertex id with a seed that
+     * depends on i.
+     */
+    static long hash(int i, long id) {
+      long h = id ^ (0x9E3779B97F4A7C15L * (i + 1));
+      h ^= h >>> 33;
+      h *= 0xff51afd7ed558ccdL;
+      h ^= h >>> 33;
+      h *= 0xc4ceb9fe1a85ec53L;
+      h ^= h >>> 33;
+      return h;
+    }
+
+    private long mask() {
+      return numBits == 64 ? -1L : (1L << numBits) - 1;
+    }
+
+    /**
+     * Returns the i-th value of the signature.
+     */
+    public long get(int i) {
+      int perWord = 64 / numBits;
+      return (packed[i / perWord] >>> ((i % perWord) * numBits)) & mask();
+    }
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    /**
+     * Returns the b-bit values of the signature, packed into longs.
+     */
+    public long[] getPacked() {
+      return packed;
+    }
+
+    /**
+     * Estimates the Jaccard similarity of the sets summarized by the two
+     * signatures. With b bits, two different minima collide with probability
+     * 2^-b, so the fraction of matches is corrected for it. The standard error
+     * of the estimate is about sqrt(J(1-J)/k) for k hash functions.
+     */
+    public double estimateSimilarity(LongIdMinHash other) {
+      int matches = 0;
+      for (int i = 0; i < numFunctions; i++) {
+        if (get(i) == other.get(i)) {
+          matches++;
+        }
+      }
+      double fraction = (double)matches/(double)numFunctions;
+      if (numBits == 64) {
+        return fraction;
+      }
+      double collision = Math.pow(2, -numBits);
+      return Math.max(0.0, (fraction - collision)/(1.0 - collision));
+    }
+
+    @Override
+    public void write(DataOutput output) throws IOException {
+      output.writeLong(sourceId);
+      output.writeInt(numFunctions);
+      output.writeByte(numBits);
+      for (long word : packed) {
+        output.writeLong(word);
+      }
+    }
+
+    @Override
+    public void readFields(DataInput input) throws IOException {
+      sourceId = input.readLong();
+      numFunctions = input.readInt();
+      numBits = input.readByte();
+      int perWord = 64 / numBits;
+      packed = new long[(numFunctions + perWord - 1) / perWord];
+      for (int i = 0; i < packed.length; i++) {
+        packed[i] = input.readLong();
+      }
+    }
+  }
+
+  /**
+   * Implements the MinHash approximation of the Jaccard vertex similarity. A
+   * vertex reads its own signature from its value, where
+   * {@link SendFriendsMinHash} left it, and compares it with the signature of
+   * every neighbor in O(k). The signature is then dropped.
+   */
+  public static class JaccardMinHash extends BasicComputation<LongWritable,
+    LongArrayWritable, DoubleWritable, LongIdMinHash> {
+
+    boolean conversionEnabled;
+    int numFunctions;
+    int numBits;
+
+    @Override
+    public void preSuperstep() {
+      conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION,
+          DISTANCE_CONVERSION_DEFAULT);
+      numFunctions = getConf().getInt(
+          MINHASH_FUNCTIONS, MINHASH_FUNCTIONS_DEFAULT);
+      numBits = getConf().getInt(MINHASH_BITS, MINHASH_BITS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongArrayWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+
+      LongIdMinHash signature;
+      if (vertex.getValue().size() == 0) {
+        // The vertex was created by the messages, because it is only the
+        // target of edges in a directed graph, so it has no signature yet.
+        signature = new LongIdMinHash(vertex.getId().get(),
+            computeMinima(vertex, numFunctions), numBits);
+      } else {
+        signature = new LongIdMinHash(vertex.getId().get(), numFunctions,
+            numBits, vertex.getValue().getArray());
+      }
+      LongWritable src = new LongWritable();
+      for (LongIdMinHash msg : messages) {
+        src.set(msg.getSourceId());
+        // If the edge to the vertex with ID src does not exist, which is the
+        // case in a directed graph, this call has no effect. 
+        vertex.setEdgeValue(src, new DoubleWritable(
+            signature.estimateSimilarity(msg)));
+      }
+      vertex.setValue(new LongArrayWritable());
+      if (!conversionEnabled) {
+        vertex.voteToHalt();
+      }
+    }
+  }
+
+  public static class ScaleToDistanceMinHash extends BasicComputation<
+    LongWritable, LongArrayWritable, DoubleWritable, LongIdMinHash> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, LongArrayWritable, DoubleWritable> vertex,
+        Iterable<LongIdMinHash> messages) throws IOException {
+
+      for (Edge<LongWritable, DoubleWritable> e: vertex.getEdges()) {
+        vertex.setEdgeValue(e.getTargetVertexId(),
+            covertToDistance(e.getValue()));
+      }
+      vertex.voteToHalt();
+    }
+  }
+
   /**
 	 * 
 	 * Converts the [0,1] similarity value to a distance
@@ -384,6 +875,9 @@ public class Jaccard {
   public static class MasterCompute extends DefaultMasterCompute {
 
     boolean approximationEnabled;
+    boolean minHashEnabled;
+    boolean sortedEnabled;
+    boolean hubAwareEnabled;
     boolean conversionEnabled;
 
     @Override
@@ -391,13 +885,28 @@ public class Jaccard {
         IllegalAccessException {
       approximationEnabled = getConf().getBoolean(
           JACCARD_APPROXIMATION, JACCARD_APPROXIMATION_DEFAULT);
+      minHashEnabled = APPROXIMATION_MINHASH.equals(getConf().get(
+          JACCARD_APPROXIMATION_METHOD, JACCARD_APPROXIMATION_METHOD_DEFAULT));
+      sortedEnabled = getConf().getBoolean(JACCARD_SORTED,
+          JACCARD_SORTED_DEFAULT);
+      hubAwareEnabled = HubAwareFriends.isEnabled(getConf());
       conversionEnabled = getConf().getBoolean(DISTANCE_CONVERSION, DISTANCE_CONVERSION_DEFAULT);
     }
 
     @Override
     public final void compute() {
       long superstep = getSuperstep();
-      if (approximationEnabled) {
+      if (approximationEnabled && minHashEnabled) {
+        if (superstep == 0) {
+          setComputation(SendFriendsMinHash.class);
+        } else if (superstep == 1) {
+          setComputation(JaccardMinHash.class);
+        } else {
+          if (conversionEnabled) {
+            setComputation(ScaleToDistanceMinHash.class);
+          }
+        }
+      } else if (approximationEnabled) {
         if (superstep == 0) {
           setComputation(SendFriendsBloomFilter.class);
         } else if (superstep == 1) {
@@ -407,6 +916,28 @@ public class Jaccard {
         		setComputation(ScaleToDistanceBloom.class);
         	}
         }
+      } else if (hubAwareEnabled) {
+        if (superstep == 0) {
+          setComputation(SendFriendsListOrHub.class);
+        } else if (superstep < HubAwareFriends.NEIGHBORHOOD_SUPERSTEPS) {
+          setComputation(JaccardHubAwareComputation.class);
+        } else {
+          if (conversionEnabled) {
+            setComputation(ScaleToDistanceHubAware.class);
+          } else {
+            haltComputation();
+          }
+        }
+      } else if (sortedEnabled) {
+        if (superstep == 0) {
+          setComputation(SendSortedFriendsList.class);
+        } else if (superstep == 1) {
+          setComputation(JaccardSortedComputation.class);
+        } else {
+          if (conversionEnabled) {
+            setComputation(ScaleToDistanceSorted.class);
+          }
+        }
       } else {
         if (superstep == 0) {
           setComputation(SendFriendsList.class);
@@ -0,0 +1,485 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs.similarity;
+
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Arrays;
+
+import ml.grafos.okapi.common.data.LongArrayListWritable;
+import ml.grafos.okapi.graphs.similarity.Jaccard.LongIdFriendsList;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.NullWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * <p>
+ * Finds, for every vertex, the K vertices with the most similar neighborhoods
+ * according to the Jaccard similarity, including vertices that are not
+ * connected to it. Unlike {@link Jaccard} and {@link AdamicAdar}, which only
+ * score existing edges, this can be used to find "people who share
+ * followers".
+ * </p>
+ * <p>
+ * Comparing all pairs of vertices is quadratic, so the candidate pairs are
+ * found with locality sensitive hashing:
+ * </p>
+ * <ol>
+ * <li>Every vertex computes a MinHash signature of its neighborhood with
+ * b*r hash functions, splits it in b bands of r rows, and sends its id to one
+ * bucket per band. A bucket is a temporary vertex whose id is a hash of the
+ * band, so vertices with identical bands meet at the same bucket. Two vertices
+ * with Jaccard similarity J share at least one bucket with probability
+ * 1-(1-J^r)^b.</li>
+ * <li>Every bucket sends to each member the members with a larger id, and
+ * then removes itself from the graph. Buckets with more members than
+ * lsh.max.bucket.size are dropped, to bound the number of candidates.</li>
+ * <li>Every vertex sends its neighbor list to each of its candidates.</li>
+ * <li>The candidates compute the exact Jaccard similarity, keep it in their
+ * top-K and send it back.</li>
+ * <li>The vertices keep the similarity they receive in their top-K.</li>
+ * </ol>
+ * <p>
+ * Bucket vertices have negative ids, so the vertex ids of the input must not
+ * be negative. The output of every vertex is a list of
+ * <code>id:similarity</code> pairs sorted by decreasing similarity. By
+ * default, vertices that are already neighbors are not reported.
+ * </p>
+ * <p>
+ * You can run this algorithm by executing the command:
+ * </p>
+ * <pre>
+ * hadoop jar $OKAPI_JAR org.apache.giraph.GiraphRunner \
+ *   ml.grafos.okapi.graphs.similarity.LSHSimilarVertices\$SendToBuckets  \
+ *   -mc  ml.grafos.okapi.graphs.similarity.LSHSimilarVertices\$MasterCompute  \
+ *   -eif ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat  \
+ *   -eip $INPUT_EDGES \
+ *   -vof org.apache.giraph.io.formats.IdWithValueTextOutputFormat \
+ *   -op $OUTPUT \
+ *   -w $WORKERS \
+ *   -ca lsh.bands=16 \
+ *   -ca lsh.rows=4
+ * </pre>
+ */
+public class LSHSimilarVertices {
+
+  /** Number of bands of the signature */
+  public static final String BANDS = "lsh.bands";
+
+  /** Default number of bands */
+  public static final int BANDS_DEFAULT = 16;
+
+  /** Number of hash values in a band */
+  public static final String ROWS = "lsh.rows";
+
+  /** Default number of hash values in a band */
+  public static final int ROWS_DEFAULT = 4;
+
+  /** Buckets with more members than this are ignored */
+  public static final String MAX_BUCKET_SIZE = "lsh.max.bucket.size";
+
+  /** Default maximum bucket size */
+  public static final int MAX_BUCKET_SIZE_DEFAULT = 100;
+
+  /** Number of similar vertices kept for every vertex */
+  public static final String TOP_K = "lsh.top.k";
+
+  /** Default number of similar vertices kept for every vertex */
+  public static final int TOP_K_DEFAULT = 10;
+
+  /** Pairs with a similarity below this value are not reported */
+  public static final String SIMILARITY_THRESHOLD = "lsh.similarity.threshold";
+
+  /** Default similarity threshold */
+  public static final float SIMILARITY_THRESHOLD_DEFAULT = 0.0f;
+
+  /** Whether pairs of vertices connected with an edge are excluded */
+  public static final String EXCLUDE_NEIGHBORS = "lsh.exclude.neighbors";
+
+  /** By default neighbors are excluded */
+  public static final boolean EXCLUDE_NEIGHBORS_DEFAULT = true;
+
+  /**
+   * Returns true if the vertex is a bucket created in the first superstep.
+   */
+  private static boolean isBucket(
+      Vertex<LongWritable, SimilarVertices, NullWritable> vertex) {
+    return vertex.getId().get() < 0;
+  }
+
+  /**
+   * Computes the MinHash signature of a vertex and sends the id of the vertex
+   * to the bucket of each band.
+   */
+  public static class SendToBuckets extends AbstractComputation<LongWritable,
+    SimilarVertices, NullWritable, LongWritable, LongWritable> {
+
+    int bands;
+    int rows;
+
+    @Override
+    public void preSuperstep() {
+      bands = getConf().getInt(BANDS, BANDS_DEFAULT);
+      rows = getConf().getInt(ROWS, ROWS_DEFAULT);
+    }
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVertices, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      vertex.getValue().setCapacity(
+          getConf().getInt(TOP_K, TOP_K_DEFAULT));
+      if (vertex.getNumEdges() == 0) {
+        vertex.voteToHalt();
+        return;
+      }
+
+      long[] minima = new long[bands * rows];
+      Arrays.fill(minima, Long.MAX_VALUE);
+      for (Edge<LongWritable, NullWritable> e : vertex.getEdges()) {
+        long id = e.getTargetVertexId().get();
+        for (int i = 0; i < minima.length; i++) {
+          long h = Jaccard.LongIdMinHash.hash(i, id);
+          if (h < minima[i]) {
+            minima[i] = h;
+          }
+        }
+      }
+
+      LongWritable bucket = new LongWritable();
+      for (int band = 0; band < bands; band++) {
+        long key = band;
+        for (int row = 0; row < rows; row++) {
+          key = key * 31 + minima[band * rows + row];
+        }
+        // Setting the sign bit keeps the buckets apart from the real vertices
+        bucket.set(Jaccard.LongIdMinHash.hash(band, key) | Long.MIN_VALUE);
+        sendMessage(bucket, vertex.getId());
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Executed by the buckets. Sends to every member the members with a larger
+   * id and removes the bucket.
+   */
+  public static class EmitCandidates extends AbstractComputation<LongWritable,
+    SimilarVertices, NullWritable, LongWritable, LongArrayListWritable> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVertices, NullWritable> vertex,
+        Iterable<LongWritable> messages) throws IOException {
+      if (!isBucket(vertex)) {
+        vertex.voteToHalt();
+        return;
+      }
+
+      LongOpenHashSet memberSet = new LongOpenHashSet();
+      for (LongWritable member : messages) {
+        memberSet.add(member.get());
+      }
+      int maxBucketSize = getConf().getInt(MAX_BUCKET_SIZE,
+          MAX_BUCKET_SIZE_DEFAULT);
+      if (memberSet.size() > 1 && memberSet.size() <= maxBucketSize) {
+        long[] members = memberSet.toLongArray();
+        Arrays.sort(members);
+        for (int i = 0; i < members.length - 1; i++) {
+          LongArrayListWritable candidates = new LongArrayListWritable();
+          for (int j = i + 1; j < members.length; j++) {
+            candidates.add(new LongWritable(members[j]));
+          }
+          sendMessage(new LongWritable(members[i]), candidates);
+        }
+      }
+      removeVertexRequest(vertex.getId());
+    }
+  }
+
+  /**
+   * Sends the neighbor list of a vertex to each of its candidates, once per
+   * candidate.
+   */
+  public static class SendFriendsToCandidates extends AbstractComputation<
+    LongWritable, SimilarVertices, NullWritable, LongArrayListWritable,
+    LongIdFriendsList> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVertices, NullWritable> vertex,
+        Iterable<LongArrayListWritable> messages) throws IOException {
+      LongOpenHashSet candidates = new LongOpenHashSet();
+      for (LongArrayListWritable msg : messages) {
+        for (LongWritable candidate : msg) {
+          candidates.add(candidate.get());
+        }
+      }
+
+      if (!candidates.isEmpty()) {
+        LongArrayListWritable friends = new LongArrayListWritable();
+        for (Edge<LongWritable, NullWritable> e : vertex.getEdges()) {
+          friends.add(new LongWritable(e.getTargetVertexId().get()));
+        }
+        LongIdFriendsList msg = new LongIdFriendsList();
+        msg.setSourceId(vertex.getId());
+        msg.setMessage(friends);
+        LongWritable target = new LongWritable();
+        for (long candidate : candidates) {
+          target.set(candidate);
+          sendMessage(target, msg);
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Computes the exact Jaccard similarity with every vertex that sent its
+   * neighbor list, keeps it and sends it back.
+   */
+  public static class VerifyCandidates extends AbstractComputation<
+    LongWritable, SimilarVertices, NullWritable, LongIdFriendsList,
+    LongIdSimilarity> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVertices, NullWritable> vertex,
+        Iterable<LongIdFriendsList> messages) throws IOException {
+      boolean excludeNeighbors = getConf().getBoolean(EXCLUDE_NEIGHBORS,
+          EXCLUDE_NEIGHBORS_DEFAULT);
+      float threshold = getConf().getFloat(SIMILARITY_THRESHOLD,
+          SIMILARITY_THRESHOLD_DEFAULT);
+      long id = vertex.getId().get();
+      LongOpenHashSet friends = null;
+      LongIdSimilarity reply = new LongIdSimilarity();
+
+      for (LongIdFriendsList msg : messages) {
+        if (friends == null) {
+          friends = new LongOpenHashSet(vertex.getNumEdges());
+          for (Edge<LongWritable, NullWritable> e : vertex.getEdges()) {
+            friends.add(e.getTargetVertexId().get());
+          }
+        }
+        long src = msg.getSourceId().get();
+        if (excludeNeighbors && friends.contains(src)) {
+          continue;
+        }
+        long commonFriends = 0;
+        long totalFriends = friends.size();
+        boolean connected = false;
+        for (LongWritable friend : msg.getMessage()) {
+          if (friend.get() == id) {
+            connected = true;
+          }
+          if (friends.contains(friend.get())) {
+            commonFriends++;
+          } else {
+            totalFriends++;
+          }
+        }
+        if (excludeNeighbors && connected) {
+          continue;
+        }
+        double similarity = (double)commonFriends/(double)totalFriends;
+        if (similarity > threshold) {
+          vertex.getValue().add(src, similarity);
+          reply.set(id, similarity);
+          sendMessage(msg.getSourceId(), reply);
+        }
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Keeps the similarities computed by the candidates.
+   */
+  public static class CollectSimilarities extends AbstractComputation<
+    LongWritable, SimilarVertices, NullWritable, LongIdSimilarity,
+    LongIdSimilarity> {
+
+    @Override
+    public void compute(
+        Vertex<LongWritable, SimilarVertices, NullWritable> vertex,
+        Iterable<LongIdSimilarity> messages) throws IOException {
+      for (LongIdSimilarity msg : messages) {
+        vertex.getValue().add(msg.getSourceId(), msg.getSimilarity());
+      }
+      vertex.voteToHalt();
+    }
+  }
+
+  /**
+   * Coordinates the execution of the algorithm.
+   */
+  public static class MasterCompute extends DefaultMasterCompute {
+
+    @Override
+    public final void compute() {
+      long superstep = getSuperstep();
+      if (superstep == 0) {
+        setComputation(SendToBuckets.class);
+      } else if (superstep == 1) {
+        setComputation(EmitCandidates.class);
+      } else if (superstep == 2) {
+        setComputation(SendFriendsToCandidates.class);
+      } else if (superstep == 3) {
+        setComputation(VerifyCandidates.class);
+      } else if (superstep == 4) {
+        setComputation(CollectSimilarities.class);
+      } else {
+        haltComputation();
+      }
+    }
+  }
+
+  /**
+   * The similarity of a vertex, sent back to the vertex it was compared with.
+   */
+  public static class LongIdSimilarity implements Writable {
+    private long sourceId;
+    private double similarity;
+
+    public LongIdSimilarity() {
+    }
+
+    public void set(long sourceId, double similarity) {
+      this.sourceId = sourceId;
+      this.similarity = similarity;
+    }
+
+    public long getSourceId() {
+      return sourceId;
+    }
+
+    public double getSimilarity() {
+      return similarity;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      sourceId = in.readLong();
+      similarity = in.readDouble();
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeLong(sourceId);
+      out.writeDouble(similarity);
+    }
+  }
+
+  /**
+   * The value of a vertex: the K most similar vertices found so far.
+   */
+  public static class SimilarVertices implements Writable {
+    private int capacity = TOP_K_DEFAULT;
+    private int size;
+    private long[] ids = new long[0];
+    private double[] similarities = new double[0];
+
+    public SimilarVertices() {
+    }
+
+    public void setCapacity(int capacity) {
+      this.capacity = capacity;
+    }
+
+    public int size() {
+      return size;
+    }
+
+    public long getId(int i) {
+      return ids[i];
+    }
+
+    public double getSimilarity(int i) {
+      return similarities[i];
+    }
+
+    /**
+     * Adds a similar vertex, replacing the least similar one if the list is
+     * full. The list is kept sorted by decreasing similarity.
+     */
+    public void add(long id, double similarity) {
+      if (capacity <= 0) {
+        return;
+      }
+      if (size == capacity && similarities[size - 1] >= similarity) {
+        return;
+      }
+      if (size < capacity) {
+        if (size == ids.length) {
+          int length = Math.min(capacity, Math.max(4, 2 * size));
+          ids = Arrays.copyOf(ids, length);
+          similarities = Arrays.copyOf(similarities, length);
+        }
+        size++;
+      }
+      int pos = size - 1;
+      while (pos > 0 && similarities[pos - 1] < similarity) {
+        ids[pos] = ids[pos - 1];
+        similarities[pos] = similarities[pos - 1];
+        pos--;
+      }
+      ids[pos] = id;
+      similarities[pos] = similarity;
+    }
+
+    @Override
+    public void readFields(DataInput in) throws IOException {
+      capacity = in.readInt();
+      size = in.readInt();
+      ids = new long[size];
+      similarities = new double[size];
+      for (int i = 0; i < size; i++) {
+        ids[i] = in.readLong();
+        similarities[i] = in.readDouble();
+      }
+    }
+
+    @Override
+    public void write(DataOutput out) throws IOException {
+      out.writeInt(capacity);
+      out.writeInt(size);
+      for (int i = 0; i < size; i++) {
+        out.writeLong(ids[i]);
+        out.writeDouble(similarities[i]);
+      }
+    }
+
+    @Override
+    public String toString() {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < size; i++) {
+        if (i > 0) {
+          sb.append(' ');
+        }
+        sb.append(ids[i]).append(':').append(similarities[i]);
+      }
+      return sb.toString();
+    }
+  }
+}
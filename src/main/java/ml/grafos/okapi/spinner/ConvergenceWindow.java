@@ -0,0 +1,85 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import java.util.Collections;
+import java.util.LinkedList;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Window-based convergence detection for iterative label propagation.
+ *
+ * Keeps the last values of a global score, e.g. the score of a partitioning
+ * or the fraction of local edges. The computation has converged when a new
+ * value does not improve on the best value in the window by more than a
+ * relative threshold.
+ */
+public class ConvergenceWindow {
+	private final LinkedList<Double> states = Lists.newLinkedList();
+	private final int windowSize;
+	private final double threshold;
+	private double best;
+	private double step;
+
+	/**
+	 * @param windowSize
+	 *            number of previous values to compare with
+	 * @param threshold
+	 *            minimum relative improvement
+	 */
+	public ConvergenceWindow(int windowSize, double threshold) {
+		this.windowSize = windowSize;
+		this.threshold = threshold;
+	}
+
+	/**
+	 * Adds a new value of the score.
+	 *
+	 * @param state
+	 *            the new value
+	 * @return true if the window is full and the new value does not improve
+	 *         enough on the best one in the window
+	 */
+	public boolean update(double state) {
+		boolean converged = false;
+		if (!states.isEmpty() && states.size() >= windowSize) {
+			best = Collections.max(states);
+			step = Math.abs(1 - state / best);
+			converged = step < threshold;
+			states.removeFirst();
+		} else {
+			best = state;
+			step = 1.0;
+		}
+		states.addLast(state);
+		return converged;
+	}
+
+	/**
+	 * @return the best value in the window at the last update
+	 */
+	public double getBest() {
+		return best;
+	}
+
+	/**
+	 * @return the relative improvement at the last update
+	 */
+	public double getStep() {
+		return step;
+	}
+}
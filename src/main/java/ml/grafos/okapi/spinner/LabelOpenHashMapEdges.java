@@ -0,0 +1,145 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import it.unimi.dsi.fastutil.longs.Long2LongMap;
+import it.unimi.dsi.fastutil.longs.Long2LongOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Iterator;
+
+import org.apache.giraph.edge.ConfigurableOutEdges;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.MutableEdge;
+import org.apache.giraph.edge.StrictRandomAccessOutEdges;
+import org.apache.giraph.utils.EdgeIterables;
+import org.apache.hadoop.io.LongWritable;
+
+/**
+ * Same as {@link OpenHashMapEdges}, but stores the label of each neighbor as
+ * a long, for label propagation over an unbounded label space. Iterating the
+ * edges does not allocate objects.
+ */
+public class LabelOpenHashMapEdges extends
+		ConfigurableOutEdges<LongWritable, LongWritable> implements
+		StrictRandomAccessOutEdges<LongWritable, LongWritable> {
+	private Long2LongOpenHashMap map;
+	private LongWritable repValue = new LongWritable();
+
+	@Override
+	public void initialize(Iterable<Edge<LongWritable, LongWritable>> edges) {
+		EdgeIterables.initialize(this, edges);
+	}
+
+	@Override
+	public void initialize(int capacity) {
+		map = new Long2LongOpenHashMap(capacity);
+	}
+
+	@Override
+	public void initialize() {
+		map = new Long2LongOpenHashMap();
+	}
+
+	@Override
+	public void add(Edge<LongWritable, LongWritable> edge) {
+		map.put(edge.getTargetVertexId().get(), edge.getValue().get());
+	}
+
+	@Override
+	public void remove(LongWritable targetVertexId) {
+		map.remove(targetVertexId.get());
+	}
+
+	@Override
+	public int size() {
+		return map.size();
+	}
+
+	@SuppressWarnings({ "rawtypes", "unchecked" })
+	@Override
+	public Iterator<Edge<LongWritable, LongWritable>> iterator() {
+		return (Iterator) mutableIterator();
+	}
+
+	public Iterator<MutableEdge<LongWritable, LongWritable>> mutableIterator() {
+		return new Iterator<MutableEdge<LongWritable, LongWritable>>() {
+			private ObjectIterator<Long2LongMap.Entry> it = map
+					.long2LongEntrySet().fastIterator();
+			private MutableEdge<LongWritable, LongWritable> repEdge = EdgeFactory
+					.createReusable(new LongWritable(), new LongWritable());
+
+			@Override
+			public boolean hasNext() {
+				return it.hasNext();
+			}
+
+			@Override
+			public MutableEdge<LongWritable, LongWritable> next() {
+				Long2LongMap.Entry entry = it.next();
+				repEdge.getTargetVertexId().set(entry.getLongKey());
+				repEdge.getValue().set(entry.getLongValue());
+				return repEdge;
+			}
+
+			@Override
+			public void remove() {
+				it.remove();
+			}
+		};
+	}
+
+	@Override
+	public void readFields(DataInput in) throws IOException {
+		int numEdges = in.readInt();
+		initialize(numEdges);
+		for (int i = 0; i < numEdges; i++) {
+			long id = in.readLong();
+			long v = in.readLong();
+			map.put(id, v);
+		}
+	}
+
+	@Override
+	public void write(final DataOutput out) throws IOException {
+		out.writeInt(map.size());
+		ObjectIterator<Long2LongMap.Entry> it = map.long2LongEntrySet()
+				.fastIterator();
+		while (it.hasNext()) {
+			Long2LongMap.Entry e = it.next();
+			out.writeLong(e.getLongKey());
+			out.writeLong(e.getLongValue());
+		}
+	}
+
+	@Override
+	public LongWritable getEdgeValue(LongWritable targetVertexId) {
+		if (!map.containsKey(targetVertexId.get())) {
+			return null;
+		}
+		repValue.set(map.get(targetVertexId.get()));
+		return repValue;
+	}
+
+	@Override
+	public void setEdgeValue(LongWritable targetVertexId, LongWritable edgeValue) {
+		map.put(targetVertexId.get(), edgeValue.get());
+	}
+}
@@ -0,0 +1,394 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.util.Random;
+import java.util.regex.Pattern;
+
+import org.apache.giraph.aggregators.LongSumAggregator;
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.graph.AbstractComputation;
+import org.apache.giraph.graph.Vertex;
+import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.formats.TextEdgeInputFormat;
+import org.apache.giraph.master.DefaultMasterCompute;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Text;
+import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.TaskAttemptContext;
+
+/**
+ * Community detection through label propagation (LPA), built on the same
+ * machinery as {@link Spinner}.
+ *
+ * Every vertex starts with its own id as label and repeatedly adopts the
+ * label that is most frequent among its neighbors, breaking ties randomly
+ * with preference to its current label. Vertices that share a label at the
+ * end form a community. Unlike Spinner, the label space is unbounded and the
+ * labels are not balanced.
+ *
+ * As in Spinner, the graph is first made undirected, each vertex stores the
+ * labels of its neighbors in the edge values, and only vertices that change
+ * label send a message. The labels are counted in a primitive hash map that is
+ * reused across vertices. The computation is faster with
+ * {@link LabelOpenHashMapEdges}.
+ *
+ * Synchronous label propagation may oscillate, e.g. on bipartite subgraphs.
+ * By default the computation is semi-synchronous: the vertices are split in
+ * two colors by a hash of their id, and only the vertices of one color update
+ * their label in each superstep.
+ *
+ * The computation stops when no vertex changes label in a round, when the
+ * fraction of edges inside communities does not improve over a window of
+ * rounds, or after a maximum number of iterations.
+ */
+public class LabelPropagation {
+	private static final String AGGREGATOR_CHANGES = "AGG_CHANGES";
+	private static final String AGGREGATOR_LOCALS = "AGG_LOCALS";
+	public static final String MAX_ITERATIONS = "lpa.maxIterations";
+	public static final int DEFAULT_MAX_ITERATIONS = 100;
+	public static final String CONVERGENCE_THRESHOLD = "lpa.threshold";
+	public static final float DEFAULT_CONVERGENCE_THRESHOLD = 0.001f;
+	public static final String WINDOW_SIZE = "lpa.windowSize";
+	public static final int DEFAULT_WINDOW_SIZE = 5;
+	public static final String SEMI_SYNCHRONOUS = "lpa.semiSynchronous";
+	public static final boolean DEFAULT_SEMI_SYNCHRONOUS = true;
+
+	private static final String COUNTER_GROUP = "Community Detection Counters";
+	private static final String ITERATIONS_COUNTER = "Iterations";
+	private static final String PCT_LOCAL_EDGES_COUNTER = "Local edges (%)";
+
+	/*
+	 * The color of a vertex in the semi-synchronous mode
+	 */
+	static int color(long id) {
+		return (int) ((id * 0x9E3779B97F4A7C15L) >>> 63);
+	}
+
+	public static class ConverterPropagate
+			extends
+			AbstractComputation<LongWritable, LongWritable, LongWritable, LongWritable, LongWritable> {
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex,
+				Iterable<LongWritable> messages) throws IOException {
+			sendMessageToAllEdges(vertex, vertex.getId());
+		}
+	}
+
+	public static class Initializer
+			extends
+			AbstractComputation<LongWritable, LongWritable, LongWritable, LongWritable, LabelMessage> {
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex,
+				Iterable<LongWritable> messages) throws IOException {
+			// make the graph undirected
+			for (LongWritable other : messages) {
+				if (vertex.getEdgeValue(other) == null) {
+					vertex.addEdge(EdgeFactory.create(
+							new LongWritable(other.get()), new LongWritable(
+									other.get())));
+				}
+			}
+			// the edge values already hold the ids of the neighbors, which
+			// are their initial labels, so there is nothing to send
+			vertex.getValue().set(vertex.getId().get());
+		}
+	}
+
+	public static class ComputeLabel
+			extends
+			AbstractComputation<LongWritable, LongWritable, LongWritable, LabelMessage, LabelMessage> {
+		private Random rnd = new Random();
+		private Long2IntOpenHashMap labelFrequency = new Long2IntOpenHashMap();
+		private LongWritable otherId = new LongWritable();
+		private LongWritable otherLabel = new LongWritable();
+		private LabelMessage message = new LabelMessage();
+		private LongWritable one = new LongWritable(1);
+		private LongWritable localEdges = new LongWritable();
+		private boolean semiSynchronous;
+
+		/*
+		 * Update the neighbor labels when they change
+		 */
+		private void updateNeighborsLabels(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex,
+				Iterable<LabelMessage> messages) {
+			for (LabelMessage message : messages) {
+				otherId.set(message.getSourceId());
+				otherLabel.set(message.getLabel());
+				vertex.setEdgeValue(otherId, otherLabel);
+			}
+		}
+
+		/*
+		 * Choose the most frequent label in the neighborhood, breaking ties
+		 * randomly with preference to the current
+		 */
+		private long computeNewLabel(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex) {
+			long currentLabel = vertex.getValue().get();
+			for (Edge<LongWritable, LongWritable> e : vertex.getEdges()) {
+				labelFrequency.addTo(e.getValue().get(), 1);
+			}
+			long newLabel = currentLabel;
+			int maxFrequency = labelFrequency.get(currentLabel);
+			int ties = 1;
+			ObjectIterator<Long2IntMap.Entry> it = labelFrequency
+					.long2IntEntrySet().fastIterator();
+			while (it.hasNext()) {
+				Long2IntMap.Entry entry = it.next();
+				int frequency = entry.getIntValue();
+				if (frequency > maxFrequency) {
+					maxFrequency = frequency;
+					newLabel = entry.getLongKey();
+					ties = 1;
+				} else if (frequency == maxFrequency
+						&& newLabel != currentLabel
+						&& entry.getLongKey() != newLabel) {
+					// reservoir sampling among the labels with the same
+					// frequency
+					ties++;
+					if (rnd.nextInt(ties) == 0) {
+						newLabel = entry.getLongKey();
+					}
+				}
+			}
+			labelFrequency.clear();
+			if (vertex.getNumEdges() > 1024) {
+				// do not let hubs slow down clearing for the other vertices
+				labelFrequency.trim();
+			}
+			return newLabel;
+		}
+
+		/*
+		 * Count the edges to neighbors with the same label
+		 */
+		private void countLocalEdges(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex) {
+			long label = vertex.getValue().get();
+			long locals = 0;
+			for (Edge<LongWritable, LongWritable> e : vertex.getEdges()) {
+				if (e.getValue().get() == label) {
+					locals++;
+				}
+			}
+			localEdges.set(locals);
+			aggregate(AGGREGATOR_LOCALS, localEdges);
+		}
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, LongWritable, LongWritable> vertex,
+				Iterable<LabelMessage> messages) throws IOException {
+			updateNeighborsLabels(vertex, messages);
+
+			long id = vertex.getId().get();
+			if (!semiSynchronous || color(id) == getSuperstep() % 2) {
+				long currentLabel = vertex.getValue().get();
+				long newLabel = computeNewLabel(vertex);
+				if (newLabel != currentLabel) {
+					vertex.getValue().set(newLabel);
+					message.setSourceId(id);
+					message.setLabel(newLabel);
+					sendMessageToAllEdges(vertex, message);
+					aggregate(AGGREGATOR_CHANGES, one);
+				}
+			}
+			countLocalEdges(vertex);
+		}
+
+		@Override
+		public void preSuperstep() {
+			semiSynchronous = getContext().getConfiguration().getBoolean(
+					SEMI_SYNCHRONOUS, DEFAULT_SEMI_SYNCHRONOUS);
+		}
+	}
+
+	public static class LabelPropagationMasterCompute extends
+			DefaultMasterCompute {
+		private ConvergenceWindow states;
+		private int maxIterations;
+		private boolean semiSynchronous;
+		private long previousChanges = -1;
+
+		@Override
+		public void initialize() throws InstantiationException,
+				IllegalAccessException {
+			maxIterations = getContext().getConfiguration().getInt(
+					MAX_ITERATIONS, DEFAULT_MAX_ITERATIONS);
+			semiSynchronous = getContext().getConfiguration().getBoolean(
+					SEMI_SYNCHRONOUS, DEFAULT_SEMI_SYNCHRONOUS);
+			states = new ConvergenceWindow(getContext().getConfiguration()
+					.getInt(WINDOW_SIZE, DEFAULT_WINDOW_SIZE), getContext()
+					.getConfiguration().getFloat(CONVERGENCE_THRESHOLD,
+							DEFAULT_CONVERGENCE_THRESHOLD));
+			registerAggregator(AGGREGATOR_CHANGES, LongSumAggregator.class);
+			registerAggregator(AGGREGATOR_LOCALS, LongSumAggregator.class);
+		}
+
+		/*
+		 * Check the statistics of the previous superstep, at the end of each
+		 * round
+		 */
+		private boolean algorithmConverged(int superstep) {
+			long changes = ((LongWritable) getAggregatedValue(AGGREGATOR_CHANGES))
+					.get();
+			long localEdges = ((LongWritable) getAggregatedValue(AGGREGATOR_LOCALS))
+					.get();
+			double localEdgesPct = ((double) localEdges) / getTotalNumEdges();
+			System.out.println("superstep " + superstep + ": " + changes
+					+ " label changes, " + localEdgesPct + " local edges");
+
+			boolean noChanges = changes == 0;
+			if (semiSynchronous) {
+				// a round lasts two supersteps, one per color
+				noChanges = noChanges && previousChanges == 0;
+				previousChanges = changes;
+				if (superstep % 2 == 1) {
+					return noChanges;
+				}
+			}
+			return noChanges || states.update(localEdgesPct);
+		}
+
+		@Override
+		public void compute() {
+			int superstep = (int) getSuperstep();
+			if (superstep == 0) {
+				setComputation(ConverterPropagate.class);
+			} else if (superstep == 1) {
+				setComputation(Initializer.class);
+			} else {
+				setComputation(ComputeLabel.class);
+			}
+			boolean hasConverged = false;
+			if (superstep > 2) {
+				hasConverged = algorithmConverged(superstep);
+			}
+			if (hasConverged || superstep >= maxIterations) {
+				System.out.println("Halting computation: " + hasConverged);
+				haltComputation();
+				long localEdges = ((LongWritable) getAggregatedValue(AGGREGATOR_LOCALS))
+						.get();
+				getContext().getCounter(COUNTER_GROUP, ITERATIONS_COUNTER)
+						.increment(getSuperstep());
+				getContext().getCounter(COUNTER_GROUP, PCT_LOCAL_EDGES_COUNTER)
+						.increment(
+								(long) (100 * ((double) localEdges) / getTotalNumEdges()));
+			}
+		}
+	}
+
+	public static class LabelMessage implements Writable {
+		private long sourceId;
+		private long label;
+
+		public LabelMessage() {
+		}
+
+		public LabelMessage(long sourceId, long label) {
+			this.sourceId = sourceId;
+			this.label = label;
+		}
+
+		public long getSourceId() {
+			return sourceId;
+		}
+
+		public void setSourceId(long sourceId) {
+			this.sourceId = sourceId;
+		}
+
+		public long getLabel() {
+			return label;
+		}
+
+		public void setLabel(long label) {
+			this.label = label;
+		}
+
+		@Override
+		public void readFields(DataInput input) throws IOException {
+			sourceId = input.readLong();
+			label = input.readLong();
+		}
+
+		@Override
+		public void write(DataOutput output) throws IOException {
+			output.writeLong(sourceId);
+			output.writeLong(label);
+		}
+
+		@Override
+		public String toString() {
+			return getSourceId() + " " + getLabel();
+		}
+	}
+
+	public static class LabelEdgeInputFormat extends
+			TextEdgeInputFormat<LongWritable, LongWritable> {
+		/** Splitter for endpoints */
+		private static final Pattern SEPARATOR = Pattern.compile("[\001\t ]");
+
+		@Override
+		public EdgeReader<LongWritable, LongWritable> createEdgeReader(
+				InputSplit split, TaskAttemptContext context)
+				throws IOException {
+			return new LabelEdgeReader();
+		}
+
+		public class LabelEdgeReader extends
+				TextEdgeReaderFromEachLineProcessed<String[]> {
+			@Override
+			protected String[] preprocessLine(Text line) throws IOException {
+				return SEPARATOR.split(line.toString());
+			}
+
+			@Override
+			protected LongWritable getSourceVertexId(String[] endpoints)
+					throws IOException {
+				return new LongWritable(Long.parseLong(endpoints[0]));
+			}
+
+			@Override
+			protected LongWritable getTargetVertexId(String[] endpoints)
+					throws IOException {
+				return new LongWritable(Long.parseLong(endpoints[1]));
+			}
+
+			@Override
+			protected LongWritable getValue(String[] endpoints)
+					throws IOException {
+				// initially, the label of a neighbor is its id
+				return new LongWritable(Long.parseLong(endpoints[1]));
+			}
+		}
+	}
+}
@@ -17,12 +17,12 @@ package ml.grafos.okapi.spinner;
 
 import it.unimi.dsi.fastutil.longs.Long2ShortMap;
 import it.unimi.dsi.fastutil.longs.Long2ShortOpenHashMap;
+import it.unimi.dsi.fastutil.objects.ObjectIterator;
 
 import java.io.DataInput;
 import java.io.DataOutput;
 import java.io.IOException;
 import java.util.Iterator;
-import java.util.Map.Entry;
 
 import ml.grafos.okapi.spinner.Spinner.EdgeValue;
 
@@ -34,10 +34,15 @@ import org.apache.giraph.edge.StrictRandomAccessOutEdges;
 import org.apache.giraph.utils.EdgeIterables;
 import org.apache.hadoop.io.LongWritable;
 
+/**
+ * Out-edges for {@link Spinner} that store the partition of each neighbor as a
+ * short in an open hash map. Iterating the edges and accessing them by
+ * neighbor id do not allocate objects, and the edge values returned are reused.
+ */
 public class OpenHashMapEdges extends
 		ConfigurableOutEdges<LongWritable, EdgeValue> implements
 		StrictRandomAccessOutEdges<LongWritable, EdgeValue> {
-	private Long2ShortMap map;
+	private Long2ShortOpenHashMap map;
 	private EdgeValue repValue = new EdgeValue();
 
 	@Override
@@ -77,7 +82,8 @@ public class OpenHashMapEdges extends
 
 	public Iterator<MutableEdge<LongWritable, EdgeValue>> mutableIterator() {
 		return new Iterator<MutableEdge<LongWritable, EdgeValue>>() {
-			private Iterator<Entry<Long, Short>> it = map.entrySet().iterator();
+			private ObjectIterator<Long2ShortMap.Entry> it = map
+					.long2ShortEntrySet().fastIterator();
 			private MutableEdge<LongWritable, EdgeValue> repEdge = EdgeFactory
 					.createReusable(new LongWritable(), new EdgeValue());
 
@@ -88,9 +94,9 @@ public class OpenHashMapEdges extends
 
 			@Override
 			public MutableEdge<LongWritable, EdgeValue> next() {
-				Entry<Long, Short> entry = it.next();
-				repEdge.getTargetVertexId().set(entry.getKey());
-				repEdge.getValue().setPartition(entry.getValue());
+				Long2ShortMap.Entry entry = it.next();
+				repEdge.getTargetVertexId().set(entry.getLongKey());
+				repEdge.getValue().setPartition(entry.getShortValue());
 				return repEdge;
 			}
 
@@ -114,9 +120,12 @@ public class OpenHashMapEdges extends
 	@Override
 	public void write(final DataOutput out) throws IOException {
 		out.writeInt(map.size());
-		for (Entry<Long, Short> e : map.entrySet()) {
-			out.writeLong(e.getKey());
-			out.writeShort(e.getValue());
+		ObjectIterator<Long2ShortMap.Entry> it = map.long2ShortEntrySet()
+				.fastIterator();
+		while (it.hasNext()) {
+			Long2ShortMap.Entry e = it.next();
+			out.writeLong(e.getLongKey());
+			out.writeShort(e.getShortValue());
 		}
 	}
 
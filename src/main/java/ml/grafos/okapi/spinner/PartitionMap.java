@@ -0,0 +1,331 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import it.unimi.dsi.fastutil.Arrays;
+import it.unimi.dsi.fastutil.Swapper;
+import it.unimi.dsi.fastutil.ints.AbstractIntComparator;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutput;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.ShortBuffer;
+import java.nio.channels.FileChannel;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FSDataInputStream;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
+
+import com.google.common.collect.Lists;
+
+/**
+ * Read-only map from vertex ids to the partitions computed by Spinner.
+ *
+ * The map is stored in one or more binary files, as written by
+ * {@link Spinner.SpinnerPartitionMapOutputFormat}. Each file holds a header followed by the
+ * vertex ids in ascending order and their partitions in the same order:
+ *
+ * <pre>
+ * int      MAGIC
+ * int      number of entries n
+ * long[n]  vertex ids
+ * short[n] partitions
+ * </pre>
+ *
+ * The map is memory-mapped, so it does not take heap space and is shared
+ * through the page cache by the tasks running on the same machine. A single
+ * file on the local file system is mapped as it is. Otherwise the files, which
+ * usually cover the whole range of ids each, are merged once into a single
+ * sorted local temporary file, so that a lookup is a single binary search.
+ */
+public class PartitionMap implements Closeable {
+	/** First int of every partition map file */
+	public static final int MAGIC = 0x53504d31;
+	/** Returned for vertices that are not in the map */
+	public static final short MISSING = -1;
+	/** Maximum number of entries in a map, so that the ids can be mapped */
+	public static final int MAX_ENTRIES = Integer.MAX_VALUE / 8;
+	private static final int HEADER_SIZE = 8;
+
+	private final LongBuffer ids;
+	private final ShortBuffer partitions;
+	private final File temporaryFile;
+
+	private PartitionMap(LongBuffer ids, ShortBuffer partitions,
+			File temporaryFile) {
+		this.ids = ids;
+		this.partitions = partitions;
+		this.temporaryFile = temporaryFile;
+	}
+
+	/**
+	 * Opens a partition map.
+	 *
+	 * @param conf
+	 *            configuration used to access the file system
+	 * @param path
+	 *            a map file, or a directory of map files such as the output
+	 *            of a Spinner job. Names starting with "_" or "." are skipped.
+	 * @return the map
+	 * @throws IOException
+	 *             if a file cannot be read or is not a partition map
+	 */
+	public static PartitionMap open(Configuration conf, Path path)
+			throws IOException {
+		FileSystem fs = path.getFileSystem(conf);
+		List<Path> files = Lists.newArrayList();
+		for (FileStatus status : fs.listStatus(path)) {
+			String name = status.getPath().getName();
+			if (!status.isDir() && !name.startsWith("_")
+					&& !name.startsWith(".")) {
+				files.add(status.getPath());
+			}
+		}
+		if (files.size() == 1 && "file".equals(fs.getUri().getScheme())) {
+			return map(new File(files.get(0).toUri().getPath()), null);
+		}
+		File merged = File.createTempFile("partitionmap", null);
+		merged.deleteOnExit();
+		try {
+			merge(fs, files, merged);
+			return map(merged, merged);
+		} catch (IOException e) {
+			merged.delete();
+			throw e;
+		}
+	}
+
+	/**
+	 * Maps a partition map file.
+	 *
+	 * @param file
+	 *            the local file
+	 * @param temporaryFile
+	 *            deleted when the map is closed, or null
+	 */
+	private static PartitionMap map(File file, File temporaryFile)
+			throws IOException {
+		RandomAccessFile raf = new RandomAccessFile(file, "r");
+		try {
+			if (raf.length() < HEADER_SIZE || raf.readInt() != MAGIC) {
+				throw new IOException(file + " is not a partition map");
+			}
+			int n = raf.readInt();
+			FileChannel channel = raf.getChannel();
+			return new PartitionMap(channel.map(FileChannel.MapMode.READ_ONLY,
+					HEADER_SIZE, 8L * n).asLongBuffer(), channel.map(
+					FileChannel.MapMode.READ_ONLY, HEADER_SIZE + 8L * n,
+					2L * n).asShortBuffer(), temporaryFile);
+		} finally {
+			// the mappings stay valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Merges sorted partition map files into a single one, reading the ids
+	 * and the partitions of each file with two streams.
+	 */
+	private static void merge(FileSystem fs, List<Path> files, File merged)
+			throws IOException {
+		List<Cursor> cursors = Lists.newArrayList();
+		PriorityQueue<Cursor> queue = new PriorityQueue<Cursor>(Math.max(1,
+				files.size()), new Comparator<Cursor>() {
+			@Override
+			public int compare(Cursor c1, Cursor c2) {
+				return Long.compare(c1.id, c2.id);
+			}
+		});
+		try {
+			long total = 0;
+			for (Path file : files) {
+				Cursor cursor = new Cursor(fs, file);
+				cursors.add(cursor);
+				total += cursor.remaining;
+				if (cursor.next()) {
+					queue.add(cursor);
+				}
+			}
+			if (total > MAX_ENTRIES) {
+				throw new IOException("Too many entries for a partition map: "
+						+ total);
+			}
+			int n = (int) total;
+			RandomAccessFile raf = new RandomAccessFile(merged, "rw");
+			try {
+				raf.setLength(HEADER_SIZE + 10L * n);
+				raf.writeInt(MAGIC);
+				raf.writeInt(n);
+				FileChannel channel = raf.getChannel();
+				MappedByteBuffer idsOut = channel.map(
+						FileChannel.MapMode.READ_WRITE, HEADER_SIZE, 8L * n);
+				MappedByteBuffer partitionsOut = channel.map(
+						FileChannel.MapMode.READ_WRITE, HEADER_SIZE + 8L * n,
+						2L * n);
+				while (!queue.isEmpty()) {
+					Cursor cursor = queue.poll();
+					idsOut.putLong(cursor.id);
+					partitionsOut.putShort(cursor.partition);
+					if (cursor.next()) {
+						queue.add(cursor);
+					}
+				}
+				idsOut.force();
+				partitionsOut.force();
+			} finally {
+				raf.close();
+			}
+		} finally {
+			for (Cursor cursor : cursors) {
+				cursor.close();
+			}
+		}
+	}
+
+	/** Position in a partition map file being merged */
+	private static class Cursor implements Closeable {
+		private final DataInputStream ids;
+		private final DataInputStream partitions;
+		private int remaining;
+		private long id;
+		private short partition;
+
+		Cursor(FileSystem fs, Path file) throws IOException {
+			ids = new DataInputStream(new BufferedInputStream(fs.open(file)));
+			if (ids.readInt() != MAGIC) {
+				ids.close();
+				throw new IOException(file + " is not a partition map");
+			}
+			remaining = ids.readInt();
+			FSDataInputStream in = fs.open(file);
+			in.seek(HEADER_SIZE + 8L * remaining);
+			partitions = new DataInputStream(new BufferedInputStream(in));
+		}
+
+		/**
+		 * @return false if there are no more entries
+		 */
+		boolean next() throws IOException {
+			if (remaining == 0) {
+				return false;
+			}
+			remaining--;
+			id = ids.readLong();
+			partition = partitions.readShort();
+			return true;
+		}
+
+		@Override
+		public void close() throws IOException {
+			ids.close();
+			partitions.close();
+		}
+	}
+
+	/**
+	 * Sorts the entries by vertex id and writes them as a partition map file.
+	 *
+	 * @param out
+	 *            where to write the file
+	 * @param vertexIds
+	 *            the vertex ids, sorted in place
+	 * @param vertexPartitions
+	 *            the partition of each vertex, sorted in place
+	 * @param n
+	 *            number of entries
+	 * @throws IOException
+	 *             if the output cannot be written
+	 */
+	public static void write(DataOutput out, final long[] vertexIds,
+			final short[] vertexPartitions, int n) throws IOException {
+		if (n > MAX_ENTRIES) {
+			throw new IOException("Too many entries for a partition map file: "
+					+ n);
+		}
+		Arrays.quickSort(0, n, new AbstractIntComparator() {
+			@Override
+			public int compare(int i, int j) {
+				return Long.compare(vertexIds[i], vertexIds[j]);
+			}
+		}, new Swapper() {
+			@Override
+			public void swap(int i, int j) {
+				long id = vertexIds[i];
+				vertexIds[i] = vertexIds[j];
+				vertexIds[j] = id;
+				short partition = vertexPartitions[i];
+				vertexPartitions[i] = vertexPartitions[j];
+				vertexPartitions[j] = partition;
+			}
+		});
+		out.writeInt(MAGIC);
+		out.writeInt(n);
+		for (int i = 0; i < n; i++) {
+			out.writeLong(vertexIds[i]);
+		}
+		for (int i = 0; i < n; i++) {
+			out.writeShort(vertexPartitions[i]);
+		}
+	}
+
+	/**
+	 * @param vertexId
+	 *            the id of a vertex
+	 * @return the partition of the vertex, or {@link #MISSING} if the vertex
+	 *         is not in the map
+	 */
+	public short get(long vertexId) {
+		int low = 0;
+		int high = ids.limit() - 1;
+		while (low <= high) {
+			int mid = (low + high) >>> 1;
+			long midId = ids.get(mid);
+			if (midId < vertexId) {
+				low = mid + 1;
+			} else if (midId > vertexId) {
+				high = mid - 1;
+			} else {
+				return partitions.get(mid);
+			}
+		}
+		return MISSING;
+	}
+
+	/**
+	 * @return number of vertices in the map
+	 */
+	public long size() {
+		return ids.limit();
+	}
+
+	@Override
+	public void close() throws IOException {
+		if (temporaryFile != null) {
+			temporaryFile.delete();
+		}
+	}
+}
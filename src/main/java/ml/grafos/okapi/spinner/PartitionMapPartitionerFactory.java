@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import java.io.IOException;
+
+import org.apache.giraph.conf.ImmutableClassesGiraphConfiguration;
+import org.apache.giraph.partition.GraphPartitionerFactory;
+import org.apache.giraph.partition.HashMasterPartitioner;
+import org.apache.giraph.partition.MasterGraphPartitioner;
+import org.apache.giraph.partition.WorkerGraphPartitioner;
+import org.apache.giraph.worker.LocalData;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Places the vertices of a job with {@link LongWritable} ids according to a
+ * partitioning computed by Spinner and written with
+ * {@link Spinner.SpinnerPartitionMapOutputFormat}. Set it through
+ * giraph.graphPartitionerFactoryClass and point {@link #PARTITION_MAP} to the
+ * output of the Spinner job. The number of partitions of the job
+ * (giraph.userPartitionCount) should be the number of Spinner partitions.
+ */
+public class PartitionMapPartitionerFactory<V extends Writable, E extends Writable>
+		implements GraphPartitionerFactory<LongWritable, V, E> {
+	/** Path of the partition map, a file or a directory of files */
+	public static final String PARTITION_MAP = "spinner.partitionMap";
+	/** Saved configuration */
+	private ImmutableClassesGiraphConfiguration<LongWritable, V, E> conf;
+	/** Partition map, opened by the first worker partitioner */
+	private PartitionMap map;
+
+	@Override
+	public MasterGraphPartitioner<LongWritable, V, E> createMasterGraphPartitioner() {
+		return new HashMasterPartitioner<LongWritable, V, E>(getConf());
+	}
+
+	@Override
+	public WorkerGraphPartitioner<LongWritable, V, E> createWorkerGraphPartitioner() {
+		return new PartitionMapWorkerPartitioner<V, E>(getPartitionMap());
+	}
+
+	private synchronized PartitionMap getPartitionMap() {
+		if (map == null) {
+			String path = conf.get(PARTITION_MAP);
+			if (path == null) {
+				throw new IllegalArgumentException(PARTITION_MAP
+						+ " is not set");
+			}
+			try {
+				map = PartitionMap.open(conf, new Path(path));
+			} catch (IOException e) {
+				throw new IllegalStateException("Could not open partition map "
+						+ path, e);
+			}
+		}
+		return map;
+	}
+
+	@Override
+	public ImmutableClassesGiraphConfiguration<LongWritable, V, E> getConf() {
+		return conf;
+	}
+
+	@Override
+	public void setConf(
+			ImmutableClassesGiraphConfiguration<LongWritable, V, E> conf) {
+		this.conf = conf;
+	}
+
+	@Override
+	public void initialize(LocalData<LongWritable, V, E, ? extends Writable> localData) {
+	}
+}
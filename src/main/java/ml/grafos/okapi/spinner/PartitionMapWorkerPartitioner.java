@@ -0,0 +1,48 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import org.apache.giraph.partition.HashWorkerPartitioner;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Assigns every vertex to the partition it has in a {@link PartitionMap},
+ * modulo the number of partitions of the job. Vertices that are not in the
+ * map are hash-partitioned.
+ */
+public class PartitionMapWorkerPartitioner<V extends Writable, E extends Writable>
+		extends HashWorkerPartitioner<LongWritable, V, E> {
+	private final PartitionMap map;
+
+	/**
+	 * @param map
+	 *            the partitioning of the vertices
+	 */
+	public PartitionMapWorkerPartitioner(PartitionMap map) {
+		this.map = map;
+	}
+
+	@Override
+	public PartitionOwner getPartitionOwner(LongWritable vertexId) {
+		short partition = map.get(vertexId.get());
+		if (partition < 0) {
+			return super.getPartitionOwner(vertexId);
+		}
+		return partitionOwnerList.get(partition % partitionOwnerList.size());
+	}
+}
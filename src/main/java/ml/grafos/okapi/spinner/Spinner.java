@@ -15,18 +15,28 @@
  */
 package ml.grafos.okapi.spinner;
 
+import it.unimi.dsi.fastutil.longs.Long2ShortOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import it.unimi.dsi.fastutil.shorts.ShortArrayList;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
 import java.io.DataInput;
 import java.io.DataOutput;
+import java.io.DataOutputStream;
 import java.io.IOException;
+import java.io.InputStreamReader;
 import java.math.BigDecimal;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.LinkedList;
+import java.util.Map;
+import java.util.Map.Entry;
 import java.util.Random;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.regex.Pattern;
 
+import ml.grafos.okapi.aggregators.TextAggregatorWriter;
+
 import org.apache.giraph.aggregators.DoubleSumAggregator;
 import org.apache.giraph.aggregators.LongSumAggregator;
 import org.apache.giraph.edge.Edge;
@@ -34,20 +44,30 @@ import org.apache.giraph.edge.EdgeFactory;
 import org.apache.giraph.graph.AbstractComputation;
 import org.apache.giraph.graph.Vertex;
 import org.apache.giraph.io.EdgeReader;
+import org.apache.giraph.io.VertexOutputFormat;
+import org.apache.giraph.io.VertexWriter;
 import org.apache.giraph.io.formats.TextEdgeInputFormat;
 import org.apache.giraph.io.formats.TextVertexOutputFormat;
 import org.apache.giraph.io.formats.TextVertexValueInputFormat;
 import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.FileStatus;
+import org.apache.hadoop.fs.FileSystem;
+import org.apache.hadoop.fs.Path;
 import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.apache.hadoop.io.Text;
 import org.apache.hadoop.io.Writable;
+import org.apache.hadoop.io.WritableUtils;
 import org.apache.hadoop.mapreduce.InputSplit;
+import org.apache.hadoop.mapreduce.JobContext;
 import org.apache.hadoop.mapreduce.TaskAttemptContext;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputCommitter;
+import org.apache.hadoop.mapreduce.lib.output.FileOutputFormat;
 
-import com.google.common.collect.Lists;
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
 
 /**
  * Implements the Spinner edge-based balanced k-way partitioning of a graph.
@@ -87,6 +107,34 @@ import com.google.common.collect.Lists;
  * hence till the global score of the partitioning does not change for a number
  * of times over a certain threshold.
  * 
+ * When adapting a previous partitioning to graph changes, the computation can
+ * be restricted to the vertices near the changes by setting
+ * spinner.incremental. The vertices that are new, i.e. that have no partition
+ * in the input, and the endpoints of the edges listed in the file at
+ * spinner.deltaEdges (one "source target" pair per line, for both added and
+ * removed edges) are activated, together with their neighborhood up to
+ * spinner.activationHops hops. The other vertices keep their partition, and
+ * only the active vertices compute new partitions and contribute to the score
+ * used to detect convergence. When the number of partitions changes too, with
+ * spinner.repartition, only the active vertices move to the new partitions,
+ * while the inactive vertices of the removed partitions move at random and
+ * are activated.
+ * 
+ * By default the partitions are balanced on the number of edges. With
+ * spinner.balance, e.g. set to "edges,vertices,cost", the partitions are
+ * balanced on several resources at once, see {@link BalanceConstraint}. The
+ * cost of a vertex is read from the third column of the vertex input.
+ * 
+ * The quality of the partitioning after each iteration, e.g. the edge cut, the
+ * communication volume and the partition loads, can be written to a file with
+ * {@link SpinnerMetricsWriter}.
+ * 
+ * Instead of random partitions, the vertices without a partition can be
+ * assigned with the Linear Deterministic Greedy or the Fennel streaming
+ * heuristics by setting spinner.initialization to ldg or fennel, see
+ * {@link StreamingInitializer}. With spinner.initializeOnly, the computation
+ * stops after the initialization.
+ * 
  * Each vertex stores the position of its neighbors in the edge values, to avoid
  * re-communicating labels at each iteration also for non-migrating vertices.
  * 
@@ -106,6 +154,9 @@ public class Spinner {
 	private static final String AGGREGATOR_STATE = "AGG_STATE";
 	private static final String AGGREGATOR_MIGRATIONS = "AGG_MIGRATIONS";
 	private static final String AGGREGATOR_LOCALS = "AGG_LOCALS";
+	private static final String AGGREGATOR_COMM_VOLUME = "AGG_COMM_VOLUME";
+	private static final String AGGREGATOR_COMPUTED_VERTICES = "AGG_COMPUTED_VERTICES";
+	private static final String AGGREGATOR_COMPUTED_EDGES = "AGG_COMPUTED_EDGES";
 	private static final String NUM_PARTITIONS = "spinner.numberOfPartitions";
 	private static final int DEFAULT_NUM_PARTITIONS = 32;
 	private static final String ADDITIONAL_CAPACITY = "spinner.additionalCapacity";
@@ -122,6 +173,26 @@ public class Spinner {
 	private static final short DEFAULT_REPARTITION = 0;
 	private static final String WINDOW_SIZE = "spinner.windowSize";
 	private static final int DEFAULT_WINDOW_SIZE = 5;
+	/** Whether only the vertices near the graph changes are repartitioned */
+	public static final String INCREMENTAL = "spinner.incremental";
+	private static final boolean DEFAULT_INCREMENTAL = false;
+	/** Path to the edges added or removed since the previous partitioning */
+	public static final String DELTA_EDGES = "spinner.deltaEdges";
+	/** Number of hops from the changes within which vertices are activated */
+	public static final String ACTIVATION_HOPS = "spinner.activationHops";
+	private static final int DEFAULT_ACTIVATION_HOPS = 2;
+	/** Comma-separated list of the constraints to balance, see BalanceConstraint */
+	public static final String BALANCE = "spinner.balance";
+	private static final String DEFAULT_BALANCE = "edges";
+	/** How the vertices without a partition are assigned: random, ldg or fennel */
+	public static final String INITIALIZATION = "spinner.initialization";
+	private static final String DEFAULT_INITIALIZATION = "random";
+	/** Number of supersteps over which the streaming initialization runs */
+	public static final String STREAMING_BATCHES = "spinner.streamingBatches";
+	private static final int DEFAULT_STREAMING_BATCHES = 4;
+	/** Whether to stop after the initialization, without label propagation */
+	public static final String INITIALIZE_ONLY = "spinner.initializeOnly";
+	private static final boolean DEFAULT_INITIALIZE_ONLY = false;
 
 	private static final String COUNTER_GROUP = "Partitioning Counters";
 	private static final String MIGRATIONS_COUNTER = "Migrations";
@@ -131,24 +202,55 @@ public class Spinner {
 	private static final String MAX_NORMALIZED_UNBALANCE_COUNTER = "Max normalized unbalance (x1000)";
 	private static final String SCORE_COUNTER = "Score (x1000)";
 
+	/*
+	 * Number of supersteps spent activating the vertices near the graph
+	 * changes in incremental mode
+	 */
+	private static int getActivationSteps(Configuration conf) {
+		if (!conf.getBoolean(INCREMENTAL, DEFAULT_INCREMENTAL)) {
+			return 0;
+		}
+		return conf.getInt(ACTIVATION_HOPS, DEFAULT_ACTIVATION_HOPS) + 1;
+	}
+
 	public static class ComputeNewPartition
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, NullWritable> {
 		private ShortArrayList maxIndices = new ShortArrayList();
 		private Random rnd = new Random();
-		private String[] demandAggregatorNames;
+		private BalanceConstraint[] constraints;
+		private String[][] demandAggregatorNames;
 		private int[] partitionFrequency;
-		private long[] loads;
-		private long totalCapacity;
+		private long[][] loads;
+		private long[] totalCapacity;
+		private double[] constraintLambda;
 		private short numberOfPartitions;
 		private short repartition;
 		private double additionalCapacity;
 		private double lambda;
+		private boolean incremental;
+		// statistics accumulated by this thread, aggregated in postSuperstep
+		private long[][] demands;
+		private long localEdges;
+		private long communicationVolume;
+		private long computedVertices;
+		private long computedEdges;
+		private double state;
+		private final LongWritable otherId = new LongWritable();
 
+		/*
+		 * Weighted sum of the loads of a partition relative to the capacity,
+		 * over the constraints
+		 */
 		private double computeW(int newPartition) {
-			return new BigDecimal(((double) loads[newPartition])
-					/ totalCapacity).setScale(3, BigDecimal.ROUND_CEILING)
-					.doubleValue();
+			double penalty = 0;
+			for (int c = 0; c < constraints.length; c++) {
+				penalty += constraintLambda[c]
+						* new BigDecimal(((double) loads[c][newPartition])
+								/ totalCapacity[c]).setScale(3,
+								BigDecimal.ROUND_CEILING).doubleValue();
+			}
+			return penalty;
 		}
 
 		/*
@@ -156,12 +258,14 @@ public class Spinner {
 		 */
 		private void requestMigration(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
-				int numberOfEdges, short currentPartition, short newPartition) {
+				short currentPartition, short newPartition) {
 			vertex.getValue().setNewPartition(newPartition);
-			aggregate(demandAggregatorNames[newPartition], new LongWritable(
-					numberOfEdges));
-			loads[newPartition] += numberOfEdges;
-			loads[currentPartition] -= numberOfEdges;
+			for (int c = 0; c < constraints.length; c++) {
+				long weight = constraints[c].getWeight(vertex);
+				demands[c][newPartition] += weight;
+				loads[c][newPartition] += weight;
+				loads[c][currentPartition] -= weight;
+			}
 		}
 
 		/*
@@ -171,12 +275,10 @@ public class Spinner {
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				Iterable<PartitionMessage> messages) {
 			for (PartitionMessage message : messages) {
-				LongWritable otherId = new LongWritable(message.getSourceId());
-				EdgeValue oldValue = vertex.getEdgeValue(otherId);
-				vertex.setEdgeValue(
-						otherId,
-						new EdgeValue(message.getPartition(), oldValue
-								.getWeight()));
+				otherId.set(message.getSourceId());
+				EdgeValue value = vertex.getEdgeValue(otherId);
+				value.setPartition(message.getPartition());
+				vertex.setEdgeValue(otherId, value);
 			}
 		}
 
@@ -187,7 +289,6 @@ public class Spinner {
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
 			Arrays.fill(partitionFrequency, 0);
 			int totalLabels = 0;
-			int localEdges = 0;
 			for (Edge<LongWritable, EdgeValue> e : vertex.getEdges()) {
 				partitionFrequency[e.getValue().getPartition()] += e.getValue()
 						.getWeight();
@@ -197,9 +298,6 @@ public class Spinner {
 					localEdges++;
 				}
 			}
-			// update cut edges stats
-			aggregate(AGGREGATOR_LOCALS, new LongWritable(localEdges));
-
 			return totalLabels;
 		}
 
@@ -268,7 +366,7 @@ public class Spinner {
 				// original LPA
 				double LPA = ((double) partitionFrequency[i]) / totalLabels;
 				// penalty function
-				double PF = lambda * computeW(i);
+				double PF = computeW(i);
 				// compute the rank and make sure the result is > 0
 				double H = lambda + LPA - PF;
 				if (i == currentPartition) {
@@ -284,7 +382,7 @@ public class Spinner {
 			}
 			newPartition = chooseRandomPartitionOrCurrent(currentPartition);
 			// update state stats
-			aggregate(AGGREGATOR_STATE, new DoubleWritable(currentState));
+			state += currentState;
 
 			return newPartition;
 		}
@@ -293,23 +391,33 @@ public class Spinner {
 		public void compute(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				Iterable<PartitionMessage> messages) throws IOException {
+			if (incremental && !vertex.getValue().isActive()) {
+				// woken up by a migrating neighbor, keep the partition
+				vertex.voteToHalt();
+				return;
+			}
 			boolean isActive = messages.iterator().hasNext();
 			short currentPartition = vertex.getValue().getCurrentPartition();
-			int numberOfEdges = vertex.getNumEdges();
 
 			// update neighbors partitions
 			updateNeighborsPartitions(vertex, messages);
 
 			// count labels occurrences in the neighborhood
 			int totalLabels = computeNeighborsLabels(vertex);
+			for (int i = 0; i < numberOfPartitions + repartition; i++) {
+				if (i != currentPartition && partitionFrequency[i] > 0) {
+					communicationVolume++;
+				}
+			}
+			computedVertices++;
+			computedEdges += vertex.getNumEdges();
 
 			// compute the most attractive partition
 			short newPartition = computeNewPartition(vertex, totalLabels);
 
 			// request migration to the new destination
 			if (newPartition != currentPartition && isActive) {
-				requestMigration(vertex, numberOfEdges, currentPartition,
-						newPartition);
+				requestMigration(vertex, currentPartition, newPartition);
 			}
 		}
 
@@ -323,18 +431,58 @@ public class Spinner {
 					REPARTITION, DEFAULT_REPARTITION);
 			lambda = getContext().getConfiguration().getFloat(LAMBDA,
 					DEFAULT_LAMBDA);
-			partitionFrequency = new int[numberOfPartitions + repartition];
-			loads = new long[numberOfPartitions + repartition];
-			demandAggregatorNames = new String[numberOfPartitions + repartition];
-			totalCapacity = (long) Math
-					.round(((double) getTotalNumEdges()
-							* (1 + additionalCapacity) / (numberOfPartitions + repartition)));
-			// cache loads for the penalty function
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				demandAggregatorNames[i] = AGGREGATOR_DEMAND_PREFIX + i;
-				loads[i] = ((LongWritable) getAggregatedValue(AGGREGATOR_LOAD_PREFIX
-						+ i)).get();
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
+			constraints = BalanceConstraint.fromConfiguration(getContext()
+					.getConfiguration());
+			int k = numberOfPartitions + repartition;
+			partitionFrequency = new int[k];
+			loads = new long[constraints.length][k];
+			demandAggregatorNames = new String[constraints.length][k];
+			demands = new long[constraints.length][k];
+			totalCapacity = new long[constraints.length];
+			constraintLambda = new double[constraints.length];
+			localEdges = 0;
+			communicationVolume = 0;
+			computedVertices = 0;
+			computedEdges = 0;
+			state = 0;
+			// cache loads and capacities for the penalty function
+			for (int c = 0; c < constraints.length; c++) {
+				long total = 0;
+				for (int i = 0; i < k; i++) {
+					demandAggregatorNames[c][i] = constraints[c]
+							.getDemandAggregatorName(i);
+					loads[c][i] = ((LongWritable) getAggregatedValue(constraints[c]
+							.getLoadAggregatorName(i))).get();
+					total += loads[c][i];
+				}
+				totalCapacity[c] = (long) Math.round(((double) total
+						* (1 + additionalCapacity) / k));
+				constraintLambda[c] = constraints[c].getLambda(getContext()
+						.getConfiguration(), constraints.length);
+			}
+		}
+
+		@Override
+		public void postSuperstep() {
+			for (int c = 0; c < constraints.length; c++) {
+				for (int i = 0; i < numberOfPartitions + repartition; i++) {
+					if (demands[c][i] != 0) {
+						aggregate(demandAggregatorNames[c][i], new LongWritable(
+								demands[c][i]));
+					}
+				}
 			}
+			// update cut edges and state stats
+			aggregate(AGGREGATOR_LOCALS, new LongWritable(localEdges));
+			aggregate(AGGREGATOR_COMM_VOLUME, new LongWritable(
+					communicationVolume));
+			aggregate(AGGREGATOR_COMPUTED_VERTICES, new LongWritable(
+					computedVertices));
+			aggregate(AGGREGATOR_COMPUTED_EDGES, new LongWritable(
+					computedEdges));
+			aggregate(AGGREGATOR_STATE, new DoubleWritable(state));
 		}
 	}
 
@@ -342,26 +490,31 @@ public class Spinner {
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, NullWritable, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private BalanceConstraint[] constraints;
+		private String[][] loadAggregatorNames;
 		private double[] migrationProbabilities;
 		private short numberOfPartitions;
 		private short repartition;
 		private double additionalCapacity;
+		// statistics accumulated by this thread, aggregated in postSuperstep
+		private long[][] loadChanges;
+		private long migrations;
+		private final PartitionMessage message = new PartitionMessage();
 
 		private void migrate(
 				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
 				short currentPartition, short newPartition) {
 			vertex.getValue().setCurrentPartition(newPartition);
 			// update partitions loads
-			int numberOfEdges = vertex.getNumEdges();
-			aggregate(loadAggregatorNames[currentPartition], new LongWritable(
-					-numberOfEdges));
-			aggregate(loadAggregatorNames[newPartition], new LongWritable(
-					numberOfEdges));
-			aggregate(AGGREGATOR_MIGRATIONS, new LongWritable(1));
+			for (int c = 0; c < constraints.length; c++) {
+				long weight = constraints[c].getWeight(vertex);
+				loadChanges[c][currentPartition] -= weight;
+				loadChanges[c][newPartition] += weight;
+			}
+			migrations++;
 			// inform the neighbors
-			PartitionMessage message = new PartitionMessage(vertex.getId()
-					.get(), newPartition);
+			message.setSourceId(vertex.getId().get());
+			message.setPartition(newPartition);
 			sendMessageToAllEdges(vertex, message);
 		}
 
@@ -393,36 +546,68 @@ public class Spinner {
 					.getInt(NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
 			repartition = (short) getContext().getConfiguration().getInt(
 					REPARTITION, DEFAULT_REPARTITION);
-			long totalCapacity = (long) Math
-					.round(((double) getTotalNumEdges()
-							* (1 + additionalCapacity) / (numberOfPartitions + repartition)));
-			migrationProbabilities = new double[numberOfPartitions
-					+ repartition];
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			// cache migration probabilities per destination partition
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
-				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-						.get();
-				long demand = ((LongWritable) getAggregatedValue(AGGREGATOR_DEMAND_PREFIX
-						+ i)).get();
-				long remainingCapacity = totalCapacity - load;
-				if (demand == 0 || remainingCapacity <= 0) {
-					migrationProbabilities[i] = 0;
-				} else {
-					migrationProbabilities[i] = ((double) (remainingCapacity))
-							/ demand;
+			constraints = BalanceConstraint.fromConfiguration(getContext()
+					.getConfiguration());
+			int k = numberOfPartitions + repartition;
+			migrationProbabilities = new double[k];
+			Arrays.fill(migrationProbabilities, Double.POSITIVE_INFINITY);
+			loadAggregatorNames = new String[constraints.length][k];
+			loadChanges = new long[constraints.length][k];
+			migrations = 0;
+			// cache migration probabilities per destination partition, the
+			// most constrained resource decides
+			for (int c = 0; c < constraints.length; c++) {
+				long[] loads = new long[k];
+				long total = 0;
+				for (int i = 0; i < k; i++) {
+					loadAggregatorNames[c][i] = constraints[c]
+							.getLoadAggregatorName(i);
+					loads[i] = ((LongWritable) getAggregatedValue(loadAggregatorNames[c][i]))
+							.get();
+					total += loads[i];
+				}
+				long totalCapacity = (long) Math.round(((double) total
+						* (1 + additionalCapacity) / k));
+				for (int i = 0; i < k; i++) {
+					long demand = ((LongWritable) getAggregatedValue(constraints[c]
+							.getDemandAggregatorName(i))).get();
+					long remainingCapacity = totalCapacity - loads[i];
+					if (remainingCapacity <= 0) {
+						migrationProbabilities[i] = 0;
+					} else if (demand > 0) {
+						migrationProbabilities[i] = Math.min(
+								migrationProbabilities[i],
+								((double) (remainingCapacity)) / demand);
+					}
 				}
 			}
 		}
+
+		@Override
+		public void postSuperstep() {
+			for (int c = 0; c < constraints.length; c++) {
+				for (int i = 0; i < numberOfPartitions + repartition; i++) {
+					if (loadChanges[c][i] != 0) {
+						aggregate(loadAggregatorNames[c][i], new LongWritable(
+								loadChanges[c][i]));
+					}
+				}
+			}
+			aggregate(AGGREGATOR_MIGRATIONS, new LongWritable(migrations));
+		}
 	}
 
 	public static class Initializer
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private BalanceConstraint[] constraints;
+		private String[][] loadAggregatorNames;
 		private int numberOfPartitions;
+		private boolean incremental;
+		// loads accumulated by this thread, aggregated in postSuperstep
+		private long[][] loads;
+		private final PartitionMessage message = new PartitionMessage();
 
 		@Override
 		public void compute(
@@ -432,22 +617,237 @@ public class Spinner {
 			if (partition == -1) {
 				partition = (short) rnd.nextInt(numberOfPartitions);
 			}
-			aggregate(loadAggregatorNames[partition],
-					new LongWritable(vertex.getNumEdges()));
+			for (int c = 0; c < constraints.length; c++) {
+				loads[c][partition] += constraints[c].getWeight(vertex);
+			}
 			vertex.getValue().setCurrentPartition(partition);
 			vertex.getValue().setNewPartition(partition);
-			PartitionMessage message = new PartitionMessage(vertex.getId()
-					.get(), partition);
+			message.setSourceId(vertex.getId().get());
+			message.setPartition(partition);
 			sendMessageToAllEdges(vertex, message);
+			if (incremental && !vertex.getValue().isActive()) {
+				vertex.voteToHalt();
+			}
 		}
 
 		@Override
 		public void preSuperstep() {
 			numberOfPartitions = getContext().getConfiguration().getInt(
 					NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
-			loadAggregatorNames = new String[numberOfPartitions];
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
+			constraints = BalanceConstraint.fromConfiguration(getContext()
+					.getConfiguration());
+			loadAggregatorNames = BalanceConstraint.getLoadAggregatorNames(
+					constraints, numberOfPartitions);
+			loads = new long[constraints.length][numberOfPartitions];
+		}
+
+		@Override
+		public void postSuperstep() {
+			for (int c = 0; c < loads.length; c++) {
+				for (int i = 0; i < loads[c].length; i++) {
+					if (loads[c][i] != 0) {
+						aggregate(loadAggregatorNames[c][i], new LongWritable(
+								loads[c][i]));
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Assigns the vertices without a partition with a streaming heuristic,
+	 * Linear Deterministic Greedy (I. Stanton and G. Kliot, "Streaming Graph
+	 * Partitioning for Large Distributed Graphs", KDD 2012) or Fennel (C.
+	 * Tsourakakis et al., "FENNEL: Streaming Graph Partitioning for Massive
+	 * Scale Graphs", WSDM 2014), balancing the number of edges.
+	 * 
+	 * The vertices are streamed in spinner.streamingBatches batches, one per
+	 * superstep, chosen by hashing their id. A vertex sees the partitions of
+	 * the neighbors assigned in previous batches, and of the neighbors assigned
+	 * by the same thread in its batch. The loads are the aggregated ones, plus
+	 * the assignments of the thread. Vertices with a partition in the input
+	 * keep it. In the last superstep every vertex sends its partition to its
+	 * neighbors, as in {@link Initializer}.
+	 */
+	public static class StreamingInitializer
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
+		private static final double FENNEL_GAMMA = 1.5;
+		private Random rnd = new Random();
+		private BalanceConstraint[] constraints;
+		private String[][] loadAggregatorNames;
+		private int numberOfPartitions;
+		private boolean fennel;
+		private boolean incremental;
+		private int batches;
+		private int batch;
+		private boolean lastBatch;
+		private double capacity;
+		private double alpha;
+		// edge loads of the partitions, including the assignments of the thread
+		private long[] edgeLoads;
+		private double[] neighbors;
+		// partitions assigned by this thread in this superstep
+		private final Long2ShortOpenHashMap assigned = new Long2ShortOpenHashMap();
+		// loads accumulated by this thread, aggregated in postSuperstep
+		private long[][] loads;
+		private final LongWritable otherId = new LongWritable();
+		private final PartitionMessage message = new PartitionMessage();
+
+		private int getBatch(long id) {
+			return (int) (((id * 0x9E3779B97F4A7C15L) >>> 33) % batches);
+		}
+
+		/*
+		 * Score of a partition for a vertex with the given number of edges
+		 */
+		private double score(int partition, int numberOfEdges) {
+			if (fennel) {
+				return neighbors[partition]
+						- alpha
+						* (Math.pow(edgeLoads[partition] + numberOfEdges,
+								FENNEL_GAMMA) - Math.pow(edgeLoads[partition],
+								FENNEL_GAMMA));
+			}
+			return neighbors[partition] * (1 - edgeLoads[partition] / capacity);
+		}
+
+		/*
+		 * Choose the partition with the highest score among the ones with room
+		 * for the vertex, breaking ties by load and then randomly
+		 */
+		private short choosePartition(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+			Arrays.fill(neighbors, 0);
+			for (Edge<LongWritable, EdgeValue> e : vertex.getEdges()) {
+				short partition = e.getValue().getPartition();
+				if (partition == -1) {
+					partition = assigned.get(e.getTargetVertexId().get());
+				}
+				if (partition != -1) {
+					neighbors[partition] += e.getValue().getWeight();
+				}
+			}
+			int numberOfEdges = vertex.getNumEdges();
+			short best = -1;
+			boolean bestFits = false;
+			double bestScore = 0;
+			int ties = 0;
+			for (short i = 0; i < numberOfPartitions; i++) {
+				boolean fits = edgeLoads[i] + numberOfEdges <= capacity;
+				double score = score(i, numberOfEdges);
+				int cmp;
+				if (best == -1 || fits != bestFits) {
+					cmp = best == -1 || fits ? 1 : -1;
+				} else if (score != bestScore) {
+					cmp = score > bestScore ? 1 : -1;
+				} else {
+					cmp = edgeLoads[i] < edgeLoads[best] ? 1
+							: (edgeLoads[i] == edgeLoads[best] ? 0 : -1);
+				}
+				if (cmp > 0) {
+					best = i;
+					bestFits = fits;
+					bestScore = score;
+					ties = 1;
+				} else if (cmp == 0 && rnd.nextInt(++ties) == 0) {
+					best = i;
+				}
+			}
+			return best;
+		}
+
+		private void addLoad(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				short partition) {
+			for (int c = 0; c < constraints.length; c++) {
+				loads[c][partition] += constraints[c].getWeight(vertex);
+			}
+			edgeLoads[partition] += vertex.getNumEdges();
+		}
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<PartitionMessage> messages) throws IOException {
+			for (PartitionMessage m : messages) {
+				otherId.set(m.getSourceId());
+				EdgeValue edgeValue = vertex.getEdgeValue(otherId);
+				edgeValue.setPartition(m.getPartition());
+				vertex.setEdgeValue(otherId, edgeValue);
+			}
+			VertexValue value = vertex.getValue();
+			short partition = value.getCurrentPartition();
+			boolean assignedNow = false;
+			if (partition == -1) {
+				if (getBatch(vertex.getId().get()) == batch) {
+					partition = choosePartition(vertex);
+					assigned.put(vertex.getId().get(), partition);
+					assignedNow = true;
+				}
+			} else if (batch == 0) {
+				// previously partitioned vertices are streamed first
+				assignedNow = true;
+			}
+			if (assignedNow) {
+				addLoad(vertex, partition);
+				value.setCurrentPartition(partition);
+				value.setNewPartition(partition);
+			}
+			if (assignedNow || lastBatch) {
+				message.setSourceId(vertex.getId().get());
+				message.setPartition(partition);
+				sendMessageToAllEdges(vertex, message);
+			}
+			if (lastBatch && incremental && !value.isActive()) {
+				vertex.voteToHalt();
+			}
+		}
+
+		@Override
+		public void preSuperstep() {
+			Configuration conf = getContext().getConfiguration();
+			numberOfPartitions = conf.getInt(NUM_PARTITIONS,
+					DEFAULT_NUM_PARTITIONS);
+			fennel = conf.get(INITIALIZATION, DEFAULT_INITIALIZATION)
+					.equalsIgnoreCase("fennel");
+			incremental = conf.getBoolean(INCREMENTAL, DEFAULT_INCREMENTAL);
+			batches = conf.getInt(STREAMING_BATCHES, DEFAULT_STREAMING_BATCHES);
+			batch = (int) getSuperstep() - 2 - getActivationSteps(conf);
+			lastBatch = batch == batches - 1;
+			double additionalCapacity = conf.getFloat(ADDITIONAL_CAPACITY,
+					DEFAULT_ADDITIONAL_CAPACITY);
+			capacity = getTotalNumEdges() * (1 + additionalCapacity)
+					/ numberOfPartitions;
+			// Fennel's alpha for loads in edges, such that adding a vertex to a
+			// balanced partition costs 3/4 of its degree, as in the paper
+			alpha = Math.sqrt(numberOfPartitions)
+					/ (2 * Math.sqrt(Math.max(1, getTotalNumEdges())));
+			constraints = BalanceConstraint.fromConfiguration(conf);
+			loadAggregatorNames = BalanceConstraint.getLoadAggregatorNames(
+					constraints, numberOfPartitions);
+			loads = new long[constraints.length][numberOfPartitions];
+			neighbors = new double[numberOfPartitions];
+			edgeLoads = new long[numberOfPartitions];
 			for (int i = 0; i < numberOfPartitions; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
+				edgeLoads[i] = ((LongWritable) getAggregatedValue(BalanceConstraint.EDGES
+						.getLoadAggregatorName(i))).get();
+			}
+			assigned.clear();
+			assigned.defaultReturnValue((short) -1);
+		}
+
+		@Override
+		public void postSuperstep() {
+			for (int c = 0; c < loads.length; c++) {
+				for (int i = 0; i < loads[c].length; i++) {
+					if (loads[c][i] != 0) {
+						aggregate(loadAggregatorNames[c][i], new LongWritable(
+								loads[c][i]));
+					}
+				}
 			}
 		}
 	}
@@ -464,14 +864,110 @@ public class Spinner {
 		}
 	}
 
+	/*
+	 * Activate the vertices within a number of hops from the graph changes,
+	 * one hop per superstep
+	 */
+	public static class ActivateNeighbors
+			extends
+			AbstractComputation<LongWritable, VertexValue, EdgeValue, LongWritable, LongWritable> {
+		private LongOpenHashSet changedVertices;
+		private boolean firstStep;
+		private boolean lastStep;
+
+		@Override
+		public void compute(
+				Vertex<LongWritable, VertexValue, EdgeValue> vertex,
+				Iterable<LongWritable> messages) throws IOException {
+			VertexValue value = vertex.getValue();
+			if (value.isActive()) {
+				return;
+			}
+			boolean activate;
+			if (firstStep) {
+				activate = value.getCurrentPartition() == -1
+						|| changedVertices.contains(vertex.getId().get());
+			} else {
+				activate = messages.iterator().hasNext();
+			}
+			if (activate) {
+				value.setActive(true);
+				if (!lastStep) {
+					sendMessageToAllEdges(vertex, vertex.getId());
+				}
+			}
+		}
+
+		/*
+		 * Read the endpoints of the changed edges
+		 */
+		private LongOpenHashSet readChangedVertices() throws IOException {
+			LongOpenHashSet vertices = new LongOpenHashSet();
+			Configuration conf = getContext().getConfiguration();
+			String delta = conf.get(DELTA_EDGES);
+			if (delta == null) {
+				return vertices;
+			}
+			Path path = new Path(delta);
+			FileSystem fs = path.getFileSystem(conf);
+			for (FileStatus status : fs.listStatus(path)) {
+				String name = status.getPath().getName();
+				if (status.isDir() || name.startsWith("_")
+						|| name.startsWith(".")) {
+					continue;
+				}
+				BufferedReader reader = new BufferedReader(
+						new InputStreamReader(fs.open(status.getPath())));
+				try {
+					String line;
+					while ((line = reader.readLine()) != null) {
+						String[] endpoints = SpinnerEdgeInputFormat.SEPARATOR
+								.split(line.trim());
+						if (endpoints.length < 2) {
+							continue;
+						}
+						vertices.add(Long.parseLong(endpoints[0]));
+						vertices.add(Long.parseLong(endpoints[1]));
+					}
+				} finally {
+					reader.close();
+				}
+			}
+			return vertices;
+		}
+
+		@Override
+		public void preSuperstep() {
+			int hops = getContext().getConfiguration().getInt(ACTIVATION_HOPS,
+					DEFAULT_ACTIVATION_HOPS);
+			firstStep = getSuperstep() == 2;
+			lastStep = getSuperstep() == 2 + hops;
+			if (firstStep) {
+				try {
+					changedVertices = readChangedVertices();
+				} catch (IOException e) {
+					throw new IllegalStateException("Could not read "
+							+ DELTA_EDGES, e);
+				}
+			} else {
+				changedVertices = null;
+			}
+		}
+	}
+
 	public static class Repartitioner
 			extends
 			AbstractComputation<LongWritable, VertexValue, EdgeValue, PartitionMessage, PartitionMessage> {
 		private Random rnd = new Random();
-		private String[] loadAggregatorNames;
+		private BalanceConstraint[] constraints;
+		private String[][] loadAggregatorNames;
 		private int numberOfPartitions;
 		private short repartition;
 		private double migrationProbability;
+		private boolean incremental;
+		// loads accumulated by this thread, aggregated in postSuperstep
+		private long[][] loads;
+		private final PartitionMessage message = new PartitionMessage();
 
 		@Override
 		public void compute(
@@ -479,17 +975,25 @@ public class Spinner {
 				Iterable<PartitionMessage> messages) throws IOException {
 			short partition;
 			short currentPartition = vertex.getValue().getCurrentPartition();
-			// down-scale
-			if (repartition < 0) {
+			boolean inactive = incremental && !vertex.getValue().isActive();
+			if (currentPartition == -1) {
+				// new vertex
+				partition = (short) rnd.nextInt(numberOfPartitions
+						+ repartition);
+				// down-scale
+			} else if (repartition < 0) {
 				if (currentPartition >= numberOfPartitions + repartition) {
 					partition = (short) rnd.nextInt(numberOfPartitions
 							+ repartition);
+					// the partition of the vertex has been removed
+					inactive = false;
+					vertex.getValue().setActive(true);
 				} else {
 					partition = currentPartition;
 				}
 				// up-scale
 			} else if (repartition > 0) {
-				if (rnd.nextDouble() < migrationProbability) {
+				if (!inactive && rnd.nextDouble() < migrationProbability) {
 					partition = (short) (numberOfPartitions + rnd
 							.nextInt(repartition));
 				} else {
@@ -499,13 +1003,17 @@ public class Spinner {
 				throw new RuntimeException("Repartitioner called with "
 						+ REPARTITION + " set to 0");
 			}
-			aggregate(loadAggregatorNames[partition],
-					new LongWritable(vertex.getNumEdges()));
+			for (int c = 0; c < constraints.length; c++) {
+				loads[c][partition] += constraints[c].getWeight(vertex);
+			}
 			vertex.getValue().setCurrentPartition(partition);
 			vertex.getValue().setNewPartition(partition);
-			PartitionMessage message = new PartitionMessage(vertex.getId()
-					.get(), partition);
+			message.setSourceId(vertex.getId().get());
+			message.setPartition(partition);
 			sendMessageToAllEdges(vertex, message);
+			if (inactive) {
+				vertex.voteToHalt();
+			}
 		}
 
 		@Override
@@ -514,11 +1022,27 @@ public class Spinner {
 					NUM_PARTITIONS, DEFAULT_NUM_PARTITIONS);
 			repartition = (short) getContext().getConfiguration().getInt(
 					REPARTITION, DEFAULT_REPARTITION);
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
 			migrationProbability = ((double) repartition)
 					/ (repartition + numberOfPartitions);
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
+			constraints = BalanceConstraint.fromConfiguration(getContext()
+					.getConfiguration());
+			loadAggregatorNames = BalanceConstraint.getLoadAggregatorNames(
+					constraints, numberOfPartitions + repartition);
+			loads = new long[constraints.length][numberOfPartitions
+					+ repartition];
+		}
+
+		@Override
+		public void postSuperstep() {
+			for (int c = 0; c < loads.length; c++) {
+				for (int i = 0; i < loads[c].length; i++) {
+					if (loads[c][i] != 0) {
+						aggregate(loadAggregatorNames[c][i], new LongWritable(
+								loads[c][i]));
+					}
+				}
 			}
 		}
 	}
@@ -556,13 +1080,21 @@ public class Spinner {
 	}
 
 	public static class PartitionerMasterCompute extends DefaultMasterCompute {
-		private LinkedList<Double> states;
-		private String[] loadAggregatorNames;
+		private ConvergenceWindow states;
+		private BalanceConstraint[] constraints;
+		private String[][] loadAggregatorNames;
 		private int maxIterations;
 		private int numberOfPartitions;
 		private double convergenceThreshold;
 		private short repartition;
 		private int windowSize;
+		private boolean incremental;
+		// supersteps spent activating the vertices near the graph changes
+		private int activationSteps;
+		// supersteps spent assigning the vertices to their first partition
+		private int initializationSteps;
+		private boolean streaming;
+		private boolean initializeOnly;
 
 		private long totalMigrations;
 		private double maxMinLoad;
@@ -582,19 +1114,59 @@ public class Spinner {
 					REPARTITION, DEFAULT_REPARTITION);
 			windowSize = (int) getContext().getConfiguration().getInt(
 					WINDOW_SIZE, DEFAULT_WINDOW_SIZE);
-			states = Lists.newLinkedList();
-			// Create aggregators for each partition
-			loadAggregatorNames = new String[numberOfPartitions + repartition];
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				loadAggregatorNames[i] = AGGREGATOR_LOAD_PREFIX + i;
-				registerPersistentAggregator(loadAggregatorNames[i],
-						LongSumAggregator.class);
-				registerAggregator(AGGREGATOR_DEMAND_PREFIX + i,
-						LongSumAggregator.class);
+			incremental = getContext().getConfiguration().getBoolean(
+					INCREMENTAL, DEFAULT_INCREMENTAL);
+			activationSteps = getActivationSteps(getContext()
+					.getConfiguration());
+			String initialization = getContext().getConfiguration().get(
+					INITIALIZATION, DEFAULT_INITIALIZATION);
+			streaming = repartition == 0
+					&& !initialization.equalsIgnoreCase("random");
+			initializationSteps = 1;
+			if (streaming) {
+				if (!initialization.equalsIgnoreCase("ldg")
+						&& !initialization.equalsIgnoreCase("fennel")) {
+					throw new IllegalArgumentException("Unknown "
+							+ INITIALIZATION + ": " + initialization);
+				}
+				initializationSteps = getContext().getConfiguration().getInt(
+						STREAMING_BATCHES, DEFAULT_STREAMING_BATCHES);
+			}
+			initializeOnly = getContext().getConfiguration().getBoolean(
+					INITIALIZE_ONLY, DEFAULT_INITIALIZE_ONLY);
+			// the state is checked every other superstep after the fourth, and
+			// compared with the ones since superstep 3 + windowSize
+			states = new ConvergenceWindow((windowSize - 1) / 2 + 1,
+					convergenceThreshold);
+			// Create aggregators for each partition and constraint
+			constraints = BalanceConstraint.fromConfiguration(getContext()
+					.getConfiguration());
+			if (streaming
+					&& !Arrays.asList(constraints).contains(
+							BalanceConstraint.EDGES)) {
+				throw new IllegalArgumentException(
+						"The streaming initialization needs " + BALANCE
+								+ " to include edges");
+			}
+			loadAggregatorNames = BalanceConstraint.getLoadAggregatorNames(
+					constraints, numberOfPartitions + repartition);
+			for (int c = 0; c < constraints.length; c++) {
+				for (int i = 0; i < numberOfPartitions + repartition; i++) {
+					registerPersistentAggregator(loadAggregatorNames[c][i],
+							LongSumAggregator.class);
+					registerAggregator(
+							constraints[c].getDemandAggregatorName(i),
+							LongSumAggregator.class);
+				}
 			}
 			registerAggregator(AGGREGATOR_STATE, DoubleSumAggregator.class);
 			registerAggregator(AGGREGATOR_LOCALS, LongSumAggregator.class);
+			registerAggregator(AGGREGATOR_COMM_VOLUME, LongSumAggregator.class);
 			registerAggregator(AGGREGATOR_MIGRATIONS, LongSumAggregator.class);
+			registerAggregator(AGGREGATOR_COMPUTED_VERTICES,
+					LongSumAggregator.class);
+			registerAggregator(AGGREGATOR_COMPUTED_EDGES,
+					LongSumAggregator.class);
 		}
 
 		private void printStats(int superstep) {
@@ -608,24 +1180,13 @@ public class Spinner {
 				case 0:
 					System.out.println(((double) localEdges)
 							/ getTotalNumEdges() + " local edges");
-					long minLoad = Long.MAX_VALUE;
-					long maxLoad = -Long.MAX_VALUE;
-					for (int i = 0; i < numberOfPartitions + repartition; i++) {
-						long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-								.get();
-						if (load < minLoad) {
-							minLoad = load;
-						}
-						if (load > maxLoad) {
-							maxLoad = load;
-						}
+					for (int c = 0; c < constraints.length; c++) {
+						String name = constraints[c].name().toLowerCase();
+						System.out.println(getMaxMinLoad(c)
+								+ " max-min unbalance of " + name);
+						System.out.println(getMaxNormalizedLoad(c)
+								+ " maximum normalized load of " + name);
 					}
-					double expectedLoad = ((double) getTotalNumEdges())
-							/ (numberOfPartitions + repartition);
-					System.out.println((((double) maxLoad) / minLoad)
-							+ " max-min unbalance");
-					System.out.println((((double) maxLoad) / expectedLoad)
-							+ " maximum normalized load");
 					break;
 				case 1:
 					System.out.println(migrations + " migrations");
@@ -634,22 +1195,51 @@ public class Spinner {
 			}
 		}
 
+		/*
+		 * Ratio between the largest and the smallest load of a constraint
+		 */
+		private double getMaxMinLoad(int constraint) {
+			long minLoad = Long.MAX_VALUE;
+			long maxLoad = -Long.MAX_VALUE;
+			for (int i = 0; i < numberOfPartitions + repartition; i++) {
+				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[constraint][i]))
+						.get();
+				if (load < minLoad) {
+					minLoad = load;
+				}
+				if (load > maxLoad) {
+					maxLoad = load;
+				}
+			}
+			return ((double) maxLoad) / minLoad;
+		}
+
+		/*
+		 * Ratio between the largest load of a constraint and the load of a
+		 * perfectly balanced partitioning
+		 */
+		private double getMaxNormalizedLoad(int constraint) {
+			long totalLoad = 0;
+			long maxLoad = -Long.MAX_VALUE;
+			for (int i = 0; i < numberOfPartitions + repartition; i++) {
+				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[constraint][i]))
+						.get();
+				totalLoad += load;
+				if (load > maxLoad) {
+					maxLoad = load;
+				}
+			}
+			double expectedLoad = ((double) totalLoad)
+					/ (numberOfPartitions + repartition);
+			return ((double) maxLoad) / expectedLoad;
+		}
+
 		private boolean algorithmConverged(int superstep) {
 			double newState = ((DoubleWritable) getAggregatedValue(AGGREGATOR_STATE))
 					.get();
-			boolean converged = false;
-			if (superstep > 3 + windowSize) {
-				double best = Collections.max(states);
-				double step = Math.abs(1 - newState / best);
-				converged = step < convergenceThreshold;
-				System.out.println("BestState=" + best + " NewState="
-						+ newState + " " + step);
-				states.removeFirst();
-			} else {
-				System.out.println("BestState=" + newState + " NewState="
-						+ newState + " " + 1.0);
-			}
-			states.addLast(newState);
+			boolean converged = states.update(newState);
+			System.out.println("BestState=" + states.getBest() + " NewState="
+					+ newState + " " + states.getStep());
 
 			return converged;
 		}
@@ -677,33 +1267,45 @@ public class Spinner {
 			totalMigrations += ((LongWritable) getAggregatedValue(AGGREGATOR_MIGRATIONS))
 					.get();
 
-			long minLoad = Long.MAX_VALUE;
-			long maxLoad = -Long.MAX_VALUE;
-			for (int i = 0; i < numberOfPartitions + repartition; i++) {
-				long load = ((LongWritable) getAggregatedValue(loadAggregatorNames[i]))
-						.get();
-				if (load < minLoad) {
-					minLoad = load;
-				}
-				if (load > maxLoad) {
-					maxLoad = load;
-				}
+			// report the most unbalanced constraint
+			maxMinLoad = 0;
+			maxNormLoad = 0;
+			for (int c = 0; c < constraints.length; c++) {
+				maxMinLoad = Math.max(maxMinLoad, getMaxMinLoad(c));
+				maxNormLoad = Math.max(maxNormLoad, getMaxNormalizedLoad(c));
 			}
-			maxMinLoad = ((double) maxLoad) / minLoad;
-			double expectedLoad = ((double) getTotalNumEdges())
-					/ (numberOfPartitions + repartition);
-			maxNormLoad = ((double) maxLoad) / expectedLoad;
 			score = ((DoubleWritable) getAggregatedValue(AGGREGATOR_STATE))
 					.get();
 		}
 
 		@Override
 		public void compute() {
+			// the supersteps of the activation phase are not counted, so that
+			// the partitioning phase always starts at superstep 2
 			int superstep = (int) getSuperstep();
+			if (superstep >= 2 + activationSteps) {
+				superstep -= activationSteps;
+			} else if (superstep >= 2) {
+				setComputation(ActivateNeighbors.class);
+				if (superstep == 1 + activationSteps) {
+					setOutgoingMessage(PartitionMessage.class);
+				}
+				return;
+			}
+			// the supersteps of the streaming initialization are counted as one
+			if (superstep >= 2 + initializationSteps) {
+				superstep -= initializationSteps - 1;
+			} else if (superstep >= 2 && streaming) {
+				setComputation(StreamingInitializer.class);
+				return;
+			}
 			if (superstep == 0) {
 				setComputation(ConverterPropagate.class);
 			} else if (superstep == 1) {
 				setComputation(ConverterUpdateEdges.class);
+				if (incremental) {
+					setOutgoingMessage(LongWritable.class);
+				}
 			} else if (superstep == 2) {
 				if (repartition != 0) {
 					setComputation(Repartitioner.class);
@@ -728,7 +1330,8 @@ public class Spinner {
 			}
 			printStats(superstep);
 			updateStats();
-			if (hasConverged || superstep >= maxIterations) {
+			if (hasConverged || superstep >= maxIterations
+					|| (initializeOnly && superstep == 3)) {
 				System.out.println("Halting computation: " + hasConverged);
 				haltComputation();
 				setCounters();
@@ -736,6 +1339,73 @@ public class Spinner {
 		}
 	}
 
+	/**
+	 * Resources balanced across the partitions. Each vertex contributes a
+	 * weight to the load of its partition for every constraint, and each
+	 * constraint has its own capacity and penalty term. The penalty of a
+	 * constraint is set with spinner.lambda.&lt;constraint&gt; and defaults to
+	 * spinner.lambda divided by the number of constraints.
+	 */
+	public enum BalanceConstraint {
+		/** Number of edges, the default */
+		EDGES(""),
+		/** Number of vertices */
+		VERTICES("VERTICES_"),
+		/** Custom cost of the vertices, read from the vertex input */
+		COST("COST_");
+
+		private final String aggregatorInfix;
+
+		private BalanceConstraint(String aggregatorInfix) {
+			this.aggregatorInfix = aggregatorInfix;
+		}
+
+		public long getWeight(Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+			switch (this) {
+			case EDGES:
+				return vertex.getNumEdges();
+			case VERTICES:
+				return 1;
+			default:
+				return vertex.getValue().getCost();
+			}
+		}
+
+		public String getLoadAggregatorName(int partition) {
+			return AGGREGATOR_LOAD_PREFIX + aggregatorInfix + partition;
+		}
+
+		public String getDemandAggregatorName(int partition) {
+			return AGGREGATOR_DEMAND_PREFIX + aggregatorInfix + partition;
+		}
+
+		public double getLambda(Configuration conf, int numberOfConstraints) {
+			return conf.getFloat(LAMBDA + "." + name().toLowerCase(),
+					conf.getFloat(LAMBDA, DEFAULT_LAMBDA)
+							/ numberOfConstraints);
+		}
+
+		public static BalanceConstraint[] fromConfiguration(Configuration conf) {
+			String[] names = conf.getStrings(BALANCE, DEFAULT_BALANCE);
+			BalanceConstraint[] constraints = new BalanceConstraint[names.length];
+			for (int c = 0; c < names.length; c++) {
+				constraints[c] = valueOf(names[c].trim().toUpperCase());
+			}
+			return constraints;
+		}
+
+		public static String[][] getLoadAggregatorNames(
+				BalanceConstraint[] constraints, int numberOfPartitions) {
+			String[][] names = new String[constraints.length][numberOfPartitions];
+			for (int c = 0; c < constraints.length; c++) {
+				for (int i = 0; i < numberOfPartitions; i++) {
+					names[c][i] = constraints[c].getLoadAggregatorName(i);
+				}
+			}
+			return names;
+		}
+	}
+
 	public static class EdgeValue implements Writable {
 		private short partition = -1;
 		private byte weight = 1;
@@ -799,8 +1469,14 @@ public class Spinner {
 	}
 
 	public static class VertexValue implements Writable {
+		/** Flag of the serialized value for an active vertex */
+		private static final byte ACTIVE = 1;
+		/** Flag of the serialized value followed by a cost other than 1 */
+		private static final byte HAS_COST = 2;
 		private short currentPartition = -1;
 		private short newPartition = -1;
+		private boolean active;
+		private long cost = 1;
 
 		public VertexValue() {
 		}
@@ -821,16 +1497,54 @@ public class Spinner {
 			newPartition = p;
 		}
 
+		/**
+		 * @return whether the vertex is repartitioned in incremental mode
+		 */
+		public boolean isActive() {
+			return active;
+		}
+
+		public void setActive(boolean active) {
+			this.active = active;
+		}
+
+		/**
+		 * @return the custom cost of the vertex, balanced by the cost
+		 *         constraint
+		 */
+		public long getCost() {
+			return cost;
+		}
+
+		public void setCost(long cost) {
+			this.cost = cost;
+		}
+
 		@Override
 		public void readFields(DataInput in) throws IOException {
 			currentPartition = in.readShort();
 			newPartition = in.readShort();
+			byte flags = in.readByte();
+			active = (flags & ACTIVE) != 0;
+			cost = (flags & HAS_COST) != 0 ? WritableUtils.readVLong(in) : 1;
 		}
 
 		@Override
 		public void write(DataOutput out) throws IOException {
 			out.writeShort(currentPartition);
 			out.writeShort(newPartition);
+			// the default flag and cost only take a byte
+			byte flags = 0;
+			if (active) {
+				flags |= ACTIVE;
+			}
+			if (cost != 1) {
+				flags |= HAS_COST;
+			}
+			out.writeByte(flags);
+			if (cost != 1) {
+				WritableUtils.writeVLong(out, cost);
+			}
 		}
 
 		@Override
@@ -843,7 +1557,8 @@ public class Spinner {
 			}
 			VertexValue that = (VertexValue) o;
 			if (currentPartition != that.currentPartition
-					|| newPartition != that.newPartition) {
+					|| newPartition != that.newPartition
+					|| active != that.active || cost != that.cost) {
 				return false;
 			}
 			return true;
@@ -948,6 +1663,9 @@ public class Spinner {
 					value.setCurrentPartition(partition);
 					value.setNewPartition(partition);
 				}
+				if (data.length > 2) {
+					value.setCost(Long.parseLong(data[2]));
+				}
 				return value;
 			}
 		}
@@ -956,7 +1674,7 @@ public class Spinner {
 	public static class SpinnerEdgeInputFormat extends
 			TextEdgeInputFormat<LongWritable, EdgeValue> {
 		/** Splitter for endpoints */
-		private static final Pattern SEPARATOR = Pattern.compile("[\001\t ]");
+		static final Pattern SEPARATOR = Pattern.compile("[\001\t ]");
 
 		@Override
 		public EdgeReader<LongWritable, EdgeValue> createEdgeReader(
@@ -1029,4 +1747,189 @@ public class Spinner {
 			}
 		}
 	}
+
+	/**
+	 * Writes the partitioning as a binary {@link PartitionMap}, which
+	 * {@link PartitionMapPartitionerFactory} loads to place the vertices of a
+	 * later job on the same partitions, with plain {@link LongWritable} ids
+	 * and without parsing text. Each writer keeps the ids and partitions of its
+	 * vertices in primitive arrays and writes them sorted to its own file when
+	 * it is closed. {@link PartitionMap#open} merges the files into a single
+	 * sorted one.
+	 */
+	public static class SpinnerPartitionMapOutputFormat extends
+			VertexOutputFormat<LongWritable, VertexValue, EdgeValue> {
+		/** Counts the writers of this task, to give each one its own file */
+		private static final AtomicInteger WRITERS = new AtomicInteger();
+
+		@Override
+		public VertexWriter<LongWritable, VertexValue, EdgeValue> createVertexWriter(
+				TaskAttemptContext context) {
+			return new PartitionMapWriter();
+		}
+
+		@Override
+		public void checkOutputSpecs(JobContext context) throws IOException {
+			if (FileOutputFormat.getOutputPath(context) == null) {
+				throw new IOException("Output directory not set");
+			}
+		}
+
+		@Override
+		public FileOutputCommitter getOutputCommitter(TaskAttemptContext context)
+				throws IOException {
+			return new FileOutputCommitter(
+					FileOutputFormat.getOutputPath(context), context);
+		}
+
+		private class PartitionMapWriter extends
+				VertexWriter<LongWritable, VertexValue, EdgeValue> {
+			private LongArrayList ids;
+			private ShortArrayList partitions;
+
+			@Override
+			public void initialize(TaskAttemptContext context) {
+				ids = new LongArrayList();
+				partitions = new ShortArrayList();
+			}
+
+			@Override
+			public void writeVertex(
+					Vertex<LongWritable, VertexValue, EdgeValue> vertex) {
+				ids.add(vertex.getId().get());
+				partitions.add(vertex.getValue().getCurrentPartition());
+			}
+
+			@Override
+			public void close(TaskAttemptContext context) throws IOException {
+				Path file = new Path(getOutputCommitter(context).getWorkPath(),
+						FileOutputFormat.getUniqueFile(context, "partitionmap",
+								"-" + WRITERS.getAndIncrement()));
+				DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(file.getFileSystem(
+								context.getConfiguration()).create(file, false)));
+				try {
+					PartitionMap.write(out, ids.elements(),
+							partitions.elements(), ids.size());
+				} finally {
+					out.close();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the quality of the partitioning after every superstep, one line
+	 * per superstep with tab-separated name=value pairs:
+	 * <ul>
+	 * <li>edge_cut: number of edges between partitions, every undirected edge
+	 * counted once. Not written in incremental mode, where the inactive
+	 * vertices do not count their edges</li>
+	 * <li>cut_endpoints: only in incremental mode, instead of edge_cut, the
+	 * number of edges between partitions counted at each of their active
+	 * endpoints, so an edge between two active vertices is counted twice and
+	 * an edge between an active and an inactive vertex once</li>
+	 * <li>local_edges: fraction of the edges within partitions, over the
+	 * edges of the active vertices in incremental mode</li>
+	 * <li>comm_volume: communication volume, the number of partitions other
+	 * than its own each vertex has neighbors in, summed over the vertices</li>
+	 * <li>replication_factor: average number of replicas per vertex in a
+	 * vertex-cut engine, where each edge is placed with its source and a vertex
+	 * is replicated in every partition holding one of its edges</li>
+	 * <li>migrations and total_migrations: vertices migrated in the superstep
+	 * and since the beginning</li>
+	 * <li>score: score of the partitioning</li>
+	 * <li>load_&lt;constraint&gt;: comma-separated loads of the partitions for
+	 * every balance constraint</li>
+	 * </ul>
+	 * The cut is measured when new partitions are computed, and the latest
+	 * values are repeated in the other supersteps. The file and the frequency are set as
+	 * for {@link TextAggregatorWriter}.
+	 */
+	public static class SpinnerMetricsWriter extends TextAggregatorWriter {
+		/** Edge cut, or cut endpoints in incremental mode */
+		private long edgeCut;
+		private double localEdges;
+		private long communicationVolume;
+		private double replicationFactor;
+		private long migrations;
+		private long totalMigrations;
+		private double score;
+
+		private long getLong(Map<String, Writable> values, String name) {
+			Writable value = values.get(name);
+			return value == null ? 0 : ((LongWritable) value).get();
+		}
+
+		/*
+		 * Update the metrics with the statistics of the superstep
+		 */
+		private void update(Map<String, Writable> values) {
+			long computedVertices = getLong(values,
+					AGGREGATOR_COMPUTED_VERTICES);
+			if (computedVertices > 0) {
+				long computedEdges = getLong(values, AGGREGATOR_COMPUTED_EDGES);
+				long locals = getLong(values, AGGREGATOR_LOCALS);
+				edgeCut = computedEdges - locals;
+				if (!getConf().getBoolean(INCREMENTAL, DEFAULT_INCREMENTAL)) {
+					// every edge is seen from both endpoints
+					edgeCut /= 2;
+				}
+				localEdges = computedEdges == 0 ? 1 : ((double) locals)
+						/ computedEdges;
+				communicationVolume = getLong(values, AGGREGATOR_COMM_VOLUME);
+				replicationFactor = ((double) computedVertices + communicationVolume)
+						/ computedVertices;
+				score = ((DoubleWritable) values.get(AGGREGATOR_STATE)).get();
+			}
+			migrations = getLong(values, AGGREGATOR_MIGRATIONS);
+			totalMigrations += migrations;
+		}
+
+		@Override
+		public void writeAggregator(
+				Iterable<Entry<String, Writable>> aggregatorMap, long superstep)
+				throws IOException {
+			Map<String, Writable> values = Maps.newHashMap();
+			for (Entry<String, Writable> entry : aggregatorMap) {
+				values.put(entry.getKey(), entry.getValue());
+			}
+			if (superstep != LAST_SUPERSTEP) {
+				update(values);
+			}
+			if (!shouldWrite(superstep)) {
+				return;
+			}
+			StringBuilder line = new StringBuilder("superstep=")
+					.append(superstep)
+					.append(getConf().getBoolean(INCREMENTAL,
+							DEFAULT_INCREMENTAL) ? "\tcut_endpoints="
+							: "\tedge_cut=").append(edgeCut)
+					.append("\tlocal_edges=").append(localEdges)
+					.append("\tcomm_volume=").append(communicationVolume)
+					.append("\treplication_factor=").append(replicationFactor)
+					.append("\tmigrations=").append(migrations)
+					.append("\ttotal_migrations=").append(totalMigrations)
+					.append("\tscore=").append(score);
+			int numberOfPartitions = getConf().getInt(NUM_PARTITIONS,
+					DEFAULT_NUM_PARTITIONS)
+					+ getConf().getInt(REPARTITION, DEFAULT_REPARTITION);
+			for (BalanceConstraint constraint : BalanceConstraint
+					.fromConfiguration(getConf())) {
+				line.append("\tload_")
+						.append(constraint.name().toLowerCase()).append('=');
+				for (int i = 0; i < numberOfPartitions; i++) {
+					if (i > 0) {
+						line.append(',');
+					}
+					line.append(getLong(values,
+							constraint.getLoadAggregatorName(i)));
+				}
+			}
+			line.append('\n');
+			byte[] bytes = line.toString().getBytes(Charsets.UTF_8);
+			output.write(bytes, 0, bytes.length);
+			output.flush();
+		}
+	}
 }
@@ -0,0 +1,165 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.utils;
+
+import java.util.Arrays;
+
+import ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.graph.Vertex;
+import org.apache.hadoop.io.LongWritable;
+import org.apache.hadoop.io.Writable;
+
+/**
+ * Helper methods for intersecting sorted arrays of vertex ids.
+ *
+ * Two arrays of similar length are intersected with a linear merge. When one
+ * is much longer than the other, every element of the short array is looked
+ * up in the long one with a galloping (exponential) search instead, so the
+ * cost is O(m log(n/m)) rather than O(m + n).
+ */
+public class SortedLongArrays {
+
+  /**
+   * Ratio between the lengths of the two arrays above which the galloping
+   * search is used instead of the merge.
+   */
+  public static final int GALLOP_RATIO = 16;
+
+  /**
+   * Counts the elements the two sorted arrays have in common.
+   *
+   * @param a First sorted array
+   * @param aLength Number of valid elements in a
+   * @param b Second sorted array
+   * @param bLength Number of valid elements in b
+   * @return Size of the intersection
+   */
+  public static int intersectionSize(long[] a, int aLength, long[] b,
+      int bLength) {
+    return intersect(a, aLength, b, bLength, null);
+  }
+
+  /**
+   * Intersects two sorted arrays without duplicates. If bPositions is not
+   * null, the positions in b of the common elements are stored in it, in
+   * ascending order.
+   *
+   * @param a First sorted array
+   * @param aLength Number of valid elements in a
+   * @param b Second sorted array
+   * @param bLength Number of valid elements in b
+   * @param bPositions Receives the positions in b of the common elements,
+   *        must hold at least min(aLength, bLength) elements; may be null
+   * @return Size of the intersection
+   */
+  public static int intersect(long[] a, int aLength, long[] b, int bLength,
+      int[] bPositions) {
+    if (aLength == 0 || bLength == 0) {
+      return 0;
+    }
+    if (bLength / aLength >= GALLOP_RATIO) {
+      return gallop(a, aLength, b, bLength, bPositions, false);
+    }
+    if (aLength / bLength >= GALLOP_RATIO) {
+      return gallop(b, bLength, a, aLength, bPositions, true);
+    }
+    int count = 0;
+    int i = 0, j = 0;
+    while (i < aLength && j < bLength) {
+      if (a[i] < b[j]) {
+        i++;
+      } else if (a[i] > b[j]) {
+        j++;
+      } else {
+        if (bPositions != null) {
+          bPositions[count] = j;
+        }
+        count++;
+        i++;
+        j++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Looks up every element of the short array in the long one.
+   *
+   * @param small Short sorted array
+   * @param smallLength Number of valid elements in small
+   * @param large Long sorted array
+   * @param largeLength Number of valid elements in large
+   * @param positions Receives positions of the common elements, may be null
+   * @param positionsInSmall Whether the positions refer to the short array
+   *        rather than to the long one
+   * @return Size of the intersection
+   */
+  private static int gallop(long[] small, int smallLength, long[] large,
+      int largeLength, int[] positions, boolean positionsInSmall) {
+    int count = 0;
+    int low = 0;
+    for (int i = 0; i < smallLength && low < largeLength; i++) {
+      long key = small[i];
+      // Double the step until we overshoot the key, then binary search.
+      int step = 1;
+      int high = low;
+      while (high < largeLength && large[high] < key) {
+        low = high + 1;
+        high = low + step;
+        step <<= 1;
+      }
+      int pos = Arrays.binarySearch(large, low, Math.min(high + 1,
+          largeLength), key);
+      if (pos >= 0) {
+        if (positions != null) {
+          positions[count] = positionsInSmall ? i : pos;
+        }
+        count++;
+        low = pos + 1;
+      } else {
+        low = -pos - 1;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Returns the target ids of the edges of a vertex, sorted in ascending
+   * order. Only the first {@link Vertex#getNumEdges()} elements are valid. If
+   * the vertex stores its edges in {@link SortedLongDoubleArrayEdges}, the
+   * internal array is returned and must not be modified; otherwise the ids
+   * are copied into a new array and sorted.
+   *
+   * @param vertex The vertex
+   * @return Sorted target ids
+   */
+  public static long[] sortedTargetIds(
+      Vertex<LongWritable, ?, ? extends Writable> vertex) {
+    Object edges = vertex.getEdges();
+    if (edges instanceof SortedLongDoubleArrayEdges) {
+      return ((SortedLongDoubleArrayEdges) edges).getSortedTargetIds();
+    }
+    long[] ids = new long[vertex.getNumEdges()];
+    int i = 0;
+    for (Edge<LongWritable, ? extends Writable> e : vertex.getEdges()) {
+      ids[i++] = e.getTargetVertexId().get();
+    }
+    Arrays.sort(ids);
+    return ids;
+  }
+}
@@ -0,0 +1,32 @@
+package ml.grafos.okapi.clustering.kmeans;
+
+import static org.junit.Assert.*;
+import ml.grafos.okapi.common.data.DoubleArrayWritable;
+
+import org.junit.Test;
+
+public class TestDoubleArraySumAggregator {
+	private static double E = 0.0001f;
+	
+	@Test
+	public void test() {
+		DoubleArraySumAggregator aggr = new DoubleArraySumAggregator();
+		double[] other = { 1.0, 2.0 };
+		aggr.aggregate(new DoubleArrayWritable(other));
+		assertEquals(1.0, aggr.getAggregatedValue().get()[0], E);
+		assertEquals(2.0, aggr.getAggregatedValue().get()[1], E);
+		aggr.aggregate(new DoubleArrayWritable(other));
+		assertEquals(2.0, aggr.getAggregatedValue().get()[0], E);
+		assertEquals(4.0, aggr.getAggregatedValue().get()[1], E);
+		// the aggregated array is not modified
+		assertEquals(1.0, other[0], E);
+	}
+
+	@Test(expected = IndexOutOfBoundsException.class)
+	public void testDifferentSize() {
+		DoubleArraySumAggregator aggr = new DoubleArraySumAggregator();
+		aggr.aggregate(new DoubleArrayWritable(new double[] { 1.0, 2.0 }));
+		aggr.aggregate(new DoubleArrayWritable(new double[] { 1.0 }));
+	}
+
+}
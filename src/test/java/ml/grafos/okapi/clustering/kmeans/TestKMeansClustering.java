@@ -3,6 +3,7 @@ package ml.grafos.okapi.clustering.kmeans;
 import static org.junit.Assert.*;
 
 import java.io.IOException;
+import java.util.Random;
 import java.util.Set;
 
 import ml.grafos.okapi.clustering.kmeans.ArrayListOfDoubleArrayListWritableAggregator;
@@ -14,14 +15,11 @@ import ml.grafos.okapi.common.data.ArrayListOfDoubleArrayListWritable;
 import ml.grafos.okapi.common.data.DoubleArrayListWritable;
 import ml.grafos.okapi.common.graph.NullOutEdges;
 
-import org.apache.giraph.aggregators.IntSumAggregator;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.graph.BasicComputation;
 import org.apache.giraph.graph.Vertex;
-import org.apache.giraph.master.DefaultMasterCompute;
 import org.apache.giraph.utils.InternalVertexRunner;
 import org.apache.hadoop.io.DoubleWritable;
-import org.apache.hadoop.io.IntWritable;
 import org.apache.hadoop.io.LongWritable;
 import org.apache.hadoop.io.NullWritable;
 import org.junit.Test;
@@ -464,124 +462,135 @@ public class TestKMeansClustering {
         }
     }
     
+    /**
+     * Three well-separated groups of 20 points each, around
+     * (0, 0), (100, 0) and (0, 100). Point i is in group i / 20.
+     */
+    private String[] separatedGroups() {
+    	Random random = new Random(42);
+    	double[][] centers = { {0, 0}, {100, 0}, {0, 100} };
+    	String[] graph = new String[60];
+    	for ( int i = 0; i < graph.length; i++ ) {
+    		double[] center = centers[i / 20];
+    		graph[i] = i + "," + (center[0] + random.nextDouble() * 4 - 2) + "\t" 
+    				+ (center[1] + random.nextDouble() * 4 - 2);
+    	}
+    	return graph;
+    }
+
+    private GiraphConfiguration createConfiguration() {
+        GiraphConfiguration conf = new GiraphConfiguration();
+        conf.setMasterComputeClass(KMeansClustering.KMeansMasterCompute.class);
+        conf.setComputationClass(KMeansClusteringComputation.class);
+        conf.setVertexInputFormatClass(KMeansTextInputFormat.class);
+        conf.setOutEdgesClass(NullOutEdges.class);
+        conf.setVertexOutputFormatClass(KMeansTextOutputFormat.class);
+        conf.setInt(KMeansClustering.CLUSTER_CENTERS_COUNT, 3);
+        conf.setInt(KMeansClustering.DIMENSIONS, 2);
+        conf.setInt(KMeansClustering.POINTS_COUNT, 60);
+        conf.set(KMeansClustering.INITIALIZATION, "kmeans||");
+        return conf;
+    }
+
+    private void assertSeparatedGroups(Iterable<String> results) {
+        SetMultimap<Integer,Integer> clusters = parseResults(results);
+        assertEquals(3, clusters.keySet().size());
+        for ( int cluster : clusters.keySet() ) {
+        	Set<Integer> points = clusters.get(cluster);
+        	assertEquals(20, points.size());
+        	int group = points.iterator().next() / 20;
+        	for ( int point : points ) {
+        		assertEquals(group, point / 20);
+        	}
+        }
+    }
+
+    @Test
+    public void testParallelSeeding() throws Exception {
+        GiraphConfiguration conf = createConfiguration();
+        conf.setInt(KMeansClustering.SEEDING_ROUNDS, 3);
+        assertSeparatedGroups(InternalVertexRunner.run(conf, separatedGroups()));
+    }
+
+    @Test
+    public void testMiniBatch() throws Exception {
+        GiraphConfiguration conf = createConfiguration();
+        conf.setFloat(KMeansClustering.MINI_BATCH_FRACTION, 0.5f);
+        // the centers keep moving slightly with every mini-batch
+        conf.setInt(KMeansClustering.MAX_ITERATIONS, 20);
+        assertSeparatedGroups(InternalVertexRunner.run(conf, separatedGroups()));
+    }
+
+    @Test
+    public void testChangedAssignments() throws Exception {
+        GiraphConfiguration conf = createConfiguration();
+        // halt only when no point changes cluster
+        conf.setFloat(KMeansClustering.MOVEMENT_THRESHOLD, -1);
+        conf.setInt(KMeansClustering.MAX_ITERATIONS, 50);
+        assertSeparatedGroups(InternalVertexRunner.run(conf, separatedGroups()));
+    }
+
+    @Test
+    public void testAcceleratedAssignment() throws Exception {
+        GiraphConfiguration conf = createConfiguration();
+        conf.setBoolean(KMeansClustering.ACCELERATED, true);
+        assertSeparatedGroups(InternalVertexRunner.run(conf, separatedGroups()));
+    }
+
+    /**
+     * The bounds only skip distance computations, so the accelerated
+     * assignment must give the same clusters from the same initial centers.
+     */
+    @Test
+    public void testAcceleratedSameClusters() throws Exception {
+    	Random random = new Random(7);
+    	String[] graph = new String[200];
+    	for ( int i = 0; i < graph.length; i++ ) {
+    		graph[i] = i + "," + random.nextDouble() * 100 + "\t" + random.nextDouble() * 100;
+    	}
+        initial_centers.clear();
+        for ( int i = 0; i < 5; i++ ) {
+        	DoubleArrayListWritable center = new DoubleArrayListWritable();
+        	center.add(new DoubleWritable(random.nextDouble() * 100));
+        	center.add(new DoubleWritable(random.nextDouble() * 100));
+        	initial_centers.add(center);
+        }
+
+        GiraphConfiguration conf = createConfiguration();
+        conf.setMasterComputeClass(KMeansTestMasterCompute.class);
+        conf.set(KMeansClustering.INITIALIZATION, KMeansClustering.INITIALIZATION_DEFAULT);
+        conf.setInt(KMeansClustering.CLUSTER_CENTERS_COUNT, 5);
+        conf.setInt(KMeansClustering.POINTS_COUNT, 200);
+        conf.setInt(KMeansClustering.MAX_ITERATIONS, 15);
+        SetMultimap<Integer,Integer> expected = parseResults(
+        		InternalVertexRunner.run(conf, graph));
+        conf.setBoolean(KMeansClustering.ACCELERATED, true);
+        SetMultimap<Integer,Integer> clusters = parseResults(
+        		InternalVertexRunner.run(conf, graph));
+        assertEquals(expected, clusters);
+    }
+    
     /** 
      * 
      * Special Master implementation only used for testing.
-     * It is basically a copy of the KMeansMasterCompute class
-     * that uses hard-code initial centroids, instead of 
+     * It uses hard-coded initial centroids, instead of 
      * using the random initialization. 
      *
      */
-    public static class KMeansTestMasterCompute extends DefaultMasterCompute {
-  	  private int maxIterations;
-  	  private DoubleArrayListWritable[] currentClusterCenters;
-  	  private int clustersCount;
-  	  private int dimensions;
-  	    
-      @Override
-      public final void initialize() throws InstantiationException,
-          IllegalAccessException {
-      	maxIterations = getContext().getConfiguration().getInt(KMeansClustering.MAX_ITERATIONS, 
-      			KMeansClustering.ITERATIONS_DEFAULT);
-      	clustersCount = getContext().getConfiguration().getInt(KMeansClustering.CLUSTER_CENTERS_COUNT, 
-      			KMeansClustering.CLUSTER_CENTERS_COUNT_DEFAULT);
-      	dimensions = getContext().getConfiguration().getInt(KMeansClustering.DIMENSIONS, 0);
-      	currentClusterCenters = new DoubleArrayListWritable[clustersCount];
-      	// register initial centers aggregator
-      	registerAggregator(KMeansClustering.INITIAL_CENTERS, ArrayListOfDoubleArrayListWritableAggregator.class);
-      	// register aggregators, one per center for the coordinates and
-      	// one per center for counts of assigned elements
-      	for ( int i = 0; i < clustersCount; i++ ) {
-      		registerAggregator(KMeansClustering.CENTER_AGGR_PREFIX + "C_" + i, DoubleArrayListWritableAggregator.class);
-      		registerAggregator(KMeansClustering.ASSIGNED_POINTS_PREFIX + "C_" + i, IntSumAggregator.class);
-      	}
-      }
-      
-      @Override
-      public final void compute() {
-  	    long superstep = getSuperstep();
-
-  	    if ( superstep == 0 ) {
-  	      	setComputation(NoOpComputation.class);
-  	    }
-  	    else {
-  	    	setComputation(KMeansClusteringComputation.class);
-
-		    if ( superstep == 1 ) {
-		    	// initialize the centers aggregators
-		    	ArrayListOfDoubleArrayListWritable initialCenters = initial_centers;
-		    	for ( int i = 0; i < clustersCount; i++ ) {
-		    		setAggregatedValue(KMeansClustering.CENTER_AGGR_PREFIX + "C_" + i, initialCenters.get(i));
-		    		currentClusterCenters[i] = initialCenters.get(i);
-		    	}
-		    }
-		    else {
-			    // compute the new centers positions
-		    	DoubleArrayListWritable[] newClusters = computeClusterCenters();		
-			     //check for convergence
-			    if ( (superstep > maxIterations) || (clusterPositionsDiff(currentClusterCenters, newClusters)) ) {
-			    	
-			    	// if enabled, print the final centers coordinates
-			    	if ( getContext().getConfiguration().getBoolean(KMeansClustering.PRINT_FINAL_CENTERS, 
-			    			KMeansClustering.PRINT_FINAL_CENTERS_DEFAULT) ) {
-			    		printFinalCentersCoordinates();
-			    	}
-			    	
-			  	  	haltComputation();
-			    }
-			    else {
-			  	  	// update the aggregators with the new cluster centers
-			  	  	for ( int i = 0; i < clustersCount; i ++ ) {
-			  	  		setAggregatedValue(KMeansClustering.CENTER_AGGR_PREFIX + "C_" + i, newClusters[i]);
-			  	  	}
-			  	  	currentClusterCenters = newClusters;
-			    } 
-		    }
-  	    }
-      }
-      
-      private DoubleArrayListWritable[] computeClusterCenters() {
-  		DoubleArrayListWritable[] newClusterCenters = new DoubleArrayListWritable[clustersCount];
-  		DoubleArrayListWritable clusterCoordinates;
-  		IntWritable assignedPoints;
-  		for ( int i = 0; i < clustersCount; i++ ) {
-  			clusterCoordinates = getAggregatedValue(KMeansClustering.CENTER_AGGR_PREFIX + "C_" + i);
-  			assignedPoints = getAggregatedValue(KMeansClustering.ASSIGNED_POINTS_PREFIX + "C_" + i);
-  			for ( int j = 0; j < clusterCoordinates.size(); j++ ) {
-  				clusterCoordinates.set(j, new DoubleWritable(
-  						clusterCoordinates.get(j).get() / assignedPoints.get()));
-  			}
-  			newClusterCenters[i] = clusterCoordinates;
-  		}
-  		return newClusterCenters;
-  	}
-
-	  	private boolean clusterPositionsDiff(
-	  			DoubleArrayListWritable[] currentClusterCenters,
-	  			DoubleArrayListWritable[] newClusters) {
-	  		final double E = 0.001f;
-	  		double diff = 0;
-	  		for ( int i = 0; i < clustersCount; i ++ ) {
-	  			for ( int j = 0; j < dimensions; j ++ ) {
-	  				diff += Math.abs(currentClusterCenters[i].get(j).get() - newClusters[i].get(j).get());
-	  			}
-	  		}
-	  		if ( diff > E )
-	  			return false;
-	  		else
-	  			return true;
-	  	}
-  	
-	  	private void printFinalCentersCoordinates() {
-	  		System.out.println("Centers Coordinates: ");
-	      	for (int i = 0; i < clustersCount; i ++ ) {
-	      		System.out.print("cluster id " + i + ": ");
-	      		for ( int j = 0; j < currentClusterCenters[i].size(); j ++ ) {
-	      			System.out.print(currentClusterCenters[i].get(j) + " ");
-	      		}
-	      		System.out.println();
-	      	}		
-	  	}
+    public static class KMeansTestMasterCompute extends KMeansClustering.KMeansMasterCompute {
+    	
+    	@Override
+    	protected double[][] getInitialCenters() {
+    		double[][] centers = new double[initial_centers.size()][];
+    		for ( int i = 0; i < centers.length; i++ ) {
+    			DoubleArrayListWritable center = initial_centers.get(i);
+    			centers[i] = new double[center.size()];
+    			for ( int j = 0; j < center.size(); j++ ) {
+    				centers[i][j] = center.get(j).get();
+    			}
+    		}
+    		return centers;
+    	}
     }
     
     public static class NoOpComputation extends BasicComputation<
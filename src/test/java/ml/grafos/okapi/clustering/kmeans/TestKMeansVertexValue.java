@@ -2,10 +2,8 @@ package ml.grafos.okapi.clustering.kmeans;
 
 import static org.junit.Assert.*;
 import ml.grafos.okapi.clustering.kmeans.KMeansVertexValue;
-import ml.grafos.okapi.common.data.DoubleArrayListWritable;
 
 import org.apache.giraph.utils.WritableUtils;
-import org.apache.hadoop.io.DoubleWritable;
 import org.apache.hadoop.io.IntWritable;
 import org.junit.Test;
 
@@ -14,14 +12,13 @@ public class TestKMeansVertexValue {
 
 	@Test
 	public void testSerialize() {
-		DoubleArrayListWritable coordinates = new DoubleArrayListWritable();
+		double[] coordinates = { 1.0, 2.0, 3.0 };
 		IntWritable clusterId = new IntWritable(5);
-		coordinates.add(new DoubleWritable(1.0));
-		coordinates.add(new DoubleWritable(2.0));
-		coordinates.add(new DoubleWritable(3.0));
 		
 		// Serialize from
 		KMeansVertexValue from = new KMeansVertexValue(coordinates, clusterId);
+		from.setUpperBound(1.5);
+		from.setLowerBound(2.5);
 		byte[] data = WritableUtils.writeToByteArray(from, from);
 		
 		// De-serialize to
@@ -31,17 +28,42 @@ public class TestKMeansVertexValue {
 		WritableUtils.readFieldsFromByteArray(data, to1, to2);
 		
 		// all coordinates should be equal
-		assertEquals(from.getPointCoordinates().get(0).get(), to1.getPointCoordinates().get(0).get(), E);
-		assertEquals(from.getPointCoordinates().get(1).get(), to1.getPointCoordinates().get(1).get(), E);
-		assertEquals(from.getPointCoordinates().get(2).get(), to1.getPointCoordinates().get(2).get(), E);
+		assertEquals(from.getPointCoordinates()[0], to1.getPointCoordinates()[0], E);
+		assertEquals(from.getPointCoordinates()[1], to1.getPointCoordinates()[1], E);
+		assertEquals(from.getPointCoordinates()[2], to1.getPointCoordinates()[2], E);
 		
-		assertEquals(from.getPointCoordinates().get(0).get(), to2.getPointCoordinates().get(0).get(), E);
-		assertEquals(from.getPointCoordinates().get(1).get(), to2.getPointCoordinates().get(1).get(), E);
-		assertEquals(from.getPointCoordinates().get(2).get(), to2.getPointCoordinates().get(2).get(), E);
+		assertEquals(from.getPointCoordinates()[0], to2.getPointCoordinates()[0], E);
+		assertEquals(from.getPointCoordinates()[1], to2.getPointCoordinates()[1], E);
+		assertEquals(from.getPointCoordinates()[2], to2.getPointCoordinates()[2], E);
 		
 		// cluster ids should be equal
 		assertEquals(from.getClusterId().get(), to1.getClusterId().get());
 		assertEquals(from.getClusterId().get(), to1.getClusterId().get());
+		
+		// bounds should be equal
+		assertEquals(from.getUpperBound(), to1.getUpperBound(), E);
+		assertEquals(from.getLowerBound(), to2.getLowerBound(), E);
+	}
+
+	@Test
+	public void testSerializeUnsetFields() {
+		double[] coordinates = { 1.0, 2.0 };
+		KMeansVertexValue from = new KMeansVertexValue(coordinates, new IntWritable(1));
+		
+		// length, coordinates, cluster id and flags
+		byte[] data = WritableUtils.writeToByteArray(from);
+		assertEquals(4 + 16 + 4 + 1, data.length);
+		
+		// the unset fields are reset when an instance is reused
+		KMeansVertexValue to = new KMeansVertexValue();
+		to.setDistance(3.0);
+		to.setUpperBound(1.5);
+		to.setLowerBound(2.5);
+		WritableUtils.readFieldsFromByteArray(data, to);
+		assertEquals(0, to.getDistance(), E);
+		assertEquals(0, to.getUpperBound(), E);
+		assertEquals(0, to.getLowerBound(), E);
+		assertEquals(1, to.getClusterId().get());
 	}
 
 }
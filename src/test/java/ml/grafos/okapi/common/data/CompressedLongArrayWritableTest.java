@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+public class CompressedLongArrayWritableTest {
+
+  private byte[] write(LongArrayWritable list) throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    list.write(new DataOutputStream(baos));
+    return baos.toByteArray();
+  }
+
+  private void read(byte[] data, LongArrayWritable list) throws IOException {
+    list.readFields(new DataInputStream(new ByteArrayInputStream(data)));
+  }
+
+  @Test
+  public void testReadWrite() throws IOException {
+    long[] ids = {Long.MIN_VALUE, -5, 0, 0, 127, 128, 1L << 40,
+        Long.MAX_VALUE};
+    CompressedLongArrayWritable list =
+        new CompressedLongArrayWritable(ids, ids.length);
+
+    CompressedLongArrayWritable copy = new CompressedLongArrayWritable();
+    read(write(list), copy);
+    assertEquals(ids.length, copy.size());
+    assertArrayEquals(ids, Arrays.copyOf(copy.getArray(), copy.size()));
+
+    // Reading a shorter list reuses the array.
+    long[] array = copy.getArray();
+    read(write(new CompressedLongArrayWritable(new long[] {3, 4}, 2)), copy);
+    assertEquals(2, copy.size());
+    assertTrue(array == copy.getArray());
+    assertEquals(4, copy.get(1));
+  }
+
+  @Test
+  public void testCompression() throws IOException {
+    long[] ids = new long[1000];
+    for (int i = 0; i < ids.length; i++) {
+      ids[i] = 1000000000L + 3 * i;
+    }
+    int compressed = write(new CompressedLongArrayWritable(ids,
+        ids.length)).length;
+    int plain = write(new LongArrayWritable(ids, ids.length)).length;
+    assertTrue(compressed * 5 < plain);
+  }
+
+  @Test(expected = IllegalStateException.class)
+  public void testUnsorted() throws IOException {
+    write(new CompressedLongArrayWritable(new long[] {2, 1}, 2));
+  }
+}
@@ -0,0 +1,81 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.data;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class MessageWrapperTest {
+
+  public static class LongIdFriendsList extends MessageWrapper<LongWritable,
+    LongArrayListWritable> {
+
+    @Override
+    public Class<LongWritable> getVertexIdClass() {
+      return LongWritable.class;
+    }
+
+    @Override
+    public Class<LongArrayListWritable> getMessageClass() {
+      return LongArrayListWritable.class;
+    }
+  }
+
+  private LongIdFriendsList create(long source, long... friends) {
+    LongArrayListWritable list = new LongArrayListWritable();
+    for (long friend : friends) {
+      list.add(new LongWritable(friend));
+    }
+    LongIdFriendsList msg = new LongIdFriendsList();
+    msg.setSourceId(new LongWritable(source));
+    msg.setMessage(list);
+    return msg;
+  }
+
+  @Test
+  public void testReadFieldsReusesFields() throws IOException {
+    ByteArrayOutputStream baos = new ByteArrayOutputStream();
+    DataOutputStream out = new DataOutputStream(baos);
+    create(1, 2, 3, 4).write(out);
+    create(5, 6).write(out);
+    DataInputStream in = new DataInputStream(
+        new ByteArrayInputStream(baos.toByteArray()));
+
+    LongIdFriendsList msg = new LongIdFriendsList();
+    msg.readFields(in);
+    assertEquals(1, msg.getSourceId().get());
+    assertEquals(3, msg.getMessage().size());
+    assertEquals(4, msg.getMessage().get(2).get());
+
+    LongWritable sourceId = msg.getSourceId();
+    LongArrayListWritable friends = msg.getMessage();
+    msg.readFields(in);
+    assertSame(sourceId, msg.getSourceId());
+    assertSame(friends, msg.getMessage());
+    assertEquals(5, msg.getSourceId().get());
+    assertEquals(1, msg.getMessage().size());
+    assertEquals(6, msg.getMessage().get(0).get());
+  }
+}
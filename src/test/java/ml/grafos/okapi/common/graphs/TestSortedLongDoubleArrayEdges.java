@@ -0,0 +1,133 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.common.graphs;
+
+import static org.apache.giraph.graph.TestVertexAndEdges.instantiateOutEdges;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+import ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges;
+import ml.grafos.okapi.utils.SortedLongArrays;
+
+import org.apache.giraph.edge.Edge;
+import org.apache.giraph.edge.EdgeFactory;
+import org.apache.giraph.edge.MutableEdge;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.hadoop.io.DoubleWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+import com.google.common.collect.Lists;
+
+public class TestSortedLongDoubleArrayEdges {
+
+  private static final double E = 0.0001;
+
+  private SortedLongDoubleArrayEdges createEdges() {
+    SortedLongDoubleArrayEdges edges = (SortedLongDoubleArrayEdges)
+        instantiateOutEdges(SortedLongDoubleArrayEdges.class);
+    List<Edge<LongWritable, DoubleWritable>> initialEdges = Lists.newArrayList(
+        EdgeFactory.create(new LongWritable(7), new DoubleWritable(7)),
+        EdgeFactory.create(new LongWritable(2), new DoubleWritable(2)),
+        EdgeFactory.create(new LongWritable(9), new DoubleWritable(9)),
+        EdgeFactory.create(new LongWritable(2), new DoubleWritable(20)),
+        EdgeFactory.create(new LongWritable(4), new DoubleWritable(4)));
+    edges.initialize(initialEdges);
+    return edges;
+  }
+
+  @Test
+  public void testSortOrderAndParallelEdges() {
+    SortedLongDoubleArrayEdges edges = createEdges();
+
+    // The parallel edge keeps the value added last.
+    assertEquals(4, edges.size());
+    assertArrayEquals(new long[] {2, 4, 7, 9},
+        Arrays.copyOf(edges.getSortedTargetIds(), edges.size()));
+    assertEquals(20, edges.getEdgeValue(new LongWritable(2)).get(), E);
+
+    edges.add(EdgeFactory.create(new LongWritable(3), new DoubleWritable(3)));
+    assertEquals(5, edges.size());
+    assertEquals(1, edges.indexOf(3));
+  }
+
+  @Test
+  public void testGetSetRemove() {
+    SortedLongDoubleArrayEdges edges = createEdges();
+
+    edges.setEdgeValue(new LongWritable(7), new DoubleWritable(70));
+    assertEquals(70, edges.getEdgeValue(new LongWritable(7)).get(), E);
+    assertNull(edges.getEdgeValue(new LongWritable(5)));
+
+    edges.remove(new LongWritable(4));
+    assertEquals(3, edges.size());
+    assertNull(edges.getEdgeValue(new LongWritable(4)));
+
+    Iterator<MutableEdge<LongWritable, DoubleWritable>> it =
+        edges.mutableIterator();
+    it.next().setValue(new DoubleWritable(-1));
+    it.next();
+    it.remove();
+    assertEquals(-1, edges.getEdgeValue(new LongWritable(2)).get(), E);
+    assertNull(edges.getEdgeValue(new LongWritable(7)));
+    assertEquals(9, it.next().getTargetVertexId().get());
+    assertEquals(2, edges.size());
+  }
+
+  @Test
+  public void testSerialize() {
+    SortedLongDoubleArrayEdges edges = createEdges();
+    byte[] data = WritableUtils.writeToByteArray(edges);
+
+    SortedLongDoubleArrayEdges to = (SortedLongDoubleArrayEdges)
+        instantiateOutEdges(SortedLongDoubleArrayEdges.class);
+    WritableUtils.readFieldsFromByteArray(data, to);
+
+    assertEquals(edges.size(), to.size());
+    for (int i = 0; i < edges.size(); i++) {
+      assertEquals(edges.getSortedTargetIds()[i], to.getSortedTargetIds()[i]);
+      assertEquals(edges.getValueAt(i), to.getValueAt(i), E);
+    }
+  }
+
+  @Test
+  public void testIntersection() {
+    long[] a = {1, 3, 5, 7, 9};
+    long[] b = {2, 3, 4, 5, 6, 9, 11};
+    int[] positions = new int[5];
+    assertEquals(3, SortedLongArrays.intersect(a, 5, b, 7, positions));
+    assertArrayEquals(new int[] {1, 3, 5}, Arrays.copyOf(positions, 3));
+
+    // Large difference in length switches to the galloping search.
+    long[] large = new long[1000];
+    for (int i = 0; i < large.length; i++) {
+      large[i] = 2 * i;
+    }
+    long[] small = {0, 5, 100, 1001, 1998, 5000};
+    assertEquals(3, SortedLongArrays.intersect(small, 6, large, 1000,
+        positions));
+    assertArrayEquals(new int[] {0, 50, 999}, Arrays.copyOf(positions, 3));
+    assertEquals(3, SortedLongArrays.intersect(large, 1000, small, 6,
+        positions));
+    assertArrayEquals(new int[] {0, 2, 4}, Arrays.copyOf(positions, 3));
+    assertEquals(0, SortedLongArrays.intersectionSize(small, 0, large, 1000));
+  }
+}
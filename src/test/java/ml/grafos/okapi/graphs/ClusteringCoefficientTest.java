@@ -21,6 +21,7 @@ import java.util.LinkedList;
 import java.util.List;
 
 import junit.framework.Assert;
+import ml.grafos.okapi.common.computation.HubAwareFriends;
 import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
 
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -68,4 +69,42 @@ public class ClusteringCoefficientTest {
     Assert.assertEquals(5, res.size());
   }
 
+  @Test
+  public void testHubAware() throws Exception {
+    String[] graph = { 
+        "1 2",
+        "2 1",
+        "1 3",
+        "3 1",
+        "2 3",
+        "3 2",
+        "3 4",
+        "4 3",
+        "3 5",
+        "5 3",
+        "4 5",
+        "5 4"
+    };
+
+    // With threshold 2 only vertex 3 is a hub, with 0 all vertices are.
+    for (int threshold : new int[] {0, 2}) {
+      GiraphConfiguration conf = new GiraphConfiguration();
+      conf.setComputationClass(
+          ClusteringCoefficient.HubAwareSendFriendsList.class);
+      conf.setMasterComputeClass(ClusteringCoefficient.MasterCompute.class);
+      conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+      conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+      conf.setInt(HubAwareFriends.HUB_DEGREE_THRESHOLD, threshold);
+
+      int vertices = 0;
+      for (String string : InternalVertexRunner.run(conf, null, graph)) {
+        String[] output = string.split("\\s+");
+        double expected = Long.parseLong(output[0]) == 3 ? 1.0/3.0 : 1.0;
+        assertEquals(expected, Double.parseDouble(output[1]), 1e-6);
+        vertices++;
+      }
+      assertEquals(5, vertices);
+    }
+  }
+
 }
@@ -0,0 +1,102 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import ml.grafos.okapi.graphs.DeltaPageRank.RankValue;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.conf.GiraphConstants;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.giraph.utils.TestGraph;
+import org.apache.hadoop.io.FloatWritable;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class DeltaPageRankTest {
+
+  @Test
+  public void testAgainstPowerIteration() throws Exception {
+    // Vertex 5 is dangling
+    int[][] edges = { {1, 2}, {1, 3}, {2, 3}, {3, 1}, {4, 3}, {4, 5},
+        {2, 5} };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(DeltaPageRank.DeltaPageRankComputation.class);
+    conf.setMasterComputeClass(DeltaPageRank.MasterCompute.class);
+    conf.setFloat(DeltaPageRank.TOLERANCE, 1e-8f);
+    conf.setInt(DeltaPageRank.MAX_SUPERSTEPS, 500);
+    GiraphConstants.USE_SUPERSTEP_COUNTERS.set(conf, false);
+
+    // Dangling vertices must be part of the input, so the graph is built in
+    // memory instead of being read from an edge list.
+    TestGraph<LongWritable, RankValue, FloatWritable> graph =
+        new TestGraph<LongWritable, RankValue, FloatWritable>(conf);
+    for (long v = 1; v <= 5; v++) {
+      graph.addVertex(new LongWritable(v), new RankValue());
+    }
+    for (int[] edge : edges) {
+      graph.addEdge(new LongWritable(edge[0]), new LongWritable(edge[1]),
+          new FloatWritable(1));
+    }
+
+    TestGraph<LongWritable, RankValue, FloatWritable> result =
+        InternalVertexRunner.runWithInMemoryOutput(conf, graph);
+
+    double[] expected = powerIteration(5, edges, 0.85);
+    double sum = 0;
+    for (long v = 1; v <= 5; v++) {
+      double rank = result.getVertex(new LongWritable(v)).getValue().getRank();
+      assertEquals(expected[(int) v - 1], rank, 1e-6);
+      sum += rank;
+    }
+    assertEquals(1.0, sum, 1e-6);
+  }
+
+  /**
+   * Reference PageRank with uniform redistribution of the dangling rank.
+   */
+  private static double[] powerIteration(int n, int[][] edges,
+      double damping) {
+    int[] degree = new int[n];
+    for (int[] edge : edges) {
+      degree[edge[0] - 1]++;
+    }
+    double[] rank = new double[n];
+    for (int v = 0; v < n; v++) {
+      rank[v] = 1.0 / n;
+    }
+    for (int iteration = 0; iteration < 200; iteration++) {
+      double dangling = 0;
+      for (int v = 0; v < n; v++) {
+        if (degree[v] == 0) {
+          dangling += rank[v];
+        }
+      }
+      double[] next = new double[n];
+      for (int v = 0; v < n; v++) {
+        next[v] = (1 - damping) / n + damping * dangling / n;
+      }
+      for (int[] edge : edges) {
+        int source = edge[0] - 1;
+        next[edge[1] - 1] += damping * rank[source] / degree[source];
+      }
+      rank = next;
+    }
+    return rank;
+  }
+}
@@ -0,0 +1,59 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class KCoreTest {
+
+  @Test
+  public void testCoreDecomposition() throws Exception {
+    // A 4-clique (1-4), vertex 5 attached to 1 and 2, vertex 6 attached to 5
+    String[] graph = {
+        "1 2", "2 1", "1 3", "3 1", "1 4", "4 1",
+        "2 3", "3 2", "2 4", "4 2", "3 4", "4 3",
+        "5 1", "1 5", "5 2", "2 5", "6 5", "5 6"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(KCore.CoreDecompositionComputation.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+
+    Map<Long, Integer> cores = new HashMap<Long, Integer>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("[\t ]");
+      cores.put(Long.parseLong(tokens[0]), Integer.parseInt(tokens[1]));
+    }
+
+    assertEquals(6, cores.size());
+    for (long v = 1; v <= 4; v++) {
+      assertEquals(3, (int) cores.get(v));
+    }
+    assertEquals(2, (int) cores.get(5L));
+    assertEquals(1, (int) cores.get(6L));
+  }
+}
@@ -0,0 +1,79 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.common.Parameters;
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class PersonalizedPageRankTest {
+
+  @Test
+  public void testWalksStayInComponent() throws Exception {
+    String[] graph = {
+        "1 2", "2 1", "2 3", "3 2", "3 1", "1 3",
+        "4 5", "5 4"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(
+        PersonalizedPageRank.PersonalizedPageRankComputation.class);
+    conf.setMasterComputeClass(PersonalizedPageRank.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.set(PersonalizedPageRank.SOURCES_LIST, "1:4");
+    conf.setInt(PersonalizedPageRank.WALKS, 200);
+    Parameters.RANDOM_SEED.set(conf, 17);
+
+    Map<Long, Map<Long, Integer>> results = new HashMap<Long,
+        Map<Long, Integer>>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("[\t ]");
+      Map<Long, Integer> visits = new HashMap<Long, Integer>();
+      for (int i = 1; i < tokens.length; i++) {
+        String[] pair = tokens[i].split(":");
+        visits.put(Long.parseLong(pair[0]), Integer.parseInt(pair[1]));
+      }
+      results.put(Long.parseLong(tokens[0]), visits);
+    }
+
+    assertEquals(5, results.size());
+    // The walks of a seed never leave its component
+    for (long v = 1; v <= 3; v++) {
+      assertTrue(results.get(v).containsKey(1L));
+      assertTrue(!results.get(v).containsKey(4L));
+    }
+    for (long v = 4; v <= 5; v++) {
+      assertTrue(results.get(v).containsKey(4L));
+      assertTrue(!results.get(v).containsKey(1L));
+    }
+    // Every walk visits its seed at least once
+    assertTrue(results.get(1L).get(1L) >= 200);
+    assertTrue(results.get(4L).get(4L) >= 200);
+    // The seed is the most visited vertex of its own walks
+    assertTrue(results.get(1L).get(1L) > results.get(2L).get(1L));
+  }
+}
@@ -17,6 +17,7 @@ package ml.grafos.okapi.graphs;
 
 import static org.junit.Assert.*;
 
+import java.util.Arrays;
 import java.util.LinkedList;
 import java.util.List;
 
@@ -71,4 +72,50 @@ public class SemiClusteringTest {
     Assert.assertEquals(5, res.size());
   }
 
+  @Test
+  public void testClustersContainVertex() throws Exception {
+    String[] graph = {
+        "1 2 1.0",
+        "2 1 1.0",
+        "1 3 1.0",
+        "3 1 1.0",
+        "2 3 2.0",
+        "3 2 2.0",
+        "3 4 2.0",
+        "4 3 2.0",
+        "3 5 1.0",
+        "5 3 1.0",
+        "4 5 1.0",
+        "5 4 1.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SemiClustering.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setInt(SemiClustering.ITERATIONS, 10);
+    conf.setInt(SemiClustering.MAX_CLUSTERS, 2);
+    conf.setInt(SemiClustering.CLUSTER_CAPACITY, 3);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
+
+    for (String line : results) {
+      String[] tokens = line.split("\t");
+      String id = tokens[0];
+      String[] clusters = tokens[1].split("\\]");
+      int numClusters = 0;
+      for (String cluster : clusters) {
+        if (cluster.trim().isEmpty()) {
+          continue;
+        }
+        numClusters++;
+        String members = cluster.substring(cluster.indexOf('[') + 1,
+            cluster.indexOf('|')).trim();
+        String[] ids = members.split(" +");
+        assertTrue(ids.length <= 3);
+        assertTrue(line, Arrays.asList(ids).contains(id));
+      }
+      assertTrue(numClusters >= 1 && numClusters <= 2);
+    }
+  }
+
 }
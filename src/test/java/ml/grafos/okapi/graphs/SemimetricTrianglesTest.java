@@ -17,8 +17,12 @@ package ml.grafos.okapi.graphs;
 
 import static org.junit.Assert.*;
 
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Random;
+import java.util.Set;
 
 import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
 import org.apache.giraph.conf.GiraphConfiguration;
@@ -85,4 +89,48 @@ public class SemimetricTrianglesTest {
       }
     }
   }
+
+  @Test
+  public void testPrunedSemimetricRemoval() throws Exception {
+    // Random graph with integer weights, to get many semi-metric edges
+    Random random = new Random(7);
+    List<String> edges = new ArrayList<String>();
+    for (int u = 1; u <= 30; u++) {
+      for (int v = u + 1; v <= 30; v++) {
+        if (random.nextInt(3) == 0) {
+          int weight = 1 + random.nextInt(10);
+          edges.add(u + " " + v + " " + weight + ".0");
+          edges.add(v + " " + u + " " + weight + ".0");
+        }
+      }
+    }
+    String[] graph = edges.toArray(new String[edges.size()]);
+
+    Set<String> expected = runSemimetric(graph, false);
+    Set<String> pruned = runSemimetric(graph, true);
+    assertTrue(expected.size() < edges.size());
+    assertEquals(expected, pruned);
+  }
+
+  private Set<String> runSemimetric(String[] graph, boolean pruning)
+      throws Exception {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SemimetricTriangles.PropagateId.class);
+    conf.setMasterComputeClass(
+        SemimetricTriangles.SemimetricMasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(HashMapEdges.class);
+    conf.setBoolean(SemimetricTriangles.PRUNING_ENABLED, pruning);
+
+    Set<String> remaining = new HashSet<String>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] output = line.split("[\t ]");
+      // The vertex id and value come first, then the edges
+      for (int i = 2; i < output.length; i += 2) {
+        remaining.add(output[0] + " " + output[i]);
+      }
+    }
+    return remaining;
+  }
 }
\ No newline at end of file
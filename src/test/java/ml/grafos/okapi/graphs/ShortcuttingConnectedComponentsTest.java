@@ -0,0 +1,88 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class ShortcuttingConnectedComponentsTest {
+
+  @Test
+  public void testComponents() throws Exception {
+    List<String> graph = new ArrayList<String>();
+    // A chain with the smallest id in the middle: 20-19-...-11-1-2-...-10
+    for (int i = 20; i > 11; i--) {
+      addEdge(graph, i, i - 1);
+    }
+    addEdge(graph, 11, 1);
+    for (int i = 1; i < 10; i++) {
+      addEdge(graph, i, i + 1);
+    }
+    // A second component with a cycle
+    addEdge(graph, 33, 31);
+    addEdge(graph, 31, 32);
+    addEdge(graph, 32, 30);
+    addEdge(graph, 30, 33);
+    // A third component with a single edge
+    addEdge(graph, 41, 40);
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(ShortcuttingConnectedComponents.Initialize.class);
+    conf.setMasterComputeClass(
+        ShortcuttingConnectedComponents.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+
+    Iterable<String> results = InternalVertexRunner.run(conf, null,
+        graph.toArray(new String[0]));
+
+    Map<Long, Long> components = parseResults(results);
+    assertEquals(26, components.size());
+    for (long id = 1; id <= 20; id++) {
+      assertEquals(1L, (long) components.get(id));
+    }
+    for (long id = 30; id <= 33; id++) {
+      assertEquals(30L, (long) components.get(id));
+    }
+    assertEquals(40L, (long) components.get(40L));
+    assertEquals(40L, (long) components.get(41L));
+  }
+
+  private static void addEdge(List<String> graph, long source, long target) {
+    graph.add(source + " " + target);
+    graph.add(target + " " + source);
+  }
+
+  private static Map<Long, Long> parseResults(Iterable<String> results) {
+    Map<Long, Long> values = new HashMap<Long, Long>();
+    for (String line : results) {
+      String[] tokens = line.split("[\t ]");
+      values.put(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]));
+    }
+    return values;
+  }
+}
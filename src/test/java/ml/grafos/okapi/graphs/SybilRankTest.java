@@ -0,0 +1,89 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class SybilRankTest {
+
+  /**
+   * Two triangles connected by a single light edge. Vertex 1 is trusted.
+   */
+  private static final String[] GRAPH = {
+    "1 2 1.0", "2 1 1.0", "2 3 1.0", "3 2 1.0", "3 1 1.0", "1 3 1.0",
+    "4 5 1.0", "5 4 1.0", "5 6 1.0", "6 5 1.0", "6 4 1.0", "4 6 1.0",
+    "3 4 0.1", "4 3 0.1"
+  };
+
+  private static final String[] TRUSTED = { "1" };
+
+  @Test
+  public void testHonestRegionRanksHigher() throws Exception {
+    GiraphConfiguration conf = getConf();
+    conf.setInt(SybilRank.ITERATION_MULTIPLIER, 3);
+    Map<Long, Double> ranks = run(conf);
+    assertEquals(6, ranks.size());
+    for (long honest = 1; honest <= 3; honest++) {
+      for (long sybil = 4; sybil <= 6; sybil++) {
+        assertTrue(ranks.get(honest) > ranks.get(sybil));
+      }
+    }
+  }
+
+  @Test
+  public void testEarlyTermination() throws Exception {
+    GiraphConfiguration conf = getConf();
+    conf.setInt(SybilRank.ITERATION_MULTIPLIER, 20);
+    Map<Long, Double> full = run(conf);
+    conf.setFloat(SybilRank.CONVERGENCE_THRESHOLD, 1e-3f);
+    Map<Long, Double> early = run(conf);
+    for (long v = 1; v <= 6; v++) {
+      assertEquals(full.get(v), early.get(v), 1e-2);
+    }
+  }
+
+  private static GiraphConfiguration getConf() {
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(SybilRank.TrustAggregation.class);
+    conf.setMasterComputeClass(SybilRank.SybilRankMasterCompute.class);
+    conf.setVertexInputFormatClass(
+        SybilRank.SybilRankVertexValueInputFormat.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    return conf;
+  }
+
+  private static Map<Long, Double> run(GiraphConfiguration conf)
+      throws Exception {
+    Map<Long, Double> ranks = new HashMap<Long, Double>();
+    for (String line : InternalVertexRunner.run(conf, TRUSTED, GRAPH)) {
+      String[] tokens = line.split("[\t ]");
+      ranks.put(Long.parseLong(tokens[0]), Double.parseDouble(tokens[1]));
+    }
+    return ranks;
+  }
+}
@@ -3,6 +3,7 @@ package ml.grafos.okapi.graphs.maxbmatching;
 import static org.junit.Assert.*;
 
 import java.util.Map;
+import java.util.Random;
 
 import ml.grafos.okapi.graphs.maxbmatching.MBMEdgeValue.State;
 
@@ -62,6 +63,57 @@ public class MaxBMatchingTest {
         assertEquals(3.0, subgraph.get(2L, 0).get(1L).getWeight(), Double.MIN_VALUE); // edge weight to 1 is 3.0
     }
 
+    @Test
+    public void testGreedyOnRandomGraph() throws Exception {
+        // random graph with integer weights, so that ties are frequent
+        final int numVertices = 40;
+        Random random = new Random(42);
+        int[] capacity = new int[numVertices];
+        double[][] weight = new double[numVertices][numVertices];
+        for (int u = 0; u < numVertices; u++) {
+            capacity[u] = random.nextInt(4);
+            for (int v = u + 1; v < numVertices; v++)
+                if (random.nextInt(4) == 0)
+                    weight[u][v] = weight[v][u] = 1 + random.nextInt(5);
+        }
+        String[] graph = new String[numVertices];
+        for (int u = 0; u < numVertices; u++) {
+            StringBuilder sb = new StringBuilder().append(u).append('\t').append(capacity[u]);
+            for (int v = 0; v < numVertices; v++)
+                if (weight[u][v] > 0)
+                    sb.append('\t').append(v).append('\t').append(weight[u][v]);
+            graph[u] = sb.toString();
+        }
+
+        // sequential greedy, edges by decreasing weight and then by endpoint ids
+        boolean[][] expected = new boolean[numVertices][numVertices];
+        int[] remaining = capacity.clone();
+        for (int w = 5; w >= 1; w--)
+            for (int u = 0; u < numVertices; u++)
+                for (int v = u + 1; v < numVertices; v++)
+                    if (weight[u][v] == w && remaining[u] > 0 && remaining[v] > 0) {
+                        expected[u][v] = expected[v][u] = true;
+                        remaining[u]--;
+                        remaining[v]--;
+                    }
+
+        GiraphConfiguration conf = new GiraphConfiguration();
+        conf.setComputationClass(MaxBMatching.class);
+        conf.setMasterComputeClass(MaxBMatching.MasterCompute.class);
+        conf.setOutEdgesClass(HashMapEdges.class);
+        conf.setVertexInputFormatClass(MBMTextInputFormat.class);
+        conf.setVertexOutputFormatClass(MBMTextOutputFormat.class);
+        Table<Long, Integer, Map<Long, MBMEdgeValue>> subgraph = parseResults(InternalVertexRunner.run(conf, graph), conf);
+
+        assertEquals(numVertices, subgraph.size());
+        for (int u = 0; u < numVertices; u++) {
+            assertEquals(remaining[u], subgraph.row((long) u).keySet().iterator().next().intValue());
+            Map<Long, MBMEdgeValue> edges = subgraph.get((long) u, remaining[u]);
+            for (int v = 0; v < numVertices; v++)
+                assertEquals("Edge " + u + "-" + v, expected[u][v], edges.containsKey((long) v));
+        }
+    }
+
     private Table<Long, Integer, Map<Long, MBMEdgeValue>> parseResults(Iterable<String> results, GiraphConfiguration conf) {
         Table<Long, Integer, Map<Long, MBMEdgeValue>> graph = HashBasedTable.create();
         for (String result : results) {
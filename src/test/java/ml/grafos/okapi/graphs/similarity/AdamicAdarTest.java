@@ -20,6 +20,8 @@ import static org.junit.Assert.*;
 import java.util.LinkedList;
 import java.util.List;
 
+import ml.grafos.okapi.common.computation.HubAwareFriends;
+import ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges;
 import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.edge.HashMapEdges;
@@ -164,4 +166,112 @@ public class AdamicAdarTest {
     }
   }
 
-}
\ No newline at end of file
+  @Test
+  public void testSortedSimilarity() {
+    String[] graph = { 
+        "1 2 0.0",
+        "2 1 0.0",
+        "1 3 0.0",
+        "3 1 0.0",
+        "1 4 0.0",
+        "4 1 0.0",
+        "2 4 0.0",
+        "4 2 0.0",
+        "2 5 0.0",
+        "5 2 0.0",
+        "3 4 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 4 0.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(AdamicAdar.ComputeLogOfInverseDegree.class);
+    conf.setMasterComputeClass(AdamicAdar.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(SortedLongDoubleArrayEdges.class);
+    conf.setBoolean(AdamicAdar.ADAMICADAR_SORTED, true);
+
+    Iterable<String> results;
+    try {
+      results = InternalVertexRunner.run(conf, null, graph);
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Exception occurred");
+      return;
+    }
+    for (String string : results) {
+      String[] output = string.split("[\t ]");
+      if (Integer.parseInt(output[0]) == 1) {
+        assertEquals(-1.098612, Double.parseDouble(output[1]), delta);
+        assertEquals(2, Integer.parseInt(output[2]));
+        assertEquals(-1.386294, Double.parseDouble(output[3]), delta);
+        assertEquals(-1.386294, Double.parseDouble(output[5]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[7]), delta);
+      }
+      if (Integer.parseInt(output[0]) == 3) {
+        assertEquals(-0.693147, Double.parseDouble(output[1]), delta);
+        assertEquals(-1.386294, Double.parseDouble(output[3]), delta);
+        assertEquals(-1.098612, Double.parseDouble(output[5]), delta);
+      }
+      if (Integer.parseInt(output[0]) == 4) {
+        assertEquals(-1.386294, Double.parseDouble(output[1]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[3]), delta);
+        assertEquals(-1.791759, Double.parseDouble(output[5]), delta);
+        assertEquals(-1.098612, Double.parseDouble(output[7]), delta);
+        assertEquals(-1.098612, Double.parseDouble(output[9]), delta);
+      }
+    }
+  }
+
+  @Test
+  public void testHubAwareSimilarity() throws Exception {
+    String[] graph = { 
+        "1 2 0.0",
+        "2 1 0.0",
+        "1 3 0.0",
+        "3 1 0.0",
+        "1 4 0.0",
+        "4 1 0.0",
+        "2 4 0.0",
+        "4 2 0.0",
+        "2 5 0.0",
+        "5 2 0.0",
+        "3 4 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 4 0.0"
+    };
+
+    // Vertex 4 is the only hub with threshold 3, all vertices are with 0.
+    for (int threshold : new int[] {0, 3}) {
+      GiraphConfiguration conf = new GiraphConfiguration();
+      conf.setComputationClass(AdamicAdar.ComputeLogOfInverseDegree.class);
+      conf.setMasterComputeClass(AdamicAdar.MasterCompute.class);
+      conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+      conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+      conf.setOutEdgesClass(SortedLongDoubleArrayEdges.class);
+      conf.setInt(HubAwareFriends.HUB_DEGREE_THRESHOLD, threshold);
+
+      for (String string : InternalVertexRunner.run(conf, null, graph)) {
+        String[] output = string.split("[\t ]");
+        if (Integer.parseInt(output[0]) == 1) {
+          assertEquals(-1.386294, Double.parseDouble(output[3]), delta);
+          assertEquals(-1.386294, Double.parseDouble(output[5]), delta);
+          assertEquals(-1.791759, Double.parseDouble(output[7]), delta);
+        }
+        if (Integer.parseInt(output[0]) == 3) {
+          assertEquals(-1.386294, Double.parseDouble(output[3]), delta);
+          assertEquals(-1.098612, Double.parseDouble(output[5]), delta);
+        }
+        if (Integer.parseInt(output[0]) == 4) {
+          assertEquals(-1.791759, Double.parseDouble(output[3]), delta);
+          assertEquals(-1.791759, Double.parseDouble(output[5]), delta);
+          assertEquals(-1.098612, Double.parseDouble(output[7]), delta);
+          assertEquals(-1.098612, Double.parseDouble(output[9]), delta);
+        }
+      }
+    }
+  }
+}
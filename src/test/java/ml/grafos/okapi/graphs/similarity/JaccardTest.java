@@ -20,6 +20,8 @@ import static org.junit.Assert.*;
 import java.util.LinkedList;
 import java.util.List;
 
+import ml.grafos.okapi.common.computation.HubAwareFriends;
+import ml.grafos.okapi.common.graph.SortedLongDoubleArrayEdges;
 import ml.grafos.okapi.io.formats.LongDoubleTextEdgeInputFormat;
 import org.apache.giraph.conf.GiraphConfiguration;
 import org.apache.giraph.edge.HashMapEdges;
@@ -164,4 +166,212 @@ public class JaccardTest {
       }
     }
   }
-}
\ No newline at end of file
+
+  @Test
+  public void testSortedSimilarity() {
+    String[] graph = { 
+        "1 2 0.0",
+        "1 3 0.0",
+        "1 4 0.0",
+        "2 1 0.0",
+        "2 4 0.0",
+        "2 5 0.0",
+        "3 1 0.0",
+        "3 4 0.0",
+        "4 1 0.0",
+        "4 2 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 2 0.0",
+        "5 4 0.0",
+        "5 6 0.0",
+        "6 5 0.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Jaccard.SendSortedFriendsList.class);
+    conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(SortedLongDoubleArrayEdges.class);
+    conf.setBoolean(Jaccard.JACCARD_SORTED, true);
+
+    Iterable<String> results;
+    try {
+      results = InternalVertexRunner.run(conf, null, graph);
+    } catch (Exception e) {
+      e.printStackTrace();
+      fail("Exception occurred");
+      return;
+    }
+    for (String string : results) {
+      String[] output = string.split("[\t ]");
+      if (Integer.parseInt(output[0]) == 1) {
+        assertEquals(2, Integer.parseInt(output[2]));
+        assertEquals(0.2, Double.parseDouble(output[3]), delta);
+        assertEquals(0.25, Double.parseDouble(output[5]), delta);
+        assertEquals(0.4, Double.parseDouble(output[7]), delta);
+      }
+      if (Integer.parseInt(output[0]) == 4) {
+        assertEquals(0.4, Double.parseDouble(output[3]), delta);
+        assertEquals(0.4, Double.parseDouble(output[5]), delta);
+        assertEquals(0.2, Double.parseDouble(output[7]), delta);
+        assertEquals(0.1666, Double.parseDouble(output[9]), delta);
+      }
+      if (Integer.parseInt(output[0]) == 5) {
+        assertEquals(0.2, Double.parseDouble(output[3]), delta);
+        assertEquals(0.1666, Double.parseDouble(output[5]), delta);
+        assertEquals(0, Double.parseDouble(output[7]), delta);
+      }
+    }
+  }
+
+  @Test
+  public void testHubAwareSimilarity() throws Exception {
+    String[] graph = { 
+        "1 2 0.0",
+        "1 3 0.0",
+        "1 4 0.0",
+        "2 1 0.0",
+        "2 4 0.0",
+        "2 5 0.0",
+        "3 1 0.0",
+        "3 4 0.0",
+        "4 1 0.0",
+        "4 2 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 2 0.0",
+        "5 4 0.0",
+        "5 6 0.0",
+        "6 5 0.0"
+    };
+
+    // Vertex 4 is the only hub with threshold 3, all vertices are with 0.
+    for (int threshold : new int[] {0, 3}) {
+      GiraphConfiguration conf = new GiraphConfiguration();
+      conf.setComputationClass(Jaccard.SendFriendsListOrHub.class);
+      conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+      conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+      conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+      conf.setOutEdgesClass(HashMapEdges.class);
+      conf.setInt(HubAwareFriends.HUB_DEGREE_THRESHOLD, threshold);
+
+      for (String string : InternalVertexRunner.run(conf, null, graph)) {
+        String[] output = string.split("[\t ]");
+        if (Integer.parseInt(output[0]) == 1) {
+          assertEquals(0.2, Double.parseDouble(output[3]), delta);
+          assertEquals(0.25, Double.parseDouble(output[5]), delta);
+          assertEquals(0.4, Double.parseDouble(output[7]), delta);
+        }
+        if (Integer.parseInt(output[0]) == 4) {
+          assertEquals(0.4, Double.parseDouble(output[3]), delta);
+          assertEquals(0.4, Double.parseDouble(output[5]), delta);
+          assertEquals(0.2, Double.parseDouble(output[7]), delta);
+          assertEquals(0.1666, Double.parseDouble(output[9]), delta);
+        }
+        if (Integer.parseInt(output[0]) == 5) {
+          assertEquals(0.2, Double.parseDouble(output[3]), delta);
+          assertEquals(0.1666, Double.parseDouble(output[5]), delta);
+          assertEquals(0, Double.parseDouble(output[7]), delta);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void testMinHashSimilarity() throws Exception {
+    String[] graph = { 
+        "1 2 0.0",
+        "1 3 0.0",
+        "1 4 0.0",
+        "2 1 0.0",
+        "2 4 0.0",
+        "2 5 0.0",
+        "3 1 0.0",
+        "3 4 0.0",
+        "4 1 0.0",
+        "4 2 0.0",
+        "4 3 0.0",
+        "4 5 0.0",
+        "5 2 0.0",
+        "5 4 0.0",
+        "5 6 0.0",
+        "6 5 0.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Jaccard.SendFriendsMinHash.class);
+    conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(HashMapEdges.class);
+    conf.setBoolean(Jaccard.JACCARD_APPROXIMATION, true);
+    conf.set(Jaccard.JACCARD_APPROXIMATION_METHOD,
+        Jaccard.APPROXIMATION_MINHASH);
+    conf.setInt(Jaccard.MINHASH_FUNCTIONS, 1024);
+    conf.setInt(Jaccard.MINHASH_BITS, 8);
+
+    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
+    for (String string : results) {
+      String[] output = string.split("[\t ]");
+      if (Integer.parseInt(output[0]) == 4) {
+        // With 1024 functions the standard error is below 0.02
+        assertEquals(0.4, Double.parseDouble(output[3]), 0.1);
+        assertEquals(0.4, Double.parseDouble(output[5]), 0.1);
+        assertEquals(0.2, Double.parseDouble(output[7]), 0.1);
+        assertEquals(0.1666, Double.parseDouble(output[9]), 0.1);
+      }
+      if (Integer.parseInt(output[0]) == 5) {
+        assertEquals(0, Double.parseDouble(output[7]), 0.1);
+      }
+    }
+  }
+
+  @Test
+  public void testMinHashDirectedSink() throws Exception {
+    // vertex 2 is only the target of an edge
+    String[] graph = { 
+        "1 2 0.0",
+        "1 3 0.0",
+        "3 1 0.0"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(Jaccard.SendFriendsMinHash.class);
+    conf.setMasterComputeClass(Jaccard.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongDoubleTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(AdjacencyListTextVertexOutputFormat.class);
+    conf.setOutEdgesClass(HashMapEdges.class);
+    conf.setBoolean(Jaccard.JACCARD_APPROXIMATION, true);
+    conf.set(Jaccard.JACCARD_APPROXIMATION_METHOD,
+        Jaccard.APPROXIMATION_MINHASH);
+    conf.setInt(Jaccard.MINHASH_FUNCTIONS, 1024);
+    conf.setInt(Jaccard.MINHASH_BITS, 8);
+
+    Iterable<String> results = InternalVertexRunner.run(conf, null, graph);
+    int vertices = 0;
+    for (String string : results) {
+      vertices++;
+      String[] output = string.split("[\t ]");
+      // the neighborhoods are disjoint
+      for (int i = 3; i < output.length; i += 2) {
+        assertEquals(0.0, Double.parseDouble(output[i]), 0.1);
+      }
+    }
+    assertEquals(3, vertices);
+  }
+
+  @Test
+  public void testMinHashSignature() {
+    long[] minima = { 5L, -1L, 1234567890123L, 0L, 77L };
+    Jaccard.LongIdMinHash full = new Jaccard.LongIdMinHash(1, minima, 64);
+    Jaccard.LongIdMinHash bBit = new Jaccard.LongIdMinHash(1, minima, 4);
+    for (int i = 0; i < minima.length; i++) {
+      assertEquals(minima[i], full.get(i));
+      assertEquals(minima[i] & 0xF, bBit.get(i));
+    }
+    assertEquals(1.0, full.estimateSimilarity(full), delta);
+    assertEquals(1.0, bBit.estimateSimilarity(bBit), delta);
+  }
+}
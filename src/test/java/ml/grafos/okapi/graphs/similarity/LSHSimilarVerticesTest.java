@@ -0,0 +1,63 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.graphs.similarity;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import ml.grafos.okapi.io.formats.LongNullTextEdgeInputFormat;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class LSHSimilarVerticesTest {
+
+  @Test
+  public void testSimilarVertices() throws Exception {
+    String[] graph = {
+        "10 1", "10 2", "10 3", "10 4",
+        "11 1", "11 2", "11 3", "11 4",
+        "12 1", "12 2", "12 3", "12 5",
+        "13 6", "13 7"
+    };
+
+    GiraphConfiguration conf = new GiraphConfiguration();
+    conf.setComputationClass(LSHSimilarVertices.SendToBuckets.class);
+    conf.setMasterComputeClass(LSHSimilarVertices.MasterCompute.class);
+    conf.setEdgeInputFormatClass(LongNullTextEdgeInputFormat.class);
+    conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+    conf.setInt(LSHSimilarVertices.BANDS, 16);
+    conf.setInt(LSHSimilarVertices.ROWS, 2);
+
+    Map<Long, String> results = new HashMap<Long, String>();
+    for (String line : InternalVertexRunner.run(conf, null, graph)) {
+      String[] tokens = line.split("\t");
+      results.put(Long.parseLong(tokens[0]),
+          tokens.length > 1 ? tokens[1] : "");
+    }
+
+    // The buckets are removed from the output
+    assertEquals(4, results.size());
+    assertEquals("11:1.0 12:0.6", results.get(10L));
+    assertEquals("10:1.0 12:0.6", results.get(11L));
+    assertEquals("10:0.6 11:0.6", results.get(12L));
+    assertEquals("", results.get(13L));
+  }
+}
@@ -0,0 +1,109 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.io.formats.IdWithValueTextOutputFormat;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.junit.Test;
+
+public class LabelPropagationTest {
+	private static final int COMMUNITIES = 4;
+	private static final int COMMUNITY_SIZE = 30;
+
+	/*
+	 * Planted partition graph: dense communities with few edges between
+	 * them. Every edge is given in one direction only.
+	 */
+	private String[] plantedPartitionGraph(double pIn, double pOut, long seed) {
+		Random random = new Random(seed);
+		List<String> edges = new ArrayList<String>();
+		int n = COMMUNITIES * COMMUNITY_SIZE;
+		for (int u = 0; u < n; u++) {
+			for (int v = u + 1; v < n; v++) {
+				boolean sameCommunity = u / COMMUNITY_SIZE == v / COMMUNITY_SIZE;
+				if (random.nextDouble() < (sameCommunity ? pIn : pOut)) {
+					edges.add(u + " " + v);
+				}
+			}
+		}
+		return edges.toArray(new String[edges.size()]);
+	}
+
+	private Map<Long, Long> run(String[] graph, boolean semiSynchronous)
+			throws Exception {
+		GiraphConfiguration conf = new GiraphConfiguration();
+		conf.setComputationClass(LabelPropagation.ConverterPropagate.class);
+		conf.setMasterComputeClass(LabelPropagation.LabelPropagationMasterCompute.class);
+		conf.setEdgeInputFormatClass(LabelPropagation.LabelEdgeInputFormat.class);
+		conf.setVertexOutputFormatClass(IdWithValueTextOutputFormat.class);
+		conf.setOutEdgesClass(LabelOpenHashMapEdges.class);
+		conf.setBoolean(LabelPropagation.SEMI_SYNCHRONOUS, semiSynchronous);
+
+		Map<Long, Long> labels = new HashMap<Long, Long>();
+		for (String line : InternalVertexRunner.run(conf, null, graph)) {
+			String[] tokens = line.split("\t");
+			labels.put(Long.parseLong(tokens[0]), Long.parseLong(tokens[1]));
+		}
+		return labels;
+	}
+
+	/*
+	 * Checks that every planted community is mostly labeled with its own
+	 * label
+	 */
+	private void assertCommunitiesFound(Map<Long, Long> labels) {
+		assertEquals(COMMUNITIES * COMMUNITY_SIZE, labels.size());
+		Set<Long> majorityLabels = new HashSet<Long>();
+		for (int c = 0; c < COMMUNITIES; c++) {
+			Map<Long, Integer> frequency = new HashMap<Long, Integer>();
+			long majority = -1;
+			int majorityCount = 0;
+			for (long v = c * COMMUNITY_SIZE; v < (c + 1) * COMMUNITY_SIZE; v++) {
+				long label = labels.get(v);
+				Integer count = frequency.get(label);
+				count = count == null ? 1 : count + 1;
+				frequency.put(label, count);
+				if (count > majorityCount) {
+					majorityCount = count;
+					majority = label;
+				}
+			}
+			assertTrue("Community " + c + " split: " + frequency,
+					majorityCount >= 0.9 * COMMUNITY_SIZE);
+			majorityLabels.add(majority);
+		}
+		assertEquals(COMMUNITIES, majorityLabels.size());
+	}
+
+	@Test
+	public void testPlantedPartition() throws Exception {
+		String[] graph = plantedPartitionGraph(0.4, 0.005, 1);
+		assertCommunitiesFound(run(graph, true));
+		assertCommunitiesFound(run(graph, false));
+	}
+}
@@ -0,0 +1,559 @@
+/**
+ * Copyright 2014 Grafos.ml
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package ml.grafos.okapi.spinner;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.BufferedReader;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import ml.grafos.okapi.aggregators.TextAggregatorWriter;
+import ml.grafos.okapi.spinner.Spinner.BalanceConstraint;
+import ml.grafos.okapi.spinner.Spinner.EdgeValue;
+import ml.grafos.okapi.spinner.Spinner.VertexValue;
+
+import org.apache.giraph.conf.GiraphConfiguration;
+import org.apache.giraph.partition.BasicPartitionOwner;
+import org.apache.giraph.partition.PartitionOwner;
+import org.apache.giraph.utils.FileUtils;
+import org.apache.giraph.utils.InternalVertexRunner;
+import org.apache.giraph.utils.WritableUtils;
+import org.apache.giraph.worker.WorkerInfo;
+import org.apache.hadoop.conf.Configuration;
+import org.apache.hadoop.fs.Path;
+import org.apache.hadoop.io.LongWritable;
+import org.junit.Test;
+
+public class SpinnerTest {
+	private static final int CLIQUE_SIZE = 10;
+
+	/*
+	 * Two cliques connected by a single edge, and a new vertex connected to
+	 * the first three vertices of the first clique
+	 */
+	private String[] graph() {
+		List<String> edges = new ArrayList<String>();
+		for (int offset = 0; offset <= CLIQUE_SIZE; offset += CLIQUE_SIZE) {
+			for (int u = 0; u < CLIQUE_SIZE; u++) {
+				for (int v = u + 1; v < CLIQUE_SIZE; v++) {
+					edges.add((offset + u) + " " + (offset + v));
+				}
+			}
+		}
+		edges.add((CLIQUE_SIZE - 1) + " " + CLIQUE_SIZE);
+		for (String edge : newEdges()) {
+			edges.add(edge);
+		}
+		return edges.toArray(new String[edges.size()]);
+	}
+
+	private String[] newEdges() {
+		long newVertex = 2 * CLIQUE_SIZE;
+		return new String[] { newVertex + " 0", newVertex + " 1",
+				newVertex + " 2" };
+	}
+
+	/*
+	 * Previous partitioning: one clique per partition, except for the last
+	 * vertex of the second clique, which is in the wrong partition
+	 */
+	private String[] previousPartitioning() {
+		String[] partitions = new String[2 * CLIQUE_SIZE];
+		for (int i = 0; i < 2 * CLIQUE_SIZE; i++) {
+			partitions[i] = i + " " + (i < CLIQUE_SIZE ? 0 : 1);
+		}
+		partitions[2 * CLIQUE_SIZE - 1] = (2 * CLIQUE_SIZE - 1) + " 0";
+		return partitions;
+	}
+
+	private GiraphConfiguration createConfiguration() {
+		GiraphConfiguration conf = new GiraphConfiguration();
+		conf.setComputationClass(Spinner.ConverterPropagate.class);
+		conf.setMasterComputeClass(Spinner.PartitionerMasterCompute.class);
+		conf.setVertexInputFormatClass(Spinner.SpinnerVertexValueInputFormat.class);
+		conf.setEdgeInputFormatClass(Spinner.SpinnerEdgeInputFormat.class);
+		conf.setVertexOutputFormatClass(Spinner.SpinnerVertexValueOutputFormat.class);
+		conf.setOutEdgesClass(OpenHashMapEdges.class);
+		conf.setInt("spinner.numberOfPartitions", 2);
+		return conf;
+	}
+
+	private Map<Long, Integer> run(GiraphConfiguration conf,
+			String[] vertices, String[] edges) throws Exception {
+		Map<Long, Integer> partitions = new HashMap<Long, Integer>();
+		for (String line : InternalVertexRunner.run(conf, vertices, edges)) {
+			String[] tokens = line.split("\t");
+			partitions.put(Long.parseLong(tokens[0]),
+					Integer.parseInt(tokens[1]));
+		}
+		return partitions;
+	}
+
+	private Map<Long, Integer> run(boolean incremental) throws Exception {
+		File delta = File.createTempFile("spinner-delta", ".txt");
+		delta.deleteOnExit();
+		FileWriter writer = new FileWriter(delta);
+		for (String edge : newEdges()) {
+			writer.write(edge + "\n");
+		}
+		writer.close();
+
+		GiraphConfiguration conf = createConfiguration();
+		conf.setFloat("spinner.additionalCapacity", 0.5f);
+		conf.setBoolean(Spinner.INCREMENTAL, incremental);
+		conf.set(Spinner.DELTA_EDGES, delta.getAbsolutePath());
+		conf.setInt(Spinner.ACTIVATION_HOPS, 1);
+		return run(conf, previousPartitioning(), graph());
+	}
+
+	@Test
+	public void testIncrementalRepartitioning() throws Exception {
+		Map<Long, Integer> partitions = run(true);
+		assertEquals(2 * CLIQUE_SIZE + 1, partitions.size());
+		// the new vertex joins the partition of its neighbors
+		assertEquals(0, (int) partitions.get(2L * CLIQUE_SIZE));
+		for (long i = 0; i < CLIQUE_SIZE; i++) {
+			assertEquals(0, (int) partitions.get(i));
+		}
+		// the vertices far from the changes are not repartitioned
+		for (long i = CLIQUE_SIZE; i < 2 * CLIQUE_SIZE - 1; i++) {
+			assertEquals(1, (int) partitions.get(i));
+		}
+		assertEquals(0, (int) partitions.get(2L * CLIQUE_SIZE - 1));
+	}
+
+	@Test
+	public void testIncrementalScaling() throws Exception {
+		File delta = File.createTempFile("spinner-delta", ".txt");
+		delta.deleteOnExit();
+		FileWriter writer = new FileWriter(delta);
+		for (String edge : newEdges()) {
+			writer.write(edge + "\n");
+		}
+		writer.close();
+		GiraphConfiguration conf = createConfiguration();
+		conf.setFloat("spinner.additionalCapacity", 0.5f);
+		conf.setBoolean(Spinner.INCREMENTAL, true);
+		conf.set(Spinner.DELTA_EDGES, delta.getAbsolutePath());
+		conf.setInt(Spinner.ACTIVATION_HOPS, 1);
+
+		// up-scale: the inactive vertices keep their partition
+		conf.setInt("spinner.repartition", 1);
+		Map<Long, Integer> partitions = run(conf, previousPartitioning(),
+				graph());
+		assertEquals(2 * CLIQUE_SIZE + 1, partitions.size());
+		for (long i = CLIQUE_SIZE; i < 2 * CLIQUE_SIZE - 1; i++) {
+			assertEquals(1, (int) partitions.get(i));
+		}
+		for (int partition : partitions.values()) {
+			assertTrue(partition >= 0 && partition < 3);
+		}
+
+		// down-scale: the inactive vertices of the removed partition move
+		conf.setInt("spinner.repartition", -1);
+		partitions = run(conf, previousPartitioning(), graph());
+		assertEquals(2 * CLIQUE_SIZE + 1, partitions.size());
+		for (int partition : partitions.values()) {
+			assertEquals(0, partition);
+		}
+	}
+
+	@Test
+	public void testFullRepartitioning() throws Exception {
+		Map<Long, Integer> partitions = run(false);
+		assertEquals(2 * CLIQUE_SIZE + 1, partitions.size());
+		// every vertex moves to the partition of its neighbors
+		assertEquals(1, (int) partitions.get(2L * CLIQUE_SIZE - 1));
+	}
+
+	@Test
+	public void testBalanceConstraints() {
+		Configuration conf = new Configuration();
+		assertArrayEquals(new BalanceConstraint[] { BalanceConstraint.EDGES },
+				BalanceConstraint.fromConfiguration(conf));
+		assertEquals(1.0, BalanceConstraint.EDGES.getLambda(conf, 1), 1e-9);
+
+		conf.set(Spinner.BALANCE, "edges, vertices");
+		conf.setFloat("spinner.lambda.vertices", 0.8f);
+		assertArrayEquals(new BalanceConstraint[] { BalanceConstraint.EDGES,
+				BalanceConstraint.VERTICES },
+				BalanceConstraint.fromConfiguration(conf));
+		assertEquals(0.5, BalanceConstraint.EDGES.getLambda(conf, 2), 1e-9);
+		assertEquals(0.8, BalanceConstraint.VERTICES.getLambda(conf, 2), 1e-6);
+	}
+
+	@Test
+	public void testVertexValueSerialization() {
+		VertexValue value = new VertexValue();
+		value.setCurrentPartition((short) 3);
+		value.setNewPartition((short) 4);
+		// two partitions and a byte of flags
+		assertEquals(5, WritableUtils.writeToByteArray(value).length);
+		VertexValue copy = new VertexValue();
+		WritableUtils.readFieldsFromByteArray(
+				WritableUtils.writeToByteArray(value), copy);
+		assertEquals(value, copy);
+
+		value.setActive(true);
+		value.setCost(300);
+		WritableUtils.readFieldsFromByteArray(
+				WritableUtils.writeToByteArray(value), copy);
+		assertEquals(value, copy);
+		assertEquals(300, copy.getCost());
+		assertTrue(copy.isActive());
+	}
+
+	@Test
+	public void testMultiConstraintBalancing() throws Exception {
+		// a ring of four cliques, where the vertices of the first clique are
+		// much more expensive than the others
+		int cliques = 4;
+		List<String> edges = new ArrayList<String>();
+		String[] vertices = new String[cliques * CLIQUE_SIZE];
+		for (int c = 0; c < cliques; c++) {
+			int offset = c * CLIQUE_SIZE;
+			for (int u = 0; u < CLIQUE_SIZE; u++) {
+				vertices[offset + u] = (offset + u) + " -1 "
+						+ (c == 0 ? 3 : 1);
+				for (int v = u + 1; v < CLIQUE_SIZE; v++) {
+					edges.add((offset + u) + " " + (offset + v));
+				}
+			}
+			edges.add(offset + " " + ((offset + CLIQUE_SIZE) % vertices.length));
+		}
+
+		GiraphConfiguration conf = createConfiguration();
+		conf.set(Spinner.BALANCE, "edges,vertices,cost");
+		Map<Long, Integer> partitions = run(conf, vertices,
+				edges.toArray(new String[edges.size()]));
+		assertEquals(vertices.length, partitions.size());
+		long[] verticesPerPartition = new long[2];
+		long[] costPerPartition = new long[2];
+		for (Map.Entry<Long, Integer> e : partitions.entrySet()) {
+			int partition = e.getValue();
+			assertTrue(partition == 0 || partition == 1);
+			verticesPerPartition[partition]++;
+			costPerPartition[partition] += e.getKey() < CLIQUE_SIZE ? 3 : 1;
+		}
+		// no partition is far above its share of any resource
+		for (int i = 0; i < 2; i++) {
+			assertTrue(verticesPerPartition[i] <= 0.7 * vertices.length);
+			assertTrue(costPerPartition[i] <= 0.7 * (3 + cliques - 1)
+					* CLIQUE_SIZE);
+		}
+	}
+
+	/*
+	 * Runs the computation with the metrics writer and returns the metrics of
+	 * the last superstep
+	 */
+	private Map<String, String> runWithMetrics(GiraphConfiguration conf,
+			Map<Long, Integer> partitions) throws Exception {
+		File dir = File.createTempFile("spinner-metrics", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		conf.setAggregatorWriterClass(Spinner.SpinnerMetricsWriter.class);
+		conf.set(TextAggregatorWriter.FREQUENCY, "always");
+		conf.set(TextAggregatorWriter.FILENAME,
+				new File(dir, "metrics").getAbsolutePath());
+		partitions.putAll(run(conf, previousPartitioning(), graph()));
+
+		// the file is named after the attempt, next to its checksum
+		File metricsFile = null;
+		for (File file : dir.listFiles()) {
+			file.deleteOnExit();
+			if (file.getName().startsWith("metrics")) {
+				metricsFile = file;
+			}
+		}
+		BufferedReader reader = new BufferedReader(new FileReader(metricsFile));
+		String line;
+		String last = null;
+		int lines = 0;
+		while ((line = reader.readLine()) != null) {
+			last = line;
+			lines++;
+		}
+		reader.close();
+		assertTrue(lines > 4);
+
+		Map<String, String> metrics = new HashMap<String, String>();
+		for (String pair : last.split("\t")) {
+			String[] tokens = pair.split("=");
+			metrics.put(tokens[0], tokens[1]);
+		}
+		return metrics;
+	}
+
+	@Test
+	public void testMetricsWriter() throws Exception {
+		Map<Long, Integer> partitions = new HashMap<Long, Integer>();
+		Map<String, String> metrics = runWithMetrics(createConfiguration(),
+				partitions);
+		// compare with the cut of the partitioning in the output
+		long cut = 0;
+		for (String edge : graph()) {
+			String[] endpoints = edge.split(" ");
+			if (!partitions.get(Long.parseLong(endpoints[0])).equals(
+					partitions.get(Long.parseLong(endpoints[1])))) {
+				cut++;
+			}
+		}
+		assertEquals(cut, Long.parseLong(metrics.get("edge_cut")));
+		assertTrue(!metrics.containsKey("cut_endpoints"));
+		long volume = Long.parseLong(metrics.get("comm_volume"));
+		assertEquals(1.0 + ((double) volume) / partitions.size(),
+				Double.parseDouble(metrics.get("replication_factor")), 1e-9);
+		long totalLoad = 0;
+		for (String load : metrics.get("load_edges").split(",")) {
+			totalLoad += Long.parseLong(load);
+		}
+		assertEquals(2 * graph().length, totalLoad);
+	}
+
+	@Test
+	public void testIncrementalMetrics() throws Exception {
+		File delta = File.createTempFile("spinner-delta", ".txt");
+		delta.deleteOnExit();
+		FileWriter writer = new FileWriter(delta);
+		for (String edge : newEdges()) {
+			writer.write(edge + "\n");
+		}
+		writer.close();
+		GiraphConfiguration conf = createConfiguration();
+		conf.setFloat("spinner.additionalCapacity", 0.5f);
+		conf.setBoolean(Spinner.INCREMENTAL, true);
+		conf.set(Spinner.DELTA_EDGES, delta.getAbsolutePath());
+		conf.setInt(Spinner.ACTIVATION_HOPS, 1);
+		Map<Long, Integer> partitions = new HashMap<Long, Integer>();
+		Map<String, String> metrics = runWithMetrics(conf, partitions);
+
+		// the active vertices are the first clique and the new vertex, and
+		// every cut edge is counted at each of its active endpoints
+		long cut = 0;
+		for (String edge : graph()) {
+			String[] endpoints = edge.split(" ");
+			long source = Long.parseLong(endpoints[0]);
+			long target = Long.parseLong(endpoints[1]);
+			if (!partitions.get(source).equals(partitions.get(target))) {
+				for (long endpoint : new long[] { source, target }) {
+					if (endpoint < CLIQUE_SIZE || endpoint == 2 * CLIQUE_SIZE) {
+						cut++;
+					}
+				}
+			}
+		}
+		assertEquals(cut, Long.parseLong(metrics.get("cut_endpoints")));
+		// the inactive vertices do not count their edges, so there is no cut
+		assertTrue(!metrics.containsKey("edge_cut"));
+	}
+
+	/*
+	 * Fraction of the edges within partitions, and the largest partition
+	 * relative to a perfectly balanced one, both in edges
+	 */
+	private double[] quality(String[] edges, Map<Long, Integer> partitions,
+			int numberOfPartitions) {
+		long local = 0;
+		long[] loads = new long[numberOfPartitions];
+		for (String edge : edges) {
+			String[] endpoints = edge.split(" ");
+			int source = partitions.get(Long.parseLong(endpoints[0]));
+			int target = partitions.get(Long.parseLong(endpoints[1]));
+			if (source == target) {
+				local++;
+			}
+			loads[source]++;
+			loads[target]++;
+		}
+		long maxLoad = 0;
+		for (long load : loads) {
+			maxLoad = Math.max(maxLoad, load);
+		}
+		return new double[] { ((double) local) / edges.length,
+				((double) maxLoad) * numberOfPartitions / (2 * edges.length) };
+	}
+
+	private void testStreamingInitialization(String initialization)
+			throws Exception {
+		// planted partition graph with four communities
+		int communities = 4;
+		int size = 30;
+		Random random = new Random(42);
+		List<String> edges = new ArrayList<String>();
+		for (int u = 0; u < communities * size; u++) {
+			for (int v = u + 1; v < communities * size; v++) {
+				boolean same = u / size == v / size;
+				if (random.nextDouble() < (same ? 0.3 : 0.01)) {
+					edges.add(u + " " + v);
+				}
+			}
+		}
+		String[] graph = edges.toArray(new String[edges.size()]);
+		String[] vertices = new String[communities * size];
+		for (int i = 0; i < vertices.length; i++) {
+			vertices[i] = String.valueOf(i);
+		}
+
+		GiraphConfiguration conf = createConfiguration();
+		conf.setInt("spinner.numberOfPartitions", communities);
+		conf.set(Spinner.INITIALIZATION, initialization);
+		conf.setInt(Spinner.STREAMING_BATCHES, 8);
+		conf.setBoolean(Spinner.INITIALIZE_ONLY, true);
+		Map<Long, Integer> partitions = run(conf, vertices, graph);
+		assertEquals(vertices.length, partitions.size());
+		double[] quality = quality(graph, partitions, communities);
+		// random partitions would keep a quarter of the edges local
+		assertTrue(quality[0] > 0.5);
+		assertTrue(quality[1] < 1.2);
+	}
+
+	@Test
+	public void testPartitionMap() throws Exception {
+		File dir = File.createTempFile("spinner-partitionmap", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		long[][] ids = { { 7, 3, 5 }, { 10, 1 } };
+		short[][] partitions = { { 2, 0, 1 }, { 3, 4 } };
+		for (int f = 0; f < ids.length; f++) {
+			File file = new File(dir, "part-" + f);
+			file.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(
+					file));
+			PartitionMap.write(out, ids[f], partitions[f], ids[f].length);
+			out.close();
+		}
+		PartitionMap map = PartitionMap.open(new Configuration(), new Path(
+				dir.getAbsolutePath()));
+		assertEquals(5, map.size());
+		assertEquals(0, map.get(3));
+		assertEquals(1, map.get(5));
+		assertEquals(2, map.get(7));
+		assertEquals(4, map.get(1));
+		assertEquals(3, map.get(10));
+		assertEquals(PartitionMap.MISSING, map.get(4));
+		assertEquals(PartitionMap.MISSING, map.get(11));
+
+		// the partitions are mapped onto the partitions of the job
+		PartitionMapWorkerPartitioner<VertexValue, EdgeValue> partitioner = new PartitionMapWorkerPartitioner<VertexValue, EdgeValue>(
+				map);
+		WorkerInfo worker = new WorkerInfo();
+		List<PartitionOwner> owners = new ArrayList<PartitionOwner>();
+		for (int i = 0; i < 3; i++) {
+			owners.add(new BasicPartitionOwner(i, worker));
+		}
+		partitioner.updatePartitionOwners(worker, owners);
+		assertEquals(0, partitioner.getPartitionOwner(new LongWritable(3))
+				.getPartitionId());
+		assertEquals(1, partitioner.getPartitionOwner(new LongWritable(1))
+				.getPartitionId());
+		assertEquals(0, partitioner.getPartitionOwner(new LongWritable(10))
+				.getPartitionId());
+		map.close();
+	}
+
+	@Test
+	public void testPartitionMapOverlappingFiles() throws Exception {
+		File dir = File.createTempFile("spinner-partitionmap", "");
+		dir.delete();
+		dir.mkdir();
+		dir.deleteOnExit();
+		// hash-partitioned ids, so that every file covers the whole range
+		int files = 4;
+		int perFile = 250;
+		Random random = new Random(11);
+		short[] expected = new short[2 * files * perFile];
+		Arrays.fill(expected, PartitionMap.MISSING);
+		for (int f = 0; f < files; f++) {
+			long[] ids = new long[perFile];
+			short[] partitions = new short[perFile];
+			for (int i = 0; i < perFile; i++) {
+				// only even ids, in reverse order
+				ids[i] = 2 * ((perFile - 1 - i) * files + f);
+				partitions[i] = (short) random.nextInt(8);
+				expected[(int) ids[i]] = partitions[i];
+			}
+			File file = new File(dir, "part-" + f);
+			file.deleteOnExit();
+			DataOutputStream out = new DataOutputStream(new FileOutputStream(
+					file));
+			PartitionMap.write(out, ids, partitions, perFile);
+			out.close();
+		}
+		PartitionMap map = PartitionMap.open(new Configuration(), new Path(
+				dir.getAbsolutePath()));
+		assertEquals(files * perFile, map.size());
+		for (int id = 0; id < expected.length; id++) {
+			assertEquals(expected[id], map.get(id));
+		}
+		assertEquals(PartitionMap.MISSING, map.get(-1));
+		assertEquals(PartitionMap.MISSING, map.get(expected.length));
+		map.close();
+	}
+
+	@Test
+	public void testPartitionMapOutputFormat() throws Exception {
+		File dir = File.createTempFile("spinner-output", "");
+		dir.delete();
+		dir.mkdir();
+		GiraphConfiguration conf = createConfiguration();
+		conf.setVertexOutputFormatClass(Spinner.SpinnerPartitionMapOutputFormat.class);
+		conf.setFloat("spinner.additionalCapacity", 0.5f);
+		InternalVertexRunner.run(conf, previousPartitioning(), graph(), null,
+				dir);
+		Path output = new Path(new File(dir, "output").getAbsolutePath());
+		PartitionMap map = PartitionMap.open(new Configuration(), output);
+		assertEquals(2 * CLIQUE_SIZE + 1, map.size());
+		for (long i = 0; i < CLIQUE_SIZE; i++) {
+			assertEquals(0, map.get(i));
+			assertEquals(1, map.get(CLIQUE_SIZE + i));
+		}
+		map.close();
+
+		// a second job places its vertices with the map
+		conf = createConfiguration();
+		conf.setGraphPartitionerFactoryClass(PartitionMapPartitionerFactory.class);
+		conf.set(PartitionMapPartitionerFactory.PARTITION_MAP, output.toString());
+		conf.setInt("giraph.userPartitionCount", 2);
+		assertEquals(2 * CLIQUE_SIZE + 1,
+				run(conf, previousPartitioning(), graph()).size());
+		FileUtils.delete(dir);
+	}
+
+	@Test
+	public void testLdgInitialization() throws Exception {
+		testStreamingInitialization("ldg");
+	}
+
+	@Test
+	public void testFennelInitialization() throws Exception {
+		testStreamingInitialization("fennel");
+	}
+}